@@ -32,6 +32,7 @@ plugins {
   id("fr.brouillard.oss.gradle.jgitver") version "0.9.1"
   id("com.google.cloud.tools.jib") version "3.2.1"
   id("com.github.ben-manes.versions") version "0.39.0"
+  id("me.champeau.jmh") version "0.6.6"
   id("io.wisetime.versionChecker")
 }
 
@@ -114,6 +115,10 @@ dependencies {
   implementation("com.zaxxer:HikariCP:3.3.1")
   implementation("com.microsoft.sqlserver:mssql-jdbc:9.4.1.jre11")
 
+  implementation("io.micrometer:micrometer-core:1.8.5")
+  implementation("io.micrometer:micrometer-registry-prometheus:1.8.5")
+  implementation("io.micrometer:micrometer-registry-jmx:1.8.5")
+
   implementation("ch.qos.logback:logback-core:1.2.3")
   implementation("ch.qos.logback:logback-classic:1.2.3")
   implementation("org.slf4j:slf4j-api:${io.wisetime.version.model.LegebuildConst.SLF4J}")
@@ -130,7 +135,9 @@ dependencies {
 }
 
 tasks.test {
-  useJUnitPlatform()
+  useJUnitPlatform {
+    excludeTags("load")
+  }
   testLogging {
     // "passed", "skipped", "failed"
     events("skipped", "failed")
@@ -138,6 +145,39 @@ tasks.test {
   }
 }
 
+tasks.register<Test>("loadTest") {
+  description = "Runs the load harness against a synthetic Patricia database."
+  group = "verification"
+  testClassesDirs = sourceSets.test.get().output.classesDirs
+  classpath = sourceSets.test.get().runtimeClasspath
+  useJUnitPlatform {
+    includeTags("load")
+  }
+  // pass through volume overrides, e.g. -Dpatricia.load.cases=100000
+  systemProperties(System.getProperties().filterKeys { it.toString().startsWith("patricia.load.") }
+    .mapKeys { it.key.toString() })
+  maxHeapSize = "2g"
+  outputs.upToDateWhen { false }
+  testLogging {
+    showStandardStreams = true
+    exceptionFormat = org.gradle.api.tasks.testing.logging.TestExceptionFormat.FULL
+  }
+}
+
+jmh {
+  // benchmark inputs are generated with the test data generators
+  includeTests.set(true)
+  jmhVersion.set("1.35")
+  fork.set(1)
+  warmupIterations.set(3)
+  iterations.set(5)
+  resultFormat.set("JSON")
+  // reports the bytes allocated per operation as gc.alloc.rate.norm
+  profilers.set(listOf("gc"))
+  // run a subset with e.g. -PjmhIncludes=NarrativeTemplateBenchmark
+  project.findProperty("jmhIncludes")?.let { includes.set(listOf(it.toString())) }
+}
+
 tasks.clean {
   delete("${projectDir}/out")
 }
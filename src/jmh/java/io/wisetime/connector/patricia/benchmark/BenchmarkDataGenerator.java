@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.benchmark;
+
+import static io.wisetime.connector.patricia.PatriciaDao.Case;
+import static io.wisetime.connector.patricia.PatriciaDao.Discount;
+import static io.wisetime.connector.patricia.PatriciaDao.WorkCode;
+
+import com.github.javafaker.Faker;
+import io.wisetime.connector.patricia.FakeEntities;
+import io.wisetime.connector.patricia.RandomDataGenerator;
+import io.wisetime.connector.patricia.util.ChargeCalculator;
+import io.wisetime.generated.connect.TimeGroup;
+import io.wisetime.generated.connect.TimeRow;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmark inputs built on the generators used by the unit tests, so that benchmarks exercise the same shapes of data.
+ * Everything is generated in memory; no database or WiseTime API is needed.
+ */
+class BenchmarkDataGenerator {
+
+  private static final Faker FAKER = new Faker();
+
+  private final RandomDataGenerator randomDataGenerator = new RandomDataGenerator();
+  private final FakeEntities fakeEntities = new FakeEntities();
+
+  Case randomCase() {
+    return randomDataGenerator.randomCase();
+  }
+
+  List<WorkCode> randomWorkCodes(int count) {
+    return randomDataGenerator.randomWorkCodes(count);
+  }
+
+  /**
+   * A time group with exactly {@code rowCount} time rows and a total duration matching the rows.
+   */
+  TimeGroup randomTimeGroup(int rowCount) {
+    final String activityTypeCode = FAKER.lorem().word();
+    final List<TimeRow> timeRows = IntStream.range(0, rowCount)
+        .mapToObj(i -> fakeEntities.randomTimeRow(activityTypeCode))
+        .collect(Collectors.toList());
+    return fakeEntities.randomTimeGroup(activityTypeCode)
+        .timeRows(timeRows)
+        .totalDurationSecs(timeRows.stream().mapToInt(TimeRow::getDurationSecs).sum());
+  }
+
+  /**
+   * Discounts of random priority, about half of which match the case.
+   */
+  List<Discount> randomDiscounts(Case patriciaCase, int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> Discount.builder()
+            .discountId(i)
+            .priority(FAKER.random().nextInt(0, 31))
+            .caseTypeId(FAKER.bool().bool() ? patriciaCase.caseTypeId() : null)
+            .stateId(FAKER.bool().bool() ? patriciaCase.stateId() : FAKER.bothify("?#"))
+            .discountType(FAKER.bool().bool() ? ChargeCalculator.DISCOUNT_TYPE_PURE : ChargeCalculator.DISCOUNT_TYPE_MARKUP)
+            .amount(BigDecimal.valueOf(FAKER.random().nextInt(0, 500)))
+            .priceChangeFormula(FAKER.bool().bool() ? "@*0,1" : "@*10/100")
+            .build())
+        .collect(Collectors.toList());
+  }
+}
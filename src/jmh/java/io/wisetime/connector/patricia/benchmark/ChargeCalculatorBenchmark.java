@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.benchmark;
+
+import static io.wisetime.connector.patricia.PatriciaDao.Case;
+import static io.wisetime.connector.patricia.PatriciaDao.Discount;
+
+import io.wisetime.connector.patricia.util.ChargeCalculator;
+import io.wisetime.generated.connect.TimeGroup;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChargeCalculatorBenchmark {
+
+  @Param({"10", "100"})
+  private int discountCount;
+
+  @Param({"10", "1000"})
+  private int rowCount;
+
+  private Case patriciaCase;
+  private List<Discount> discounts;
+  private List<Discount> mostApplicableDiscounts;
+  private TimeGroup timeGroup;
+  private BigDecimal durationInHours;
+  private BigDecimal hourlyRate;
+
+  @Setup
+  public void setUp() {
+    final BenchmarkDataGenerator generator = new BenchmarkDataGenerator();
+    patriciaCase = generator.randomCase();
+    discounts = generator.randomDiscounts(patriciaCase, discountCount);
+    mostApplicableDiscounts = ChargeCalculator.getMostApplicableDiscounts(discounts, patriciaCase);
+    timeGroup = generator.randomTimeGroup(rowCount);
+    durationInHours = ChargeCalculator.calculateChargeableWorkedHoursWithExpRating(timeGroup);
+    hourlyRate = BigDecimal.valueOf(250);
+  }
+
+  @Benchmark
+  public List<Discount> getMostApplicableDiscounts() {
+    return ChargeCalculator.getMostApplicableDiscounts(discounts, patriciaCase);
+  }
+
+  @Benchmark
+  public BigDecimal calculateTotalCharge() {
+    return ChargeCalculator.calculateTotalCharge(mostApplicableDiscounts, durationInHours, hourlyRate);
+  }
+
+  @Benchmark
+  public BigDecimal calculateActualWorkedHoursNoExpRating() {
+    return ChargeCalculator.calculateActualWorkedHoursNoExpRating(timeGroup);
+  }
+
+  @Benchmark
+  public BigDecimal calculateActualWorkedHoursWithExpRating() {
+    return ChargeCalculator.calculateActualWorkedHoursWithExpRating(timeGroup);
+  }
+
+  @Benchmark
+  public BigDecimal calculateChargeableWorkedHoursNoExpRating() {
+    return ChargeCalculator.calculateChargeableWorkedHoursNoExpRating(timeGroup);
+  }
+
+  @Benchmark
+  public BigDecimal calculateChargeableWorkedHoursWithExpRating() {
+    return ChargeCalculator.calculateChargeableWorkedHoursWithExpRating(timeGroup);
+  }
+}
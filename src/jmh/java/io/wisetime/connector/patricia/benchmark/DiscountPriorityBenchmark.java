@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.benchmark;
+
+import io.wisetime.connector.patricia.PatriciaDao.DiscountPriority;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DiscountPriorityBenchmark {
+
+  // best case matches the first enum constant, worst case falls through to the default
+  @Param({"PRIORITY_31", "PRIORITY_16", "PRIORITY_0"})
+  private DiscountPriority expected;
+
+  private boolean hasCaseTypeId;
+  private boolean hasStateId;
+  private boolean hasAppTypeId;
+  private boolean hasWorkCodeId;
+  private String workCodeType;
+
+  @Setup
+  public void setUp() {
+    final int priority = expected.getPriorityNum();
+    hasCaseTypeId = (priority & 16) != 0;
+    hasStateId = (priority & 8) != 0;
+    hasAppTypeId = (priority & 4) != 0;
+    hasWorkCodeId = (priority & 2) != 0;
+    workCodeType = (priority & 1) != 0 ? "T" : null;
+  }
+
+  @Benchmark
+  public DiscountPriority findDiscountPriority() {
+    return DiscountPriority.findDiscountPriority(hasCaseTypeId, hasStateId, hasAppTypeId, hasWorkCodeId, workCodeType);
+  }
+}
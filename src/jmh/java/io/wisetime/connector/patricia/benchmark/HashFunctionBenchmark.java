@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.benchmark;
+
+import io.wisetime.connector.patricia.PatriciaDao.WorkCode;
+import io.wisetime.connector.patricia.util.HashFunction;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HashFunctionBenchmark {
+
+  private static final int WORK_CODE_COUNT = 10_000;
+
+  private final HashFunction hashFunction = new HashFunction();
+  private List<WorkCode> workCodes;
+
+  @Setup
+  public void setUp() {
+    workCodes = new BenchmarkDataGenerator().randomWorkCodes(WORK_CODE_COUNT);
+  }
+
+  @Benchmark
+  public String hashWorkCodes() {
+    return hashFunction.hashWorkCodes(workCodes);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.google.common.collect.Lists;
+import io.wisetime.connector.patricia.PatriciaDao.Case;
+import io.wisetime.connector.patricia.util.LogFormat;
+import io.wisetime.generated.connect.TimeGroup;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cost of the log arguments on the posting and case sync paths, eager versus lazy and capped. The bytes allocated per
+ * operation are reported by the GC profiler as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HotPathLoggingBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(HotPathLoggingBenchmark.class);
+  private static final int SYNC_BATCH_SIZE = 500;
+
+  @Param({"10", "1000"})
+  private int rowCount;
+
+  private TimeGroup timeGroup;
+  private List<Case> cases;
+
+  @Setup
+  public void setUp() {
+    // as in production, where posting runs with DEBUG off
+    ((ch.qos.logback.classic.Logger) log).setLevel(Level.INFO);
+    final BenchmarkDataGenerator generator = new BenchmarkDataGenerator();
+    timeGroup = generator.randomTimeGroup(rowCount);
+    cases = IntStream.range(0, SYNC_BATCH_SIZE)
+        .mapToObj(i -> generator.randomCase())
+        .collect(Collectors.toList());
+  }
+
+  @Benchmark
+  public void postedTimeDebugEager() {
+    log.debug("Posted time after modification: {}",
+        Base64.getEncoder().encodeToString(timeGroup.toString().getBytes()));
+  }
+
+  @Benchmark
+  public void postedTimeDebugLazy() {
+    log.debug("Posted time after modification: {}",
+        LogFormat.lazy(() -> Base64.getEncoder().encodeToString(timeGroup.toString().getBytes())));
+  }
+
+  @Benchmark
+  public String syncBatchCaseNumbersJoined() {
+    return cases.stream().map(Case::caseNumber).collect(Collectors.joining(", "));
+  }
+
+  @Benchmark
+  public String syncBatchCaseNumbersCapped() {
+    return LogFormat.capped(Lists.transform(cases, Case::caseNumber), 10).toString();
+  }
+}
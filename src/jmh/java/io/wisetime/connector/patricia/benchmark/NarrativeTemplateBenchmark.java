@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.benchmark;
+
+import io.wisetime.connector.template.TemplateFormatter;
+import io.wisetime.connector.template.TemplateFormatterConfig;
+import io.wisetime.connector.template.TemplateFormatterConfig.DisplayZone;
+import io.wisetime.generated.connect.TimeGroup;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Renders the narrative templates the same way the connector does when posting time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NarrativeTemplateBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  private int rowCount;
+
+  private TemplateFormatter timeRegistrationTemplate;
+  private TemplateFormatter chargeTemplate;
+  private TimeGroup timeGroup;
+
+  @Setup
+  public void setUp() {
+    timeRegistrationTemplate = createTemplateFormatter(
+        "classpath:narrative-template/patricia-template_time-registration.ftl");
+    chargeTemplate = createTemplateFormatter(
+        "classpath:narrative-template/patricia-template_charge.ftl");
+    timeGroup = new BenchmarkDataGenerator().randomTimeGroup(rowCount)
+        .narrativeType(TimeGroup.NarrativeTypeEnum.AND_TIME_ROW_ACTIVITY_DESCRIPTIONS);
+  }
+
+  @Benchmark
+  public String formatTimeRegistration() {
+    return timeRegistrationTemplate.format(timeGroup);
+  }
+
+  @Benchmark
+  public String formatCharge() {
+    return chargeTemplate.format(timeGroup);
+  }
+
+  private TemplateFormatter createTemplateFormatter(String templatePath) {
+    return new TemplateFormatter(TemplateFormatterConfig.builder()
+        .withTemplatePath(templatePath)
+        .withDisplayZone(DisplayZone.USER_LOCAL)
+        .build());
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.wisetime.connector.api_client.PostResult;
+import io.wisetime.connector.patricia.PostingJournal.Entry;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics;
+import io.wisetime.generated.connect.TimeGroup;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the time groups of the {@link PostingJournal} to Patricia in the background.
+ *
+ * Groups are applied in journal order. A group that fails transiently is retried after the retry delay, and until
+ * then no later group for any of its cases is applied, so that the order of posts per case is kept. Groups that fail
+ * permanently are dead-lettered.
+ */
+class AsyncPostingWorker {
+
+  private static final Logger log = LoggerFactory.getLogger(AsyncPostingWorker.class);
+
+  private static final long POLL_INTERVAL_MILLIS = 1_000;
+
+  private final PostingJournal journal;
+  private final Function<TimeGroup, PostResult> poster;
+  private final ConnectorMetrics metrics;
+  private final long retryDelayNanos;
+  private final LongSupplier nanoClock;
+
+  // journal seq of transiently failed groups to the time they may be retried; only used by the worker thread
+  private final Map<Long, Long> retryAtNanos = new HashMap<>();
+  // whether a pass requested by wakeUp() has not started yet, so that a burst of posts queues a single pass
+  private final AtomicBoolean drainRequested = new AtomicBoolean();
+  private ScheduledExecutorService executor;
+
+  AsyncPostingWorker(PostingJournal journal, Function<TimeGroup, PostResult> poster, ConnectorMetrics metrics,
+                     Duration retryDelay) {
+    this(journal, poster, metrics, retryDelay, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  AsyncPostingWorker(PostingJournal journal, Function<TimeGroup, PostResult> poster, ConnectorMetrics metrics,
+                     Duration retryDelay, LongSupplier nanoClock) {
+    this.journal = journal;
+    this.poster = poster;
+    this.metrics = metrics;
+    this.retryDelayNanos = retryDelay.toNanos();
+    this.nanoClock = nanoClock;
+  }
+
+  synchronized void start() {
+    stop();
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("patricia-async-posting-%d")
+        .setDaemon(true)
+        .build());
+    drainRequested.set(false);
+    // picks up the groups left pending by a previous run right away
+    executor.scheduleWithFixedDelay(this::drainSafely, 0, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Applies newly journaled groups without waiting for the next poll.
+   */
+  synchronized void wakeUp() {
+    if (executor != null && drainRequested.compareAndSet(false, true)) {
+      executor.execute(() -> {
+        // groups journaled from now on need another pass
+        drainRequested.set(false);
+        drainSafely();
+      });
+    }
+  }
+
+  synchronized void stop() {
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        // let the group being posted finish, the others stay in the journal
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+          executor.shutdownNow();
+        }
+      } catch (InterruptedException e) {
+        executor.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+      executor = null;
+    }
+  }
+
+  /**
+   * Makes one pass over the pending groups.
+   */
+  @VisibleForTesting
+  void drain() {
+    final Set<String> blockedCases = new HashSet<>();
+    for (Entry entry : journal.pending()) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      final Set<String> cases = entry.caseNames();
+      final Long retryAt = retryAtNanos.get(entry.seq());
+      if (!Collections.disjoint(cases, blockedCases) || (retryAt != null && retryAt - nanoClock.getAsLong() > 0)) {
+        blockedCases.addAll(cases);
+        continue;
+      }
+
+      final TimeGroup timeGroup;
+      try {
+        timeGroup = journal.toTimeGroup(entry);
+      } catch (IllegalStateException e) {
+        log.error("Moving time group {} to the dead-letter file: {}", entry.groupId(), e.getMessage(), e);
+        metrics.countAsyncPostResult(PostResult.PostResultStatus.PERMANENT_FAILURE.name());
+        journal.deadLetter(entry, e.getMessage());
+        continue;
+      }
+
+      final PostResult result = post(timeGroup);
+      metrics.countAsyncPostResult(result.getStatus().name());
+      switch (result.getStatus()) {
+        case SUCCESS:
+          retryAtNanos.remove(entry.seq());
+          journal.complete(entry.seq());
+          break;
+        case PERMANENT_FAILURE:
+          final String reason = result.getMessage().orElse("Permanent failure");
+          log.error("Moving time group {} to the dead-letter file: {}", entry.groupId(), reason);
+          retryAtNanos.remove(entry.seq());
+          journal.deadLetter(entry, reason);
+          break;
+        default:
+          log.warn("Failed to apply time group {}, retrying later: {}", entry.groupId(),
+              result.getMessage().orElse("Transient failure"));
+          retryAtNanos.put(entry.seq(), nanoClock.getAsLong() + retryDelayNanos);
+          blockedCases.addAll(cases);
+      }
+    }
+  }
+
+  private PostResult post(TimeGroup timeGroup) {
+    try {
+      return poster.apply(timeGroup);
+    } catch (RuntimeException e) {
+      log.error("Unexpected error applying time group {}", timeGroup.getGroupId(), e);
+      return PostResult.TRANSIENT_FAILURE().withError(e).withMessage(e.getMessage());
+    }
+  }
+
+  private void drainSafely() {
+    try {
+      drain();
+    } catch (RuntimeException e) {
+      // keep the schedule alive, e.g. if the journal could not be written
+      log.error("Failed to apply journaled time groups", e);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.microsoft.sqlserver.jdbc.ISQLServerBulkData;
+import io.wisetime.connector.patricia.PatriciaDao.UnicodeString;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Date;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Rows for {@code SQLServerBulkCopy}, built from the same column value maps as the live inserts. Bulk copy does not
+ * convert values like the server does for statement parameters, so the values are converted to the destination column
+ * types here, as described by the result set metadata of the destination table.
+ */
+class BulkRows implements ISQLServerBulkData {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<String> columns;
+  private final List<Integer> types = new ArrayList<>();
+  private final List<Integer> precisions = new ArrayList<>();
+  private final List<Integer> scales = new ArrayList<>();
+  private final transient Iterator<Map<String, Object>> rows;
+  private transient Map<String, Object> current;
+
+  /**
+   * @param destination metadata of the destination table, e.g. of {@code SELECT TOP 0 * FROM table}
+   * @param columns the columns to copy, as named in the rows
+   */
+  BulkRows(ResultSetMetaData destination, List<String> columns, List<Map<String, Object>> rows) throws SQLException {
+    this.columns = columns;
+    this.rows = rows.iterator();
+    for (String column : columns) {
+      final int index = findColumn(destination, column);
+      types.add(destination.getColumnType(index));
+      precisions.add(destination.getPrecision(index));
+      scales.add(destination.getScale(index));
+    }
+  }
+
+  private static int findColumn(ResultSetMetaData destination, String column) throws SQLException {
+    for (int i = 1; i <= destination.getColumnCount(); i++) {
+      if (destination.getColumnName(i).equalsIgnoreCase(column)) {
+        return i;
+      }
+    }
+    throw new SQLException("Column " + column + " does not exist in " + destination.getTableName(1));
+  }
+
+  @Override
+  public Set<Integer> getColumnOrdinals() {
+    return IntStream.rangeClosed(1, columns.size())
+        .boxed()
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+
+  @Override
+  public String getColumnName(int column) {
+    return columns.get(column - 1);
+  }
+
+  @Override
+  public int getColumnType(int column) {
+    return types.get(column - 1);
+  }
+
+  @Override
+  public int getPrecision(int column) {
+    return precisions.get(column - 1);
+  }
+
+  @Override
+  public int getScale(int column) {
+    return scales.get(column - 1);
+  }
+
+  @Override
+  public Object[] getRowData() {
+    final Object[] data = new Object[columns.size()];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = convert(current.get(columns.get(i)), types.get(i), scales.get(i));
+    }
+    return data;
+  }
+
+  @Override
+  public boolean next() {
+    if (!rows.hasNext()) {
+      return false;
+    }
+    current = rows.next();
+    return true;
+  }
+
+  /**
+   * Converts a statement parameter value like SQL Server would for the column type.
+   */
+  static Object convert(Object value, int type, int scale) {
+    if (value instanceof UnicodeString) {
+      value = ((UnicodeString) value).value();
+    }
+    if (value == null) {
+      return null;
+    }
+    switch (type) {
+      case Types.TIMESTAMP:
+        // dates without time are midnight, like the server converts them
+        return value instanceof String
+            ? Timestamp.valueOf(((String) value).length() == 10 ? value + " 00:00:00" : (String) value)
+            : value;
+      case Types.DATE:
+        return value instanceof String ? Date.valueOf(((String) value).substring(0, 10)) : value;
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+      case Types.BIGINT:
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        // the server rounds to the column scale
+        return new BigDecimal(value.toString()).setScale(scale, RoundingMode.HALF_UP);
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+      default:
+        return value.toString();
+    }
+  }
+}
@@ -6,11 +6,16 @@ package io.wisetime.connector.patricia;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.name.Names;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import io.wisetime.connector.ConnectorController;
 import io.wisetime.connector.config.RuntimeConfig;
 import io.wisetime.connector.config.RuntimeConfigKey;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -21,10 +26,31 @@ import java.util.concurrent.TimeUnit;
 public class ConnectorLauncher {
 
   public static void main(final String... args) throws Exception {
+    if (args.length > 0 && "import-time".equals(args[0])) {
+      importTime(args);
+      return;
+    }
     ConnectorController connectorController = buildConnectorController();
     connectorController.start();
   }
 
+  /**
+   * Bulk import of exported time groups: {@code import-time <time groups JSONL file> [report file]}. The report is
+   * written next to the input file by default.
+   */
+  private static void importTime(final String... args) {
+    if (args.length < 2) {
+      throw new IllegalArgumentException("Usage: import-time <time groups JSONL file> [report file]");
+    }
+    final Path input = Paths.get(args[1]);
+    final Path report = args.length > 2 ? Paths.get(args[2]) : Paths.get(args[1] + ".report.jsonl");
+
+    final Injector injector = Guice.createInjector(new PatriciaDbModule());
+    injector.getInstance(PatriciaConnector.class).initForImport();
+    injector.getInstance(TimeGroupImporter.class).importTimeGroups(input, report,
+        RuntimeConfig.getInt(PatriciaConnectorConfigKey.TIME_IMPORT_BATCH_SIZE).orElse(1000));
+  }
+
   public static ConnectorController buildConnectorController() {
     return ConnectorController.newBuilder()
         .withWiseTimeConnector(Guice.createInjector(new PatriciaDbModule()).getInstance(PatriciaConnector.class))
@@ -55,6 +81,39 @@ public class ConnectorLauncher {
     USE_SYSDEFAULT_CURRENCY_FOR_POSTING("USE_SYSDEFAULT_CURRENCY_FOR_POSTING"),
     FALLBACK_CURRENCY("FALLBACK_CURRENCY"),
     PATRICIA_CASE_URL_PREFIX("PATRICIA_CASE_URL_PREFIX"),
+    SETTINGS_RELOAD_INTERVAL_MINUTES("SETTINGS_RELOAD_INTERVAL_MINUTES"), // disabled by default
+    METRICS_JMX_ENABLED("METRICS_JMX_ENABLED"), // default `false`
+    METRICS_PROMETHEUS_PORT("METRICS_PROMETHEUS_PORT"), // disabled by default
+    SLOW_QUERY_THRESHOLD_MS("SLOW_QUERY_THRESHOLD_MS"), // default `1000`
+    PATRICIA_JDBC_POOL_SIZE("PATRICIA_JDBC_POOL_SIZE"), // default `10`
+    PATRICIA_READ_ONLY_JDBC_URL("PATRICIA_READ_ONLY_JDBC_URL"), // read-only pool disabled by default
+    PATRICIA_READ_ONLY_JDBC_POOL_SIZE("PATRICIA_READ_ONLY_JDBC_POOL_SIZE"), // default `2`
+    PATRICIA_SCAN_ISOLATION("PATRICIA_SCAN_ISOLATION"), // default `READ_COMMITTED`
+    HEALTH_CHECK_INTERVAL_SECONDS("HEALTH_CHECK_INTERVAL_SECONDS"), // default `30`
+    HEALTH_CHECK_TIMEOUT_SECONDS("HEALTH_CHECK_TIMEOUT_SECONDS"), // default `5`
+    POSTING_BREAKER_FAILURE_RATE_PERCENT("POSTING_BREAKER_FAILURE_RATE_PERCENT"), // default `50`
+    POSTING_BREAKER_SLOW_CALL_SECONDS("POSTING_BREAKER_SLOW_CALL_SECONDS"), // default `10`
+    POSTING_BREAKER_OPEN_SECONDS("POSTING_BREAKER_OPEN_SECONDS"), // default `30`
+    POSTED_TIME_LEDGER_RETENTION_DAYS("POSTED_TIME_LEDGER_RETENTION_DAYS"), // default `30`
+    ASYNC_POSTING_ENABLED("ASYNC_POSTING_ENABLED"), // default `false`
+    ASYNC_POSTING_RETRY_SECONDS("ASYNC_POSTING_RETRY_SECONDS"), // default `60`
+    GROUP_COMMIT_WINDOW_MILLIS("GROUP_COMMIT_WINDOW_MILLIS"), // group commit disabled by default
+    GROUP_COMMIT_MAX_GROUPS("GROUP_COMMIT_MAX_GROUPS"), // default `20`
+    POSTING_DEADLOCK_RETRIES("POSTING_DEADLOCK_RETRIES"), // default `3`
+    POSTING_RETRY_BUDGET_PERCENT("POSTING_RETRY_BUDGET_PERCENT"), // default `20`
+    POSTING_LOCK_TIMEOUT_MILLIS("POSTING_LOCK_TIMEOUT_MILLIS"), // default `10000`
+    POSTING_LOOKUP_THREADS("POSTING_LOOKUP_THREADS"), // default `1`
+    POSTING_LOOKUP_TIMEOUT_SECONDS("POSTING_LOOKUP_TIMEOUT_SECONDS"), // default `30`
+    POSTING_READ_TIMEOUT_SECONDS("POSTING_READ_TIMEOUT_SECONDS"), // default `30`
+    POSTING_WRITE_TIMEOUT_SECONDS("POSTING_WRITE_TIMEOUT_SECONDS"), // default `30`
+    SYNC_SCAN_TIMEOUT_SECONDS("SYNC_SCAN_TIMEOUT_SECONDS"), // default `300`
+    LOOKUP_CACHE_TTL_MINUTES("LOOKUP_CACHE_TTL_MINUTES"), // lookup cache disabled by default
+    PRICE_LIST_REFRESH_MINUTES("PRICE_LIST_REFRESH_MINUTES"), // price list engine disabled by default
+    PERSON_RATE_REFRESH_MINUTES("PERSON_RATE_REFRESH_MINUTES"), // person hourly rate snapshot disabled by default
+    TAG_QUARANTINE_RETRY_MINUTES("TAG_QUARANTINE_RETRY_MINUTES"), // tag quarantine disabled by default
+    API_RATE_LIMIT_PER_SECOND("API_RATE_LIMIT_PER_SECOND"), // rate limiter disabled by default
+    API_RATE_LIMIT_POSTING_PERCENT("API_RATE_LIMIT_POSTING_PERCENT"), // default `20`
+    TIME_IMPORT_BATCH_SIZE("TIME_IMPORT_BATCH_SIZE"), // default `1000`
     PATRICIA_LANGUAGE("PATRICIA_LANGUAGE"); // default `English`
 
     private final String configKey;
@@ -74,14 +133,60 @@ public class ConnectorLauncher {
    */
   public static class PatriciaDbModule extends AbstractModule {
 
+    /**
+     * Binding name of the optional pool for read-only background work, i.e. case and work code scans. Only bound if a
+     * read-only JDBC URL is configured.
+     */
+    public static final String READ_ONLY_DATA_SOURCE = "patriciaReadOnly";
+
+    /**
+     * Binding name of the single connection pool used by the health check.
+     */
+    public static final String HEALTH_CHECK_DATA_SOURCE = "patriciaHealthCheck";
+
     @Override
     protected void configure() {
-      final HikariConfig hikariConfig = new HikariConfig();
+      // expose connection pool usage with the connector metrics
+      final ConnectorMetrics connectorMetrics = new ConnectorMetrics();
+      bind(ConnectorMetrics.class).toInstance(connectorMetrics);
 
-      hikariConfig.setJdbcUrl(
+      final HikariConfig hikariConfig = createHikariConfig(
           RuntimeConfig.getString(PatriciaConnectorConfigKey.PATRICIA_JDBC_URL)
-              .orElseThrow(() -> new RuntimeException("Missing required PATRICIA_JDBC_URL configuration"))
-      );
+              .orElseThrow(() -> new RuntimeException("Missing required PATRICIA_JDBC_URL configuration")),
+          connectorMetrics);
+      hikariConfig.setPoolName("patricia-primary");
+      hikariConfig.setMaximumPoolSize(RuntimeConfig.getInt(PatriciaConnectorConfigKey.PATRICIA_JDBC_POOL_SIZE).orElse(10));
+      bind(HikariDataSource.class).toInstance(new HikariDataSource(hikariConfig));
+
+      RuntimeConfig.getString(PatriciaConnectorConfigKey.PATRICIA_READ_ONLY_JDBC_URL).ifPresent(jdbcUrl -> {
+        final HikariConfig readOnlyConfig = createHikariConfig(jdbcUrl, connectorMetrics);
+        readOnlyConfig.setPoolName("patricia-read-only");
+        readOnlyConfig.setMaximumPoolSize(
+            RuntimeConfig.getInt(PatriciaConnectorConfigKey.PATRICIA_READ_ONLY_JDBC_POOL_SIZE).orElse(2));
+        readOnlyConfig.setReadOnly(true);
+        // lets an availability group listener route the connections to a readable secondary replica
+        readOnlyConfig.addDataSourceProperty("applicationIntent", "ReadOnly");
+        bind(HikariDataSource.class)
+            .annotatedWith(Names.named(READ_ONLY_DATA_SOURCE))
+            .toInstance(new HikariDataSource(readOnlyConfig));
+      });
+
+      // health probes must fail fast instead of queueing behind posting for a connection
+      final HikariConfig healthCheckConfig = createHikariConfig(hikariConfig.getJdbcUrl(), connectorMetrics);
+      healthCheckConfig.setPoolName("patricia-health-check");
+      healthCheckConfig.setMaximumPoolSize(1);
+      healthCheckConfig.setConnectionTimeout(TimeUnit.SECONDS.toMillis(
+          RuntimeConfig.getInt(PatriciaConnectorConfigKey.HEALTH_CHECK_TIMEOUT_SECONDS).orElse(5)));
+      healthCheckConfig.setInitializationFailTimeout(-1);
+      bind(HikariDataSource.class)
+          .annotatedWith(Names.named(HEALTH_CHECK_DATA_SOURCE))
+          .toInstance(new HikariDataSource(healthCheckConfig));
+    }
+
+    private static HikariConfig createHikariConfig(String jdbcUrl, ConnectorMetrics connectorMetrics) {
+      final HikariConfig hikariConfig = new HikariConfig();
+
+      hikariConfig.setJdbcUrl(jdbcUrl);
 
       hikariConfig.setUsername(
           RuntimeConfig.getString(PatriciaConnectorConfigKey.PATRICIA_JDBC_USERNAME)
@@ -93,10 +198,14 @@ public class ConnectorLauncher {
               .orElseThrow(() -> new RuntimeException("Missing required PATRICIA_JDBC_PASSWORD configuration"))
       );
       hikariConfig.setConnectionTimeout(TimeUnit.MINUTES.toMillis(1));
-      hikariConfig.setMaximumPoolSize(10);
-
-      bind(HikariDataSource.class).toInstance(new HikariDataSource(hikariConfig));
+      hikariConfig.setMetricRegistry(connectorMetrics.registry());
+      // bind strings as VARCHAR, so that lookups on VARCHAR columns can seek their indexes; values for NVARCHAR
+      // columns are bound as PatriciaDao.UnicodeString, lookup values outside of ASCII as PatriciaDao.LookupString
+      hikariConfig.addDataSourceProperty("sendStringParametersAsUnicode", "false");
+      // the driver closes the connection if the server does not acknowledge the cancel of a timed out statement, so
+      // that the pool replaces it instead of handing out a connection that is still busy
+      hikariConfig.addDataSourceProperty("cancelQueryTimeout", "10");
+      return hikariConfig;
     }
-
   }
 }
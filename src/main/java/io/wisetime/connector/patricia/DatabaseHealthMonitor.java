@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.wisetime.connector.config.RuntimeConfig;
+import io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
+import io.wisetime.connector.patricia.PatriciaDao.PoolStats;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import lombok.Builder;
+import lombok.Value;
+import lombok.experimental.Accessors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Probes the Patricia database in the background and keeps the latest result, so that health checks are answered
+ * immediately instead of waiting for a connection.
+ *
+ * A result older than two probe intervals plus the probe timeout counts as unhealthy, as the probe itself is stuck.
+ */
+@Singleton
+class DatabaseHealthMonitor {
+
+  private static final Logger log = LoggerFactory.getLogger(DatabaseHealthMonitor.class);
+
+  private final PatriciaDao patriciaDao;
+  private final Clock clock;
+
+  private int intervalSeconds = 30;
+  private int timeoutSeconds = 5;
+  private volatile HealthState state;
+  private ScheduledExecutorService probeExecutor;
+
+  @Inject
+  DatabaseHealthMonitor(PatriciaDao patriciaDao) {
+    this(patriciaDao, Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  DatabaseHealthMonitor(PatriciaDao patriciaDao, Clock clock) {
+    this.patriciaDao = patriciaDao;
+    this.clock = clock;
+  }
+
+  /**
+   * Runs a first probe and schedules the following ones. Restarts the schedule if already started.
+   */
+  synchronized void start() {
+    stop();
+    intervalSeconds = RuntimeConfig.getInt(PatriciaConnectorConfigKey.HEALTH_CHECK_INTERVAL_SECONDS).orElse(30);
+    timeoutSeconds = RuntimeConfig.getInt(PatriciaConnectorConfigKey.HEALTH_CHECK_TIMEOUT_SECONDS).orElse(5);
+    probe();
+
+    probeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("patricia-health-check-%d")
+        .setDaemon(true)
+        .build());
+    probeExecutor.scheduleWithFixedDelay(this::probe, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  synchronized void stop() {
+    if (probeExecutor != null) {
+      probeExecutor.shutdownNow();
+      probeExecutor = null;
+    }
+  }
+
+  /**
+   * Whether the latest probe succeeded and is recent enough to be trusted.
+   */
+  boolean isHealthy() {
+    final HealthState current = state;
+    return current != null
+        && current.healthy()
+        && current.checkedAt().plus(maxAge()).isAfter(clock.instant());
+  }
+
+  /**
+   * The latest probe result, or {@code null} if no probe has completed yet.
+   */
+  @Nullable
+  HealthState state() {
+    return state;
+  }
+
+  @VisibleForTesting
+  void probe() {
+    final long startNanos = System.nanoTime();
+    String error = null;
+    try {
+      patriciaDao.probe(timeoutSeconds);
+    } catch (Exception e) {
+      error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+    final HealthState newState = HealthState.builder()
+        .healthy(error == null)
+        .checkedAt(clock.instant())
+        .probeLatencyMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))
+        .error(error)
+        .pool(patriciaDao.primaryPoolStats().orElse(null))
+        .build();
+
+    final HealthState previous = state;
+    state = newState;
+    if (!newState.healthy() && (previous == null || previous.healthy())) {
+      log.warn("Patricia database health check failed: {}", newState);
+    } else if (newState.healthy() && previous != null && !previous.healthy()) {
+      log.info("Patricia database health check recovered: {}", newState);
+    }
+  }
+
+  private Duration maxAge() {
+    return Duration.ofSeconds(2L * intervalSeconds + timeoutSeconds);
+  }
+
+  @Value
+  @Builder
+  @Accessors(fluent = true)
+  static class HealthState {
+
+    boolean healthy;
+    Instant checkedAt;
+    long probeLatencyMillis;
+    @Nullable
+    String error;
+    // usage of the posting pool at the time of the probe
+    @Nullable
+    PoolStats pool;
+  }
+}
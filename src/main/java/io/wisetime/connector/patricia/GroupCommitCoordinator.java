@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Commits the database work of concurrent posts together.
+ *
+ * The first post to arrive leads a batch: it waits for the commit window, or until the batch is full, and then runs
+ * the work of all posts of the batch in one transaction, each behind its own savepoint (see
+ * {@link PatriciaDao#asGroupTransaction(List)}). The posts that joined the batch wait for its outcome. A failing post
+ * only rolls back its own work and gets its own error, unless its error aborted the whole transaction, e.g. a
+ * deadlock: then all posts of the batch get that error, so that each of them is retried.
+ */
+class GroupCommitCoordinator {
+
+  private final PatriciaDao patriciaDao;
+  private final ConnectorMetrics metrics;
+  private final long windowNanos;
+  private final int maxBatchSize;
+
+  private final Object lock = new Object();
+  // batch that is still accepting work, if any
+  private List<Member> openBatch;
+
+  GroupCommitCoordinator(PatriciaDao patriciaDao, ConnectorMetrics metrics, Duration window, int maxBatchSize) {
+    this.patriciaDao = patriciaDao;
+    this.metrics = metrics;
+    this.windowNanos = window.toNanos();
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Runs the work as part of a group transaction and returns once that was committed.
+   *
+   * @throws RuntimeException the error of the work, or of the group transaction as a whole
+   */
+  void execute(Runnable work) {
+    final Member member = new Member(work);
+    final boolean leader;
+    synchronized (lock) {
+      leader = openBatch == null;
+      if (leader) {
+        openBatch = new ArrayList<>();
+      }
+      openBatch.add(member);
+      if (openBatch.size() >= maxBatchSize) {
+        lock.notifyAll();
+      }
+    }
+
+    if (leader) {
+      commit(collectBatch());
+    }
+    try {
+      member.result.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private List<Member> collectBatch() {
+    final long deadline = System.nanoTime() + windowNanos;
+    synchronized (lock) {
+      try {
+        long remaining = windowNanos;
+        while (openBatch.size() < maxBatchSize && remaining > 0) {
+          TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+          remaining = deadline - System.nanoTime();
+        }
+      } catch (InterruptedException e) {
+        // commit what we have
+        Thread.currentThread().interrupt();
+      }
+      final List<Member> batch = openBatch;
+      openBatch = null;
+      return batch;
+    }
+  }
+
+  private void commit(List<Member> batch) {
+    metrics.recordGroupCommit(batch.size());
+    try {
+      final Map<Integer, RuntimeException> errors = patriciaDao.asGroupTransaction(
+          batch.stream().map(member -> member.work).collect(Collectors.toList()));
+      for (int i = 0; i < batch.size(); i++) {
+        final RuntimeException error = errors.get(i);
+        if (error == null) {
+          batch.get(i).result.complete(null);
+        } else {
+          batch.get(i).result.completeExceptionally(error);
+        }
+      }
+    } catch (RuntimeException | Error e) {
+      // nothing was committed, including the work of the posts that succeeded before a deadlock
+      batch.forEach(member -> member.result.completeExceptionally(e));
+    }
+  }
+
+  private static class Member {
+
+    private final Runnable work;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    Member(Runnable work) {
+      this.work = work;
+    }
+  }
+}
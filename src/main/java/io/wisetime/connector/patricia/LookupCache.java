@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.wisetime.connector.patricia.PatriciaConnector.HourlyRate;
+import io.wisetime.connector.patricia.PatriciaDao.Case;
+import io.wisetime.connector.patricia.PatriciaDao.Discount;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.RateLevel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Results of the posting lookups that rarely change: user mappings, cases, resolved hourly rates and discounts. Each
+ * entry is used for the configured time to live and then looked up again. Lookups that find nothing are not cached,
+ * so that new users and cases are found as soon as they exist.
+ *
+ * The cache is saved to {@code DATA_DIR} when the connector stops and loaded again when it starts, so that a restart
+ * does not start with an empty cache. The snapshot is only loaded if it was written by the same format version, for
+ * the same database and rate settings, and its entries keep the time they were looked up, so that they expire as if
+ * the connector had not been restarted.
+ */
+@Singleton
+class LookupCache {
+
+  private static final Logger log = LoggerFactory.getLogger(LookupCache.class);
+
+  static final String SNAPSHOT_FILE_NAME = "patricia-lookup-cache.snapshot";
+  private static final int SNAPSHOT_MAGIC = 0x504c4b43;
+  @VisibleForTesting
+  static final int SNAPSHOT_VERSION = 1;
+
+  private final Clock clock;
+  private final List<Region<?>> regions = new ArrayList<>();
+
+  // by user external id and email
+  final Region<String> loginIds = region("login_ids", Codec.STRING);
+  // by case number
+  final Region<Case> cases = region("cases", Codec.CASE);
+  // by work code, login id and case id
+  final Region<HourlyRate> hourlyRates = region("hourly_rates", Codec.HOURLY_RATE);
+  // by work code and case id
+  final Region<List<Discount>> discounts = region("discounts", Codec.listOf(Codec.DISCOUNT));
+
+  private volatile Duration timeToLive = Duration.ZERO;
+  // identifies the database and the settings the cached values were looked up with
+  private volatile String fingerprint = "";
+
+  @Inject
+  LookupCache() {
+    this(Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  LookupCache(Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * @param timeToLive how long entries are used, or zero to disable the cache
+   * @param fingerprint the database and the settings that lookups depend on; the cache is cleared if it changes
+   */
+  synchronized void configure(Duration timeToLive, String fingerprint) {
+    this.timeToLive = timeToLive;
+    if (!fingerprint.equals(this.fingerprint)) {
+      clear();
+      this.fingerprint = fingerprint;
+    }
+  }
+
+  boolean isEnabled() {
+    return !timeToLive.isZero();
+  }
+
+  synchronized void clear() {
+    regions.forEach(region -> region.entries.clear());
+  }
+
+  /**
+   * Loads the entries of the snapshot in the data directory that have not expired yet. A missing, outdated or broken
+   * snapshot is ignored.
+   */
+  synchronized void load(Path dataDir) {
+    final Path snapshotFile = dataDir.resolve(SNAPSHOT_FILE_NAME);
+    if (!isEnabled() || !Files.exists(snapshotFile)) {
+      return;
+    }
+    final long startNanos = System.nanoTime();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+        log.info("Ignoring lookup cache snapshot {} of another format version", snapshotFile);
+        return;
+      }
+      final Instant writtenAt = Instant.ofEpochMilli(in.readLong());
+      if (!fingerprint.equals(in.readUTF())) {
+        log.info("Ignoring lookup cache snapshot {}, it was written for another database or other settings",
+            snapshotFile);
+        return;
+      }
+      // read all regions before using any of them, so that a broken snapshot is ignored as a whole
+      final List<Runnable> loads = new ArrayList<>();
+      for (Region<?> region : regions) {
+        loads.add(region.read(in));
+      }
+      clear();
+      loads.forEach(Runnable::run);
+      log.info("Loaded {} lookup cache entries from a snapshot written {} ago in {} ms", size(),
+          Duration.between(writtenAt, clock.instant()), Duration.ofNanos(System.nanoTime() - startNanos).toMillis());
+    } catch (IOException | RuntimeException e) {
+      log.warn("Ignoring broken lookup cache snapshot {}", snapshotFile, e);
+    }
+  }
+
+  /**
+   * Writes the entries that have not expired yet to a snapshot in the data directory, replacing the old snapshot
+   * atomically.
+   */
+  synchronized void save(Path dataDir) {
+    if (!isEnabled()) {
+      return;
+    }
+    final Path snapshotFile = dataDir.resolve(SNAPSHOT_FILE_NAME);
+    final Path tempFile = dataDir.resolve(SNAPSHOT_FILE_NAME + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeLong(clock.millis());
+        out.writeUTF(fingerprint);
+        for (Region<?> region : regions) {
+          region.write(out);
+        }
+      }
+      Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      log.info("Saved {} lookup cache entries to {}", size(), snapshotFile);
+    } catch (IOException | RuntimeException e) {
+      // the connector only starts with an empty cache
+      log.warn("Failed to save lookup cache snapshot {}", snapshotFile, e);
+    }
+  }
+
+  @VisibleForTesting
+  int size() {
+    return regions.stream().mapToInt(region -> region.entries.size()).sum();
+  }
+
+  private <V> Region<V> region(String name, Codec<V> codec) {
+    final Region<V> region = new Region<>(name, codec);
+    regions.add(region);
+    return region;
+  }
+
+  private boolean isFresh(Entry<?> entry) {
+    return entry.lookedUpAt.plus(timeToLive).isAfter(clock.instant());
+  }
+
+  /**
+   * Cached values of one kind of lookup, keyed by the parameters of the lookup.
+   */
+  class Region<V> {
+
+    private final String name;
+    private final Codec<V> codec;
+    private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private Region(String name, Codec<V> codec) {
+      this.name = name;
+      this.codec = codec;
+    }
+
+    /**
+     * Returns the cached value, or looks it up and caches it if it was found.
+     */
+    Optional<V> find(String key, Supplier<Optional<V>> lookup) {
+      return Optional.ofNullable(get(key, () -> lookup.get().orElse(null), Objects::nonNull));
+    }
+
+    /**
+     * Returns the cached value, or looks it up and caches it.
+     */
+    V get(String key, Supplier<V> lookup) {
+      return get(key, lookup, value -> true);
+    }
+
+    /**
+     * Returns the cached value, or looks it up and caches it if it is cacheable.
+     */
+    V get(String key, Supplier<V> lookup, Predicate<V> cacheable) {
+      if (!isEnabled()) {
+        return lookup.get();
+      }
+      final Entry<V> entry = entries.get(key);
+      if (entry != null && isFresh(entry)) {
+        return entry.value;
+      }
+      final V value = lookup.get();
+      if (cacheable.test(value)) {
+        entries.put(key, new Entry<>(clock.instant(), value));
+      } else {
+        entries.remove(key);
+      }
+      return value;
+    }
+
+    private void write(DataOutput out) throws IOException {
+      final List<Map.Entry<String, Entry<V>>> fresh = new ArrayList<>();
+      for (Map.Entry<String, Entry<V>> entry : entries.entrySet()) {
+        if (isFresh(entry.getValue())) {
+          fresh.add(entry);
+        }
+      }
+      out.writeUTF(name);
+      out.writeInt(fresh.size());
+      for (Map.Entry<String, Entry<V>> entry : fresh) {
+        out.writeUTF(entry.getKey());
+        out.writeLong(entry.getValue().lookedUpAt.toEpochMilli());
+        codec.write(out, entry.getValue().value);
+      }
+    }
+
+    /**
+     * @return puts the fresh entries that were read into the region
+     */
+    private Runnable read(DataInput in) throws IOException {
+      final String regionName = in.readUTF();
+      if (!name.equals(regionName)) {
+        throw new IOException("Expected lookup cache region " + name + " but found " + regionName);
+      }
+      final Map<String, Entry<V>> read = new ConcurrentHashMap<>();
+      final int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        final String key = in.readUTF();
+        final Entry<V> entry = new Entry<>(Instant.ofEpochMilli(in.readLong()), codec.read(in));
+        if (isFresh(entry)) {
+          read.put(key, entry);
+        }
+      }
+      return () -> entries.putAll(read);
+    }
+  }
+
+  private static class Entry<V> {
+
+    private final Instant lookedUpAt;
+    private final V value;
+
+    private Entry(Instant lookedUpAt, V value) {
+      this.lookedUpAt = lookedUpAt;
+      this.value = Objects.requireNonNull(value);
+    }
+  }
+
+  /**
+   * Binary form of the cached values in the snapshot. Changing it requires a new {@link #SNAPSHOT_VERSION}.
+   */
+  private interface Codec<T> {
+
+    void write(DataOutput out, T value) throws IOException;
+
+    T read(DataInput in) throws IOException;
+
+    Codec<String> STRING = new Codec<>() {
+      @Override
+      public void write(DataOutput out, String value) throws IOException {
+        out.writeUTF(value);
+      }
+
+      @Override
+      public String read(DataInput in) throws IOException {
+        return in.readUTF();
+      }
+    };
+
+    Codec<Case> CASE = new Codec<>() {
+      @Override
+      public void write(DataOutput out, Case value) throws IOException {
+        out.writeLong(value.caseId());
+        out.writeUTF(value.caseNumber());
+        writeNullableString(out, value.caseCatchWord());
+        writeNullableInt(out, value.caseTypeId());
+        writeNullableString(out, value.stateId());
+        writeNullableInt(out, value.appId());
+      }
+
+      @Override
+      public Case read(DataInput in) throws IOException {
+        return Case.builder()
+            .caseId(in.readLong())
+            .caseNumber(in.readUTF())
+            .caseCatchWord(readNullableString(in))
+            .caseTypeId(readNullableInt(in))
+            .stateId(readNullableString(in))
+            .appId(readNullableInt(in))
+            .build();
+      }
+    };
+
+    Codec<HourlyRate> HOURLY_RATE = new Codec<>() {
+      @Override
+      public void write(DataOutput out, HourlyRate value) throws IOException {
+        writeNullableDecimal(out, value.hourlyRate().orElse(null));
+        out.writeUTF(value.currency());
+        out.writeBoolean(value.rateFromPriceList());
+        out.writeUTF(value.rateLevel().name());
+      }
+
+      @Override
+      public HourlyRate read(DataInput in) throws IOException {
+        return new HourlyRate(
+            Optional.ofNullable(readNullableDecimal(in)),
+            in.readUTF(),
+            in.readBoolean(),
+            RateLevel.valueOf(in.readUTF()));
+      }
+    };
+
+    Codec<Discount> DISCOUNT = new Codec<>() {
+      @Override
+      public void write(DataOutput out, Discount value) throws IOException {
+        writeNullableInt(out, value.caseTypeId());
+        writeNullableString(out, value.stateId());
+        writeNullableInt(out, value.applicationTypeId());
+        writeNullableString(out, value.workCodeId());
+        writeNullableString(out, value.workCodeType());
+        out.writeInt(value.priority());
+        out.writeInt(value.discountId());
+        out.writeInt(value.discountType());
+        writeNullableDecimal(out, value.amount());
+        writeNullableString(out, value.priceChangeFormula());
+      }
+
+      @Override
+      public Discount read(DataInput in) throws IOException {
+        return Discount.builder()
+            .caseTypeId(readNullableInt(in))
+            .stateId(readNullableString(in))
+            .applicationTypeId(readNullableInt(in))
+            .workCodeId(readNullableString(in))
+            .workCodeType(readNullableString(in))
+            .priority(in.readInt())
+            .discountId(in.readInt())
+            .discountType(in.readInt())
+            .amount(readNullableDecimal(in))
+            .priceChangeFormula(readNullableString(in))
+            .build();
+      }
+    };
+
+    static <T> Codec<List<T>> listOf(Codec<T> elementCodec) {
+      return new Codec<>() {
+        @Override
+        public void write(DataOutput out, List<T> value) throws IOException {
+          out.writeInt(value.size());
+          for (T element : value) {
+            elementCodec.write(out, element);
+          }
+        }
+
+        @Override
+        public List<T> read(DataInput in) throws IOException {
+          final int size = in.readInt();
+          final List<T> list = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            list.add(elementCodec.read(in));
+          }
+          return List.copyOf(list);
+        }
+      };
+    }
+
+    private static void writeNullableString(DataOutput out, @Nullable String value) throws IOException {
+      out.writeBoolean(value != null);
+      if (value != null) {
+        out.writeUTF(value);
+      }
+    }
+
+    @Nullable
+    private static String readNullableString(DataInput in) throws IOException {
+      return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableInt(DataOutput out, @Nullable Integer value) throws IOException {
+      out.writeBoolean(value != null);
+      if (value != null) {
+        out.writeInt(value);
+      }
+    }
+
+    @Nullable
+    private static Integer readNullableInt(DataInput in) throws IOException {
+      return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeNullableDecimal(DataOutput out, @Nullable BigDecimal value) throws IOException {
+      out.writeBoolean(value != null);
+      if (value != null) {
+        final byte[] unscaled = value.unscaledValue().toByteArray();
+        out.writeInt(value.scale());
+        out.writeShort(unscaled.length);
+        out.write(unscaled);
+      }
+    }
+
+    @Nullable
+    private static BigDecimal readNullableDecimal(DataInput in) throws IOException {
+      if (!in.readBoolean()) {
+        return null;
+      }
+      final int scale = in.readInt();
+      final byte[] unscaled = new byte[in.readUnsignedShort()];
+      in.readFully(unscaled);
+      return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the independent database lookups of a post concurrently, so that the latency of a post approaches its slowest
+ * chain of dependent lookups instead of the sum of all lookups. Each lookup runs on its own thread and so takes its own
+ * pooled connection.
+ *
+ * The pool is shared by all posts and bounded, so that concurrent posts cannot take all database connections. Lookups
+ * never wait for each other on the pool; dependent lookups are chained and only the posting thread waits.
+ */
+class LookupFanOut {
+
+  private final ExecutorService executor;
+
+  /**
+   * @param threads lookups run at the same time over all posts, or 1 to run them one after another on the posting
+   *     thread
+   */
+  LookupFanOut(int threads) {
+    executor = threads > 1
+        ? Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+            .setNameFormat("patricia-lookup-%d")
+            .setDaemon(true)
+            .build())
+        : MoreExecutors.newDirectExecutorService();
+  }
+
+  /**
+   * Starts the lookups of a post, which have to complete within the timeout all together.
+   */
+  Lookups begin(Duration timeout) {
+    return new Lookups(System.nanoTime() + timeout.toNanos());
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * The lookups of a single post, with one deadline for all of them. Closing them cancels the lookups that are not
+   * needed any more, e.g. when the post fails on the result of an early lookup.
+   */
+  class Lookups implements AutoCloseable {
+
+    private final long deadlineNanos;
+    private final List<CompletableFuture<?>> started = new CopyOnWriteArrayList<>();
+
+    private Lookups(long deadlineNanos) {
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<T> lookup) {
+      return track(CompletableFuture.supplyAsync(lookup, executor));
+    }
+
+    /**
+     * Lookup that depends on the result of another one.
+     */
+    <T, R> CompletableFuture<R> then(CompletableFuture<T> input, Function<T, R> lookup) {
+      return track(input.thenApplyAsync(lookup, executor));
+    }
+
+    /**
+     * Lookup that depends on the results of two others.
+     */
+    <T, U, R> CompletableFuture<R> then(CompletableFuture<T> first, CompletableFuture<U> second,
+                                        BiFunction<T, U, R> lookup) {
+      return track(first.thenCombineAsync(second, lookup, executor));
+    }
+
+    /**
+     * Waits for a lookup until the deadline of the post.
+     *
+     * @throws RuntimeException the error of the lookup, or if the deadline passed, in which case the lookups that did
+     *     not start yet are cancelled
+     */
+    <T> T await(CompletableFuture<T> lookup) {
+      try {
+        return lookup.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (ExecutionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new RuntimeException(e.getCause());
+      } catch (TimeoutException e) {
+        cancel();
+        throw new IllegalStateException("Database lookups for the time group did not complete in time", e);
+      } catch (InterruptedException e) {
+        cancel();
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for database lookups", e);
+      }
+    }
+
+    /**
+     * Cancels the lookups that did not start yet. Lookups that are running complete, bounded by their query timeout.
+     */
+    @Override
+    public void close() {
+      cancel();
+    }
+
+    private void cancel() {
+      // dependent lookups first, so that they are cancelled rather than failed by the lookups they depend on
+      for (int i = started.size() - 1; i >= 0; i--) {
+        started.get(i).cancel(false);
+      }
+    }
+
+    private <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+      started.add(future);
+      return future;
+    }
+  }
+}
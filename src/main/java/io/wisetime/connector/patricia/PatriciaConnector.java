@@ -8,23 +8,39 @@ import static io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnector
 import static io.wisetime.connector.patricia.PatriciaDao.BudgetLine;
 import static io.wisetime.connector.patricia.PatriciaDao.Case;
 import static io.wisetime.connector.patricia.PatriciaDao.Discount;
+import static io.wisetime.connector.patricia.PatriciaDao.TimeAndChargePlan;
 import static io.wisetime.connector.patricia.PatriciaDao.TimeRegistration;
 import static io.wisetime.connector.utils.ActivityTimeCalculator.startInstant;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.wisetime.connector.ConnectorModule;
 import io.wisetime.connector.WiseTimeConnector;
 import io.wisetime.connector.api_client.ApiClient;
 import io.wisetime.connector.api_client.PostResult;
+import io.wisetime.connector.config.ConnectorConfigKey;
 import io.wisetime.connector.config.RuntimeConfig;
 import io.wisetime.connector.datastore.ConnectorStore;
 import io.wisetime.connector.patricia.PatriciaDao.CreateTimeAndChargeParams;
 import io.wisetime.connector.patricia.PatriciaDao.RateCurrency;
 import io.wisetime.connector.patricia.PatriciaDao.WorkCode;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.ApiCall;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.PostStage;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.RateLevel;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.SyncLoop;
+import io.wisetime.connector.patricia.util.ApiRateLimiter;
+import io.wisetime.connector.patricia.util.ApiRateLimiter.Budget;
+import io.wisetime.connector.patricia.util.ApiThrottledException;
 import io.wisetime.connector.patricia.util.ChargeCalculator;
+import io.wisetime.connector.patricia.util.CircuitBreaker;
 import io.wisetime.connector.patricia.util.ConnectorException;
 import io.wisetime.connector.patricia.util.HashFunction;
+import io.wisetime.connector.patricia.util.LogFormat;
+import io.wisetime.connector.patricia.util.LogSampler;
 import io.wisetime.connector.template.TemplateFormatter;
 import io.wisetime.connector.template.TemplateFormatterConfig;
 import io.wisetime.connector.template.TemplateFormatterConfig.DisplayZone;
@@ -38,25 +54,35 @@ import io.wisetime.generated.connect.TimeRow;
 import io.wisetime.generated.connect.UpsertTagRequest;
 import io.wisetime.generated.connect.User;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.inject.Inject;
+import lombok.Value;
+import lombok.experimental.Accessors;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -71,11 +97,12 @@ public class PatriciaConnector implements WiseTimeConnector {
   private static final Logger log = LoggerFactory.getLogger(PatriciaConnector.class);
   private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
-  private static final String PATRICIA_LAST_SYNC_KEY = "patricia_last_sync_id";
+  static final String PATRICIA_LAST_SYNC_KEY = "patricia_last_sync_id";
   private static final String PATRICIA_LAST_REFRESHED_KEY = "patricia_last_refreshed_id";
   static final String PATRICIA_WORK_CODES_HASH_KEY = "patricia_work_codes_hash";
   static final String PATRICIA_WORK_CODES_LAST_SYNC_KEY = "patricia_work_codes_last_sync";
   static final int WORK_CODES_BATCH_SIZE = 500;
+  private static final int MAX_LOGGED_CASE_NUMBERS = 10;
 
   private Supplier<Integer> tagSyncIntervalMinutes;
   private ApiClient apiClient;
@@ -83,8 +110,13 @@ public class PatriciaConnector implements WiseTimeConnector {
   private TemplateFormatter timeRegistrationTemplate;
   private TemplateFormatter chargeTemplate;
 
-  private Set<String> zeroChargeWorkCodes;
-  private int roleTypeId;
+  private volatile PatriciaSettings settings;
+  // protects a saturated Patricia database from posts that would only queue up and time out
+  private CircuitBreaker postingBreaker;
+  private ScheduledExecutorService settingsReloadExecutor;
+  // a large backlog of cases is synced in many batches in quick succession
+  private final LogSampler newCasesLogSampler = new LogSampler(Duration.ofMinutes(1));
+  private final LogSampler refreshCasesLogSampler = new LogSampler(Duration.ofMinutes(1));
 
   @Inject
   private HashFunction hashFunction;
@@ -92,17 +124,122 @@ public class PatriciaConnector implements WiseTimeConnector {
   @Inject
   private PatriciaDao patriciaDao;
 
+  @Inject
+  private ConnectorMetrics metrics;
+
+  @Inject
+  private DatabaseHealthMonitor healthMonitor;
+
+  @Inject
+  private PostedTimeLedger postedTimeLedger;
+
+  @Inject
+  private PostingJournal postingJournal;
+
+  @Inject
+  private LookupCache lookupCache;
+
+  @Inject
+  private PriceListEngine priceListEngine;
+
+  @Inject
+  private PersonHourlyRates personHourlyRates;
+
+  // only set in async posting mode
+  private AsyncPostingWorker asyncPostingWorker;
+  // only set if group commit is enabled
+  private GroupCommitCoordinator groupCommitCoordinator;
+  private TransactionRetryPolicy transactionRetryPolicy;
+  // only set if the tag quarantine is enabled
+  private TagQuarantine tagQuarantine;
+  // only set if the API rate limiter is enabled
+  private ApiRateLimiter apiRateLimiter;
+  // runs the lookups of a post one after another until init
+  private LookupFanOut lookupFanOut = new LookupFanOut(1);
+  private Duration lookupTimeout = Duration.ofSeconds(30);
+
   @Override
   public void init(final ConnectorModule connectorModule) {
     Preconditions.checkArgument(patriciaDao.hasExpectedSchema(),
         "Patricia Database schema is unsupported by this connector");
-    zeroChargeWorkCodes = Arrays.stream(
-        RuntimeConfig.getString(PatriciaConnectorConfigKey.WORK_CODES_ZERO_CHARGE).orElse("").split(","))
-        .map(String::trim)
-        .filter(workCode -> !workCode.isEmpty())
-        .collect(Collectors.toSet());
-    initializeRoleTypeId();
+    settings = PatriciaSettings.fromRuntimeConfig();
+    metrics.start();
+    postingBreaker = new CircuitBreaker("posting", CircuitBreaker.Config.builder()
+        .failureRateThresholdPercent(
+            RuntimeConfig.getInt(PatriciaConnectorConfigKey.POSTING_BREAKER_FAILURE_RATE_PERCENT).orElse(50))
+        .slowCallDuration(Duration.ofSeconds(
+            RuntimeConfig.getInt(PatriciaConnectorConfigKey.POSTING_BREAKER_SLOW_CALL_SECONDS).orElse(10)))
+        .openDuration(Duration.ofSeconds(
+            RuntimeConfig.getInt(PatriciaConnectorConfigKey.POSTING_BREAKER_OPEN_SECONDS).orElse(30)))
+        .build());
+    metrics.gaugeCircuitBreaker("posting", () -> postingBreaker.state());
+    final int groupCommitWindowMillis =
+        RuntimeConfig.getInt(PatriciaConnectorConfigKey.GROUP_COMMIT_WINDOW_MILLIS).orElse(0);
+    groupCommitCoordinator = groupCommitWindowMillis > 0
+        ? new GroupCommitCoordinator(patriciaDao, metrics, Duration.ofMillis(groupCommitWindowMillis),
+            RuntimeConfig.getInt(PatriciaConnectorConfigKey.GROUP_COMMIT_MAX_GROUPS).orElse(20))
+        : null;
+    transactionRetryPolicy = new TransactionRetryPolicy(metrics,
+        RuntimeConfig.getInt(PatriciaConnectorConfigKey.POSTING_DEADLOCK_RETRIES).orElse(3),
+        RuntimeConfig.getInt(PatriciaConnectorConfigKey.POSTING_RETRY_BUDGET_PERCENT).orElse(20),
+        Duration.ofMillis(50), Duration.ofSeconds(1));
+    lookupFanOut.shutdown();
+    lookupFanOut = new LookupFanOut(RuntimeConfig.getInt(PatriciaConnectorConfigKey.POSTING_LOOKUP_THREADS).orElse(1));
+    lookupTimeout = Duration.ofSeconds(
+        RuntimeConfig.getInt(PatriciaConnectorConfigKey.POSTING_LOOKUP_TIMEOUT_SECONDS).orElse(30));
+    configureLookupCache(settings);
+    dataDir().ifPresent(lookupCache::load);
+    priceListEngine.start();
+    personHourlyRates.start();
+
+    initTemplates();
+
+    tagSyncIntervalMinutes = connectorModule::getTagSlowLoopIntervalMinutes;
+    apiClient = connectorModule.getApiClient();
+    connectorStore = connectorModule.getConnectorStore();
+    final int quarantineRetryMinutes =
+        RuntimeConfig.getInt(PatriciaConnectorConfigKey.TAG_QUARANTINE_RETRY_MINUTES).orElse(0);
+    tagQuarantine = quarantineRetryMinutes > 0
+        ? new TagQuarantine(connectorStore, Duration.ofMinutes(quarantineRetryMinutes), Clock.systemUTC())
+        : null;
+    if (tagQuarantine != null) {
+      final TagQuarantine quarantine = tagQuarantine;
+      metrics.gaugeTagQuarantine(quarantine::size);
+    }
+    final int apiRateLimit = RuntimeConfig.getInt(PatriciaConnectorConfigKey.API_RATE_LIMIT_PER_SECOND).orElse(0);
+    apiRateLimiter = apiRateLimit > 0
+        ? new ApiRateLimiter(ApiRateLimiter.Config.builder()
+            .callsPerSecond(apiRateLimit)
+            .postingSharePercent(
+                RuntimeConfig.getInt(PatriciaConnectorConfigKey.API_RATE_LIMIT_POSTING_PERCENT).orElse(20))
+            .build())
+        : null;
+    if (apiRateLimiter != null) {
+      final ApiRateLimiter limiter = apiRateLimiter;
+      metrics.gaugeApiRateLimit(limiter::rate);
+    }
+
+    postedTimeLedger.open();
+    startSettingsReload();
+    healthMonitor.start();
+    startAsyncPosting();
+  }
+
+  /**
+   * Prepares the connector for the bulk import of time groups only, see {@link TimeGroupImporter}. Nothing is sent to
+   * WiseTime in this mode.
+   */
+  void initForImport() {
+    Preconditions.checkArgument(patriciaDao.hasExpectedSchema(),
+        "Patricia Database schema is unsupported by this connector");
+    settings = PatriciaSettings.fromRuntimeConfig();
+    configureLookupCache(settings);
+    priceListEngine.start();
+    personHourlyRates.start();
+    initTemplates();
+  }
 
+  private void initTemplates() {
     // default to no summary
     if (RuntimeConfig.getBoolean(PatriciaConnectorConfigKey.ADD_SUMMARY_TO_NARRATIVE).orElse(false)) {
       timeRegistrationTemplate = createTemplateFormatter(
@@ -114,34 +251,104 @@ public class PatriciaConnector implements WiseTimeConnector {
     }
     chargeTemplate = createTemplateFormatter(
         "classpath:narrative-template/patricia-template_charge.ftl");
+  }
 
-    tagSyncIntervalMinutes = connectorModule::getTagSlowLoopIntervalMinutes;
-    apiClient = connectorModule.getApiClient();
-    connectorStore = connectorModule.getConnectorStore();
+  /**
+   * Cached lookups depend on the database and on the rate settings; the cache is cleared when they change.
+   */
+  private void configureLookupCache(PatriciaSettings settings) {
+    lookupCache.configure(
+        Duration.ofMinutes(RuntimeConfig.getInt(PatriciaConnectorConfigKey.LOOKUP_CACHE_TTL_MINUTES).orElse(0)),
+        hashFunction.hashStrings(List.of(
+            RuntimeConfig.getString(PatriciaConnectorConfigKey.PATRICIA_JDBC_URL).orElse(""),
+            "role_type_id=" + settings.roleTypeId(),
+            "use_sys_default_currency=" + settings.useSysDefaultCurrency(),
+            "fallback_currency=" + settings.fallbackCurrency())));
+  }
+
+  private static Optional<Path> dataDir() {
+    return RuntimeConfig.getString(ConnectorConfigKey.DATA_DIR).map(Paths::get);
+  }
+
+  private void startAsyncPosting() {
+    stopAsyncPosting();
+    if (!RuntimeConfig.getBoolean(PatriciaConnectorConfigKey.ASYNC_POSTING_ENABLED).orElse(false)) {
+      return;
+    }
+    final Path dataDir = dataDir()
+        .orElseThrow(() -> new IllegalStateException("Async posting requires DATA_DIR for its journal"));
+    postingJournal.open(dataDir);
+    metrics.gaugeAsyncPostBacklog(postingJournal::backlog);
+    asyncPostingWorker = new AsyncPostingWorker(postingJournal, this::postTimeOnce, metrics, Duration.ofSeconds(
+        RuntimeConfig.getInt(PatriciaConnectorConfigKey.ASYNC_POSTING_RETRY_SECONDS).orElse(60)));
+    asyncPostingWorker.start();
+    log.info("Async posting enabled, {} journaled time groups pending", postingJournal.backlog());
+  }
+
+  private void stopAsyncPosting() {
+    if (asyncPostingWorker != null) {
+      asyncPostingWorker.stop();
+      asyncPostingWorker = null;
+      postingJournal.close();
+    }
+  }
+
+  /**
+   * Resolves a fresh settings snapshot from the runtime config and swaps it in atomically. If the new configuration is
+   * invalid the current snapshot is kept.
+   */
+  @VisibleForTesting
+  void reloadSettings() {
+    try {
+      final PatriciaSettings reloadedSettings = PatriciaSettings.fromRuntimeConfig();
+      configureLookupCache(reloadedSettings);
+      settings = reloadedSettings;
+    } catch (RuntimeException e) {
+      log.error("Failed to reload connector settings, keeping the current ones", e);
+    }
   }
 
-  private void initializeRoleTypeId() {
-    roleTypeId = RuntimeConfig.getInt(PatriciaConnectorConfigKey.PATRICIA_ROLE_TYPE_ID)
-        .orElseThrow(() -> new IllegalStateException("Required configuration param PATRICIA_ROLE_TYPE_ID is not set."));
+  private void startSettingsReload() {
+    stopSettingsReload();
+    final int reloadIntervalMinutes = RuntimeConfig
+        .getInt(PatriciaConnectorConfigKey.SETTINGS_RELOAD_INTERVAL_MINUTES)
+        .orElse(0);
+    if (reloadIntervalMinutes > 0) {
+      settingsReloadExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("patricia-settings-reload-%d")
+          .setDaemon(true)
+          .build());
+      settingsReloadExecutor.scheduleWithFixedDelay(
+          this::reloadSettings, reloadIntervalMinutes, reloadIntervalMinutes, TimeUnit.MINUTES);
+    }
+  }
+
+  private void stopSettingsReload() {
+    if (settingsReloadExecutor != null) {
+      settingsReloadExecutor.shutdownNow();
+      settingsReloadExecutor = null;
+    }
   }
 
   /**
    * Called by the WiseTime Connector library on a regular schedule to check if Connectos is healthy.
+   * Answers from the latest background probe of the Patricia database, so it never blocks.
    */
   @Override
   public boolean isConnectorHealthy() {
-    return patriciaDao.canQueryDbDate();
+    return healthMonitor.isHealthy();
   }
 
   /**
    * Called by the WiseTime Connector library on a regular schedule.
    *
    * Finds all Patricia cases that haven't been synced and creates matching tags for them in WiseTime.
-   * Blocks until all cases have been synced.
+   * Blocks until all cases have been synced, then retries the quarantined cases that are due.
    */
   @Override
   public void performTagUpdate() {
     syncNewCases();
+    retryQuarantinedTags();
   }
 
   /**
@@ -169,128 +376,315 @@ public class PatriciaConnector implements WiseTimeConnector {
    */
   @Override
   public PostResult postTime(final TimeGroup userPostedTime) {
-    log.info("Posted time received: {}", userPostedTime.getGroupId());
+    final PostResult postResult = asyncPostingWorker != null
+        ? journalTime(userPostedTime)
+        : postTimeOnce(userPostedTime);
+    metrics.countPostResult(postResult.getStatus().name());
+    return postResult;
+  }
 
-    List<Tag> relevantTags = getRelevantTags(userPostedTime);
-    userPostedTime.setTags(relevantTags);
+  /**
+   * Validates the time group as far as possible without the database and appends it to the posting journal, from
+   * where it is applied to Patricia in the background.
+   */
+  private PostResult journalTime(final TimeGroup userPostedTime) {
+    final String contentHash = hashFunction.hashTimeGroup(userPostedTime);
+    if (postedTimeLedger.isPosted(userPostedTime.getGroupId(), contentHash)
+        || postingJournal.isPending(userPostedTime.getGroupId(), contentHash)) {
+      log.info("Time group {} was already received", userPostedTime.getGroupId());
+      return PostResult.SUCCESS().withMessage("Time group was already received");
+    }
 
-    if (userPostedTime.getTags().isEmpty()) {
-      return PostResult.SUCCESS().withMessage("Time group has no tags. There is nothing to post to Patricia.");
+    final Optional<PostResult> notPostable =
+        checkPostable(userPostedTime, getRelevantTags(userPostedTime, settings));
+    if (notPostable.isPresent()) {
+      return notPostable.get();
     }
 
-    if (userPostedTime.getTimeRows().isEmpty()) {
-      return PostResult.PERMANENT_FAILURE().withMessage("Cannot post time group with no time rows");
+    try {
+      postingJournal.append(contentHash, userPostedTime);
+    } catch (RuntimeException e) {
+      log.error("Failed to journal time group {}", userPostedTime.getGroupId(), e);
+      return PostResult.TRANSIENT_FAILURE()
+          .withError(e)
+          .withMessage("There was an error queueing time for posting to the Patricia database");
     }
+    log.info("Journaled time group {} for posting", userPostedTime.getGroupId());
+    asyncPostingWorker.wakeUp();
+    return PostResult.SUCCESS().withMessage("Time group was queued for posting to Patricia");
+  }
 
-    final Optional<String> workCode = getTimeGroupWorkCode(userPostedTime);
-    if (workCode.isEmpty()) {
-      return PostResult.PERMANENT_FAILURE().withMessage("Time group contains invalid modifier.");
+  private PostResult postTimeOnce(final TimeGroup userPostedTime) {
+    // hashed before posting modifies the time group
+    final String contentHash = hashFunction.hashTimeGroup(userPostedTime);
+    if (postedTimeLedger.isPosted(userPostedTime.getGroupId(), contentHash)) {
+      log.info("Time group {} was already posted to Patricia", userPostedTime.getGroupId());
+      return PostResult.SUCCESS().withMessage("Time group was already posted to Patricia");
     }
 
-    final Optional<String> user = getPatriciaLoginId(userPostedTime.getUser());
-    if (user.isEmpty()) {
-      return PostResult.PERMANENT_FAILURE().withMessage("User does not exist: " + userPostedTime.getUser().getExternalId());
+    final PostResult postResult = postTimeThroughBreaker(userPostedTime);
+    if (postResult.getStatus() == PostResult.PostResultStatus.SUCCESS) {
+      try {
+        postedTimeLedger.record(userPostedTime.getGroupId(), contentHash);
+      } catch (RuntimeException e) {
+        // the time is committed, failing the post now would only duplicate it on retry
+        log.error("Failed to record posted time group {} in the ledger", userPostedTime.getGroupId(), e);
+      }
+    }
+    return postResult;
+  }
+
+  private PostResult postTimeThroughBreaker(final TimeGroup userPostedTime) {
+    if (!postingBreaker.tryAcquirePermission()) {
+      log.warn("Rejected posted time {}, the Patricia database is failing or overloaded", userPostedTime.getGroupId());
+      return PostResult.TRANSIENT_FAILURE()
+          .withMessage("The Patricia database is currently failing or overloaded, posting will be retried later");
+    }
+    final long startNanos = System.nanoTime();
+    boolean failed = false;
+    try {
+      final PostResult postResult = postTimeToPatricia(userPostedTime);
+      // permanent failures are caused by the posted data, and other transient failures, like a failed tag delete or a
+      // timed out lookup, by something else than the database; slow posts count as failures in any case
+      failed = postResult.getStatus() == PostResult.PostResultStatus.TRANSIENT_FAILURE
+          && postResult.getError().map(PatriciaConnector::isDatabaseFailure).orElse(false);
+      return postResult;
+    } finally {
+      postingBreaker.onResult(System.nanoTime() - startNanos, failed);
     }
+  }
+
+  /**
+   * Whether the error is a failed statement or connection of the Patricia database, including a connection that the
+   * pool could not provide in time.
+   */
+  @VisibleForTesting
+  static boolean isDatabaseFailure(Throwable error) {
+    return Throwables.getCausalChain(error).stream().anyMatch(SQLException.class::isInstance);
+  }
 
-    final Optional<Instant> activityStartTime = startInstant(userPostedTime);
-    if (activityStartTime.isEmpty()) {
-      return PostResult.PERMANENT_FAILURE().withMessage("Cannot post time group with no time rows");
+  private PostResult postTimeToPatricia(final TimeGroup userPostedTime) {
+    log.info("Posted time received: {}", userPostedTime.getGroupId());
+    // use the same settings for the whole post, even if they are reloaded in the meantime
+    final PatriciaSettings settings = this.settings;
+
+    List<Tag> relevantTags = getRelevantTags(userPostedTime, settings);
+    userPostedTime.setTags(relevantTags);
+
+    final Optional<PostResult> notPostable = checkPostable(userPostedTime, relevantTags);
+    if (notPostable.isPresent()) {
+      return notPostable.get();
     }
 
+    try {
+      // do all lookups before the transaction, so that it only spans the inserts
+      final List<TimeAndChargePlan> plans = planTimeGroup(userPostedTime, settings, this::deleteMissingTags);
+
+      postInTransaction(() -> plans.forEach(this::writeTimeAndChargeRecord));
+    } catch (ConnectorException e) {
+      log.warn("Can't post time to the Patricia database: {}", e.getMessage());
+      return PostResult.PERMANENT_FAILURE()
+          .withError(e)
+          .withMessage(e.getMessage());
+    } catch (RuntimeException e) {
+      log.warn("Failed to save posted time in Patricia", e);
+      return PostResult.TRANSIENT_FAILURE()
+          .withError(e)
+          .withMessage("There was an error posting time to the Patricia database");
+    }
+    return PostResult.SUCCESS();
+  }
+
+  /**
+   * Plans a time group of the bulk import exactly like {@link #postTime(TimeGroup)} would post it, but without
+   * writing anything to Patricia or WiseTime.
+   *
+   * @return the records to insert, none if there is nothing to post
+   * @throws ConnectorException if the time group cannot be posted
+   */
+  List<TimeAndChargePlan> planImport(final TimeGroup timeGroup) {
+    final PatriciaSettings settings = this.settings;
+    final List<Tag> relevantTags = getRelevantTags(timeGroup, settings);
+    timeGroup.setTags(relevantTags);
+
+    final Optional<PostResult> notPostable = checkPostable(timeGroup, relevantTags);
+    if (notPostable.isPresent()) {
+      if (notPostable.get().getStatus() == PostResult.PostResultStatus.SUCCESS) {
+        return List.of();
+      }
+      throw new ConnectorException(notPostable.get().getMessage().orElse("Time group cannot be posted"));
+    }
+    return planTimeGroup(timeGroup, settings, missingTags -> { });
+  }
+
+  /**
+   * Read phase of posting a time group: resolves the user and the cases and computes the records to insert for each
+   * case. Writes nothing to Patricia.
+   *
+   * The lookups form a small dependency graph and independent lookups run concurrently: the user, the cases, the
+   * database date and the narratives all at once, then the discounts of each case as soon as it is found, and the
+   * hourly rate of each case once both the case and the user are known.
+   *
+   * @param missingTagsHandler called with the tags that have no case in Patricia, before the post is failed
+   * @throws ConnectorException if the time group cannot be posted
+   */
+  private List<TimeAndChargePlan> planTimeGroup(final TimeGroup userPostedTime, final PatriciaSettings settings,
+                                                final Consumer<List<Tag>> missingTagsHandler) {
+    final Optional<String> workCode = getTimeGroupWorkCode(userPostedTime);
+
     // If we recognize a zero charge work code: Set chargeable amount to 0 and let the calculation run as usual
-    if (zeroChargeWorkCodes.contains(workCode.get())) {
+    if (settings.zeroChargeWorkCodes().contains(workCode.get())) {
       userPostedTime.totalDurationSecs(0);
     }
 
-    final BigDecimal actualWorkedHoursPerCase =
-        ChargeCalculator.calculateActualWorkedHoursNoExpRating(userPostedTime);
+    try (LookupFanOut.Lookups lookups = lookupFanOut.begin(lookupTimeout)) {
+
+      final CompletableFuture<Optional<String>> user = lookups.submit(() -> metrics.recordPostStage(
+          PostStage.USER_RESOLUTION, () -> findPatriciaLoginId(userPostedTime.getUser())));
+
+      final Optional<String> commentOverride = Optional.ofNullable(settings.invoiceCommentOverride());
+      final CompletableFuture<String> timeRegComment = lookups.submit(() -> metrics.recordPostStage(
+          PostStage.TEMPLATE_RENDER, () -> commentOverride.orElse(timeRegistrationTemplate.format(userPostedTime))));
+      final CompletableFuture<String> chargeComment = lookups.submit(() -> metrics.recordPostStage(
+          PostStage.TEMPLATE_RENDER, () -> commentOverride.orElse(chargeTemplate.format(userPostedTime))));
+      final CompletableFuture<String> dbDate = lookups.submit(patriciaDao::getDbDate);
+
+      final List<CompletableFuture<Optional<Case>>> cases = new ArrayList<>();
+      final List<CompletableFuture<List<Discount>>> discounts = new ArrayList<>();
+      final List<CompletableFuture<Optional<HourlyRate>>> hourlyRates = new ArrayList<>();
+      for (Tag tag : userPostedTime.getTags()) {
+        final CompletableFuture<Optional<Case>> patriciaCase = lookups.submit(() -> metrics.recordPostStage(
+            PostStage.CASE_LOOKUP, () -> lookupCache.cases.find(tag.getName(),
+                () -> patriciaDao.findCaseByCaseNumber(tag.getName()))));
+        cases.add(patriciaCase);
+        discounts.add(lookups.then(patriciaCase, foundCase -> foundCase
+            .map(caseToPost -> findDiscounts(settings, workCode.get(), caseToPost))
+            .orElse(List.of())));
+        hourlyRates.add(lookups.then(user, patriciaCase, (foundUser, foundCase) ->
+            foundUser.isPresent() && foundCase.isPresent()
+                ? Optional.of(findCachedHourlyRate(settings, workCode.get(), foundUser.get(), foundCase.get()))
+                : Optional.empty()));
+      }
 
-    final BigDecimal chargeableHoursPerCase;
-    if (ChargeCalculator.wasTotalDurationEdited(userPostedTime)) {
-      // time was edited -> use the edited time as is (no exp rating)
-      chargeableHoursPerCase = ChargeCalculator.calculateChargeableWorkedHoursNoExpRating(userPostedTime);
-    } else {
-      // time was not edited -> use the experience rating
-      chargeableHoursPerCase = ChargeCalculator.calculateChargeableWorkedHoursWithExpRating(userPostedTime);
-    }
+      if (lookups.await(user).isEmpty()) {
+        throw new ConnectorException("User does not exist: " + userPostedTime.getUser().getExternalId());
+      }
 
-    final Optional<String> commentOverride = RuntimeConfig.getString(PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE);
+      final Optional<Instant> activityStartTime = startInstant(userPostedTime);
+      if (activityStartTime.isEmpty()) {
+        throw new ConnectorException("Cannot post time group with no time rows");
+      }
 
-    final String timeRegComment = commentOverride.orElse(timeRegistrationTemplate.format(userPostedTime));
-    final String chargeComment = commentOverride.orElse(chargeTemplate.format(userPostedTime));
+      final BigDecimal actualWorkedHoursPerCase =
+          ChargeCalculator.calculateActualWorkedHoursNoExpRating(userPostedTime);
 
-    final Consumer<Case> createTimeAndChargeRecord = patriciaCase ->
-        executeCreateTimeAndChargeRecord(CreateTimeAndChargeParams.builder()
-            .patriciaCase(patriciaCase)
-            .workCode(workCode.get())
-            .userId(user.get())
-            .timeRegComment(timeRegComment)
-            .chargeComment(chargeComment)
-            .actualHours(actualWorkedHoursPerCase)
-            .chargeableHours(chargeableHoursPerCase)
-            .recordalDate(activityStartTime.get())
-            .build()
-        );
+      final BigDecimal chargeableHoursPerCase;
+      if (ChargeCalculator.wasTotalDurationEdited(userPostedTime)) {
+        // time was edited -> use the edited time as is (no exp rating)
+        chargeableHoursPerCase = ChargeCalculator.calculateChargeableWorkedHoursNoExpRating(userPostedTime);
+      } else {
+        // time was not edited -> use the experience rating
+        chargeableHoursPerCase = ChargeCalculator.calculateChargeableWorkedHoursWithExpRating(userPostedTime);
+      }
 
-    log.debug("Posted time after modification: {}",
-        Base64.getEncoder().encodeToString(userPostedTime.toString().getBytes()));
+      log.debug("Posted time after modification: {}",
+          LogFormat.lazy(() -> Base64.getEncoder().encodeToString(userPostedTime.toString().getBytes())));
 
-    try {
-      List<Tag> tagsMissingInPatricia = new ArrayList<>();
-
-      List<Case> casesToPostTo = userPostedTime
-          .getTags()
-          .stream()
-
-          .map(tag -> {
-            Optional<Case> patriciaCase = patriciaDao.findCaseByCaseNumber(tag.getName());
-            if (patriciaCase.isEmpty()) {
-              tagsMissingInPatricia.add(tag);
-            }
-            return patriciaCase;
-          })
-          .filter(Optional::isPresent)
-          .map(Optional::get)
-          .collect(Collectors.toList());
+      final List<Tag> tagsMissingInPatricia = new ArrayList<>();
+      for (int i = 0; i < cases.size(); i++) {
+        if (lookups.await(cases.get(i)).isEmpty()) {
+          tagsMissingInPatricia.add(userPostedTime.getTags().get(i));
+        }
+      }
 
       if (!tagsMissingInPatricia.isEmpty()) {
         log.warn("Couldn't find all tags in Patricia");
-        tagsMissingInPatricia.forEach(tag -> {
-          try {
-            // the tag will be deleted, but the user still needs to manually repost and existing time rows need
-            // to be fixed
-            apiClient.tagDelete(new DeleteTagRequest().name(tag.getName()));
-          } catch (IOException e) {
-            log.error("Error deleting tag: {}", tag, e);
-            // connect-api-server down: Throw general exception to retry
-            throw new RuntimeException(e);
-          }
-        });
+        missingTagsHandler.accept(tagsMissingInPatricia);
         throw new ConnectorException("Patricia case was not found for next tags: "
             + tagsMissingInPatricia.stream()
             .map(Tag::getName)
             .collect(Collectors.joining(", ")));
       }
 
-      patriciaDao.asTransaction(() -> casesToPostTo.forEach(createTimeAndChargeRecord));
-    } catch (ConnectorException e) {
-      log.warn("Can't post time to the Patricia database: " + e.getMessage());
-      return PostResult.PERMANENT_FAILURE()
-          .withError(e)
-          .withMessage(e.getMessage());
-    } catch (RuntimeException e) {
-      log.warn("Failed to save posted time in Patricia", e);
-      return PostResult.TRANSIENT_FAILURE()
-          .withError(e)
-          .withMessage("There was an error posting time to the Patricia database");
+      final List<TimeAndChargePlan> plans = new ArrayList<>();
+      for (int i = 0; i < cases.size(); i++) {
+        final CreateTimeAndChargeParams params = CreateTimeAndChargeParams.builder()
+            .patriciaCase(lookups.await(cases.get(i)).get())
+            .workCode(workCode.get())
+            .userId(lookups.await(user).get())
+            .timeRegComment(lookups.await(timeRegComment))
+            .chargeComment(lookups.await(chargeComment))
+            .actualHours(actualWorkedHoursPerCase)
+            .chargeableHours(chargeableHoursPerCase)
+            .recordalDate(activityStartTime.get())
+            .build();
+        plans.add(planTimeAndChargeRecord(settings, params, lookups.await(dbDate),
+            lookups.await(hourlyRates.get(i)).get(), lookups.await(discounts.get(i))));
+      }
+      return plans;
     }
-    return PostResult.SUCCESS();
   }
 
-  private List<Tag> getRelevantTags(TimeGroup userPostedTime) {
+  private void deleteMissingTags(final List<Tag> tagsMissingInPatricia) {
+    tagsMissingInPatricia.forEach(tag -> {
+      try {
+        // the tag will be deleted, but the user still needs to manually repost and existing time rows need
+        // to be fixed
+        callApi(Budget.POSTING, "tag_delete", () -> {
+          apiClient.tagDelete(new DeleteTagRequest().name(tag.getName()));
+          return null;
+        });
+      } catch (IOException e) {
+        log.error("Error deleting tag: {}", tag, e);
+        // connect-api-server down: Throw general exception to retry
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  /**
+   * Checks that need no database access.
+   *
+   * @return the result to reply with if the time group cannot be, or need not be, posted
+   */
+  private Optional<PostResult> checkPostable(final TimeGroup userPostedTime, final List<Tag> relevantTags) {
+    if (relevantTags.isEmpty()) {
+      return Optional.of(
+          PostResult.SUCCESS().withMessage("Time group has no tags. There is nothing to post to Patricia."));
+    }
+
+    if (userPostedTime.getTimeRows().isEmpty()) {
+      return Optional.of(PostResult.PERMANENT_FAILURE().withMessage("Cannot post time group with no time rows"));
+    }
+
+    if (getTimeGroupWorkCode(userPostedTime).isEmpty()) {
+      return Optional.of(PostResult.PERMANENT_FAILURE().withMessage("Time group contains invalid modifier."));
+    }
+    return Optional.empty();
+  }
+
+  private void postInTransaction(Runnable work) {
+    // the commit happens between the end of the work and the return of the transaction
+    final AtomicLong workFinishedNanos = new AtomicLong();
+    final Runnable timedWork = () -> {
+      work.run();
+      workFinishedNanos.set(System.nanoTime());
+    };
+    // a deadlock victim was rolled back as a whole, so the work can simply run again
+    transactionRetryPolicy.execute(() -> {
+      if (groupCommitCoordinator != null) {
+        groupCommitCoordinator.execute(timedWork);
+      } else {
+        patriciaDao.asTransaction(timedWork);
+      }
+    });
+    metrics.recordPostStage(PostStage.COMMIT, System.nanoTime() - workFinishedNanos.get());
+  }
+
+  private List<Tag> getRelevantTags(TimeGroup userPostedTime, PatriciaSettings settings) {
     return userPostedTime.getTags().stream()
         .filter(tag -> {
-          if (!createdByConnector(tag)) {
+          if (!createdByConnector(tag, settings)) {
             log.warn("The Patricia connector is not configured to handle this tag: {}. No time will be posted for this tag.",
                 tag.getName());
             return false;
@@ -303,6 +697,7 @@ public class PatriciaConnector implements WiseTimeConnector {
   @VisibleForTesting
   void syncNewCases() {
     while (true) {
+      final long batchStartNanos = System.nanoTime();
       final Optional<Long> storedLastSyncedCaseId = connectorStore.getLong(PATRICIA_LAST_SYNC_KEY);
 
       final List<Case> newCases = patriciaDao.findCasesOrderById(
@@ -316,21 +711,20 @@ public class PatriciaConnector implements WiseTimeConnector {
         return;
       }
 
-      log.info("Detected {} new {}: {}",
-          newCases.size(),
-          newCases.size() > 1 ? "tags" : "tag",
-          newCases.stream().map(Case::caseNumber).collect(Collectors.joining(", ")));
+      logSyncBatch(newCasesLogSampler, "Detected {} new {}: {}{}", newCases);
 
-      upsertWiseTimeTags(newCases);
+      upsertWiseTimeTags(newCases, SyncLoop.NEW_CASES);
 
       final long lastSyncedCaseId = newCases.get(newCases.size() - 1).caseId();
       connectorStore.putLong(PATRICIA_LAST_SYNC_KEY, lastSyncedCaseId);
-      log.info("Last synced case ID: {}", lastSyncedCaseId);
+      metrics.recordSyncBatch(SyncLoop.NEW_CASES, newCases.size(), System.nanoTime() - batchStartNanos);
+      log.debug("Last synced case ID: {}", lastSyncedCaseId);
     }
   }
 
   @VisibleForTesting
   void refreshCases(final int batchSize) {
+    final long batchStartNanos = System.nanoTime();
     final long lastPreviouslyRefreshedCaseId = connectorStore.getLong(PATRICIA_LAST_REFRESHED_KEY).orElse(0L);
 
     final List<Case> refreshCases = patriciaDao.findCasesOrderById(
@@ -344,29 +738,93 @@ public class PatriciaConnector implements WiseTimeConnector {
       return;
     }
 
-    log.info("Refreshing {} {}: {}",
-        refreshCases.size(),
-        refreshCases.size() > 1 ? "tags" : "tag",
-        refreshCases.stream().map(Case::caseNumber).collect(Collectors.joining(", ")));
+    logSyncBatch(refreshCasesLogSampler, "Refreshing {} {}: {}{}", refreshCases);
 
-    upsertWiseTimeTags(refreshCases);
+    upsertWiseTimeTags(refreshCases, SyncLoop.REFRESH_CASES);
 
     final long lastRefreshedCaseId = refreshCases.get(refreshCases.size() - 1).caseId();
     connectorStore.putLong(PATRICIA_LAST_REFRESHED_KEY, lastRefreshedCaseId);
+    metrics.recordSyncBatch(SyncLoop.REFRESH_CASES, refreshCases.size(), System.nanoTime() - batchStartNanos);
     log.info("Last refreshed case ID: {}", lastRefreshedCaseId);
   }
 
-  private void upsertWiseTimeTags(final List<Case> cases) {
+  /**
+   * Logs a batch of synced cases with a few of their case numbers, unless a batch was logged shortly before.
+   */
+  private void logSyncBatch(LogSampler sampler, String message, List<Case> cases) {
+    sampler.sample().ifPresent(skippedBatches -> log.info(message,
+        cases.size(),
+        cases.size() > 1 ? "tags" : "tag",
+        LogFormat.capped(Lists.transform(cases, Case::caseNumber), MAX_LOGGED_CASE_NUMBERS),
+        skippedBatches > 0 ? " (" + skippedBatches + " batches not logged)" : ""));
+  }
+
+  /**
+   * With the tag quarantine enabled, cases that fail on their own are quarantined instead of failing the batch, so that
+   * the sync moves past them.
+   */
+  private void upsertWiseTimeTags(final List<Case> cases, final SyncLoop loop) {
     try {
-      final List<UpsertTagRequest> upsertRequests = cases
-          .stream()
-          .map(item -> item.toUpsertTagRequest(tagUpsertPath()))
-          .collect(Collectors.toList());
+      if (tagQuarantine == null) {
+        tagUpsertBatch(cases);
+        return;
+      }
+      final List<Case> quarantined = tagQuarantine.upsert(cases, this::tagUpsertBatch);
+      if (!quarantined.isEmpty()) {
+        metrics.countQuarantinedTags(loop, quarantined.size());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
 
+  private void tagUpsertBatch(final List<Case> cases) throws IOException {
+    final PatriciaSettings settings = this.settings;
+    final List<UpsertTagRequest> upsertRequests = cases
+        .stream()
+        .map(item -> item.toUpsertTagRequest(settings.tagUpsertPath(), settings.caseUrlPrefix()))
+        .collect(Collectors.toList());
+
+    callApi(Budget.SYNC, "tag_upsert_batch", () -> {
       apiClient.tagUpsertBatch(upsertRequests);
+      return null;
+    });
+  }
+
+  /**
+   * Upserts the tags of the quarantined cases that are due for a retry. Cases that no longer exist in Patricia leave
+   * the quarantine.
+   */
+  @VisibleForTesting
+  void retryQuarantinedTags() {
+    if (tagQuarantine == null) {
+      return;
+    }
+    final List<Long> dueCaseIds = tagQuarantine.dueCaseIds(tagUpsertBatchSize());
+    if (dueCaseIds.isEmpty()) {
+      return;
+    }
+    final long batchStartNanos = System.nanoTime();
+    final List<Case> cases = patriciaDao.findCasesByIds(dueCaseIds);
+    final Set<Long> foundCaseIds = cases.stream().map(Case::caseId).collect(Collectors.toSet());
+    tagQuarantine.release(dueCaseIds.stream()
+        .filter(caseId -> !foundCaseIds.contains(caseId))
+        .collect(Collectors.toList()));
+    if (cases.isEmpty()) {
+      return;
+    }
+
+    try {
+      final List<Case> quarantined = tagQuarantine.upsert(cases, this::tagUpsertBatch);
+      metrics.countQuarantinedTags(SyncLoop.QUARANTINE_RETRY, quarantined.size());
+      log.info("Retried {} quarantined {}, {} failed again", cases.size(), cases.size() > 1 ? "tags" : "tag",
+          quarantined.size());
     } catch (IOException e) {
-      throw new RuntimeException(e);
+      log.warn("Failed to retry {} quarantined tags, retrying them later", cases.size(), e);
+      tagQuarantine.quarantine(foundCaseIds);
+      metrics.countQuarantinedTags(SyncLoop.QUARANTINE_RETRY, foundCaseIds.size());
     }
+    metrics.recordSyncBatch(SyncLoop.QUARANTINE_RETRY, cases.size(), System.nanoTime() - batchStartNanos);
   }
 
   private void syncWorkCodes() {
@@ -383,7 +841,11 @@ public class PatriciaConnector implements WiseTimeConnector {
 
     if (!currentHash.equals(prevSyncedHash) || syncedMoreThanDayAgo) {
       final String syncSessionId = startSyncSession();
-      iterateAllWorkCodes(workCodes -> sendActivityTypesToSync(mapToActivityTypes(workCodes), syncSessionId));
+      iterateAllWorkCodes(workCodes -> {
+        final long batchStartNanos = System.nanoTime();
+        sendActivityTypesToSync(mapToActivityTypes(workCodes), syncSessionId);
+        metrics.recordSyncBatch(SyncLoop.WORK_CODES, workCodes.size(), System.nanoTime() - batchStartNanos);
+      });
       completeSyncSession(syncSessionId);
       connectorStore.putString(PATRICIA_WORK_CODES_HASH_KEY, currentHash);
       connectorStore.putLong(PATRICIA_WORK_CODES_LAST_SYNC_KEY, System.currentTimeMillis());
@@ -406,7 +868,10 @@ public class PatriciaConnector implements WiseTimeConnector {
         .activityTypes(activityTypes)
         .syncSessionId(sessionId);
     try {
-      apiClient.syncActivityTypes(request);
+      callApi(Budget.SYNC, "sync_activity_types", () -> {
+        apiClient.syncActivityTypes(request);
+        return null;
+      });
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -414,7 +879,8 @@ public class PatriciaConnector implements WiseTimeConnector {
 
   private String startSyncSession() {
     try {
-      return apiClient.activityTypesStartSyncSession().getSyncSessionId();
+      return callApi(Budget.SYNC, "activity_types_start_sync_session", apiClient::activityTypesStartSyncSession)
+          .getSyncSessionId();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -422,12 +888,46 @@ public class PatriciaConnector implements WiseTimeConnector {
 
   private void completeSyncSession(String syncSessionId) {
     try {
-      apiClient.activityTypesCompleteSyncSession(new SyncSession().syncSessionId(syncSessionId));
+      callApi(Budget.SYNC, "activity_types_complete_sync_session", () -> {
+        apiClient.activityTypesCompleteSyncSession(new SyncSession().syncSessionId(syncSessionId));
+        return null;
+      });
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
+  /**
+   * Calls the WiseTime API, paced by the rate limiter if enabled. A throttle response fails with an
+   * {@link ApiThrottledException}.
+   */
+  private <T> T callApi(Budget budget, String operation, ApiCall<T> apiCall) throws IOException {
+    if (apiRateLimiter != null) {
+      try {
+        metrics.recordApiRateLimitWait(budget, apiRateLimiter.acquire(budget));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the rate limiter to permit " + operation);
+      }
+    }
+    try {
+      final T result = metrics.recordApiCall(operation, apiCall);
+      if (apiRateLimiter != null) {
+        apiRateLimiter.onSuccess();
+      }
+      return result;
+    } catch (IOException e) {
+      if (!ApiRateLimiter.isThrottled(e)) {
+        throw e;
+      }
+      metrics.countApiThrottled(operation);
+      if (apiRateLimiter != null) {
+        apiRateLimiter.onThrottled();
+      }
+      throw new ApiThrottledException(operation, e);
+    }
+  }
+
   private int iterateAllWorkCodes(Consumer<List<WorkCode>> consumer) {
     int offset = 0;
     int counter = 0;
@@ -489,72 +989,92 @@ public class PatriciaConnector implements WiseTimeConnector {
     return (int) batchFullFortnightlyRefresh;
   }
 
-  private String tagUpsertPath() {
-    return RuntimeConfig
-        .getString(PatriciaConnectorConfigKey.TAG_UPSERT_PATH)
-        .orElse("/Patricia/");
+  /**
+   * Rates that were found are cached; a missing rate is looked up again on the next post, so that the post succeeds
+   * as soon as a rate is configured.
+   */
+  private HourlyRate findCachedHourlyRate(PatriciaSettings settings, String workCode, String userId,
+                                          Case patriciaCase) {
+    return lookupCache.hourlyRates.get(workCode + "\t" + userId + "\t" + patriciaCase.caseId(),
+        () -> findHourlyRate(settings, workCode, userId, patriciaCase),
+        rate -> rate.hourlyRate().isPresent());
   }
 
-  private void executeCreateTimeAndChargeRecord(PatriciaDao.CreateTimeAndChargeParams params) {
-    final String dbDate = patriciaDao.getDbDate();
-    Function<BudgetLine, Long> addBudgetLine = patriciaDao::addBudgetLine;
-
-    // Go through hierarchy of hourly rates step by step
-    Optional<BigDecimal> hourlyRate = patriciaDao.findWorkCodeDefaultHourlyRate(params.workCode());
+  /**
+   * Goes through the hierarchy of hourly rates step by step.
+   */
+  private HourlyRate findHourlyRate(PatriciaSettings settings, String workCode, String userId, Case patriciaCase) {
+    final long rateLookupStartNanos = System.nanoTime();
+    boolean rateFromPriceList = false;
+    Optional<BigDecimal> hourlyRate = patriciaDao.findWorkCodeDefaultHourlyRate(workCode);
     Optional<String> currency = Optional.empty();
+    RateLevel rateLevel = RateLevel.WORK_CODE_DEFAULT;
     if (hourlyRate.isEmpty()) {
-      Optional<PatriciaDao.PriceListEntry> priceListEntry = patriciaDao
-          .findHourlyRateFromPriceList(params.patriciaCase().caseId(), params.workCode(), params.userId(), roleTypeId);
+      Optional<PatriciaDao.PriceListEntry> priceListEntry = priceListEngine
+          .findHourlyRate(patriciaCase.caseId(), workCode, userId, settings.roleTypeId());
       if (priceListEntry.isPresent()) {
         hourlyRate = Optional.of(priceListEntry.get().hourlyRate());
         currency = Optional.ofNullable(priceListEntry.get().currencyId());
-        addBudgetLine = patriciaDao::addBudgetLineFromPriceList;
+        rateFromPriceList = true;
+        rateLevel = RateLevel.PRICE_LIST;
       }
     }
 
     if (hourlyRate.isEmpty()) {
-      Optional<RateCurrency> rateCurrency = patriciaDao
-          .findPatPersonHourlyRate(params.patriciaCase().caseId(), params.workCode(), params.userId());
+      Optional<RateCurrency> rateCurrency = personHourlyRates
+          .findPatPersonHourlyRate(patriciaCase.caseId(), workCode, userId);
       hourlyRate = rateCurrency.map(RateCurrency::hourlyRate);
       currency = rateCurrency.map(RateCurrency::currencyId);
+      rateLevel = RateLevel.PERSON_HOURLY_RATE;
     }
 
     if (hourlyRate.isEmpty()) {
-      hourlyRate = patriciaDao.findPersonDefaultHourlyRate(params.userId());
+      hourlyRate = patriciaDao.findPersonDefaultHourlyRate(userId);
+      rateLevel = RateLevel.PERSON_DEFAULT;
     }
 
     if (currency.isEmpty()) {
-      currency = Optional.of(getCurrency(params));
+      currency = Optional.of(getCurrency(settings, patriciaCase));
     }
+    metrics.recordPostStage(PostStage.RATE_LOOKUP, System.nanoTime() - rateLookupStartNanos);
+    return new HourlyRate(hourlyRate, currency.get(), rateFromPriceList, rateLevel);
+  }
 
-    if (hourlyRate.isEmpty()) {
+  private List<Discount> findDiscounts(PatriciaSettings settings, String workCode, Case patriciaCase) {
+    return metrics.recordPostStage(PostStage.DISCOUNTS,
+        () -> lookupCache.discounts.get(workCode + "\t" + patriciaCase.caseId(),
+            () -> patriciaDao.findDiscounts(workCode, settings.roleTypeId(), patriciaCase.caseId())));
+  }
+
+  private TimeAndChargePlan planTimeAndChargeRecord(PatriciaSettings settings,
+                                                    PatriciaDao.CreateTimeAndChargeParams params,
+                                                    String dbDate,
+                                                    HourlyRate rate,
+                                                    List<Discount> discounts) {
+    if (rate.hourlyRate().isEmpty()) {
       throw new ConnectorException("No hourly rate is found for " + params.userId());
     }
+    metrics.countRateLevel(rate.rateLevel());
+    final BigDecimal hourlyRate = rate.hourlyRate().get();
 
-    final List<Discount> discounts = patriciaDao.findDiscounts(
-        params.workCode(), roleTypeId, params.patriciaCase().caseId()
-    );
     final List<Discount> applicableDiscounts = ChargeCalculator.getMostApplicableDiscounts(discounts, params.patriciaCase());
 
-    BigDecimal chargeWithoutDiscount = params.chargeableHours().multiply(hourlyRate.get());
+    BigDecimal chargeWithoutDiscount = params.chargeableHours().multiply(hourlyRate);
     BigDecimal chargeWithDiscount = ChargeCalculator.calculateTotalCharge(
-        applicableDiscounts, params.chargeableHours(), hourlyRate.get()
+        applicableDiscounts, params.chargeableHours(), hourlyRate
     );
 
-    final int budgetLineSequenceNumber = patriciaDao.findNextBudgetLineSeqNum(params.patriciaCase().caseId());
-
     final String activityDate = ZonedDateTime.ofInstant(params.recordalDate(), ZoneOffset.UTC)
-        .withZoneSameInstant(getTimeZoneId())
+        .withZoneSameInstant(settings.timeZone())
         .format(DATE_TIME_FORMATTER);
 
-    BudgetLine budgetLine = BudgetLine.builder()
-        .budgetLineSequenceNumber(budgetLineSequenceNumber)
+    final BudgetLine budgetLine = BudgetLine.builder()
         .caseId(params.patriciaCase().caseId())
         .workCodeId(params.workCode())
         .userId(params.userId())
         .submissionDate(dbDate)
-        .currency(currency.get())
-        .hourlyRate(hourlyRate.get())
+        .currency(rate.currency())
+        .hourlyRate(hourlyRate)
         .actualWorkTotalHours(params.actualHours())
         .chargeableWorkTotalHours(params.chargeableHours())
         .chargeableAmount(chargeWithDiscount)
@@ -564,11 +1084,10 @@ public class PatriciaConnector implements WiseTimeConnector {
         .effectiveHourlyRate(ChargeCalculator.calculateHourlyRate(chargeWithDiscount, params.chargeableHours()))
         .comment(params.chargeComment())
         .activityDate(activityDate)
-        .chargeTypeId(RuntimeConfig.getInt(PatriciaConnectorConfigKey.WT_CHARGE_TYPE_ID).orElse(null))
+        .chargeTypeId(settings.chargeTypeId())
         .build();
 
-    TimeRegistration timeRegistration = TimeRegistration.builder()
-        .budgetLineSequenceNumber(budgetLineSequenceNumber)
+    final TimeRegistration timeRegistration = TimeRegistration.builder()
         .caseId(params.patriciaCase().caseId())
         .workCodeId(params.workCode())
         .userId(params.userId())
@@ -579,38 +1098,80 @@ public class PatriciaConnector implements WiseTimeConnector {
         .comment(params.timeRegComment())
         .build();
 
-    long numberOfAffectedBudgedHeaders = patriciaDao.updateBudgetHeader(params.patriciaCase().caseId(), dbDate);
+    return TimeAndChargePlan.builder()
+        .patriciaCase(params.patriciaCase())
+        .userId(params.userId())
+        .submissionDate(dbDate)
+        .rateFromPriceList(rate.rateFromPriceList())
+        .budgetLine(budgetLine)
+        .timeRegistration(timeRegistration)
+        .build();
+  }
+
+  /**
+   * Write phase of posting to a case. Must run in the posting transaction.
+   */
+  private void writeTimeAndChargeRecord(TimeAndChargePlan plan) {
+    final Case patriciaCase = plan.patriciaCase();
+    // the read locks the sequence numbers of the case until commit, so that concurrent posts to it wait their turn
+    final int budgetLineSequenceNumber = patriciaDao.findNextBudgetLineSeqNum(patriciaCase.caseId());
+    final BudgetLine budgetLine = plan.budgetLine().toBuilder()
+        .budgetLineSequenceNumber(budgetLineSequenceNumber)
+        .build();
+    final TimeRegistration timeRegistration = plan.timeRegistration().toBuilder()
+        .budgetLineSequenceNumber(budgetLineSequenceNumber)
+        .build();
+    final Function<BudgetLine, Long> addBudgetLine = plan.rateFromPriceList()
+        ? patriciaDao::addBudgetLineFromPriceList
+        : patriciaDao::addBudgetLine;
+
+    final long dbWriteStartNanos = System.nanoTime();
+    long numberOfAffectedBudgedHeaders = patriciaDao.updateBudgetHeader(patriciaCase.caseId(), plan.submissionDate());
     log.debug("Inserted or updated {} budget header entries for Patricia issue {} on behalf of {}",
-        numberOfAffectedBudgedHeaders, params.patriciaCase().caseNumber(), params.userId());
+        numberOfAffectedBudgedHeaders, patriciaCase.caseNumber(), plan.userId());
     long numberOfBudgetLinesInserted = addBudgetLine.apply(budgetLine);
     log.debug("Inserted {} budget line entries for Patricia issue {} on behalf of {}",
-        numberOfBudgetLinesInserted, params.patriciaCase().caseNumber(), params.userId());
+        numberOfBudgetLinesInserted, patriciaCase.caseNumber(), plan.userId());
     long numberOfTimeRegistrationsInserted = patriciaDao.addTimeRegistration(timeRegistration);
     log.debug("Inserted {} time registration entries for Patricia issue {} on behalf of {}",
-        numberOfTimeRegistrationsInserted, params.patriciaCase().caseNumber(), params.userId());
+        numberOfTimeRegistrationsInserted, patriciaCase.caseNumber(), plan.userId());
+    metrics.recordPostStage(PostStage.DB_WRITE, System.nanoTime() - dbWriteStartNanos);
 
-    log.info("Posted time to Patricia issue {} on behalf of {}", params.patriciaCase().caseNumber(), params.userId());
+    log.info("Posted time to Patricia issue {} on behalf of {}", patriciaCase.caseNumber(), plan.userId());
   }
 
-  private String getCurrency(PatriciaDao.CreateTimeAndChargeParams params) {
-    Optional<String> fallbackCurrency = RuntimeConfig.getString(PatriciaConnectorConfigKey.FALLBACK_CURRENCY);
-    if (RuntimeConfig.getBoolean(PatriciaConnectorConfigKey.USE_SYSDEFAULT_CURRENCY_FOR_POSTING).orElse(false)) {
+  private String getCurrency(PatriciaSettings settings, Case patriciaCase) {
+    Optional<String> fallbackCurrency = Optional.ofNullable(settings.fallbackCurrency());
+    if (settings.useSysDefaultCurrency()) {
       return Stream.of(patriciaDao.getSystemDefaultCurrency(), fallbackCurrency)
           .filter(Optional::isPresent)
           .map(Optional::get)
           .findFirst()
           .orElseThrow(() -> new ConnectorException("Could not find the system default currency."));
     }
-    return Stream.of(patriciaDao.findCurrency(params.patriciaCase().caseId(), roleTypeId), fallbackCurrency)
+    return Stream.of(patriciaDao.findCurrency(patriciaCase.caseId(), settings.roleTypeId()), fallbackCurrency)
         .filter(Optional::isPresent)
         .map(Optional::get)
         .findFirst()
         .orElseThrow(() -> new ConnectorException(
-            "Could not find currency for the case " + params.patriciaCase().caseNumber()
+            "Could not find currency for the case " + patriciaCase.caseNumber()
                 + ". Please make sure an account address is configured for this case in the 'Parties' tab.")
         );
   }
 
+  /**
+   * Result of the hourly rate hierarchy for a case. The rate is empty if no level has one.
+   */
+  @Value
+  @Accessors(fluent = true)
+  static class HourlyRate {
+    Optional<BigDecimal> hourlyRate;
+    String currency;
+    boolean rateFromPriceList;
+    RateLevel rateLevel;
+  }
+
+
   private TemplateFormatter createTemplateFormatter(String getTemplatePath) {
     return new TemplateFormatter(TemplateFormatterConfig.builder()
         .withTemplatePath(getTemplatePath)
@@ -618,8 +1179,9 @@ public class PatriciaConnector implements WiseTimeConnector {
         .build());
   }
 
-  private ZoneId getTimeZoneId() {
-    return ZoneId.of(RuntimeConfig.getString(PatriciaConnectorConfigKey.TIMEZONE).orElse("UTC"));
+  private Optional<String> findPatriciaLoginId(User user) {
+    return lookupCache.loginIds.find(StringUtils.defaultString(user.getExternalId()) + "\t" + user.getEmail(),
+        () -> getPatriciaLoginId(user));
   }
 
   private Optional<String> getPatriciaLoginId(User user) {
@@ -644,11 +1206,20 @@ public class PatriciaConnector implements WiseTimeConnector {
 
   @Override
   public void shutdown() {
+    stopSettingsReload();
+    stopAsyncPosting();
+    lookupFanOut.shutdown();
+    priceListEngine.stop();
+    personHourlyRates.stop();
+    healthMonitor.stop();
+    postedTimeLedger.close();
+    dataDir().ifPresent(lookupCache::save);
+    metrics.stop();
     patriciaDao.shutdown();
   }
 
-  private boolean createdByConnector(Tag tag) {
-    return tag.getPath().equals(tagUpsertPath())
-            || tag.getPath().equals(StringUtils.strip(tagUpsertPath(), "/"));
+  private boolean createdByConnector(Tag tag, PatriciaSettings settings) {
+    return tag.getPath().equals(settings.tagUpsertPath())
+            || tag.getPath().equals(settings.strippedTagUpsertPath());
   }
 }
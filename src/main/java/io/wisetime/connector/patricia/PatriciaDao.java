@@ -8,26 +8,50 @@ import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toList;
 
+import com.google.common.base.CharMatcher;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopy;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopyOptions;
+import com.microsoft.sqlserver.jdbc.SQLServerConnection;
 import com.zaxxer.hikari.HikariDataSource;
 import io.wisetime.connector.config.RuntimeConfig;
 import io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
+import io.wisetime.connector.patricia.ConnectorLauncher.PatriciaDbModule;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.QueryClass;
+import io.wisetime.connector.patricia.metrics.QueryTimeouts;
+import io.wisetime.connector.patricia.metrics.StatementStats;
+import io.wisetime.connector.patricia.metrics.StatementTimingDataSource;
 import io.wisetime.generated.connect.UpsertTagRequest;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
 import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import lombok.Builder;
@@ -35,12 +59,15 @@ import lombok.Builder.Default;
 import lombok.Data;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.experimental.Accessors;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.codejargon.fluentjdbc.api.FluentJdbc;
 import org.codejargon.fluentjdbc.api.FluentJdbcBuilder;
+import org.codejargon.fluentjdbc.api.FluentJdbcException;
+import org.codejargon.fluentjdbc.api.ParamSetter;
 import org.codejargon.fluentjdbc.api.mapper.Mappers;
 import org.codejargon.fluentjdbc.api.query.Query;
 import org.slf4j.Logger;
@@ -53,18 +80,149 @@ import org.slf4j.LoggerFactory;
  */
 public class PatriciaDao {
 
+  // 3 parameters per case when reconciling, well below the limit of 2100 parameters per statement
+  private static final int BULK_IMPORT_CASES_PER_QUERY = 500;
+
   private final Logger log = LoggerFactory.getLogger(PatriciaDao.class);
   private final FluentJdbc fluentJdbc;
   private final HikariDataSource hikariDataSource;
+  private final StatementStats statementStats;
+  private final QueryTimeouts queryTimeouts;
+  // background scans and reference data loads, so that they never hold up posting for a connection
+  private FluentJdbc readOnlyFluentJdbc;
+  private HikariDataSource readOnlyDataSource;
+  private HikariDataSource healthCheckDataSource;
+  private final ScanIsolation requestedScanIsolation;
+  // 0 or less waits for locks until the query timeout
+  private final int postingLockTimeoutMillis;
+  // resolved against the database options on first scan
+  private volatile ScanIsolation scanIsolation;
 
   @Inject
-  PatriciaDao(HikariDataSource dataSource) {
+  PatriciaDao(HikariDataSource dataSource, StatementStats statementStats, QueryTimeouts queryTimeouts) {
     this.hikariDataSource = dataSource;
-    fluentJdbc = new FluentJdbcBuilder().connectionProvider(dataSource).build();
+    this.statementStats = statementStats;
+    this.queryTimeouts = queryTimeouts;
+    fluentJdbc = createFluentJdbc(dataSource, QueryClass.POSTING_READ, QueryClass.POSTING_WRITE);
+    // scans run on the primary pool too until a read-only pool is configured, but with the scan timeout
+    readOnlyFluentJdbc = createFluentJdbc(dataSource, QueryClass.SYNC_SCAN, QueryClass.SYNC_SCAN);
+    requestedScanIsolation = RuntimeConfig.getString(PatriciaConnectorConfigKey.PATRICIA_SCAN_ISOLATION)
+        .map(isolation -> ScanIsolation.valueOf(isolation.trim().toUpperCase()))
+        .orElse(ScanIsolation.READ_COMMITTED);
+    postingLockTimeoutMillis = RuntimeConfig.getInt(PatriciaConnectorConfigKey.POSTING_LOCK_TIMEOUT_MILLIS)
+        .orElse(10_000);
+  }
+
+  @Inject(optional = true)
+  void useReadOnlyDataSource(@Named(PatriciaDbModule.READ_ONLY_DATA_SOURCE) HikariDataSource dataSource) {
+    readOnlyDataSource = dataSource;
+    readOnlyFluentJdbc = createFluentJdbc(dataSource, QueryClass.SYNC_SCAN, QueryClass.SYNC_SCAN);
+  }
+
+  @Inject(optional = true)
+  void useHealthCheckDataSource(@Named(PatriciaDbModule.HEALTH_CHECK_DATA_SOURCE) HikariDataSource dataSource) {
+    healthCheckDataSource = dataSource;
+  }
+
+  private FluentJdbc createFluentJdbc(HikariDataSource dataSource, QueryClass autoCommitClass,
+                                      QueryClass transactionClass) {
+    final ParamSetter<UnicodeString> unicodeStringSetter =
+        (param, statement, index) -> statement.setNString(index, param.value());
+    final ParamSetter<LookupString> lookupStringSetter = (param, statement, index) -> {
+      if (param.value() == null || CharMatcher.ascii().matchesAllOf(param.value())) {
+        statement.setString(index, param.value());
+      } else {
+        statement.setNString(index, param.value());
+      }
+    };
+    final Map<Class, ParamSetter> paramSetters = Map.of(
+        UnicodeString.class, unicodeStringSetter,
+        LookupString.class, lookupStringSetter);
+    return new FluentJdbcBuilder()
+        .connectionProvider(new StatementTimingDataSource(dataSource, statementStats, queryTimeouts,
+            autoCommitClass, transactionClass))
+        .paramSetters(paramSetters)
+        .build();
   }
 
   void asTransaction(final Runnable runnable) {
-    query().transaction().inNoResult(runnable);
+    query().transaction().inNoResult(() -> withLockTimeout(() -> {
+      runnable.run();
+      return null;
+    }));
+  }
+
+  /**
+   * Runs the units of work in a single transaction, each behind its own savepoint. A failing unit is rolled back to
+   * its savepoint, the others are committed together.
+   *
+   * If the error of a unit rolled back or doomed the whole transaction, e.g. a deadlock (1205), the work of all units
+   * is lost and the transaction fails as a whole with that error. A lock request timeout (1222) only cancels its
+   * statement, so it fails its own unit.
+   *
+   * @return the error of each failed unit, by index of the unit
+   */
+  Map<Integer, RuntimeException> asGroupTransaction(final List<Runnable> units) {
+    return query().transaction().in(() -> withLockTimeout(() -> {
+      final Map<Integer, RuntimeException> errors = new HashMap<>();
+      for (int i = 0; i < units.size(); i++) {
+        final Savepoint savepoint = query().plainConnection(Connection::setSavepoint);
+        try {
+          units.get(i).run();
+        } catch (RuntimeException e) {
+          // the driver skips the savepoint rollback without a transaction, so it cannot tell that the work is gone
+          if (!isTransactionCommittable()) {
+            throw e;
+          }
+          query().plainConnection(connection -> {
+            connection.rollback(savepoint);
+            return null;
+          });
+          errors.put(i, e);
+        }
+      }
+      return errors;
+    }));
+  }
+
+  /**
+   * Runs posting work in the current transaction with the posting lock timeout, so that a write blocked by another
+   * transaction fails with a lock request timeout (1222), which is retried, rather than running into the query timeout.
+   */
+  private <T> T withLockTimeout(final Supplier<T> work) {
+    if (postingLockTimeoutMillis <= 0) {
+      return work.get();
+    }
+    setLockTimeout(postingLockTimeoutMillis);
+    try {
+      return work.get();
+    } finally {
+      // the setting belongs to the session, which the pooled connection keeps for later reads and scans
+      try {
+        setLockTimeout(-1);
+      } catch (RuntimeException e) {
+        log.warn("Failed to reset the lock timeout of a posting connection", e);
+      }
+    }
+  }
+
+  private void setLockTimeout(final int millis) {
+    // a plain statement, as a prepared one runs as dynamic SQL, which restores the setting when it returns
+    query().plainConnection(connection -> {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("SET LOCK_TIMEOUT " + millis);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Whether the current transaction is still active and can be committed: XACT_STATE() is 0 once the server rolled it
+   * back, e.g. as a deadlock victim, and -1 once an error doomed it.
+   */
+  private boolean isTransactionCommittable() {
+    return query().select("SELECT XACT_STATE()")
+        .singleResult(Mappers.singleInteger()) == 1;
   }
 
   boolean hasExpectedSchema() {
@@ -146,40 +304,93 @@ public class PatriciaDao {
         );
   }
 
-  boolean canQueryDbDate() {
-    try {
-      getDbDate();
-      return true;
-    } catch (Exception ex) {
-      return false;
+  /**
+   * Runs a trivial query on the health check pool, bypassing the statement statistics.
+   *
+   * @throws SQLException if no connection could be obtained or the query did not complete within the timeout
+   */
+  void probe(final int timeoutSeconds) throws SQLException {
+    final HikariDataSource dataSource = healthCheckDataSource != null ? healthCheckDataSource : hikariDataSource;
+    try (Connection connection = dataSource.getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.setQueryTimeout(timeoutSeconds);
+      statement.execute("SELECT 1");
+    } catch (SQLException e) {
+      queryTimeouts.recordError(QueryClass.HEALTH_PROBE, e);
+      throw e;
     }
   }
 
+  /**
+   * Usage of the primary connection pool, i.e. the one used for posting.
+   */
+  Optional<PoolStats> primaryPoolStats() {
+    return Optional.ofNullable(hikariDataSource.getHikariPoolMXBean())
+        .map(pool -> PoolStats.builder()
+            .active(pool.getActiveConnections())
+            .idle(pool.getIdleConnections())
+            .total(pool.getTotalConnections())
+            .threadsAwaitingConnection(pool.getThreadsAwaitingConnection())
+            .build());
+  }
+
   long casesCount() {
-    return query().select("SELECT COUNT(*)"
+    return scan(query -> query.select("SELECT COUNT(*)"
             + " FROM vw_case_number vcn JOIN pat_case pc ON vcn.case_id = pc.case_id ")
         .firstResult(Mappers.singleLong())
-        .orElse(0L);
+        .orElse(0L));
   }
 
   List<Case> findCasesOrderById(final long startIdExclusive, final int maxResults) {
-    return query().select("SELECT TOP (?) vcn.case_id, vcn.case_number, pc.case_catch_word, "
+    return scan(query -> query.select("SELECT TOP (?) vcn.case_id, vcn.case_number, pc.case_catch_word, "
             + " pc.case_type_id, pc.state_id, pc.application_type_id "
             + " FROM vw_case_number vcn JOIN pat_case pc ON vcn.case_id = pc.case_id "
             + " WHERE vcn.case_id > ? ORDER BY vcn.case_id ASC")
         .params(maxResults, startIdExclusive)
-        .listResult(this::mapToCase);
+        .listResult(this::mapToCase));
+  }
+
+  /**
+   * Cases by id, in no particular order. Ids of cases that do not exist are ignored.
+   */
+  List<Case> findCasesByIds(final List<Long> caseIds) {
+    if (caseIds.isEmpty()) {
+      return List.of();
+    }
+    // one parameter per case, well below the limit of 2100 parameters per statement for a tag upsert batch
+    return scan(query -> query.select("SELECT vcn.case_id, vcn.case_number, pc.case_catch_word, "
+            + " pc.case_type_id, pc.state_id, pc.application_type_id "
+            + " FROM vw_case_number vcn JOIN pat_case pc ON vcn.case_id = pc.case_id "
+            + " WHERE vcn.case_id IN (" + String.join(", ", Collections.nCopies(caseIds.size(), "?")) + ")")
+        .params(caseIds)
+        .listResult(this::mapToCase));
   }
 
   Optional<String> findLoginIdByEmail(final String email) {
+    // compared as is first, so that an index on the column can be used; the collation of a usual Patricia install is
+    // not case sensitive, and only a case sensitive one needs LOWER on the column
+    final Optional<String> loginId = query().select("SELECT login_id FROM person WHERE email = ?")
+        .params(LookupString.of(email))
+        .firstResult(Mappers.singleString());
+    if (loginId.isPresent() || email == null) {
+      return loginId;
+    }
     return query().select("SELECT login_id FROM person WHERE LOWER(email) = ?")
-        .params(email.toLowerCase())
+        .params(LookupString.of(email.toLowerCase(Locale.ROOT)))
         .firstResult(Mappers.singleString());
   }
 
   boolean loginIdExists(final String loginId) {
-    return query().select("SELECT 1 FROM person WHERE LOWER(login_id) = ?") // Patricia login id is not case sensitive
-        .params(loginId.toLowerCase())
+    // Patricia login id is not case sensitive; compared like the email above
+    final boolean exists = query().select("SELECT 1 FROM person WHERE login_id = ?")
+        .params(LookupString.of(loginId))
+        .firstResult(Mappers.singleInteger())
+        .isPresent();
+    if (exists || loginId == null) {
+      return exists;
+    }
+    return query().select("SELECT 1 FROM person WHERE LOWER(login_id) = ?")
+        .params(LookupString.of(loginId.toLowerCase(Locale.ROOT)))
         .firstResult(Mappers.singleInteger())
         .isPresent();
   }
@@ -204,7 +415,7 @@ public class PatriciaDao {
             + "    FROM work_code wc"
             + "      WHERE wc.work_code_id = :wc_id and wc.replace_amount = 1"
     )
-        .namedParam("wc_id", workCodeId)
+        .namedParam("wc_id", LookupString.of(workCodeId))
         .filter(Objects::nonNull)
         .firstResult(rs -> rs.getBigDecimal(1));
   }
@@ -220,24 +431,15 @@ public class PatriciaDao {
   // second level of hourly rate
   private Optional<PriceListEntry> findHourlyRateFromPriceList(final long caseId, final String workCodeId,
       final String loginId, final int roleTypeId, boolean useDefaultPriceList) {
-    Optional<Integer> actorId = query().select("SELECT DISTINCT ACTOR_ID FROM CASTING "
-        + "WHERE CASE_ID = :case_id AND ROLE_TYPE_ID = :role_type_id")
-        .namedParam("case_id", caseId)
-        .namedParam("role_type_id", roleTypeId)
-        .firstResult(Mappers.singleInteger());
+    Optional<Integer> actorId = findCaseActorId(caseId, roleTypeId);
     Optional<Integer> patPriceListId = Optional.empty();
     if (!useDefaultPriceList && actorId.isPresent()) {
-      patPriceListId = query().select("SELECT PRICE_LIST_ID FROM PAT_NAMES "
-          + "WHERE NAME_ID = :actor_id")
-          .namedParam("actor_id", actorId.get())
-          .firstResult(Mappers.singleInteger());
+      patPriceListId = findActorPriceListId(actorId.get());
     } else if (actorId.isEmpty()) {
       // default to 0 actor id, if none is found.
       actorId = Optional.of(0);
     }
-    Optional<Integer> defaultPriceListId = query().select("SELECT PRICE_LIST_ID FROM RENEWAL_PRICE_LIST "
-        + "WHERE DEFAULT_PRICE_LIST = 1")
-        .firstResult(Mappers.singleInteger());
+    Optional<Integer> defaultPriceListId = findDefaultPriceListId();
 
     if (defaultPriceListId.isEmpty() && patPriceListId.isEmpty()) {
       return Optional.empty();
@@ -275,12 +477,21 @@ public class PatriciaDao {
             + "    AND cpl.price_change_date <= GETDATE()"
             + "    AND cpl.price_list_id = :priceListId"
     )
-        .namedParam("wc_id", workCodeId)
+        .namedParam("wc_id", LookupString.of(workCodeId))
         .namedParam("case_id", caseId)
-        .namedParam("loginId", loginId)
+        .namedParam("loginId", LookupString.of(loginId))
         .namedParam("priceListId", priceListId)
         .listResult(this::mapPriceListEntry);
 
+    return selectPriceListEntry(prices, loginId, actorId.get());
+  }
+
+  /**
+   * Picks the price of the user, or else the price for all users ({@code ^}), of the actor, or else of no actor
+   * ({@code 0}), that changed last.
+   */
+  static Optional<PriceListEntry> selectPriceListEntry(final List<PriceListEntry> prices, final String loginId,
+      final int actorId) {
     Map<Boolean, List<PriceListEntry>> partitionedPrices = prices.stream()
         .collect(Collectors.partitioningBy(price -> loginId.equalsIgnoreCase(price.loginId())));
 
@@ -293,9 +504,8 @@ public class PatriciaDao {
       pricesAfterLoginFilter = partitionedPrices.get(true);
     }
 
-    final Integer finalActorId = actorId.get();
     partitionedPrices = pricesAfterLoginFilter.stream()
-        .collect(Collectors.partitioningBy(price -> finalActorId.equals(price.actorId())));
+        .collect(Collectors.partitioningBy(price -> Objects.equals(price.actorId(), actorId)));
 
     List<PriceListEntry> pricesAfterActorFilter;
     if (partitionedPrices.get(true).isEmpty()) {
@@ -310,6 +520,80 @@ public class PatriciaDao {
             .max(Comparator.comparing(PriceListEntry::priceChangeDate));
   }
 
+  Optional<Integer> findCaseActorId(final long caseId, final int roleTypeId) {
+    return query().select("SELECT DISTINCT ACTOR_ID FROM CASTING "
+        + "WHERE CASE_ID = :case_id AND ROLE_TYPE_ID = :role_type_id")
+        .namedParam("case_id", caseId)
+        .namedParam("role_type_id", roleTypeId)
+        .firstResult(Mappers.singleInteger());
+  }
+
+  Optional<Integer> findActorPriceListId(final int actorId) {
+    return query().select("SELECT PRICE_LIST_ID FROM PAT_NAMES "
+        + "WHERE NAME_ID = :actor_id")
+        .namedParam("actor_id", actorId)
+        .firstResult(Mappers.singleInteger());
+  }
+
+  Optional<Integer> findDefaultPriceListId() {
+    return query().select("SELECT PRICE_LIST_ID FROM RENEWAL_PRICE_LIST "
+        + "WHERE DEFAULT_PRICE_LIST = 1")
+        .firstResult(Mappers.singleInteger());
+  }
+
+  /**
+   * The case categories of the case with the lowest level that have a price for the work code, i.e. those the price
+   * list query ranks first.
+   */
+  List<CasePriceCategory> findCasePriceCategories(final long caseId, final String workCodeId) {
+    return query().select(
+        "SELECT rank_table.case_category_id, rank_table.work_code_id, rank_table.actor_id, "
+            + "       rank_table.price_list_id, rank_table.status_id, rank_table.currency_id "
+            + "FROM "
+            + "    (SELECT *, RANK() over (ORDER BY case_category_level ASC) rank_level "
+            + "    FROM fv_case_price_list fcpl "
+            + "    WHERE fcpl.case_id = :case_id AND fcpl.work_code_id = :wc_id) AS rank_table "
+            + "WHERE rank_table.rank_level = 1"
+    )
+        .namedParam("case_id", caseId)
+        .namedParam("wc_id", LookupString.of(workCodeId))
+        .listResult(rs -> CasePriceCategory.builder()
+            .caseCategoryId(rs.getInt("case_category_id"))
+            .workCodeId(rs.getString("work_code_id"))
+            .actorId(rs.getInt("actor_id"))
+            .priceListId(rs.getInt("price_list_id"))
+            .statusId(rs.getInt("status_id"))
+            .currencyId(rs.getString("currency_id"))
+            .build());
+  }
+
+  /**
+   * All rows of the price list table, including future price changes.
+   */
+  List<ChargingPrice> findChargingPrices() {
+    return scan(query -> query.select(
+        "SELECT price_list_id, work_code_id, case_category_id, actor_id, login_id, status_id, currency_id, price, "
+            + "       price_change_date "
+            + "FROM CHARGEING_PRICE_LIST")
+        .listResult(rs -> ChargingPrice.builder()
+            .priceListId(rs.getInt("price_list_id"))
+            .workCodeId(rs.getString("work_code_id"))
+            .caseCategoryId(rs.getInt("case_category_id"))
+            .actorId(rs.getInt("actor_id"))
+            .loginId(rs.getString("login_id"))
+            .statusId(rs.getInt("status_id"))
+            .currencyId(rs.getString("currency_id"))
+            .price(rs.getBigDecimal("price"))
+            .priceChangeDate(rs.getTimestamp("price_change_date").toLocalDateTime())
+            .build()));
+  }
+
+  LocalDateTime getDbDateTime() {
+    return query().select("SELECT getdate()")
+        .firstResult(rs -> rs.getTimestamp(1).toLocalDateTime())
+        .get();
+  }
+
   // third level of hourly rate
   Optional<RateCurrency> findPatPersonHourlyRate(final long case_id, final String workCodeId, final String loginId) {
     return query().select(
@@ -331,13 +615,55 @@ public class PatriciaDao {
                 + "    )"
                 + " ORDER BY pphr.NAME_ROLE_TYPE_ID DESC, pphr.WORK_CODE_ID DESC"
     )
-        .namedParam("login_id", loginId)
-        .namedParam("wc_id", workCodeId)
+        .namedParam("login_id", LookupString.of(loginId))
+        .namedParam("wc_id", LookupString.of(workCodeId))
         .namedParam("case_id", case_id)
         .filter(Objects::nonNull)
         .firstResult(this::mapRateCurrency);
   }
 
+  /**
+   * All rows of pat_person_hourly_rate, in the order they were created.
+   */
+  List<PersonHourlyRate> findPersonHourlyRates() {
+    return scan(query -> query.select(
+        "SELECT login_id, name_id, name_role_type_id, work_code_id, currency, hourly_rate "
+            + "FROM pat_person_hourly_rate ORDER BY pat_person_hourly_rate_id")
+        .listResult(rs -> PersonHourlyRate.builder()
+            .loginId(rs.getString("login_id"))
+            .nameId(rs.getObject("name_id", Integer.class))
+            .nameRoleTypeId(rs.getObject("name_role_type_id", Integer.class))
+            .workCodeId(rs.getString("work_code_id"))
+            .currency(rs.getString("currency"))
+            .hourlyRate(rs.getBigDecimal("hourly_rate"))
+            .build()));
+  }
+
+  /**
+   * The names of person hourly rates that have a role in any case.
+   */
+  Set<Integer> findPersonHourlyRateNamesWithRoles() {
+    return scan(query -> query.select(
+        "SELECT DISTINCT fvnc.name_id FROM FV_name_concatenation fvnc "
+            + "WHERE fvnc.name_id IN (SELECT pphr.name_id FROM pat_person_hourly_rate pphr)")
+        .setResult(Mappers.singleInteger()));
+  }
+
+  /**
+   * The roles that the names of person hourly rates have in the case.
+   */
+  List<NameRole> findCaseNameRoles(final long caseId) {
+    return query().select(
+        "SELECT DISTINCT fvnc.name_id, fvnc.role_type_id FROM FV_name_concatenation fvnc "
+            + "WHERE (fvnc.case_id = :case_id OR fvnc.case_id IS NULL) "
+            + "AND fvnc.name_id IN (SELECT pphr.name_id FROM pat_person_hourly_rate pphr)")
+        .namedParam("case_id", caseId)
+        .listResult(rs -> NameRole.builder()
+            .nameId(rs.getInt("name_id"))
+            .roleTypeId(rs.getObject("role_type_id", Integer.class))
+            .build());
+  }
+
   // last level of hourly rate
   Optional<BigDecimal> findPersonDefaultHourlyRate(final String loginId) {
     return query().select(
@@ -345,7 +671,7 @@ public class PatriciaDao {
             + "    FROM person"
             + "    WHERE person.login_id = :login_id"
     )
-        .namedParam("login_id", loginId)
+        .namedParam("login_id", LookupString.of(loginId))
         .filter(Objects::nonNull)
         .firstResult(rs -> rs.getBigDecimal(1));
   }
@@ -371,7 +697,7 @@ public class PatriciaDao {
             + "AND (wcdh.work_code_id IS NULL OR wcdh.work_code_id = :work_code_id)")
         .namedParam("case_id", caseId)
         .namedParam("role_type_id", roleTypeId)
-        .namedParam("work_code_id", workCodeId)
+        .namedParam("work_code_id", LookupString.of(workCodeId))
         .listResult(this::mapDiscountRecord);  // returns an immutable list
   }
 
@@ -380,7 +706,7 @@ public class PatriciaDao {
         + " pc.case_type_id, pc.state_id, pc.application_type_id "
         + " FROM vw_case_number vcn JOIN pat_case pc ON vcn.case_id = pc.case_id "
         + " WHERE vcn.case_number = ?")
-        .params(caseNumber)
+        .params(LookupString.of(caseNumber))
         .firstResult(this::mapToCase);
   }
 
@@ -402,185 +728,304 @@ public class PatriciaDao {
   }
 
   long addTimeRegistration(TimeRegistration timeRegistration) {
-    return query().update(
-        "INSERT INTO time_registration ("
-            + "  work_code_id,"
-            + "  case_id,"
-            + "  registration_date_time,"
-            + "  login_id,"
-            + "  calendar_date,"
-            + "  worked_time,"
-            + "  debited_time,"
-            + "  time_transferred,"
-            + "  number_of_words,"
-            + "  worked_amount,"
-            + "  b_l_case_id,"
-            + "  time_comment_invoice,"
-            + "  time_comment,"
-            + "  B_L_SEQ_NUMBER,"
-            + "  earliest_invoice_date "
-            + ")"
-            + "VALUES ("
-            + "  :wc, :cid, :rd, :li, :cd, :wt, :dt, :tt, :nw, :wa, :bci, :tci, :tc, :blseq, :eid"
-            + ")"
-    )
-        .namedParam("wc", timeRegistration.workCodeId())
-        .namedParam("cid", timeRegistration.caseId())
-        .namedParam("rd", timeRegistration.submissionDate())
-        .namedParam("li", timeRegistration.userId())
-        .namedParam("cd", timeRegistration.activityDate())
-        .namedParam("wt", timeRegistration.actualHours())
-        .namedParam("dt", timeRegistration.chargeableHours())
-        .namedParam("tt", null)
-        .namedParam("nw", null)
-        .namedParam("wa", "0.00")
-        .namedParam("bci", timeRegistration.caseId())
-        .namedParam("tci", timeRegistration.comment())
-        .namedParam("tc", timeRegistration.comment())
-        .namedParam("blseq", timeRegistration.budgetLineSequenceNumber())
-        .namedParam("eid", timeRegistration.submissionDate())
-        .run().affectedRows();
+    return insert("time_registration", timeRegistrationRow(timeRegistration));
   }
 
   long addBudgetLine(BudgetLine budgetLine) {
-    return query().update(
-        "INSERT INTO budget_line ("
-            + "  b_l_seq_number,"
-            + "  work_code_id,"
-            + "  b_l_quantity,"
-            + "  b_l_org_quantity,"
-            + "  b_l_unit_price,"
-            + "  b_l_org_unit_price,"
-            + "  b_l_unit_price_no_discount,"
-            + "  deb_handlagg,"
-            + "  b_l_amount,"
-            + "  b_l_org_amount,"
-            + "  case_id,"
-            + "  show_time_comment,"
-            + "  registered_by,"
-            + "  earliest_inv_date,"
-            + "  b_l_comment,"
-            + "  recorded_date,"
-            + "  discount_prec,"
-            + "  discount_amount,"
-            + "  currency_id,"
-            + "  exchange_rate, "
-            + "  INDICATOR,"
-            + "  EXTERNAL_INVOICE_DATE,"
-            + "  CHARGEING_TYPE_ID"
-            + ") "
-            + "VALUES ("
-            + "  :bsn, :wc, :dt, :wt, :upd, :upd, :up, :li, :ttlblamt, :ttlbloamt, :cid, "
-            + "  :stc, :li, :eid, :tci, :rd, :discperc, :discamt, :cur, :er, :indicator, :xid, :chargeing_type_id"
-            + ")"
-    )
-        // make sure BigDecimal scales match the DB
-        .namedParam("bsn", budgetLine.budgetLineSequenceNumber())
-        .namedParam("wc", budgetLine.workCodeId())
-        .namedParam("dt", budgetLine.chargeableWorkTotalHours().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("wt", budgetLine.actualWorkTotalHours().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("upd", budgetLine.effectiveHourlyRate().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("up", budgetLine.hourlyRate().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("li", budgetLine.userId())
-        .namedParam("ttlblamt", budgetLine.chargeableAmount().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("ttlbloamt", budgetLine.actualWorkTotalAmount().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("cid", budgetLine.caseId())
-        .namedParam("stc", 1)
-        .namedParam("eid", budgetLine.submissionDate())
-        .namedParam("tci", budgetLine.comment())
-        .namedParam("rd", budgetLine.submissionDate())
-        .namedParam("discperc", budgetLine.discountPercentage().setScale(6, RoundingMode.HALF_UP))
-        .namedParam("discamt", budgetLine.discountAmount().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("cur", budgetLine.currency())
-        .namedParam("er", 1)
-        .namedParam("indicator", "TT")
-        .namedParam("xid", budgetLine.activityDate())
-        .namedParam("chargeing_type_id", budgetLine.chargeTypeId())
-        .run().affectedRows();
+    return insert("budget_line", budgetLineRow(budgetLine, false));
   }
 
   long addBudgetLineFromPriceList(BudgetLine budgetLine) {
+    return insert("budget_line", budgetLineRow(budgetLine, true));
+  }
+
+  private long insert(final String table, final Map<String, Object> row) {
     return query().update(
-        "INSERT INTO budget_line ("
-            + "  b_l_seq_number,"
-            + "  work_code_id,"
-            + "  b_l_quantity,"
-            + "  b_l_org_quantity,"
-            + "  b_l_unit_price,"
-            + "  b_l_org_unit_price,"
-            + "  b_l_unit_price_no_discount,"
-            + "  deb_handlagg,"
-            + "  b_l_amount,"
-            + "  b_l_org_amount,"
-            + "  case_id,"
-            + "  show_time_comment,"
-            + "  registered_by,"
-            + "  earliest_inv_date,"
-            + "  b_l_comment,"
-            + "  recorded_date,"
-            + "  discount_prec,"
-            + "  discount_amount,"
-            + "  currency_id,"
-            + "  exchange_rate, "
-            + "  INDICATOR,"
-            + "  EXTERNAL_INVOICE_DATE,"
-            + "  CHARGEING_TYPE_ID,"
-            + "  P_L_ORG_UNIT_PRICE, "
-            + "  P_L_ORG_UNIT_PRICE_NO_DISCOUNT,"
-            + "  P_L_ORG_AMOUNT,"
-            + "  P_L_ORG_CURRENCY_ID"
-            + ") "
-            + "VALUES ("
-            + "  :bsn, :wc, :dt, :wt, :upd, :upd, :up, :li, :ttlblamt, :ttlbloamt, :cid, "
-            + "  :stc, :li, :eid, :tci, :rd, :discperc, :discamt, :cur, :er, :indicator, :xid, :chargeing_type_id,"
-            + "  :upd, :up, :ttlblamt, :cur"
-            + ")"
-    )
-        // make sure BigDecimal scales match the DB
-        .namedParam("bsn", budgetLine.budgetLineSequenceNumber())
-        .namedParam("wc", budgetLine.workCodeId())
-        .namedParam("dt", budgetLine.chargeableWorkTotalHours().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("wt", budgetLine.actualWorkTotalHours().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("upd", budgetLine.effectiveHourlyRate().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("up", budgetLine.hourlyRate().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("li", budgetLine.userId())
-        .namedParam("ttlblamt", budgetLine.chargeableAmount().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("ttlbloamt", budgetLine.actualWorkTotalAmount().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("cid", budgetLine.caseId())
-        .namedParam("stc", 1)
-        .namedParam("eid", budgetLine.submissionDate())
-        .namedParam("tci", budgetLine.comment())
-        .namedParam("rd", budgetLine.submissionDate())
-        .namedParam("discperc", budgetLine.discountPercentage().setScale(6, RoundingMode.HALF_UP))
-        .namedParam("discamt", budgetLine.discountAmount().setScale(2, RoundingMode.HALF_UP))
-        .namedParam("cur", budgetLine.currency())
-        .namedParam("er", 1)
-        .namedParam("indicator", "TT")
-        .namedParam("xid", budgetLine.activityDate())
-        .namedParam("chargeing_type_id", budgetLine.chargeTypeId())
+        "INSERT INTO " + table + " (" + String.join(", ", row.keySet()) + ") "
+            + "VALUES (" + row.keySet().stream().map(column -> ":" + column).collect(Collectors.joining(", ")) + ")")
+        .namedParams(row)
         .run().affectedRows();
   }
 
+  /**
+   * Column values of a time registration, shared by the live inserts and the bulk import so that both write the same
+   * rows.
+   */
+  static Map<String, Object> timeRegistrationRow(final TimeRegistration timeRegistration) {
+    final Map<String, Object> row = new LinkedHashMap<>();
+    row.put("work_code_id", timeRegistration.workCodeId());
+    row.put("case_id", timeRegistration.caseId());
+    row.put("registration_date_time", timeRegistration.submissionDate());
+    row.put("login_id", timeRegistration.userId());
+    row.put("calendar_date", timeRegistration.activityDate());
+    row.put("worked_time", timeRegistration.actualHours());
+    row.put("debited_time", timeRegistration.chargeableHours());
+    row.put("time_transferred", null);
+    row.put("number_of_words", null);
+    row.put("worked_amount", "0.00");
+    row.put("b_l_case_id", timeRegistration.caseId());
+    row.put("time_comment_invoice", UnicodeString.of(timeRegistration.comment()));
+    row.put("time_comment", UnicodeString.of(timeRegistration.comment()));
+    row.put("b_l_seq_number", timeRegistration.budgetLineSequenceNumber());
+    row.put("earliest_invoice_date", timeRegistration.submissionDate());
+    return row;
+  }
+
+  /**
+   * Column values of a budget line, shared by the live inserts and the bulk import so that both write the same rows.
+   *
+   * @param fromPriceList whether the rate came from the price list, which is recorded in the P_L_ columns
+   */
+  static Map<String, Object> budgetLineRow(final BudgetLine budgetLine, final boolean fromPriceList) {
+    // make sure BigDecimal scales match the DB
+    final BigDecimal effectiveHourlyRate = budgetLine.effectiveHourlyRate().setScale(2, RoundingMode.HALF_UP);
+    final BigDecimal hourlyRate = budgetLine.hourlyRate().setScale(2, RoundingMode.HALF_UP);
+    final BigDecimal chargeableAmount = budgetLine.chargeableAmount().setScale(2, RoundingMode.HALF_UP);
+
+    final Map<String, Object> row = new LinkedHashMap<>();
+    row.put("b_l_seq_number", budgetLine.budgetLineSequenceNumber());
+    row.put("work_code_id", budgetLine.workCodeId());
+    row.put("b_l_quantity", budgetLine.chargeableWorkTotalHours().setScale(2, RoundingMode.HALF_UP));
+    row.put("b_l_org_quantity", budgetLine.actualWorkTotalHours().setScale(2, RoundingMode.HALF_UP));
+    row.put("b_l_unit_price", effectiveHourlyRate);
+    row.put("b_l_org_unit_price", effectiveHourlyRate);
+    row.put("b_l_unit_price_no_discount", hourlyRate);
+    row.put("deb_handlagg", budgetLine.userId());
+    row.put("b_l_amount", chargeableAmount);
+    row.put("b_l_org_amount", budgetLine.actualWorkTotalAmount().setScale(2, RoundingMode.HALF_UP));
+    row.put("case_id", budgetLine.caseId());
+    row.put("show_time_comment", 1);
+    row.put("registered_by", budgetLine.userId());
+    row.put("earliest_inv_date", budgetLine.submissionDate());
+    row.put("b_l_comment", UnicodeString.of(budgetLine.comment()));
+    row.put("recorded_date", budgetLine.submissionDate());
+    row.put("discount_prec", budgetLine.discountPercentage().setScale(6, RoundingMode.HALF_UP));
+    row.put("discount_amount", budgetLine.discountAmount().setScale(2, RoundingMode.HALF_UP));
+    row.put("currency_id", budgetLine.currency());
+    row.put("exchange_rate", 1);
+    row.put("indicator", "TT");
+    row.put("external_invoice_date", budgetLine.activityDate());
+    row.put("chargeing_type_id", budgetLine.chargeTypeId());
+    if (fromPriceList) {
+      row.put("p_l_org_unit_price", effectiveHourlyRate);
+      row.put("p_l_org_unit_price_no_discount", hourlyRate);
+      row.put("p_l_org_amount", chargeableAmount);
+      row.put("p_l_org_currency_id", budgetLine.currency());
+    }
+    return row;
+  }
+
   String getDbDate() {
     return query().select("SELECT getdate()").firstResult(Mappers.singleString()).get();
   }
 
+  /**
+   * Reads the next budget line sequence number of the case. Within a transaction, the read holds an update lock on the
+   * key range of the case until the end of the transaction, so that concurrent posts to the same case wait for each
+   * other instead of taking the same sequence number.
+   */
   int findNextBudgetLineSeqNum(long caseId) {
     return query()
-        .select("SELECT MAX(b_l_seq_number)+1 FROM budget_line bl WHERE bl.case_id = ?")
+        .select("SELECT MAX(b_l_seq_number)+1 FROM budget_line bl WITH (UPDLOCK, HOLDLOCK) WHERE bl.case_id = ?")
         .params(caseId)
         .firstResult(rs -> NumberUtils.toInt(rs.getString(1), 1))
         .orElse(1);
 
   }
 
+  /**
+   * Writes the planned time and charge records of the bulk import in a single transaction, with {@code SQLServerBulkCopy}
+   * instead of an insert per row. Budget line sequence numbers continue from the highest per case, read with the
+   * same update lock as {@link #findNextBudgetLineSeqNum(long)}, so that live posts to these cases wait for the import.
+   * The written budget lines are reconciled with the plans before committing, and the transaction is rolled back if
+   * they do not match.
+   *
+   * @return the number of budget lines written
+   */
+  int bulkImport(final List<TimeAndChargePlan> plans) {
+    if (plans.isEmpty()) {
+      return 0;
+    }
+    return query().transaction().in(() -> query().plainConnection(connection -> {
+      final Map<Long, Integer> lastSeqNums = findLastBudgetLineSeqNums(connection, plans);
+      final Map<Long, Integer> firstSeqNums = new HashMap<>();
+      final Map<Long, String> budgetEditDates = new LinkedHashMap<>();
+      final List<Map<String, Object>> budgetLines = new ArrayList<>();
+      final List<Map<String, Object>> priceListBudgetLines = new ArrayList<>();
+      final List<Map<String, Object>> timeRegistrations = new ArrayList<>();
+
+      for (TimeAndChargePlan plan : plans) {
+        final long caseId = plan.patriciaCase().caseId();
+        final int seqNum = lastSeqNums.merge(caseId, 1, Integer::sum);
+        firstSeqNums.putIfAbsent(caseId, seqNum);
+        // the last post to a case sets the edit date, as posting one after the other would
+        budgetEditDates.put(caseId, plan.submissionDate());
+
+        final BudgetLine budgetLine = plan.budgetLine().toBuilder().budgetLineSequenceNumber(seqNum).build();
+        (plan.rateFromPriceList() ? priceListBudgetLines : budgetLines)
+            .add(budgetLineRow(budgetLine, plan.rateFromPriceList()));
+        timeRegistrations.add(timeRegistrationRow(
+            plan.timeRegistration().toBuilder().budgetLineSequenceNumber(seqNum).build()));
+      }
+
+      bulkCopy(connection, "budget_line", budgetLines);
+      bulkCopy(connection, "budget_line", priceListBudgetLines);
+      bulkCopy(connection, "time_registration", timeRegistrations);
+      writeBudgetHeaders(connection, budgetEditDates);
+
+      reconcileBudgetLines(connection, plans, firstSeqNums, lastSeqNums);
+      return budgetLines.size() + priceListBudgetLines.size();
+    }));
+  }
+
+  private Map<Long, Integer> findLastBudgetLineSeqNums(final Connection connection, final List<TimeAndChargePlan> plans)
+      throws SQLException {
+    final List<Long> caseIds = plans.stream()
+        .map(plan -> plan.patriciaCase().caseId())
+        .distinct()
+        .collect(toList());
+    final Map<Long, Integer> lastSeqNums = new HashMap<>();
+    caseIds.forEach(caseId -> lastSeqNums.put(caseId, 0));
+    for (List<Long> chunk : Lists.partition(caseIds, BULK_IMPORT_CASES_PER_QUERY)) {
+      // update locks conflict with each other, so live posts to these cases block on their own locked read of the
+      // sequence number until the import commits, instead of taking the same sequence numbers
+      final String sql = "SELECT case_id, MAX(b_l_seq_number) FROM budget_line WITH (UPDLOCK, HOLDLOCK)"
+          + " WHERE case_id IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")"
+          + " GROUP BY case_id";
+      try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        for (int i = 0; i < chunk.size(); i++) {
+          statement.setLong(i + 1, chunk.get(i));
+        }
+        try (ResultSet resultSet = statement.executeQuery()) {
+          while (resultSet.next()) {
+            lastSeqNums.put(resultSet.getLong(1), resultSet.getInt(2));
+          }
+        }
+      }
+    }
+    return lastSeqNums;
+  }
+
+  private void bulkCopy(final Connection connection, final String table, final List<Map<String, Object>> rows)
+      throws SQLException {
+    if (rows.isEmpty()) {
+      return;
+    }
+    final List<String> columns = new ArrayList<>(rows.get(0).keySet());
+    final BulkRows bulkRows;
+    try (Statement statement = connection.createStatement();
+        ResultSet destination = statement.executeQuery("SELECT TOP 0 * FROM " + table)) {
+      bulkRows = new BulkRows(destination.getMetaData(), columns, rows);
+    }
+
+    final SQLServerBulkCopyOptions options = new SQLServerBulkCopyOptions();
+    // part of the surrounding transaction, and checked like an insert statement
+    options.setUseInternalTransaction(false);
+    options.setFireTriggers(true);
+    options.setCheckConstraints(true);
+    options.setKeepNulls(true);
+    options.setBatchSize(rows.size());
+    try (SQLServerBulkCopy bulkCopy = new SQLServerBulkCopy(connection.unwrap(SQLServerConnection.class))) {
+      bulkCopy.setBulkCopyOptions(options);
+      bulkCopy.setDestinationTableName(table);
+      for (int i = 0; i < columns.size(); i++) {
+        bulkCopy.addColumnMapping(i + 1, columns.get(i));
+      }
+      bulkCopy.writeToServer(bulkRows);
+    }
+    log.debug("Bulk copied {} rows to {}", rows.size(), table);
+  }
+
+  private void writeBudgetHeaders(final Connection connection, final Map<Long, String> budgetEditDates)
+      throws SQLException {
+    final Set<Long> existing = new HashSet<>();
+    for (List<Long> chunk : Lists.partition(new ArrayList<>(budgetEditDates.keySet()), BULK_IMPORT_CASES_PER_QUERY)) {
+      final String sql = "SELECT case_id FROM budget_header WITH (UPDLOCK, HOLDLOCK)"
+          + " WHERE case_id IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+      try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        for (int i = 0; i < chunk.size(); i++) {
+          statement.setLong(i + 1, chunk.get(i));
+        }
+        try (ResultSet resultSet = statement.executeQuery()) {
+          while (resultSet.next()) {
+            existing.add(resultSet.getLong(1));
+          }
+        }
+      }
+    }
+
+    final List<Map<String, Object>> newHeaders = new ArrayList<>();
+    try (PreparedStatement update =
+             connection.prepareStatement("UPDATE budget_header SET budget_edit_date = ? WHERE case_id = ?")) {
+      for (Map.Entry<Long, String> editDate : budgetEditDates.entrySet()) {
+        if (existing.contains(editDate.getKey())) {
+          update.setString(1, editDate.getValue());
+          update.setLong(2, editDate.getKey());
+          update.addBatch();
+        } else {
+          final Map<String, Object> header = new LinkedHashMap<>();
+          header.put("case_id", editDate.getKey());
+          header.put("budget_edit_date", editDate.getValue());
+          newHeaders.add(header);
+        }
+      }
+      if (!existing.isEmpty()) {
+        update.executeBatch();
+      }
+    }
+    bulkCopy(connection, "budget_header", newHeaders);
+  }
+
+  /**
+   * Compares count and total amount of the budget lines in the sequence numbers taken by the import with the plans.
+   */
+  private void reconcileBudgetLines(final Connection connection, final List<TimeAndChargePlan> plans,
+                                    final Map<Long, Integer> firstSeqNums, final Map<Long, Integer> lastSeqNums)
+      throws SQLException {
+    final Map<Long, ImmutablePair<Long, BigDecimal>> planned = new HashMap<>();
+    for (TimeAndChargePlan plan : plans) {
+      planned.merge(plan.patriciaCase().caseId(),
+          ImmutablePair.of(1L, plan.budgetLine().chargeableAmount().setScale(2, RoundingMode.HALF_UP)),
+          (a, b) -> ImmutablePair.of(a.left + b.left, a.right.add(b.right)));
+    }
+
+    final Map<Long, ImmutablePair<Long, BigDecimal>> written = new HashMap<>();
+    for (List<Long> chunk : Lists.partition(new ArrayList<>(firstSeqNums.keySet()), BULK_IMPORT_CASES_PER_QUERY)) {
+      final String sql = "SELECT case_id, COUNT(*), SUM(b_l_amount) FROM budget_line WHERE "
+          + String.join(" OR ", Collections.nCopies(chunk.size(), "(case_id = ? AND b_l_seq_number BETWEEN ? AND ?)"))
+          + " GROUP BY case_id";
+      try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        int index = 1;
+        for (long caseId : chunk) {
+          statement.setLong(index++, caseId);
+          statement.setInt(index++, firstSeqNums.get(caseId));
+          statement.setInt(index++, lastSeqNums.get(caseId));
+        }
+        try (ResultSet resultSet = statement.executeQuery()) {
+          while (resultSet.next()) {
+            final BigDecimal amount = Optional.ofNullable(resultSet.getBigDecimal(3)).orElse(BigDecimal.ZERO);
+            written.put(resultSet.getLong(1), ImmutablePair.of(resultSet.getLong(2), amount.setScale(2)));
+          }
+        }
+      }
+    }
+
+    final List<Long> mismatched = planned.keySet().stream()
+        .filter(caseId -> !planned.get(caseId).equals(written.get(caseId)))
+        .sorted()
+        .collect(toList());
+    if (!mismatched.isEmpty()) {
+      throw new IllegalStateException("Imported budget lines do not match the planned ones for case IDs " + mismatched);
+    }
+  }
+
   /**
    * Returns active work codes of type `T` with localized text. Language of the localization can be set using {@link
    * PatriciaConnectorConfigKey#PATRICIA_LANGUAGE} property. English is used by default.
    */
   List<WorkCode> findWorkCodes(int offset, int limit) {
     final String language = RuntimeConfig.getString(PatriciaConnectorConfigKey.PATRICIA_LANGUAGE).orElse("English");
-    return query()
+    return readOnlyQuery()
         .select("SELECT "
             + "   WC.WORK_CODE_ID AS work_code_id,"
             + "   WCT.WORK_CODE_TEXT AS work_code_text"
@@ -696,14 +1141,111 @@ public class PatriciaDao {
     return fluentJdbc.query();
   }
 
+  private Query readOnlyQuery() {
+    return readOnlyFluentJdbc.query();
+  }
+
+  /**
+   * Runs a background scan on the read-only pool with the configured {@link ScanIsolation}. Falls back to plain READ
+   * COMMITTED if the database does not allow the requested isolation.
+   */
+  private <T> T scan(final Function<Query, T> scan) {
+    if (scanIsolation() != ScanIsolation.SNAPSHOT) {
+      return scan.apply(readOnlyQuery());
+    }
+    try {
+      return readOnlyQuery().transaction().in(() -> {
+        // the pool restores the isolation level when the connection is returned
+        readOnlyQuery().plainConnection(connection -> {
+          connection.setTransactionIsolation(SQLServerConnection.TRANSACTION_SNAPSHOT);
+          return null;
+        });
+        return scan.apply(readOnlyQuery());
+      });
+    } catch (FluentJdbcException e) {
+      if (!isSnapshotIsolationNotAllowed(e)) {
+        throw e;
+      }
+      log.warn("Snapshot isolation is no longer allowed on the Patricia database, falling back to READ_COMMITTED scans");
+      scanIsolation = ScanIsolation.READ_COMMITTED;
+      return scan.apply(readOnlyQuery());
+    }
+  }
+
+  private ScanIsolation scanIsolation() {
+    if (scanIsolation == null) {
+      scanIsolation = resolveScanIsolation();
+    }
+    return scanIsolation;
+  }
+
+  private ScanIsolation resolveScanIsolation() {
+    if (requestedScanIsolation == ScanIsolation.READ_COMMITTED) {
+      return ScanIsolation.READ_COMMITTED;
+    }
+    final boolean enabled = readOnlyQuery()
+        .select("SELECT snapshot_isolation_state, is_read_committed_snapshot_on FROM sys.databases WHERE name = DB_NAME()")
+        .firstResult(rs -> requestedScanIsolation == ScanIsolation.SNAPSHOT
+            // 1 = ON; transitional states do not allow new snapshot transactions yet
+            ? rs.getInt("snapshot_isolation_state") == 1
+            : rs.getBoolean("is_read_committed_snapshot_on"))
+        .orElse(false);
+    if (!enabled) {
+      log.warn("{} isolation is configured for case scans, but is not enabled on the Patricia database. "
+          + "Falling back to READ_COMMITTED, scans will take shared locks.", requestedScanIsolation);
+      return ScanIsolation.READ_COMMITTED;
+    }
+    log.info("Running case scans with {} isolation", requestedScanIsolation);
+    return requestedScanIsolation;
+  }
+
+  private static boolean isSnapshotIsolationNotAllowed(final Throwable throwable) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      // Snapshot isolation transaction failed accessing database because snapshot isolation is not allowed
+      if (cause instanceof SQLException && ((SQLException) cause).getErrorCode() == 3952) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   void shutdown() {
+    statementStats.logSummary();
     hikariDataSource.close();
+    if (readOnlyDataSource != null) {
+      readOnlyDataSource.close();
+    }
+    if (healthCheckDataSource != null) {
+      healthCheckDataSource.close();
+    }
   }
 
   /**
-   * This maps some fields from pat_case and vw_case_number tables in Patricia DB.
-   * It holds relevant data for a case, which are needed for creating tag and calculating discount priority.
+   * Connection usage of a Hikari pool at one point in time, reported by the health check.
    */
+  @Data
+  @Builder
+  @Accessors(fluent = true)
+  public static class PoolStats {
+
+    private int active;
+    private int idle;
+    private int total;
+    private int threadsAwaitingConnection;
+  }
+
+  /**
+   * Isolation level of background case scans.
+   */
+  enum ScanIsolation {
+    // scans take shared locks and can block, or be blocked by, Patricia users
+    READ_COMMITTED,
+    // scans read a consistent row version snapshot; requires ALLOW_SNAPSHOT_ISOLATION on the database
+    SNAPSHOT,
+    // READ COMMITTED reads use row versions; requires READ_COMMITTED_SNAPSHOT on the database
+    READ_COMMITTED_SNAPSHOT
+  }
+
   @Data
   @Builder
   @Accessors(fluent = true)
@@ -717,13 +1259,14 @@ public class PatriciaDao {
     private String stateId;
     private Integer appId;
 
-    UpsertTagRequest toUpsertTagRequest(final String path) {
+    UpsertTagRequest toUpsertTagRequest(final String path, @Nullable final String urlPrefix) {
       final UpsertTagRequest upsertTagRequest = new UpsertTagRequest();
       upsertTagRequest.path(path);
       upsertTagRequest.name(caseNumber);
       upsertTagRequest.setDescription(StringUtils.trimToEmpty(caseCatchWord));
-      RuntimeConfig.getString(PatriciaConnectorConfigKey.PATRICIA_CASE_URL_PREFIX)
-          .ifPresent(urlPrefix -> upsertTagRequest.url(urlPrefix + caseNumber));
+      if (urlPrefix != null) {
+        upsertTagRequest.url(urlPrefix + caseNumber);
+      }
       return upsertTagRequest;
     }
   }
@@ -756,7 +1299,7 @@ public class PatriciaDao {
   }
 
   @Data
-  @Builder
+  @Builder(toBuilder = true)
   @Accessors(fluent = true)
   public static class TimeRegistration {
 
@@ -772,7 +1315,7 @@ public class PatriciaDao {
   }
 
   @Data
-  @Builder
+  @Builder(toBuilder = true)
   @Accessors(fluent = true)
   public static class BudgetLine {
 
@@ -810,6 +1353,44 @@ public class PatriciaDao {
     private Instant recordalDate;
   }
 
+  /**
+   * Records to insert for posting to a case. The budget line sequence number is assigned when writing.
+   */
+  @Value
+  @Builder
+  @Accessors(fluent = true)
+  public static class TimeAndChargePlan {
+    Case patriciaCase;
+    String userId;
+    String submissionDate;
+    boolean rateFromPriceList;
+    BudgetLine budgetLine;
+    TimeRegistration timeRegistration;
+  }
+
+  /**
+   * String parameter for an NVARCHAR or NTEXT column. Plain strings are sent as VARCHAR and lose the characters outside
+   * of the database code page.
+   */
+  @Value(staticConstructor = "of")
+  @Accessors(fluent = true)
+  static class UnicodeString {
+    @Nullable
+    String value;
+  }
+
+  /**
+   * String parameter of a lookup on a column that is VARCHAR in some Patricia versions and NVARCHAR in others, like case
+   * numbers, login ids and work codes. Sent as VARCHAR, so that a VARCHAR column can seek its index, unless the value
+   * has characters outside of ASCII, which are sent as NVARCHAR so that the lookup still matches them.
+   */
+  @Value(staticConstructor = "of")
+  @Accessors(fluent = true)
+  static class LookupString {
+    @Nullable
+    String value;
+  }
+
   @Data
   @Builder
   @Accessors(fluent = true)
@@ -824,6 +1405,71 @@ public class PatriciaDao {
     private Date priceChangeDate;
   }
 
+  /**
+   * Row of CHARGEING_PRICE_LIST.
+   */
+  @Value
+  @Builder(toBuilder = true)
+  @Accessors(fluent = true)
+  public static class ChargingPrice {
+    int priceListId;
+    String workCodeId;
+    int caseCategoryId;
+    int actorId;
+    String loginId;
+    int statusId;
+    String currencyId;
+    BigDecimal price;
+    LocalDateTime priceChangeDate;
+  }
+
+  /**
+   * Case category of a case from fv_case_price_list, which selects the prices that apply to the case.
+   */
+  @Value
+  @Builder
+  @Accessors(fluent = true)
+  public static class CasePriceCategory {
+    int caseCategoryId;
+    String workCodeId;
+    int actorId;
+    int priceListId;
+    int statusId;
+    String currencyId;
+  }
+
+  /**
+   * Row of pat_person_hourly_rate. The rate applies to cases in which its name has its role, if set, and to its work
+   * code, if set.
+   */
+  @Value
+  @Builder
+  @Accessors(fluent = true)
+  public static class PersonHourlyRate {
+    String loginId;
+    @Nullable
+    Integer nameId;
+    @Nullable
+    Integer nameRoleTypeId;
+    @Nullable
+    String workCodeId;
+    String currency;
+    @Nullable
+    BigDecimal hourlyRate;
+  }
+
+  /**
+   * Role of a name in a case, from FV_name_concatenation.
+   */
+  @Value
+  @Builder
+  @Accessors(fluent = true)
+  public static class NameRole {
+    int nameId;
+    @Nullable
+    Integer roleTypeId;
+  }
+
   @Data
   @Builder
   @Accessors(fluent = true)
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.google.common.collect.ImmutableSet;
+import io.wisetime.connector.config.RuntimeConfig;
+import io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Set;
+import javax.annotation.Nullable;
+import lombok.Builder;
+import lombok.Value;
+import lombok.experimental.Accessors;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Immutable snapshot of the connector settings that are read on the posting and tag sync paths.
+ *
+ * A snapshot is resolved from {@link RuntimeConfig} once, so that hot paths only do field reads. To pick up changed
+ * configuration a new snapshot is built and swapped in as a whole.
+ */
+@Value
+@Builder
+@Accessors(fluent = true)
+public class PatriciaSettings {
+
+  static final String DEFAULT_TAG_UPSERT_PATH = "/Patricia/";
+
+  int roleTypeId;
+  Set<String> zeroChargeWorkCodes;
+  String tagUpsertPath;
+  // tag path as returned by WiseTime for tags in the upsert path folder, i.e. without leading and trailing slashes
+  String strippedTagUpsertPath;
+  @Nullable
+  String caseUrlPrefix;
+  @Nullable
+  String invoiceCommentOverride;
+  ZoneId timeZone;
+  @Nullable
+  Integer chargeTypeId;
+  boolean useSysDefaultCurrency;
+  @Nullable
+  String fallbackCurrency;
+
+  /**
+   * Resolves a new settings snapshot from the current {@link RuntimeConfig}.
+   *
+   * @throws IllegalStateException if a required setting is missing
+   */
+  public static PatriciaSettings fromRuntimeConfig() {
+    final String tagUpsertPath = RuntimeConfig.getString(PatriciaConnectorConfigKey.TAG_UPSERT_PATH)
+        .orElse(DEFAULT_TAG_UPSERT_PATH);
+
+    return PatriciaSettings.builder()
+        .roleTypeId(RuntimeConfig.getInt(PatriciaConnectorConfigKey.PATRICIA_ROLE_TYPE_ID)
+            .orElseThrow(() ->
+                new IllegalStateException("Required configuration param PATRICIA_ROLE_TYPE_ID is not set.")))
+        .zeroChargeWorkCodes(Arrays.stream(
+            RuntimeConfig.getString(PatriciaConnectorConfigKey.WORK_CODES_ZERO_CHARGE).orElse("").split(","))
+            .map(String::trim)
+            .filter(workCode -> !workCode.isEmpty())
+            .collect(ImmutableSet.toImmutableSet()))
+        .tagUpsertPath(tagUpsertPath)
+        .strippedTagUpsertPath(StringUtils.strip(tagUpsertPath, "/"))
+        .caseUrlPrefix(RuntimeConfig.getString(PatriciaConnectorConfigKey.PATRICIA_CASE_URL_PREFIX).orElse(null))
+        .invoiceCommentOverride(RuntimeConfig.getString(PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE).orElse(null))
+        .timeZone(ZoneId.of(RuntimeConfig.getString(PatriciaConnectorConfigKey.TIMEZONE).orElse("UTC")))
+        .chargeTypeId(RuntimeConfig.getInt(PatriciaConnectorConfigKey.WT_CHARGE_TYPE_ID).orElse(null))
+        .useSysDefaultCurrency(
+            RuntimeConfig.getBoolean(PatriciaConnectorConfigKey.USE_SYSDEFAULT_CURRENCY_FOR_POSTING).orElse(false))
+        .fallbackCurrency(RuntimeConfig.getString(PatriciaConnectorConfigKey.FALLBACK_CURRENCY).orElse(null))
+        .build();
+  }
+}
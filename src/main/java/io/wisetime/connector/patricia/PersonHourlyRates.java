@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.wisetime.connector.config.RuntimeConfig;
+import io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
+import io.wisetime.connector.patricia.PatriciaDao.NameRole;
+import io.wisetime.connector.patricia.PatriciaDao.PersonHourlyRate;
+import io.wisetime.connector.patricia.PatriciaDao.RateCurrency;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the person hourly rate level of the hourly rate from an in-memory snapshot of pat_person_hourly_rate,
+ * instead of joining it with the FV_name_concatenation view for every post.
+ *
+ * The rates are indexed by login id and kept in the order of the query, {@code NAME_ROLE_TYPE_ID DESC, WORK_CODE_ID
+ * DESC}, with rates without role or work code last. Per post, only the roles that the names of the rates have in the
+ * case are read from the database, and they are cached until the snapshot is reloaded. The result is the same as
+ * {@link PatriciaDao#findPatPersonHourlyRate}, which is used until the snapshot is loaded.
+ */
+@Singleton
+class PersonHourlyRates {
+
+  private static final Logger log = LoggerFactory.getLogger(PersonHourlyRates.class);
+
+  // like ORDER BY ... DESC in SQL Server, which sorts NULL as the lowest value
+  private static final Comparator<PersonHourlyRate> QUERY_ORDER = Comparator
+      .comparing(PersonHourlyRate::nameRoleTypeId, Comparator.nullsFirst(Comparator.<Integer>naturalOrder()))
+      .thenComparing(PersonHourlyRate::workCodeId, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER))
+      .reversed();
+
+  private final PatriciaDao patriciaDao;
+
+  @Nullable
+  private volatile Snapshot snapshot;
+  private ScheduledExecutorService refreshExecutor;
+
+  @Inject
+  PersonHourlyRates(PatriciaDao patriciaDao) {
+    this.patriciaDao = patriciaDao;
+  }
+
+  /**
+   * Loads the snapshot and schedules its reloads, if enabled in the configuration. Restarts the schedule if already
+   * started.
+   */
+  synchronized void start() {
+    stop();
+    final int refreshMinutes = RuntimeConfig.getInt(PatriciaConnectorConfigKey.PERSON_RATE_REFRESH_MINUTES).orElse(0);
+    if (refreshMinutes <= 0) {
+      snapshot = null;
+      return;
+    }
+    refresh();
+
+    refreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("patricia-person-rate-refresh-%d")
+        .setDaemon(true)
+        .build());
+    refreshExecutor.scheduleWithFixedDelay(this::refresh, refreshMinutes, refreshMinutes, TimeUnit.MINUTES);
+  }
+
+  synchronized void stop() {
+    if (refreshExecutor != null) {
+      refreshExecutor.shutdownNow();
+      refreshExecutor = null;
+    }
+  }
+
+  /**
+   * Reloads the snapshot. If loading fails the current snapshot is kept.
+   */
+  @VisibleForTesting
+  void refresh() {
+    final long startNanos = System.nanoTime();
+    try {
+      final Map<String, List<PersonHourlyRate>> ratesByLogin = new HashMap<>();
+      for (PersonHourlyRate rate : patriciaDao.findPersonHourlyRates()) {
+        ratesByLogin.computeIfAbsent(rate.loginId().toLowerCase(Locale.ROOT), login -> new ArrayList<>()).add(rate);
+      }
+      // stable, so that equally ordered rates keep the order they were created in
+      ratesByLogin.values().forEach(rates -> rates.sort(QUERY_ORDER));
+      snapshot = new Snapshot(ratesByLogin, patriciaDao.findPersonHourlyRateNamesWithRoles());
+      log.info("Loaded person hourly rates of {} users in {} ms", ratesByLogin.size(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    } catch (RuntimeException e) {
+      log.error("Failed to load person hourly rates, {}",
+          snapshot != null ? "keeping the current ones" : "querying them per post", e);
+    }
+  }
+
+  /**
+   * Third level of the hourly rate, see {@link PatriciaDao#findPatPersonHourlyRate(long, String, String)}.
+   */
+  Optional<RateCurrency> findPatPersonHourlyRate(final long caseId, final String workCodeId, final String loginId) {
+    final Snapshot current = snapshot;
+    if (current == null) {
+      return patriciaDao.findPatPersonHourlyRate(caseId, workCodeId, loginId);
+    }
+    final List<PersonHourlyRate> rates = current.ratesByLogin.getOrDefault(loginId.toLowerCase(Locale.ROOT), List.of());
+    if (rates.isEmpty()) {
+      return Optional.empty();
+    }
+    final boolean ratesForNames = rates.stream().anyMatch(rate -> rate.nameId() != null);
+    final Map<Integer, Set<Integer>> caseRolesByName = ratesForNames ? current.caseRolesByName(caseId) : Map.of();
+    return rates.stream()
+        .filter(rate -> rate.workCodeId() == null || rate.workCodeId().equalsIgnoreCase(workCodeId))
+        .filter(rate -> appliesToCase(rate, caseRolesByName, current.namesWithRoles))
+        .findFirst()
+        .map(rate -> RateCurrency.builder()
+            .currencyId(rate.currency())
+            .hourlyRate(rate.hourlyRate())
+            .build());
+  }
+
+  /**
+   * Like the left join with FV_name_concatenation: a rate whose name has roles applies if the name has its role in the
+   * case, or any role if the rate has none. A rate whose name has no role in any case applies if the rate has no role.
+   */
+  private static boolean appliesToCase(PersonHourlyRate rate, Map<Integer, Set<Integer>> caseRolesByName,
+                                       Set<Integer> namesWithRoles) {
+    final Set<Integer> caseRoles = rate.nameId() == null ? Set.of() : caseRolesByName.getOrDefault(rate.nameId(), Set.of());
+    if (caseRoles.isEmpty()) {
+      return rate.nameRoleTypeId() == null && (rate.nameId() == null || !namesWithRoles.contains(rate.nameId()));
+    }
+    return rate.nameRoleTypeId() == null || caseRoles.contains(rate.nameRoleTypeId());
+  }
+
+  /**
+   * Loaded person hourly rates, with the case lookups made since they were loaded.
+   */
+  private class Snapshot {
+
+    private final Map<String, List<PersonHourlyRate>> ratesByLogin;
+    private final Set<Integer> namesWithRoles;
+    private final Map<Long, Map<Integer, Set<Integer>>> caseRolesByName = new ConcurrentHashMap<>();
+
+    private Snapshot(Map<String, List<PersonHourlyRate>> ratesByLogin, Set<Integer> namesWithRoles) {
+      this.ratesByLogin = ratesByLogin;
+      this.namesWithRoles = namesWithRoles;
+    }
+
+    private Map<Integer, Set<Integer>> caseRolesByName(long caseId) {
+      Map<Integer, Set<Integer>> rolesByName = caseRolesByName.get(caseId);
+      if (rolesByName == null) {
+        rolesByName = new HashMap<>();
+        for (NameRole nameRole : patriciaDao.findCaseNameRoles(caseId)) {
+          // the role can be null
+          rolesByName.computeIfAbsent(nameRole.nameId(), nameId -> new HashSet<>()).add(nameRole.roleTypeId());
+        }
+        caseRolesByName.put(caseId, rolesByName);
+      }
+      return rolesByName;
+    }
+  }
+}
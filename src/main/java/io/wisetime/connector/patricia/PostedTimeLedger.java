@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.wisetime.connector.config.ConnectorConfigKey;
+import io.wisetime.connector.config.RuntimeConfig;
+import io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only record of the time groups that were committed to Patricia, keyed by group id and content hash.
+ *
+ * WiseTime redelivers a time group if the post result never reached it, e.g. because the connector stopped right after
+ * the commit. The ledger lets such redeliveries succeed without running the posting path, and therefore without
+ * creating duplicate budget lines. The same group with changed content is posted again.
+ *
+ * Each line of the ledger file holds the time of the post, the group id and the content hash, separated by tabs.
+ * Entries older than the retention period are dropped when the ledger is opened and after every
+ * {@value #COMPACTION_APPENDS} appends. Without {@code DATA_DIR} the ledger is kept in memory only.
+ */
+@Singleton
+class PostedTimeLedger {
+
+  private static final Logger log = LoggerFactory.getLogger(PostedTimeLedger.class);
+
+  static final String LEDGER_FILE_NAME = "patricia-posted-time.ledger";
+  private static final int COMPACTION_APPENDS = 10_000;
+
+  private final Clock clock;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private Duration retention = Duration.ofDays(30);
+  @Nullable
+  private Path ledgerFile;
+  @Nullable
+  private FileChannel channel;
+  private int appendsSinceCompaction;
+
+  @Inject
+  PostedTimeLedger() {
+    this(Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  PostedTimeLedger(Clock clock) {
+    this.clock = clock;
+  }
+
+  void open() {
+    open(
+        RuntimeConfig.getString(ConnectorConfigKey.DATA_DIR).map(Paths::get).orElse(null),
+        Duration.ofDays(RuntimeConfig.getInt(PatriciaConnectorConfigKey.POSTED_TIME_LEDGER_RETENTION_DAYS).orElse(30)));
+  }
+
+  /**
+   * Loads the ledger from the data directory and compacts it.
+   *
+   * @param dataDir directory of the ledger file, or {@code null} to keep the ledger in memory
+   */
+  @VisibleForTesting
+  synchronized void open(@Nullable Path dataDir, Duration retention) {
+    close();
+    this.retention = retention;
+    entries.clear();
+    if (dataDir == null) {
+      log.info("DATA_DIR is not set, posted time groups are only remembered until the connector stops");
+      ledgerFile = null;
+      return;
+    }
+
+    ledgerFile = dataDir.resolve(LEDGER_FILE_NAME);
+    try {
+      if (Files.exists(ledgerFile)) {
+        load(Files.readAllLines(ledgerFile, StandardCharsets.UTF_8));
+      }
+      compact();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to open posted time ledger " + ledgerFile, e);
+    }
+    log.info("Loaded {} posted time groups from {}", entries.size(), ledgerFile);
+  }
+
+  /**
+   * Whether the time group with this content was already committed to Patricia.
+   */
+  boolean isPosted(String groupId, String contentHash) {
+    final Entry entry = entries.get(groupId);
+    return entry != null && entry.contentHash.equals(contentHash) && !isExpired(entry);
+  }
+
+  /**
+   * Records a committed time group. The entry is flushed to disk before this method returns.
+   */
+  synchronized void record(String groupId, String contentHash) {
+    final Entry entry = new Entry(clock.instant(), groupId, contentHash);
+    entries.put(groupId, entry);
+    if (channel == null) {
+      return;
+    }
+    try {
+      final ByteBuffer line = ByteBuffer.wrap(entry.toLine().getBytes(StandardCharsets.UTF_8));
+      while (line.hasRemaining()) {
+        channel.write(line);
+      }
+      channel.force(false);
+      if (++appendsSinceCompaction >= COMPACTION_APPENDS) {
+        compact();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to record posted time group " + groupId + " in " + ledgerFile, e);
+    }
+  }
+
+  synchronized void close() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.warn("Failed to close posted time ledger {}", ledgerFile, e);
+      }
+      channel = null;
+    }
+  }
+
+  @VisibleForTesting
+  int size() {
+    return entries.size();
+  }
+
+  private void load(List<String> lines) {
+    for (String line : lines) {
+      final String[] fields = line.split("\t");
+      if (fields.length != 3) {
+        // e.g. the last line if the connector stopped while appending it
+        log.warn("Ignoring malformed posted time ledger line: {}", line);
+        continue;
+      }
+      try {
+        final Entry entry = new Entry(Instant.ofEpochMilli(Long.parseLong(fields[0])), fields[1], fields[2]);
+        entries.put(entry.groupId, entry);
+      } catch (NumberFormatException e) {
+        log.warn("Ignoring malformed posted time ledger line: {}", line);
+      }
+    }
+  }
+
+  /**
+   * Rewrites the ledger file with the entries that have not expired, replacing the old file atomically.
+   */
+  private void compact() throws IOException {
+    close();
+    entries.values().removeIf(this::isExpired);
+
+    final Path compactedFile = ledgerFile.resolveSibling(LEDGER_FILE_NAME + ".compact");
+    try (BufferedWriter writer = Files.newBufferedWriter(compactedFile, StandardCharsets.UTF_8)) {
+      for (Entry entry : entries.values()) {
+        writer.write(entry.toLine());
+      }
+    }
+    try (FileChannel compacted = FileChannel.open(compactedFile, StandardOpenOption.WRITE)) {
+      compacted.force(true);
+    }
+    Files.move(compactedFile, ledgerFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    channel = FileChannel.open(ledgerFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    appendsSinceCompaction = 0;
+  }
+
+  private boolean isExpired(Entry entry) {
+    return entry.postedAt.plus(retention).isBefore(clock.instant());
+  }
+
+  @RequiredArgsConstructor
+  private static class Entry {
+
+    private final Instant postedAt;
+    private final String groupId;
+    private final String contentHash;
+
+    String toLine() {
+      return postedAt.toEpochMilli() + "\t" + groupId + "\t" + contentHash + "\n";
+    }
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.wisetime.generated.connect.Tag;
+import io.wisetime.generated.connect.TimeGroup;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import javax.annotation.Nullable;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead journal of time groups that were acknowledged to WiseTime but not yet applied to Patricia.
+ *
+ * A time group is appended and flushed to disk before it is acknowledged, and marked as done once it was applied or
+ * dead-lettered. On startup the groups without done marker are pending again. The journal file has one record per
+ * line, either {@code E<tab>seq<tab>group id<tab>content hash<tab>time group JSON} or {@code D<tab>seq}.
+ *
+ * Time groups that can never be applied are moved to a dead-letter file, one JSON object per line.
+ */
+@Singleton
+class PostingJournal {
+
+  private static final Logger log = LoggerFactory.getLogger(PostingJournal.class);
+
+  static final String JOURNAL_FILE_NAME = "patricia-posting.journal";
+  static final String DEAD_LETTER_FILE_NAME = "patricia-posting-dead-letter.jsonl";
+  // rewrite the journal without its done records once it has this many of them
+  private static final int COMPACTION_DONE_RECORDS = 1_000;
+
+  private final ObjectMapper objectMapper = new ObjectMapper()
+      .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private final Clock clock;
+
+  // pending entries in journal order
+  private final Map<Long, Entry> pending = new LinkedHashMap<>();
+  // the same pending entries by group id, for the duplicate check of every received time group
+  private final Map<String, List<Entry>> pendingByGroupId = new HashMap<>();
+  private long nextSeq = 1;
+  private int doneRecords;
+  private Path journalFile;
+  private Path deadLetterFile;
+  @Nullable
+  private FileChannel channel;
+
+  @Inject
+  PostingJournal() {
+    this(Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  PostingJournal(Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Loads the pending time groups from the journal in the data directory.
+   */
+  synchronized void open(Path dataDir) {
+    close();
+    pending.clear();
+    pendingByGroupId.clear();
+    nextSeq = 1;
+    journalFile = dataDir.resolve(JOURNAL_FILE_NAME);
+    deadLetterFile = dataDir.resolve(DEAD_LETTER_FILE_NAME);
+    try {
+      if (Files.exists(journalFile)) {
+        load(Files.readAllLines(journalFile, StandardCharsets.UTF_8));
+      }
+      compact();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to open posting journal " + journalFile, e);
+    }
+    log.info("Opened posting journal {} with {} pending time groups", journalFile, pending.size());
+  }
+
+  /**
+   * Durably appends a time group. Once this method returns, the group survives a crash of the connector.
+   */
+  synchronized Entry append(String contentHash, TimeGroup timeGroup) {
+    final Entry entry = new Entry()
+        .seq(nextSeq++)
+        .groupId(timeGroup.getGroupId())
+        .contentHash(contentHash)
+        .json(toJson(timeGroup))
+        .caseNames(timeGroup.getTags().stream().map(Tag::getName).collect(Collectors.toSet()));
+    write(entry.toRecord());
+    addPending(entry);
+    return entry;
+  }
+
+  /**
+   * Marks a time group as applied to Patricia.
+   */
+  synchronized void complete(long seq) {
+    if (!removePending(seq)) {
+      return;
+    }
+    write("D\t" + seq + "\n");
+    // not whenever the backlog runs empty, which it does after almost every post when posting keeps up
+    if (++doneRecords >= COMPACTION_DONE_RECORDS) {
+      try {
+        compact();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to compact posting journal " + journalFile, e);
+      }
+    }
+  }
+
+  /**
+   * Moves a time group that cannot be applied to the dead-letter file.
+   */
+  synchronized void deadLetter(Entry entry, String reason) {
+    final ObjectNode deadLetter = objectMapper.createObjectNode();
+    deadLetter.put("failedAt", clock.instant().toString());
+    deadLetter.put("reason", reason);
+    try {
+      deadLetter.set("timeGroup", objectMapper.readTree(entry.json()));
+      try (FileChannel deadLetters = FileChannel.open(deadLetterFile,
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+        writeFully(deadLetters, objectMapper.writeValueAsString(deadLetter) + "\n");
+        deadLetters.force(false);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to write dead letter to " + deadLetterFile, e);
+    }
+    complete(entry.seq());
+  }
+
+  /**
+   * Whether the time group with this content is waiting to be applied.
+   */
+  synchronized boolean isPending(String groupId, String contentHash) {
+    return pendingByGroupId.getOrDefault(groupId, List.of()).stream()
+        .anyMatch(entry -> entry.contentHash().equals(contentHash));
+  }
+
+  /**
+   * Pending time groups in the order they were appended.
+   */
+  synchronized List<Entry> pending() {
+    return new ArrayList<>(pending.values());
+  }
+
+  synchronized int backlog() {
+    return pending.size();
+  }
+
+  /**
+   * Deserializes a fresh copy of the journaled time group, so that posting may modify it.
+   */
+  TimeGroup toTimeGroup(Entry entry) {
+    try {
+      return objectMapper.readValue(entry.json(), TimeGroup.class);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Malformed time group in posting journal, seq " + entry.seq(), e);
+    }
+  }
+
+  synchronized void close() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.warn("Failed to close posting journal {}", journalFile, e);
+      }
+      channel = null;
+    }
+  }
+
+  private void load(List<String> lines) {
+    for (String line : lines) {
+      final String[] fields = line.split("\t", 5);
+      try {
+        final Set<String> caseNames = fields[0].equals("E") && fields.length == 5 ? readCaseNames(fields[4]) : null;
+        if (caseNames != null) {
+          final Entry entry = new Entry()
+              .seq(Long.parseLong(fields[1]))
+              .groupId(fields[2])
+              .contentHash(fields[3])
+              .json(fields[4])
+              .caseNames(caseNames);
+          addPending(entry);
+          nextSeq = Math.max(nextSeq, entry.seq() + 1);
+          continue;
+        }
+        if (fields[0].equals("D") && fields.length == 2) {
+          removePending(Long.parseLong(fields[1]));
+          continue;
+        }
+      } catch (NumberFormatException e) {
+        // fall through to the warning
+      }
+      // e.g. the last line if the connector stopped while appending it; its group was never acknowledged
+      log.warn("Ignoring malformed posting journal line: {}", line);
+    }
+  }
+
+  private void addPending(Entry entry) {
+    pending.put(entry.seq(), entry);
+    pendingByGroupId.computeIfAbsent(entry.groupId(), groupId -> new ArrayList<>(1)).add(entry);
+  }
+
+  private boolean removePending(long seq) {
+    final Entry entry = pending.remove(seq);
+    if (entry == null) {
+      return false;
+    }
+    final List<Entry> groupEntries = pendingByGroupId.get(entry.groupId());
+    groupEntries.remove(entry);
+    if (groupEntries.isEmpty()) {
+      pendingByGroupId.remove(entry.groupId());
+    }
+    return true;
+  }
+
+  /**
+   * Rewrites the journal with the pending entries only, replacing the old file atomically.
+   */
+  private void compact() throws IOException {
+    close();
+    final Path compactedFile = journalFile.resolveSibling(JOURNAL_FILE_NAME + ".compact");
+    try (BufferedWriter writer = Files.newBufferedWriter(compactedFile, StandardCharsets.UTF_8)) {
+      for (Entry entry : pending.values()) {
+        writer.write(entry.toRecord());
+      }
+    }
+    try (FileChannel compacted = FileChannel.open(compactedFile, StandardOpenOption.WRITE)) {
+      compacted.force(true);
+    }
+    Files.move(compactedFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    doneRecords = 0;
+  }
+
+  /**
+   * Tag names of a journaled time group, or null if the record was not completely written.
+   */
+  @Nullable
+  private Set<String> readCaseNames(String json) {
+    try {
+      final JsonNode tags = objectMapper.readTree(json).path("tags");
+      return StreamSupport.stream(tags.spliterator(), false)
+          .map(tag -> tag.path("name").asText())
+          .collect(Collectors.toSet());
+    } catch (JsonProcessingException e) {
+      return null;
+    }
+  }
+
+  private void write(String record) {
+    if (channel == null) {
+      throw new IllegalStateException("Posting journal is not open");
+    }
+    try {
+      writeFully(channel, record);
+      channel.force(false);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to write to posting journal " + journalFile, e);
+    }
+  }
+
+  private static void writeFully(FileChannel target, String text) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    while (buffer.hasRemaining()) {
+      target.write(buffer);
+    }
+  }
+
+  private String toJson(TimeGroup timeGroup) {
+    try {
+      // single line, as line breaks within strings are escaped
+      return objectMapper.writeValueAsString(timeGroup);
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException("Failed to serialize time group " + timeGroup.getGroupId(), e);
+    }
+  }
+
+  @Data
+  @Accessors(fluent = true)
+  static class Entry {
+
+    private long seq;
+    private String groupId;
+    private String contentHash;
+    private String json;
+    // tag names of the time group, so that the worker can order posts per case without deserializing every group
+    private Set<String> caseNames;
+
+    String toRecord() {
+      return "E\t" + seq + "\t" + groupId + "\t" + contentHash + "\t" + json + "\n";
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.wisetime.connector.config.RuntimeConfig;
+import io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
+import io.wisetime.connector.patricia.PatriciaDao.CasePriceCategory;
+import io.wisetime.connector.patricia.PatriciaDao.ChargingPrice;
+import io.wisetime.connector.patricia.PatriciaDao.PriceListEntry;
+import java.sql.Date;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import lombok.Value;
+import lombok.experimental.Accessors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the price list level of the hourly rate from an in-memory index of CHARGEING_PRICE_LIST, instead of running
+ * the price list query for every post.
+ *
+ * The index holds all price changes, keyed by price list, work code, case category, actor and login, so that a price
+ * change becomes effective at its price change date without reloading. Per post, only the case categories of the case
+ * and its actor and price list are read from the database, and they are cached until the index is reloaded. The
+ * result is the same as {@link PatriciaDao#findHourlyRateFromPriceList}, which is used until the index is loaded.
+ */
+@Singleton
+class PriceListEngine {
+
+  private static final Logger log = LoggerFactory.getLogger(PriceListEngine.class);
+
+  private static final String ANY_LOGIN = "^";
+
+  private final PatriciaDao patriciaDao;
+
+  @Nullable
+  private volatile Index index;
+  private ScheduledExecutorService refreshExecutor;
+
+  @Inject
+  PriceListEngine(PatriciaDao patriciaDao) {
+    this.patriciaDao = patriciaDao;
+  }
+
+  /**
+   * Loads the index and schedules its reloads, if enabled in the configuration. Restarts the schedule if already
+   * started.
+   */
+  synchronized void start() {
+    stop();
+    final int refreshMinutes = RuntimeConfig.getInt(PatriciaConnectorConfigKey.PRICE_LIST_REFRESH_MINUTES).orElse(0);
+    if (refreshMinutes <= 0) {
+      index = null;
+      return;
+    }
+    refresh();
+
+    refreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("patricia-price-list-refresh-%d")
+        .setDaemon(true)
+        .build());
+    refreshExecutor.scheduleWithFixedDelay(this::refresh, refreshMinutes, refreshMinutes, TimeUnit.MINUTES);
+  }
+
+  synchronized void stop() {
+    if (refreshExecutor != null) {
+      refreshExecutor.shutdownNow();
+      refreshExecutor = null;
+    }
+  }
+
+  /**
+   * Reloads the index. If loading fails the current index is kept.
+   */
+  @VisibleForTesting
+  void refresh() {
+    final long startNanos = System.nanoTime();
+    try {
+      final Map<PriceKey, List<ChargingPrice>> prices = new HashMap<>();
+      for (ChargingPrice price : patriciaDao.findChargingPrices()) {
+        prices.computeIfAbsent(PriceKey.of(price), key -> new ArrayList<>()).add(price);
+      }
+      final LocalDateTime dbNow = patriciaDao.getDbDateTime();
+      index = new Index(prices, patriciaDao.findDefaultPriceListId(), Duration.between(LocalDateTime.now(), dbNow));
+      log.info("Loaded {} price list keys in {} ms", prices.size(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    } catch (RuntimeException e) {
+      log.error("Failed to load the price list, {}", index != null ? "keeping the current one" : "querying it per post", e);
+    }
+  }
+
+  /**
+   * Second level of the hourly rate, see {@link PatriciaDao#findHourlyRateFromPriceList(long, String, String, int)}.
+   */
+  Optional<PriceListEntry> findHourlyRate(final long caseId, final String workCodeId, final String loginId,
+                                          final int roleTypeId) {
+    final Index current = index;
+    if (current == null) {
+      return patriciaDao.findHourlyRateFromPriceList(caseId, workCodeId, loginId, roleTypeId);
+    }
+    // first try with normal logic for price list, then force default price list
+    return findHourlyRate(current, caseId, workCodeId, loginId, roleTypeId, false)
+        .or(() -> findHourlyRate(current, caseId, workCodeId, loginId, roleTypeId, true));
+  }
+
+  private Optional<PriceListEntry> findHourlyRate(final Index current, final long caseId, final String workCodeId,
+                                                  final String loginId, final int roleTypeId,
+                                                  final boolean useDefaultPriceList) {
+    final CaseActor caseActor = current.caseActor(caseId, roleTypeId);
+    Optional<Integer> actorId = caseActor.actorId();
+    Optional<Integer> patPriceListId = Optional.empty();
+    if (!useDefaultPriceList && actorId.isPresent()) {
+      patPriceListId = caseActor.priceListId();
+    } else if (actorId.isEmpty()) {
+      // default to 0 actor id, if none is found.
+      actorId = Optional.of(0);
+    }
+    if (current.defaultPriceListId.isEmpty() && patPriceListId.isEmpty()) {
+      return Optional.empty();
+    }
+    final int priceListId = patPriceListId.orElseGet(current.defaultPriceListId::get);
+
+    final Set<String> logins = new LinkedHashSet<>(List.of(loginId.toLowerCase(Locale.ROOT), ANY_LOGIN));
+    final LocalDateTime dbNow = LocalDateTime.now().plus(current.dbClockOffset);
+    final List<PriceListEntry> prices = new ArrayList<>();
+    for (CasePriceCategory category : current.casePriceCategories(caseId, workCodeId)) {
+      if (category.priceListId() != priceListId) {
+        continue;
+      }
+      for (String login : logins) {
+        for (ChargingPrice price : current.prices.getOrDefault(PriceKey.of(category, login), List.of())) {
+          if (price.statusId() == category.statusId()
+              && category.currencyId() != null && category.currencyId().equalsIgnoreCase(price.currencyId())
+              && !price.priceChangeDate().isAfter(dbNow)) {
+            prices.add(toPriceListEntry(caseId, price));
+          }
+        }
+      }
+    }
+    return PatriciaDao.selectPriceListEntry(prices, loginId, actorId.get());
+  }
+
+  private static PriceListEntry toPriceListEntry(final long caseId, final ChargingPrice price) {
+    return PriceListEntry.builder()
+        .caseId(caseId)
+        .workCodeId(price.workCodeId())
+        .actorId(price.actorId())
+        .priceListId(price.priceListId())
+        .currencyId(price.currencyId())
+        .hourlyRate(price.price())
+        .loginId(price.loginId())
+        // like the price list query, which reads the date only
+        .priceChangeDate(Date.valueOf(price.priceChangeDate().toLocalDate()))
+        .build();
+  }
+
+  /**
+   * A loaded price list, with the case lookups made since it was loaded.
+   */
+  private class Index {
+
+    private final Map<PriceKey, List<ChargingPrice>> prices;
+    private final Optional<Integer> defaultPriceListId;
+    // GETDATE() of the database minus the local time, to find the prices in effect like the database does
+    private final Duration dbClockOffset;
+    private final Map<String, CaseActor> caseActors = new ConcurrentHashMap<>();
+    private final Map<String, List<CasePriceCategory>> casePriceCategories = new ConcurrentHashMap<>();
+
+    private Index(Map<PriceKey, List<ChargingPrice>> prices, Optional<Integer> defaultPriceListId,
+                  Duration dbClockOffset) {
+      this.prices = prices;
+      this.defaultPriceListId = defaultPriceListId;
+      this.dbClockOffset = dbClockOffset;
+    }
+
+    private CaseActor caseActor(long caseId, int roleTypeId) {
+      final String key = caseId + "/" + roleTypeId;
+      CaseActor caseActor = caseActors.get(key);
+      if (caseActor == null) {
+        final Optional<Integer> actorId = patriciaDao.findCaseActorId(caseId, roleTypeId);
+        caseActor = new CaseActor(actorId, actorId.flatMap(patriciaDao::findActorPriceListId));
+        caseActors.put(key, caseActor);
+      }
+      return caseActor;
+    }
+
+    private List<CasePriceCategory> casePriceCategories(long caseId, String workCodeId) {
+      final String key = caseId + "/" + workCodeId;
+      List<CasePriceCategory> categories = casePriceCategories.get(key);
+      if (categories == null) {
+        categories = patriciaDao.findCasePriceCategories(caseId, workCodeId);
+        casePriceCategories.put(key, categories);
+      }
+      return categories;
+    }
+  }
+
+  @Value
+  @Accessors(fluent = true)
+  private static class CaseActor {
+    // actor of the case in the configured role
+    Optional<Integer> actorId;
+    // price list of the actor
+    Optional<Integer> priceListId;
+  }
+
+  @Value(staticConstructor = "of")
+  private static class PriceKey {
+    int priceListId;
+    String workCodeId;
+    int caseCategoryId;
+    int actorId;
+    // lower case, as login ids are not case sensitive in Patricia
+    String loginId;
+
+    static PriceKey of(ChargingPrice price) {
+      return of(price.priceListId(), price.workCodeId(), price.caseCategoryId(), price.actorId(),
+          price.loginId().toLowerCase(Locale.ROOT));
+    }
+
+    static PriceKey of(CasePriceCategory category, String loginId) {
+      return of(category.priceListId(), category.workCodeId(), category.caseCategoryId(), category.actorId(), loginId);
+    }
+  }
+}
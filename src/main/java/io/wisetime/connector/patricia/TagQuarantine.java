@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.wisetime.connector.datastore.ConnectorStore;
+import io.wisetime.connector.patricia.PatriciaDao.Case;
+import io.wisetime.connector.patricia.util.ApiRateLimiter;
+import io.wisetime.connector.patricia.util.ApiThrottledException;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import lombok.Value;
+import lombok.experimental.Accessors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps cases whose tags cannot be upserted from stalling the tag sync.
+ *
+ * A batch that WiseTime rejects is split in halves until the cases that fail on their own are isolated. These cases
+ * are quarantined, so that the sync checkpoint can move past them, and retried on a schedule that doubles the delay
+ * after every failed attempt, up to a day. A case leaves the quarantine once its tag is upserted.
+ *
+ * Only a rejection of the request itself, i.e. a 4xx response other than a throttle or request timeout, splits a
+ * batch. Throttles, server errors and I/O errors fail the batch right away, as splitting would only add calls to a
+ * server that refuses them. If {@value #FAILURES_WITHOUT_SUCCESS} parts of the batch are rejected before any part of it
+ * is upserted, or if more than {@value #MAX_QUARANTINED_PER_BATCH} cases of a batch fail, WiseTime is considered
+ * unavailable rather than the cases being bad: the batch fails as a whole and nothing is quarantined.
+ *
+ * The quarantine is kept in the connector store, so that it survives restarts.
+ */
+class TagQuarantine {
+
+  private static final Logger log = LoggerFactory.getLogger(TagQuarantine.class);
+
+  static final String QUARANTINE_KEY = "patricia_tag_quarantine";
+  @VisibleForTesting
+  static final int FAILURES_WITHOUT_SUCCESS = 3;
+  @VisibleForTesting
+  static final int MAX_QUARANTINED_PER_BATCH = 10;
+  private static final Duration MAX_RETRY_DELAY = Duration.ofDays(1);
+  // the API client reports an error response with its status line first, e.g. "400 Bad Request"
+  private static final Pattern REJECTED_STATUS_LINE = Pattern.compile("4(?!08|29)\\d\\d(?: [^\\r\\n]*)?(?:\\r?\\n|$)");
+
+  private final ConnectorStore connectorStore;
+  private final Duration firstRetryDelay;
+  private final Clock clock;
+  // by case id, in the order the cases were quarantined
+  private final Map<Long, Entry> entries = new LinkedHashMap<>();
+
+  /**
+   * Upserts the tags of a batch of cases.
+   */
+  @FunctionalInterface
+  interface BatchUpsert {
+    void upsert(List<Case> cases) throws IOException;
+  }
+
+  TagQuarantine(ConnectorStore connectorStore, Duration firstRetryDelay, Clock clock) {
+    this.connectorStore = connectorStore;
+    this.firstRetryDelay = firstRetryDelay;
+    this.clock = clock;
+    load();
+  }
+
+  /**
+   * Upserts the tags of the cases, isolating and quarantining the cases that fail.
+   *
+   * @return the cases that were quarantined, empty if the whole batch was upserted
+   * @throws IOException of the batch, if WiseTime looks unavailable
+   */
+  synchronized List<Case> upsert(List<Case> cases, BatchUpsert batchUpsert) throws IOException {
+    final Bisection bisection = new Bisection(batchUpsert);
+    try {
+      batchUpsert.upsert(cases);
+    } catch (IOException e) {
+      if (!isRejection(e)) {
+        throw e;
+      }
+      log.warn("WiseTime rejected {} tags, isolating the failing cases", cases.size(), e);
+      bisection.batchError = e;
+      bisection.split(cases);
+    }
+    final Set<Long> failedIds = bisection.failed.stream().map(Case::caseId).collect(Collectors.toSet());
+    release(cases.stream()
+        .map(Case::caseId)
+        .filter(caseId -> !failedIds.contains(caseId))
+        .collect(Collectors.toList()));
+    quarantine(failedIds);
+    return bisection.failed;
+  }
+
+  /**
+   * Quarantines the cases, or schedules their next retry if they are quarantined already.
+   */
+  synchronized void quarantine(Collection<Long> caseIds) {
+    if (caseIds.isEmpty()) {
+      return;
+    }
+    final Instant now = clock.instant();
+    for (Long caseId : caseIds) {
+      final int attempts = entries.containsKey(caseId) ? entries.get(caseId).attempts() + 1 : 1;
+      entries.put(caseId, new Entry(attempts, now.plus(retryDelay(attempts))));
+    }
+    log.warn("Quarantined tags of cases {}, {} cases in quarantine", caseIds, entries.size());
+    save();
+  }
+
+  synchronized void release(Collection<Long> caseIds) {
+    final int size = entries.size();
+    caseIds.forEach(entries::remove);
+    if (entries.size() != size) {
+      log.info("Released {} cases from the tag quarantine, {} cases left", size - entries.size(), entries.size());
+      save();
+    }
+  }
+
+  /**
+   * Ids of the quarantined cases that are due for a retry, the longest quarantined first.
+   */
+  synchronized List<Long> dueCaseIds(int maxCases) {
+    final Instant now = clock.instant();
+    return entries.entrySet().stream()
+        .filter(entry -> !entry.getValue().retryAt().isAfter(now))
+        .map(Map.Entry::getKey)
+        .limit(maxCases)
+        .collect(Collectors.toList());
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Whether WiseTime rejected the request itself, so that the cases in it may be to blame.
+   */
+  @VisibleForTesting
+  static boolean isRejection(IOException error) {
+    if (error instanceof ApiThrottledException || ApiRateLimiter.isThrottled(error)) {
+      return false;
+    }
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause.getMessage() != null && REJECTED_STATUS_LINE.matcher(cause.getMessage()).lookingAt()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @VisibleForTesting
+  Duration retryDelay(int attempts) {
+    // the delay reaches the maximum long before the shift would overflow
+    final Duration delay = firstRetryDelay.multipliedBy(1L << Math.min(attempts - 1, 20));
+    return delay.compareTo(MAX_RETRY_DELAY) > 0 ? MAX_RETRY_DELAY : delay;
+  }
+
+  /**
+   * Entries are stored as case id, attempts and retry time in epoch millis, separated by colons.
+   */
+  private void load() {
+    final String stored = connectorStore.getString(QUARANTINE_KEY).orElse("");
+    try {
+      for (String entry : stored.split(",")) {
+        if (entry.isEmpty()) {
+          continue;
+        }
+        final String[] fields = entry.split(":");
+        entries.put(Long.parseLong(fields[0]),
+            new Entry(Integer.parseInt(fields[1]), Instant.ofEpochMilli(Long.parseLong(fields[2]))));
+      }
+    } catch (RuntimeException e) {
+      log.error("Ignoring unreadable tag quarantine '{}'", stored, e);
+      entries.clear();
+    }
+    if (!entries.isEmpty()) {
+      log.info("{} cases in the tag quarantine", entries.size());
+    }
+  }
+
+  private void save() {
+    connectorStore.putString(QUARANTINE_KEY, entries.entrySet().stream()
+        .map(entry -> entry.getKey() + ":" + entry.getValue().attempts() + ":" + entry.getValue().retryAt().toEpochMilli())
+        .collect(Collectors.joining(",")));
+  }
+
+  /**
+   * Splits a failed batch in halves, breadth first, until single failing cases remain. Both halves of every failed
+   * part are tried before any of them is split further, so that a success anywhere in the batch counts before the
+   * cases at its front are blamed, and the limits are checked after each round of halves.
+   */
+  private static class Bisection {
+
+    private final BatchUpsert batchUpsert;
+    private final List<Case> failed = new ArrayList<>();
+    private int upserted;
+    private int rejected;
+    private IOException batchError;
+
+    private Bisection(BatchUpsert batchUpsert) {
+      this.batchUpsert = batchUpsert;
+    }
+
+    private void split(List<Case> cases) throws IOException {
+      List<List<Case>> failing = List.of(cases);
+      while (!failing.isEmpty()) {
+        final List<List<Case>> failingHalves = new ArrayList<>();
+        for (List<Case> part : failing) {
+          if (part.size() == 1) {
+            fail(part.get(0));
+            continue;
+          }
+          final int half = part.size() / 2;
+          for (List<Case> halfPart : List.of(part.subList(0, half), part.subList(half, part.size()))) {
+            if (tryUpsert(halfPart)) {
+              upserted += halfPart.size();
+            } else {
+              rejected++;
+              failingHalves.add(halfPart);
+            }
+          }
+        }
+        // every failing part holds at least one failing case
+        if (rejected >= FAILURES_WITHOUT_SUCCESS && upserted == 0
+            || failed.size() + failingHalves.size() > MAX_QUARANTINED_PER_BATCH) {
+          throw batchError;
+        }
+        failing = failingHalves;
+      }
+    }
+
+    private boolean tryUpsert(List<Case> part) throws IOException {
+      try {
+        batchUpsert.upsert(part);
+        return true;
+      } catch (IOException e) {
+        if (!isRejection(e)) {
+          throw e;
+        }
+        return false;
+      }
+    }
+
+    private void fail(Case patriciaCase) throws IOException {
+      failed.add(patriciaCase);
+      if (failed.size() > MAX_QUARANTINED_PER_BATCH) {
+        throw batchError;
+      }
+    }
+  }
+
+  @Value
+  @Accessors(fluent = true)
+  private static class Entry {
+    int attempts;
+    Instant retryAt;
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import io.wisetime.connector.patricia.PatriciaDao.TimeAndChargePlan;
+import io.wisetime.connector.patricia.util.ConnectorException;
+import io.wisetime.generated.connect.TimeGroup;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Backfills time groups exported from WiseTime into Patricia, e.g. when onboarding a customer with months of posted
+ * time. The time groups are planned exactly like {@link PatriciaConnector#postTime} would post them, and written in
+ * batches with {@link PatriciaDao#bulkImport(List)}.
+ *
+ * The input has one time group JSON object per line. The reconciliation report has one JSON object per time group
+ * with its status ({@code IMPORTED}, {@code SKIPPED} or {@code FAILED}), the cases, the number of budget lines and the
+ * chargeable hours and amount written, followed by a summary line. Time groups that are already imported according to
+ * an existing report are skipped, so that an interrupted import can simply be run again.
+ */
+class TimeGroupImporter {
+
+  private static final Logger log = LoggerFactory.getLogger(TimeGroupImporter.class);
+
+  enum Status {
+    IMPORTED, SKIPPED, FAILED
+  }
+
+  private final ObjectMapper objectMapper = new ObjectMapper()
+      .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private final PatriciaConnector patriciaConnector;
+  private final PatriciaDao patriciaDao;
+
+  @Inject
+  TimeGroupImporter(PatriciaConnector patriciaConnector, PatriciaDao patriciaDao) {
+    this.patriciaConnector = patriciaConnector;
+    this.patriciaDao = patriciaDao;
+  }
+
+  /**
+   * Imports the time groups of the input file and appends the outcome to the report file.
+   *
+   * @param batchSize number of time groups written per transaction
+   */
+  Summary importTimeGroups(Path input, Path report, int batchSize) {
+    final Set<String> imported = readImported(report);
+    final Summary summary = new Summary();
+    try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+        BufferedWriter writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      final List<TimeGroup> batch = new ArrayList<>(batchSize);
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) {
+          continue;
+        }
+        final TimeGroup timeGroup = objectMapper.readValue(line, TimeGroup.class);
+        if (imported.contains(timeGroup.getGroupId())) {
+          summary.alreadyImported++;
+          continue;
+        }
+        batch.add(timeGroup);
+        if (batch.size() == batchSize) {
+          importBatch(batch, writer, summary);
+          batch.clear();
+        }
+      }
+      importBatch(batch, writer, summary);
+      writer.write(objectMapper.writeValueAsString(summary.toJson(objectMapper.createObjectNode())));
+      writer.newLine();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to import time groups from " + input, e);
+    }
+    log.info("Imported {} time groups with {} budget lines, skipped {}, failed {}, {} imported before",
+        summary.imported, summary.budgetLines, summary.skipped, summary.failed, summary.alreadyImported);
+    return summary;
+  }
+
+  /**
+   * Writes the batch in one transaction. The report lines are only written once it committed; if the transaction
+   * fails the import stops, and the batch is imported again when the import is resumed.
+   */
+  private void importBatch(List<TimeGroup> batch, BufferedWriter writer, Summary summary) throws IOException {
+    if (batch.isEmpty()) {
+      return;
+    }
+    final List<ObjectNode> reportLines = new ArrayList<>();
+    final List<TimeAndChargePlan> plans = new ArrayList<>();
+    for (TimeGroup timeGroup : batch) {
+      final ObjectNode reportLine = objectMapper.createObjectNode().put("groupId", timeGroup.getGroupId());
+      reportLines.add(reportLine);
+      try {
+        final List<TimeAndChargePlan> groupPlans = patriciaConnector.planImport(timeGroup);
+        if (groupPlans.isEmpty()) {
+          reportLine.put("status", Status.SKIPPED.name())
+              .put("message", "Time group has no tags. There is nothing to post to Patricia.");
+          summary.skipped++;
+          continue;
+        }
+        plans.addAll(groupPlans);
+        reportImported(reportLine, groupPlans, summary);
+      } catch (ConnectorException e) {
+        reportLine.put("status", Status.FAILED.name()).put("message", e.getMessage());
+        summary.failed++;
+      }
+    }
+
+    patriciaDao.bulkImport(plans);
+
+    for (ObjectNode reportLine : reportLines) {
+      writer.write(objectMapper.writeValueAsString(reportLine));
+      writer.newLine();
+    }
+    writer.flush();
+    log.info("Imported batch of {} time groups with {} budget lines", batch.size(), plans.size());
+  }
+
+  private static void reportImported(ObjectNode reportLine, List<TimeAndChargePlan> plans, Summary summary) {
+    BigDecimal hours = BigDecimal.ZERO;
+    BigDecimal amount = BigDecimal.ZERO;
+    reportLine.put("status", Status.IMPORTED.name());
+    for (TimeAndChargePlan plan : plans) {
+      reportLine.withArray("cases").add(plan.patriciaCase().caseNumber());
+      // rounded like the budget line columns
+      hours = hours.add(plan.budgetLine().chargeableWorkTotalHours().setScale(2, RoundingMode.HALF_UP));
+      amount = amount.add(plan.budgetLine().chargeableAmount().setScale(2, RoundingMode.HALF_UP));
+    }
+    reportLine.put("budgetLines", plans.size())
+        .put("chargeableHours", hours)
+        .put("chargeableAmount", amount);
+    summary.imported++;
+    summary.budgetLines += plans.size();
+    summary.chargeableHours = summary.chargeableHours.add(hours);
+    summary.chargeableAmount = summary.chargeableAmount.add(amount);
+  }
+
+  private Set<String> readImported(Path report) {
+    final Set<String> imported = new HashSet<>();
+    if (!Files.exists(report)) {
+      return imported;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(report, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final JsonNode reportLine = objectMapper.readTree(line);
+        if (Status.IMPORTED.name().equals(reportLine.path("status").asText())) {
+          imported.add(reportLine.path("groupId").asText());
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read import report " + report, e);
+    }
+    return imported;
+  }
+
+  /**
+   * Totals of an import run.
+   */
+  @Data
+  @Accessors(fluent = true)
+  static class Summary {
+    private int imported;
+    private int skipped;
+    private int failed;
+    private int alreadyImported;
+    private int budgetLines;
+    private BigDecimal chargeableHours = BigDecimal.ZERO;
+    private BigDecimal chargeableAmount = BigDecimal.ZERO;
+
+    private ObjectNode toJson(ObjectNode json) {
+      return json.put("summary", true)
+          .put("imported", imported)
+          .put("skipped", skipped)
+          .put("failed", failed)
+          .put("alreadyImported", alreadyImported)
+          .put("budgetLines", budgetLines)
+          .put("chargeableHours", chargeableHours)
+          .put("chargeableAmount", chargeableAmount);
+    }
+  }
+}
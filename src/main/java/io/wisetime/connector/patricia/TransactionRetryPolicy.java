@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retries transactions that SQL Server aborted because of lock contention: deadlock victims (error 1205) and lock
+ * request timeouts (error 1222). The work is run again right away in the connector, after a short jittered backoff,
+ * instead of failing the post and waiting for the WiseTime retry cycle.
+ *
+ * Retries are limited per transaction and by a budget shared by all transactions: every transaction earns a fraction
+ * of a retry, and every retry spends one, so that a database that deadlocks constantly is not hammered with retries.
+ */
+class TransactionRetryPolicy {
+
+  private static final Logger log = LoggerFactory.getLogger(TransactionRetryPolicy.class);
+
+  // retries available before any transaction earned some, and the most that can be saved up
+  private static final double BUDGET_BURST = 10;
+
+  private final ConnectorMetrics metrics;
+  private final int maxRetries;
+  private final double budgetRatio;
+  private final long baseBackoffNanos;
+  private final long maxBackoffNanos;
+  private final DoubleSupplier random;
+  private final Sleeper sleeper;
+
+  private double budget = BUDGET_BURST;
+
+  /**
+   * Lock contention errors that abort the transaction.
+   */
+  enum Reason {
+    DEADLOCK(1205, "deadlock"),
+    LOCK_TIMEOUT(1222, "lock_timeout");
+
+    private final int errorCode;
+    private final String tag;
+
+    Reason(int errorCode, String tag) {
+      this.errorCode = errorCode;
+      this.tag = tag;
+    }
+
+    String tag() {
+      return tag;
+    }
+  }
+
+  @FunctionalInterface
+  interface Sleeper {
+    void sleep(long nanos) throws InterruptedException;
+  }
+
+  /**
+   * @param maxRetries retries per transaction
+   * @param budgetPercent retries allowed in percent of transactions, on top of a small burst
+   */
+  TransactionRetryPolicy(ConnectorMetrics metrics, int maxRetries, int budgetPercent,
+                         Duration baseBackoff, Duration maxBackoff) {
+    this(metrics, maxRetries, budgetPercent, baseBackoff, maxBackoff,
+        () -> ThreadLocalRandom.current().nextDouble(), TimeUnit.NANOSECONDS::sleep);
+  }
+
+  @VisibleForTesting
+  TransactionRetryPolicy(ConnectorMetrics metrics, int maxRetries, int budgetPercent,
+                         Duration baseBackoff, Duration maxBackoff, DoubleSupplier random, Sleeper sleeper) {
+    this.metrics = metrics;
+    this.maxRetries = maxRetries;
+    this.budgetRatio = budgetPercent / 100.0;
+    this.baseBackoffNanos = baseBackoff.toNanos();
+    this.maxBackoffNanos = maxBackoff.toNanos();
+    this.random = random;
+    this.sleeper = sleeper;
+  }
+
+  /**
+   * Runs the transaction, and runs it again if it was aborted because of lock contention. The transaction must be
+   * safe to run again, i.e. it must have been rolled back as a whole when it failed.
+   *
+   * @throws RuntimeException the error of the last attempt
+   */
+  void execute(Runnable transaction) {
+    deposit();
+    for (int retry = 1; ; retry++) {
+      try {
+        transaction.run();
+        return;
+      } catch (RuntimeException e) {
+        final Optional<Reason> reason = lockContention(e);
+        if (reason.isEmpty()) {
+          throw e;
+        }
+        if (retry > maxRetries) {
+          metrics.countTransactionRetryExhausted(reason.get().tag(), "attempts");
+          throw e;
+        }
+        if (!withdraw()) {
+          metrics.countTransactionRetryExhausted(reason.get().tag(), "budget");
+          log.warn("Not retrying transaction aborted by {}, the retry budget is used up", reason.get().tag());
+          throw e;
+        }
+        metrics.countTransactionRetry(reason.get().tag());
+        log.info("Retrying transaction aborted by {}, retry {} of {}", reason.get().tag(), retry, maxRetries);
+        try {
+          sleeper.sleep(backoffNanos(retry));
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  @VisibleForTesting
+  synchronized double budget() {
+    return budget;
+  }
+
+  /**
+   * Full jitter: a random duration up to the exponential backoff, so that the contenders do not collide again.
+   */
+  private long backoffNanos(int retry) {
+    final long ceiling = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(retry - 1, 20));
+    return (long) (random.getAsDouble() * ceiling);
+  }
+
+  private synchronized void deposit() {
+    budget = Math.min(BUDGET_BURST, budget + budgetRatio);
+  }
+
+  private synchronized boolean withdraw() {
+    if (budget < 1) {
+      return false;
+    }
+    budget--;
+    return true;
+  }
+
+  @VisibleForTesting
+  static Optional<Reason> lockContention(final Throwable throwable) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SQLException) {
+        final int errorCode = ((SQLException) cause).getErrorCode();
+        for (Reason reason : Reason.values()) {
+          if (reason.errorCode == errorCode) {
+            return Optional.of(reason);
+          }
+        }
+      }
+    }
+    return Optional.empty();
+  }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.metrics;
+
+import com.google.inject.Singleton;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.wisetime.connector.config.RuntimeConfig;
+import io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
+import io.wisetime.connector.patricia.util.ApiRateLimiter;
+import io.wisetime.connector.patricia.util.CircuitBreaker;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of the posting pipeline, the tag and activity type sync loops and the WiseTime API calls they make.
+ *
+ * Meters are no-ops until {@link #start()} attaches the exporters enabled in the configuration: JMX with
+ * {@code METRICS_JMX_ENABLED} and a Prometheus text format endpoint on {@code METRICS_PROMETHEUS_PORT}.
+ */
+@Singleton
+public class ConnectorMetrics {
+
+  private static final Logger log = LoggerFactory.getLogger(ConnectorMetrics.class);
+
+  private static final String POST_STAGE_TIMER = "patricia.post.stage";
+  private static final String POST_RATE_LEVEL_COUNTER = "patricia.post.rate.level";
+  private static final String POST_RESULT_COUNTER = "patricia.post.result";
+  private static final String SYNC_BATCH_TIMER = "patricia.sync.batch";
+  private static final String SYNC_ROWS_COUNTER = "patricia.sync.rows";
+  private static final String API_CALL_TIMER = "patricia.api.call";
+  private static final String CIRCUIT_BREAKER_GAUGE = "patricia.circuit.breaker.state";
+  private static final String ASYNC_POST_RESULT_COUNTER = "patricia.post.async.result";
+  private static final String ASYNC_POST_BACKLOG_GAUGE = "patricia.post.async.backlog";
+  private static final String GROUP_COMMIT_SIZE_SUMMARY = "patricia.post.group.commit.size";
+  private static final String TRANSACTION_RETRY_COUNTER = "patricia.post.transaction.retry";
+  private static final String TRANSACTION_RETRY_EXHAUSTED_COUNTER = "patricia.post.transaction.retry.exhausted";
+  private static final String STATEMENT_TIMEOUT_COUNTER = "patricia.db.statement.timeout";
+  private static final String TAG_QUARANTINED_COUNTER = "patricia.sync.tag.quarantined";
+  private static final String TAG_QUARANTINE_GAUGE = "patricia.sync.tag.quarantine.size";
+  private static final String API_RATE_LIMIT_WAIT_TIMER = "patricia.api.rate.limit.wait";
+  private static final String API_RATE_LIMIT_GAUGE = "patricia.api.rate.limit";
+  private static final String API_THROTTLED_COUNTER = "patricia.api.throttled";
+
+  private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+  private boolean started;
+  private HttpServer prometheusServer;
+
+  /**
+   * Stages of posting a time group to Patricia.
+   */
+  public enum PostStage {
+    USER_RESOLUTION("user_resolution"),
+    TEMPLATE_RENDER("template_render"),
+    CASE_LOOKUP("case_lookup"),
+    RATE_LOOKUP("rate_lookup"),
+    DISCOUNTS("discounts"),
+    DB_WRITE("db_write"),
+    COMMIT("commit");
+
+    private final String tag;
+
+    PostStage(String tag) {
+      this.tag = tag;
+    }
+  }
+
+  /**
+   * Levels of the hourly rate hierarchy, in the order they are tried.
+   */
+  public enum RateLevel {
+    WORK_CODE_DEFAULT("work_code_default"),
+    PRICE_LIST("price_list"),
+    PERSON_HOURLY_RATE("person_hourly_rate"),
+    PERSON_DEFAULT("person_default");
+
+    private final String tag;
+
+    RateLevel(String tag) {
+      this.tag = tag;
+    }
+  }
+
+  /**
+   * Background loops that sync Patricia data to WiseTime.
+   */
+  public enum SyncLoop {
+    NEW_CASES("new_cases"),
+    REFRESH_CASES("refresh_cases"),
+    WORK_CODES("work_codes"),
+    QUARANTINE_RETRY("quarantine_retry");
+
+    private final String tag;
+
+    SyncLoop(String tag) {
+      this.tag = tag;
+    }
+  }
+
+  /**
+   * Classes of database statements, each with its own query timeout.
+   */
+  public enum QueryClass {
+    POSTING_READ("posting_read"),
+    POSTING_WRITE("posting_write"),
+    SYNC_SCAN("sync_scan"),
+    HEALTH_PROBE("health_probe");
+
+    private final String tag;
+
+    QueryClass(String tag) {
+      this.tag = tag;
+    }
+  }
+
+  /**
+   * A WiseTime API call.
+   */
+  @FunctionalInterface
+  public interface ApiCall<T> {
+    T call() throws IOException;
+  }
+
+  /**
+   * The registry all connector meters are registered with. Other components, e.g. the connection pool, can bind their
+   * own meters to it.
+   */
+  public MeterRegistry registry() {
+    return registry;
+  }
+
+  /**
+   * Attaches the exporters enabled in the configuration. Calling it again has no effect.
+   */
+  public synchronized void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+
+    if (RuntimeConfig.getBoolean(PatriciaConnectorConfigKey.METRICS_JMX_ENABLED).orElse(false)) {
+      registry.add(new JmxMeterRegistry(JmxConfig.DEFAULT, Clock.SYSTEM));
+      log.info("Exposing connector metrics through JMX");
+    }
+
+    RuntimeConfig.getInt(PatriciaConnectorConfigKey.METRICS_PROMETHEUS_PORT).ifPresent(this::startPrometheusEndpoint);
+  }
+
+  private void startPrometheusEndpoint(int port) {
+    final PrometheusMeterRegistry prometheusRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    registry.add(prometheusRegistry);
+    try {
+      prometheusServer = HttpServer.create(new InetSocketAddress(port), 0);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to start Prometheus metrics endpoint on port " + port, e);
+    }
+    prometheusServer.createContext("/metrics", exchange -> {
+      final byte[] response = prometheusRegistry.scrape().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+      exchange.sendResponseHeaders(200, response.length);
+      try (OutputStream body = exchange.getResponseBody()) {
+        body.write(response);
+      }
+    });
+    prometheusServer.start();
+    log.info("Exposing connector metrics in Prometheus format on port {} at /metrics", port);
+  }
+
+  public synchronized void stop() {
+    if (prometheusServer != null) {
+      prometheusServer.stop(0);
+      prometheusServer = null;
+    }
+    for (MeterRegistry exporter : new ArrayList<>(registry.getRegistries())) {
+      registry.remove(exporter);
+      exporter.close();
+    }
+    started = false;
+  }
+
+  public <T> T recordPostStage(PostStage stage, Supplier<T> supplier) {
+    return postStageTimer(stage).record(supplier);
+  }
+
+  public void recordPostStage(PostStage stage, Runnable runnable) {
+    postStageTimer(stage).record(runnable);
+  }
+
+  public void recordPostStage(PostStage stage, long durationNanos) {
+    postStageTimer(stage).record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void countRateLevel(RateLevel level) {
+    registry.counter(POST_RATE_LEVEL_COUNTER, "level", level.tag).increment();
+  }
+
+  public void countPostResult(String status) {
+    registry.counter(POST_RESULT_COUNTER, "status", status).increment();
+  }
+
+  /**
+   * Counts the result of applying a journaled time group. Permanent failures are the dead-lettered groups.
+   */
+  public void countAsyncPostResult(String status) {
+    registry.counter(ASYNC_POST_RESULT_COUNTER, "status", status).increment();
+  }
+
+  /**
+   * Exposes the number of journaled time groups that were not applied yet.
+   */
+  public void gaugeAsyncPostBacklog(Supplier<Integer> backlog) {
+    Gauge.builder(ASYNC_POST_BACKLOG_GAUGE, backlog, current -> current.get())
+        .strongReference(true)
+        .register(registry);
+  }
+
+  /**
+   * Records the number of time groups committed in one group transaction.
+   */
+  public void recordGroupCommit(int timeGroups) {
+    registry.summary(GROUP_COMMIT_SIZE_SUMMARY).record(timeGroups);
+  }
+
+  /**
+   * Counts a retry of a posting transaction that was aborted because of lock contention.
+   */
+  public void countTransactionRetry(String reason) {
+    registry.counter(TRANSACTION_RETRY_COUNTER, "reason", reason).increment();
+  }
+
+  /**
+   * Counts a posting transaction that was aborted because of lock contention and not retried any more, because the
+   * limit (attempts or budget) was reached.
+   */
+  public void countTransactionRetryExhausted(String reason, String limit) {
+    registry.counter(TRANSACTION_RETRY_EXHAUSTED_COUNTER, "reason", reason, "limit", limit).increment();
+  }
+
+  /**
+   * Counts a statement that was cancelled because it exceeded the query timeout of its class.
+   */
+  public void countStatementTimeout(QueryClass queryClass) {
+    registry.counter(STATEMENT_TIMEOUT_COUNTER, "class", queryClass.tag).increment();
+  }
+
+  /**
+   * Records a processed sync batch. Throughput in rows per second is the rate of the rows counter.
+   */
+  public void recordSyncBatch(SyncLoop loop, int rows, long durationNanos) {
+    timer(SYNC_BATCH_TIMER, "loop", loop.tag).record(durationNanos, TimeUnit.NANOSECONDS);
+    registry.counter(SYNC_ROWS_COUNTER, "loop", loop.tag).increment(rows);
+  }
+
+  /**
+   * Counts cases whose tags failed to upsert on their own and were quarantined.
+   */
+  public void countQuarantinedTags(SyncLoop loop, int cases) {
+    registry.counter(TAG_QUARANTINED_COUNTER, "loop", loop.tag).increment(cases);
+  }
+
+  /**
+   * Exposes the number of cases in the tag quarantine.
+   */
+  public void gaugeTagQuarantine(Supplier<Integer> size) {
+    Gauge.builder(TAG_QUARANTINE_GAUGE, size, current -> current.get())
+        .strongReference(true)
+        .register(registry);
+  }
+
+  public <T> T recordApiCall(String operation, ApiCall<T> apiCall) throws IOException {
+    final Timer.Sample sample = Timer.start(registry);
+    String outcome = "error";
+    try {
+      final T result = apiCall.call();
+      outcome = "success";
+      return result;
+    } finally {
+      sample.stop(timer(API_CALL_TIMER, "operation", operation, "outcome", outcome));
+    }
+  }
+
+  /**
+   * Records how long a WiseTime API call waited for the rate limiter.
+   */
+  public void recordApiRateLimitWait(ApiRateLimiter.Budget budget, long waitNanos) {
+    timer(API_RATE_LIMIT_WAIT_TIMER, "budget", budget.tag()).record(waitNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Counts a WiseTime API call that was rejected because the connector exceeded the rate limit of the server.
+   */
+  public void countApiThrottled(String operation) {
+    registry.counter(API_THROTTLED_COUNTER, "operation", operation).increment();
+  }
+
+  /**
+   * Exposes the WiseTime API calls per second that the rate limiter currently permits.
+   */
+  public void gaugeApiRateLimit(Supplier<Double> callsPerSecond) {
+    Gauge.builder(API_RATE_LIMIT_GAUGE, callsPerSecond, current -> current.get())
+        .strongReference(true)
+        .register(registry);
+  }
+
+  /**
+   * Exposes the state of a circuit breaker as 0 (closed), 1 (half-open) or 2 (open).
+   */
+  public void gaugeCircuitBreaker(String name, Supplier<CircuitBreaker.State> state) {
+    Gauge.builder(CIRCUIT_BREAKER_GAUGE, state, current -> current.get().ordinal())
+        .tag("breaker", name)
+        .strongReference(true)
+        .register(registry);
+  }
+
+  private Timer postStageTimer(PostStage stage) {
+    return timer(POST_STAGE_TIMER, "stage", stage.tag);
+  }
+
+  private Timer timer(String name, String... tags) {
+    return Timer.builder(name)
+        .tags(tags)
+        .publishPercentileHistogram()
+        .minimumExpectedValue(Duration.ofMillis(1))
+        .maximumExpectedValue(Duration.ofMinutes(2))
+        .register(registry);
+  }
+}
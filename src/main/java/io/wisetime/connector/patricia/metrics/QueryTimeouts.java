@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.wisetime.connector.config.RuntimeConfig;
+import io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.QueryClass;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Query timeouts of the classes of statements, so that a runaway query only holds its pooled connection for a bounded
+ * time. The driver cancels a statement on the server when it exceeds its timeout.
+ */
+@Singleton
+public class QueryTimeouts {
+
+  private final ConnectorMetrics metrics;
+  private final Map<QueryClass, Integer> timeoutSeconds;
+
+  @Inject
+  public QueryTimeouts(ConnectorMetrics metrics) {
+    this(metrics, Map.of(
+        QueryClass.POSTING_READ,
+        RuntimeConfig.getInt(PatriciaConnectorConfigKey.POSTING_READ_TIMEOUT_SECONDS).orElse(30),
+        QueryClass.POSTING_WRITE,
+        RuntimeConfig.getInt(PatriciaConnectorConfigKey.POSTING_WRITE_TIMEOUT_SECONDS).orElse(30),
+        QueryClass.SYNC_SCAN,
+        RuntimeConfig.getInt(PatriciaConnectorConfigKey.SYNC_SCAN_TIMEOUT_SECONDS).orElse(300),
+        QueryClass.HEALTH_PROBE,
+        RuntimeConfig.getInt(PatriciaConnectorConfigKey.HEALTH_CHECK_TIMEOUT_SECONDS).orElse(5)));
+  }
+
+  @VisibleForTesting
+  public QueryTimeouts(ConnectorMetrics metrics, Map<QueryClass, Integer> timeoutSeconds) {
+    this.metrics = metrics;
+    this.timeoutSeconds = new EnumMap<>(timeoutSeconds);
+  }
+
+  /**
+   * @return the timeout of the statements of the class, 0 for no timeout
+   */
+  public int timeoutSeconds(QueryClass queryClass) {
+    return Math.max(0, timeoutSeconds.getOrDefault(queryClass, 0));
+  }
+
+  /**
+   * Counts the error if it is a query timeout.
+   */
+  public void recordError(QueryClass queryClass, Throwable error) {
+    if (isTimeout(error)) {
+      metrics.countStatementTimeout(queryClass);
+    }
+  }
+
+  private static boolean isTimeout(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      // older drivers report the timeout with the generic SQL state for a cancelled operation
+      if (cause instanceof SQLTimeoutException
+          || cause instanceof SQLException && "HY008".equals(((SQLException) cause).getSQLState())) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.wisetime.connector.config.RuntimeConfig;
+import io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import lombok.Builder;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Statistics of the SQL statements the connector runs against the Patricia database, aggregated per SQL shape, i.e.
+ * the statement with literals and whitespace normalised.
+ *
+ * Each shape gets a short id. The id is logged together with the SQL the first time a shape is seen, and statement
+ * meters are tagged with it. Statements slower than {@code SLOW_QUERY_THRESHOLD_MS} are logged to the
+ * {@value #SLOW_QUERY_LOGGER} logger. Only the types of their bind parameters are logged, never the values.
+ */
+@Singleton
+public class StatementStats {
+
+  static final String SLOW_QUERY_LOGGER = "io.wisetime.connector.patricia.slow-query";
+
+  private static final Logger log = LoggerFactory.getLogger(StatementStats.class);
+  private static final Logger slowQueryLog = LoggerFactory.getLogger(SLOW_QUERY_LOGGER);
+
+  private static final String STATEMENT_TIMER = "patricia.jdbc.statement";
+  private static final String STATEMENT_ROWS_SUMMARY = "patricia.jdbc.statement.rows";
+
+  private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+  private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+  private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN \\( ?\\?(?: ?, ?\\?)* ?\\)");
+
+  private final MeterRegistry exportedRegistry;
+  // always on, so that the summary is available even if no metrics exporter is enabled
+  private final SimpleMeterRegistry summaryRegistry = new SimpleMeterRegistry();
+  private final Map<String, ShapeMeters> shapes = new ConcurrentHashMap<>();
+  private final long slowQueryThresholdNanos;
+
+  @Inject
+  public StatementStats(ConnectorMetrics metrics) {
+    this(metrics.registry(), RuntimeConfig.getInt(PatriciaConnectorConfigKey.SLOW_QUERY_THRESHOLD_MS).orElse(1000));
+  }
+
+  @VisibleForTesting
+  StatementStats(MeterRegistry exportedRegistry, int slowQueryThresholdMs) {
+    this.exportedRegistry = exportedRegistry;
+    this.slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMs);
+  }
+
+  /**
+   * Records an executed statement.
+   *
+   * @param sql the statement as sent to the database
+   * @param parameterTypes types of the bind parameters in order, used in place of their values in the slow-query log
+   * @param durationNanos time from execution until the results were consumed
+   * @param rows rows returned or affected
+   */
+  public void record(String sql, List<String> parameterTypes, long durationNanos, long rows) {
+    final ShapeMeters meters = shapes.computeIfAbsent(sqlShape(sql), this::registerShape);
+    meters.summaryTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+    meters.summaryRows.record(rows);
+    meters.exportedTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+    meters.exportedRows.record(rows);
+
+    if (durationNanos >= slowQueryThresholdNanos) {
+      slowQueryLog.warn("Slow statement {} took {} ms and returned or affected {} rows. Parameters: {}. SQL: {}",
+          meters.id, TimeUnit.NANOSECONDS.toMillis(durationNanos), rows, parameterTypes, meters.shape);
+    }
+  }
+
+  /**
+   * Per statement shape statistics, most expensive in total first. The p99 covers the last few minutes.
+   */
+  public List<ShapeSummary> summary() {
+    return shapes.values().stream()
+        .map(meters -> {
+          final ValueAtPercentile[] percentiles = meters.summaryTimer.takeSnapshot().percentileValues();
+          return ShapeSummary.builder()
+              .id(meters.id)
+              .sql(meters.shape)
+              .count(meters.summaryTimer.count())
+              .totalMillis(meters.summaryTimer.totalTime(TimeUnit.MILLISECONDS))
+              .p99Millis(percentiles.length > 0 ? percentiles[0].value(TimeUnit.MILLISECONDS) : 0)
+              .maxMillis(meters.summaryTimer.max(TimeUnit.MILLISECONDS))
+              .rows((long) meters.summaryRows.totalAmount())
+              .build();
+        })
+        .sorted(Comparator.<ShapeSummary>comparingDouble(ShapeSummary::totalMillis).reversed())
+        .collect(Collectors.toList());
+  }
+
+  public void logSummary() {
+    final List<ShapeSummary> summary = summary();
+    if (!summary.isEmpty()) {
+      log.info("Patricia database statement statistics:\n{}", summary.stream()
+          .map(shape -> String.format("%s count=%d total=%.0fms p99=%.1fms max=%.1fms rows=%d sql=%s",
+              shape.id(), shape.count(), shape.totalMillis(), shape.p99Millis(), shape.maxMillis(), shape.rows(),
+              shape.sql()))
+          .collect(Collectors.joining("\n")));
+    }
+  }
+
+  @VisibleForTesting
+  static String sqlShape(String sql) {
+    String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+    shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+    shape = WHITESPACE.matcher(shape).replaceAll(" ").trim();
+    return IN_LIST.matcher(shape).replaceAll("IN (?)");
+  }
+
+  private ShapeMeters registerShape(String shape) {
+    final String id = Hashing.murmur3_32().hashString(shape, StandardCharsets.UTF_8).toString();
+    log.info("Tracking Patricia database statement {}: {}", id, shape);
+    return new ShapeMeters(id, shape,
+        statementTimer(id).register(summaryRegistry),
+        DistributionSummary.builder(STATEMENT_ROWS_SUMMARY).tag("statement", id).register(summaryRegistry),
+        statementTimer(id).register(exportedRegistry),
+        DistributionSummary.builder(STATEMENT_ROWS_SUMMARY).tag("statement", id).register(exportedRegistry));
+  }
+
+  private Timer.Builder statementTimer(String id) {
+    return Timer.builder(STATEMENT_TIMER)
+        .tag("statement", id)
+        .publishPercentiles(0.99)
+        .distributionStatisticExpiry(Duration.ofMinutes(5));
+  }
+
+  @RequiredArgsConstructor
+  private static class ShapeMeters {
+
+    private final String id;
+    private final String shape;
+    private final Timer summaryTimer;
+    private final DistributionSummary summaryRows;
+    private final Timer exportedTimer;
+    private final DistributionSummary exportedRows;
+  }
+
+  @Data
+  @Builder
+  @Accessors(fluent = true)
+  public static class ShapeSummary {
+
+    private String id;
+    private String sql;
+    private long count;
+    private double totalMillis;
+    private double p99Millis;
+    private double maxMillis;
+    private long rows;
+  }
+}
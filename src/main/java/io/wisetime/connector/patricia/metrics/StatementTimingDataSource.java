@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.metrics;
+
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.QueryClass;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+
+/**
+ * Data source that times every statement run through its connections and reports it to {@link StatementStats}.
+ *
+ * A query is timed from its execution until its result set is closed, so that fetching the rows is included. Updates
+ * and batches are timed around their execution.
+ *
+ * If created with {@link QueryTimeouts}, statements also get the query timeout of their class: statements created
+ * outside of a transaction belong to one class, e.g. posting reads, and statements inside of a transaction to another
+ * one, e.g. posting writes.
+ */
+public class StatementTimingDataSource implements DataSource {
+
+  private final DataSource delegate;
+  private final StatementStats statementStats;
+  @Nullable
+  private final QueryTimeouts queryTimeouts;
+  private final QueryClass autoCommitClass;
+  private final QueryClass transactionClass;
+
+  public StatementTimingDataSource(DataSource delegate, StatementStats statementStats) {
+    this(delegate, statementStats, null, QueryClass.POSTING_READ, QueryClass.POSTING_WRITE);
+  }
+
+  public StatementTimingDataSource(DataSource delegate, StatementStats statementStats,
+                                   @Nullable QueryTimeouts queryTimeouts,
+                                   QueryClass autoCommitClass, QueryClass transactionClass) {
+    this.delegate = delegate;
+    this.statementStats = statementStats;
+    this.queryTimeouts = queryTimeouts;
+    this.autoCommitClass = autoCommitClass;
+    this.transactionClass = transactionClass;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return timed(delegate.getConnection());
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return timed(delegate.getConnection(username, password));
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return delegate.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    delegate.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    delegate.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return delegate.getLoginTimeout();
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return delegate.getParentLogger();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    return iface.isInstance(this) ? iface.cast(this) : delegate.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || delegate.isWrapperFor(iface);
+  }
+
+  private Connection timed(Connection connection) {
+    return proxy(Connection.class, (proxy, method, args) -> {
+      final Object result = invoke(connection, method, args);
+      if (result instanceof Statement) {
+        final String sql = method.getName().startsWith("prepare") ? (String) args[0] : null;
+        final QueryClass queryClass = connection.getAutoCommit() ? autoCommitClass : transactionClass;
+        if (queryTimeouts != null && queryTimeouts.timeoutSeconds(queryClass) > 0) {
+          ((Statement) result).setQueryTimeout(queryTimeouts.timeoutSeconds(queryClass));
+        }
+        return timed((Statement) result, sql, queryClass);
+      }
+      return result;
+    });
+  }
+
+  private Statement timed(Statement statement, String preparedSql, QueryClass queryClass) {
+    final Class<? extends Statement> type;
+    if (statement instanceof CallableStatement) {
+      type = CallableStatement.class;
+    } else if (statement instanceof PreparedStatement) {
+      type = PreparedStatement.class;
+    } else {
+      type = Statement.class;
+    }
+    return proxy(type, new TimedStatement(statement, preparedSql, queryClass));
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(StatementTimingDataSource.class.getClassLoader(), new Class<?>[]{type},
+        handler));
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private class TimedStatement implements InvocationHandler {
+
+    private final Statement statement;
+    private final String preparedSql;
+    private final QueryClass queryClass;
+    // bind parameter types by index; the values are never kept
+    private final Map<Integer, String> parameterTypes = new TreeMap<>();
+
+    // execution whose result set is still being consumed
+    private String pendingSql;
+    private long pendingStartNanos;
+    private long pendingRows;
+
+    TimedStatement(Statement statement, String preparedSql, QueryClass queryClass) {
+      this.statement = statement;
+      this.preparedSql = preparedSql;
+      this.queryClass = queryClass;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      final String name = method.getName();
+      if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+        parameterTypes.put((Integer) args[0], name.equals("setNull") || args[1] == null
+            ? "null" : args[1].getClass().getSimpleName());
+        return StatementTimingDataSource.invoke(statement, method, args);
+      }
+      if (name.equals("clearParameters")) {
+        parameterTypes.clear();
+        return StatementTimingDataSource.invoke(statement, method, args);
+      }
+      if (name.equals("close")) {
+        finishPending();
+        return StatementTimingDataSource.invoke(statement, method, args);
+      }
+      if (!name.startsWith("execute")) {
+        return StatementTimingDataSource.invoke(statement, method, args);
+      }
+
+      finishPending();
+      final String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+      final long startNanos = System.nanoTime();
+      final Object result;
+      try {
+        result = StatementTimingDataSource.invoke(statement, method, args);
+      } catch (Throwable t) {
+        record(sql, startNanos, 0);
+        if (queryTimeouts != null) {
+          queryTimeouts.recordError(queryClass, t);
+        }
+        throw t;
+      }
+
+      if (result instanceof ResultSet) {
+        pendingSql = sql;
+        pendingStartNanos = startNanos;
+        pendingRows = 0;
+        return timed((ResultSet) result);
+      }
+      record(sql, startNanos, affectedRows(result));
+      return result;
+    }
+
+    private ResultSet timed(ResultSet resultSet) {
+      return proxy(ResultSet.class, (proxy, method, args) -> {
+        final Object result = StatementTimingDataSource.invoke(resultSet, method, args);
+        if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+          pendingRows++;
+        } else if (method.getName().equals("close")) {
+          finishPending();
+        }
+        return result;
+      });
+    }
+
+    private void finishPending() {
+      if (pendingSql != null) {
+        record(pendingSql, pendingStartNanos, pendingRows);
+        pendingSql = null;
+      }
+    }
+
+    private void record(String sql, long startNanos, long rows) {
+      if (sql != null) {
+        statementStats.record(sql, new ArrayList<>(parameterTypes.values()), System.nanoTime() - startNanos, rows);
+      }
+    }
+
+    private long affectedRows(Object executeResult) throws SQLException {
+      if (executeResult instanceof Number) {
+        return ((Number) executeResult).longValue();
+      }
+      if (executeResult instanceof int[]) {
+        long rows = 0;
+        for (int count : (int[]) executeResult) {
+          rows += Math.max(count, 0);
+        }
+        return rows;
+      }
+      if (executeResult instanceof long[]) {
+        long rows = 0;
+        for (long count : (long[]) executeResult) {
+          rows += Math.max(count, 0);
+        }
+        return rows;
+      }
+      // plain execute() without result set
+      return Math.max(statement.getUpdateCount(), 0);
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+import lombok.Builder;
+import lombok.Builder.Default;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Token bucket rate limiter for the WiseTime API calls of the connector.
+ *
+ * The permitted rate is shared by two budgets, so that a bulk tag sync cannot use up the calls that posting time needs.
+ * Each budget has its own bucket, refilled at its share of the rate and holding at most one second of calls. While
+ * posting is idle its bucket stays full, and the calls that would overflow it go to the sync bucket instead: a sync
+ * may then use the whole rate, while posting keeps a second of its share ready.
+ *
+ * The rate adapts to the server: a throttle response lowers it by a fifth and drops the calls saved up in the buckets,
+ * each successful call raises it by a hundredth of the configured rate, up to the configured rate. The rate so stays
+ * just below the limit of the server, instead of all loops bursting and backing off at the same time.
+ */
+public class ApiRateLimiter {
+
+  private static final Logger log = LoggerFactory.getLogger(ApiRateLimiter.class);
+
+  private static final double DECREASE_FACTOR = 0.8;
+  private static final double INCREASE_FRACTION = 0.01;
+  private static final double MIN_RATE_FRACTION = 0.05;
+  // throttle responses to calls made before the last decrease do not lower the rate again
+  private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final Pattern THROTTLED_STATUS_LINE =
+      Pattern.compile("429(?: Too Many Requests)?(?:\\r?\\n|$)", Pattern.CASE_INSENSITIVE);
+
+  /**
+   * Budgets that share the permitted rate.
+   */
+  public enum Budget {
+    SYNC("sync"),
+    POSTING("posting");
+
+    private final String tag;
+
+    Budget(String tag) {
+      this.tag = tag;
+    }
+
+    public String tag() {
+      return tag;
+    }
+  }
+
+  /**
+   * Sleeps for the time a call has to wait.
+   */
+  @FunctionalInterface
+  interface Sleeper {
+    void sleep(long nanos) throws InterruptedException;
+  }
+
+  private final double maxRate;
+  private final double minRate;
+  private final double postingShare;
+  private final LongSupplier nanoClock;
+  private final Sleeper sleeper;
+  private final Map<Budget, Bucket> buckets = new EnumMap<>(Budget.class);
+
+  private double rate;
+  private long decreasedAtNanos;
+  private long refilledAtNanos;
+
+  public ApiRateLimiter(Config config) {
+    this(config, System::nanoTime, TimeUnit.NANOSECONDS::sleep);
+  }
+
+  @VisibleForTesting
+  ApiRateLimiter(Config config, LongSupplier nanoClock, Sleeper sleeper) {
+    Preconditions.checkArgument(config.callsPerSecond() > 0, "The rate limit must be positive");
+    Preconditions.checkArgument(config.postingSharePercent() > 0 && config.postingSharePercent() < 100,
+        "The posting share of the rate limit must be between 0 and 100 percent");
+    this.maxRate = config.callsPerSecond();
+    this.minRate = maxRate * MIN_RATE_FRACTION;
+    this.postingShare = config.postingSharePercent() / 100.0;
+    this.nanoClock = nanoClock;
+    this.sleeper = sleeper;
+    this.rate = maxRate;
+    final long now = nanoClock.getAsLong();
+    this.decreasedAtNanos = now - DECREASE_INTERVAL_NANOS;
+    this.refilledAtNanos = now;
+    for (Budget budget : Budget.values()) {
+      final Bucket bucket = new Bucket(budget);
+      bucket.tokens = bucket.capacity();
+      buckets.put(budget, bucket);
+    }
+  }
+
+  /**
+   * Blocks until the budget permits another call.
+   *
+   * @return how long the call waited, in nanoseconds
+   */
+  public long acquire(Budget budget) throws InterruptedException {
+    final long waitNanos;
+    synchronized (this) {
+      refill(nanoClock.getAsLong());
+      final Bucket bucket = buckets.get(budget);
+      // a call without a token takes one in advance, so that waiting calls are served in order
+      waitNanos = bucket.tokens >= 1 ? 0 : (long) Math.ceil((1 - bucket.tokens) / refillRate(budget) * 1e9);
+      bucket.tokens--;
+    }
+    if (waitNanos > 0) {
+      sleeper.sleep(waitNanos);
+    }
+    return waitNanos;
+  }
+
+  public synchronized void onSuccess() {
+    if (rate < maxRate) {
+      changeRate(Math.min(maxRate, rate + maxRate * INCREASE_FRACTION));
+    }
+  }
+
+  public synchronized void onThrottled() {
+    final long now = nanoClock.getAsLong();
+    if (now - decreasedAtNanos < DECREASE_INTERVAL_NANOS) {
+      return;
+    }
+    decreasedAtNanos = now;
+    changeRate(Math.max(minRate, rate * DECREASE_FACTOR));
+    buckets.values().forEach(bucket -> bucket.tokens = Math.min(bucket.tokens, 0));
+    log.warn("WiseTime API throttled the connector, lowered the rate limit to {} calls per second",
+        String.format(Locale.ROOT, "%.2f", rate));
+  }
+
+  /**
+   * The permitted calls per second of both budgets together.
+   */
+  public synchronized double rate() {
+    return rate;
+  }
+
+  /**
+   * Whether the failure of a WiseTime API call is a throttle response, i.e. HTTP status 429. The API client reports
+   * an error response with its status line as the first line of the message, e.g. {@code 429 Too Many Requests}
+   * followed by the response body. Other messages that mention 429, like a case number in a validation error, are not
+   * throttle responses.
+   */
+  public static boolean isThrottled(Throwable failure) {
+    for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+      final String message = cause.getMessage();
+      if (message != null && THROTTLED_STATUS_LINE.matcher(message).lookingAt()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void changeRate(double newRate) {
+    // tokens up to now accrue at the old rate
+    refill(nanoClock.getAsLong());
+    rate = newRate;
+  }
+
+  private void refill(long now) {
+    final double seconds = (now - refilledAtNanos) / 1e9;
+    refilledAtNanos = now;
+    final Bucket posting = buckets.get(Budget.POSTING);
+    final Bucket sync = buckets.get(Budget.SYNC);
+    final double postingTokens = posting.tokens + seconds * posting.rate();
+    posting.tokens = Math.min(posting.capacity(), postingTokens);
+    final double overflow = Math.max(0, postingTokens - posting.capacity());
+    sync.tokens = Math.min(sync.capacity(), sync.tokens + seconds * sync.rate() + overflow);
+  }
+
+  /**
+   * Calls per second that currently flow into the bucket of the budget. Waits are estimated at this rate; a sync
+   * call that waits for the overflow of an idle posting bucket may so start a little early if posting resumes.
+   */
+  private double refillRate(Budget budget) {
+    final Bucket posting = buckets.get(Budget.POSTING);
+    if (budget == Budget.POSTING) {
+      return posting.rate();
+    }
+    return buckets.get(Budget.SYNC).rate() + (posting.tokens >= posting.capacity() ? posting.rate() : 0);
+  }
+
+  private class Bucket {
+
+    private final Budget budget;
+    private double tokens;
+
+    private Bucket(Budget budget) {
+      this.budget = budget;
+    }
+
+    private double rate() {
+      return ApiRateLimiter.this.rate * (budget == Budget.POSTING ? postingShare : 1 - postingShare);
+    }
+
+    private double capacity() {
+      return Math.max(1, rate());
+    }
+  }
+
+  @Data
+  @Builder
+  @Accessors(fluent = true)
+  public static class Config {
+
+    @Default
+    private double callsPerSecond = 10;
+    @Default
+    private int postingSharePercent = 20;
+  }
+}
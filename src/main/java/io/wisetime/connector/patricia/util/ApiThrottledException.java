@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.util;
+
+import java.io.IOException;
+
+/**
+ * WiseTime throttled a call of the connector. The call was not processed and may be retried later as it was.
+ */
+public class ApiThrottledException extends IOException {
+
+  public ApiThrottledException(String operation, IOException cause) {
+    super("WiseTime API throttled " + operation + ": " + cause.getMessage(), cause);
+  }
+}
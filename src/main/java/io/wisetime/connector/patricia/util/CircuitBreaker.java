@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.time.Duration;
+import java.util.function.LongSupplier;
+import lombok.Builder;
+import lombok.Builder.Default;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Count based circuit breaker that trips on the share of failed or slow calls among the most recent calls.
+ *
+ * While open, calls are not permitted. Once the open duration has passed, the breaker is half-open and lets a few
+ * trial calls through: if all of them succeed in time the breaker closes, the first failed or slow one opens it again.
+ */
+public class CircuitBreaker {
+
+  private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  /**
+   * State of a circuit breaker.
+   */
+  public enum State {
+    CLOSED,
+    HALF_OPEN,
+    OPEN
+  }
+
+  private final String name;
+  private final Config config;
+  private final LongSupplier nanoClock;
+  private final long slowCallNanos;
+
+  // outcomes of the most recent calls while closed; true marks a failed or slow call
+  private final boolean[] window;
+  private int windowIndex;
+  private int windowCalls;
+  private int windowFailures;
+
+  private State state = State.CLOSED;
+  private long openedAtNanos;
+  private int halfOpenPermits;
+  private int halfOpenSuccesses;
+
+  public CircuitBreaker(String name, Config config) {
+    this(name, config, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  CircuitBreaker(String name, Config config, LongSupplier nanoClock) {
+    this.name = name;
+    this.config = config;
+    this.nanoClock = nanoClock;
+    this.slowCallNanos = config.slowCallDuration().toNanos();
+    this.window = new boolean[config.windowSize()];
+  }
+
+  /**
+   * Whether a call may proceed. A permitted call must be followed by {@link #onResult(long, boolean)}.
+   */
+  public synchronized boolean tryAcquirePermission() {
+    if (state == State.OPEN) {
+      if (nanoClock.getAsLong() - openedAtNanos < config.openDuration().toNanos()) {
+        return false;
+      }
+      transitionTo(State.HALF_OPEN);
+    }
+    if (state == State.HALF_OPEN) {
+      if (halfOpenPermits >= config.halfOpenCalls()) {
+        return false;
+      }
+      halfOpenPermits++;
+    }
+    return true;
+  }
+
+  /**
+   * Records the outcome of a permitted call.
+   *
+   * @param durationNanos how long the call took
+   * @param failed whether the call failed in a way that indicates an overloaded or unavailable dependency
+   */
+  public synchronized void onResult(long durationNanos, boolean failed) {
+    final boolean unsuccessful = failed || durationNanos >= slowCallNanos;
+    if (state == State.HALF_OPEN) {
+      if (unsuccessful) {
+        transitionTo(State.OPEN);
+      } else if (++halfOpenSuccesses >= config.halfOpenCalls()) {
+        transitionTo(State.CLOSED);
+      }
+      return;
+    }
+    if (state == State.OPEN) {
+      // a call permitted before the breaker opened
+      return;
+    }
+
+    if (windowCalls == window.length) {
+      windowFailures -= window[windowIndex] ? 1 : 0;
+    } else {
+      windowCalls++;
+    }
+    window[windowIndex] = unsuccessful;
+    windowFailures += unsuccessful ? 1 : 0;
+    windowIndex = (windowIndex + 1) % window.length;
+
+    if (windowCalls >= config.minimumCalls()
+        && windowFailures * 100 >= config.failureRateThresholdPercent() * windowCalls) {
+      log.warn("{} of the last {} {} calls failed or were slow", windowFailures, windowCalls, name);
+      transitionTo(State.OPEN);
+    }
+  }
+
+  public synchronized State state() {
+    return state;
+  }
+
+  private void transitionTo(State newState) {
+    log.info("Circuit breaker {} changed from {} to {}", name, state, newState);
+    state = newState;
+    switch (newState) {
+      case OPEN:
+        openedAtNanos = nanoClock.getAsLong();
+        break;
+      case HALF_OPEN:
+        halfOpenPermits = 0;
+        halfOpenSuccesses = 0;
+        break;
+      case CLOSED:
+        windowIndex = 0;
+        windowCalls = 0;
+        windowFailures = 0;
+        break;
+      default:
+        throw new IllegalStateException("Unexpected circuit breaker state " + newState);
+    }
+  }
+
+  @Data
+  @Builder
+  @Accessors(fluent = true)
+  public static class Config {
+
+    @Default
+    private int windowSize = 20;
+    // calls in the window before the failure rate is evaluated
+    @Default
+    private int minimumCalls = 10;
+    @Default
+    private int failureRateThresholdPercent = 50;
+    @Default
+    private Duration slowCallDuration = Duration.ofSeconds(10);
+    @Default
+    private Duration openDuration = Duration.ofSeconds(30);
+    @Default
+    private int halfOpenCalls = 3;
+  }
+}
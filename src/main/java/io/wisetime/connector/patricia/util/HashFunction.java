@@ -4,11 +4,24 @@
 
 package io.wisetime.connector.patricia.util;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.google.inject.Singleton;
 import io.wisetime.connector.patricia.PatriciaDao.WorkCode;
+import io.wisetime.generated.connect.TimeGroup;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.List;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 
 /**
@@ -17,6 +30,13 @@ import org.apache.commons.codec.digest.DigestUtils;
 @Singleton
 public class HashFunction {
 
+  // properties and map entries in a fixed order, and null properties left out like the posting journal leaves them out
+  private final ObjectMapper canonicalMapper = JsonMapper.builder()
+      .serializationInclusion(JsonInclude.Include.NON_NULL)
+      .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+      .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+      .build();
+
   public String hashStrings(List<String> strings) {
     return hash(strings, Function.identity());
   }
@@ -25,6 +45,22 @@ public class HashFunction {
     return hash(workCodes, workCode -> workCode.workCodeId() + workCode.workCodeText());
   }
 
+  /**
+   * Hash of the whole time group as delivered by WiseTime, i.e. before the connector modifies it. The time group is
+   * hashed as canonical JSON, so that a copy read back from the posting journal has the same hash.
+   */
+  public String hashTimeGroup(TimeGroup timeGroup) {
+    final MessageDigest digest = DigestUtils.getMd5Digest();
+    try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+      canonicalMapper.writeValue(out, timeGroup);
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException("Failed to serialize time group " + timeGroup.getGroupId(), e);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+
   private <T> String hash(List<T> list, Function<T, String> toString) {
     final String listString = list.stream().map(toString).collect(Collectors.joining());
     return DigestUtils.md5Hex(listString);
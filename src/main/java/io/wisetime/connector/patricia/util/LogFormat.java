@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.util;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Log arguments that cost nothing unless the message is actually logged. SLF4J only calls {@code toString()} on the
+ * arguments of enabled log statements.
+ */
+public class LogFormat {
+
+  private LogFormat() {
+  }
+
+  /**
+   * Argument that is only computed if the log statement is enabled.
+   */
+  public static Object lazy(Supplier<?> supplier) {
+    return new Object() {
+      @Override
+      public String toString() {
+        return String.valueOf(supplier.get());
+      }
+    };
+  }
+
+  /**
+   * Comma separated list of at most {@code maxItems} items, followed by the number of items left out.
+   */
+  public static Object capped(Collection<?> items, int maxItems) {
+    return lazy(() -> {
+      final String shown = items.stream()
+          .limit(maxItems)
+          .map(String::valueOf)
+          .collect(Collectors.joining(", "));
+      return items.size() > maxItems
+          ? shown + " and " + (items.size() - maxItems) + " more"
+          : shown;
+    });
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lets at most one occurrence of a frequent log message through per interval, e.g. one line per sync batch while the
+ * connector works through a large backlog of cases.
+ */
+public class LogSampler {
+
+  private final long intervalNanos;
+  private final LongSupplier nanoClock;
+
+  private boolean sampledBefore;
+  private long lastSampleNanos;
+  private long skipped;
+
+  public LogSampler(Duration interval) {
+    this(interval, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  LogSampler(Duration interval, LongSupplier nanoClock) {
+    this.intervalNanos = interval.toNanos();
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * Decides whether to log this occurrence of the message.
+   *
+   * @return the number of occurrences skipped since the last logged one, or empty if this one should be skipped too
+   */
+  public synchronized OptionalLong sample() {
+    final long now = nanoClock.getAsLong();
+    if (sampledBefore && now - lastSampleNanos < intervalNanos) {
+      skipped++;
+      return OptionalLong.empty();
+    }
+    final long skippedBefore = skipped;
+    sampledBefore = true;
+    lastSampleNanos = now;
+    skipped = 0;
+    return OptionalLong.of(skippedBefore);
+  }
+}
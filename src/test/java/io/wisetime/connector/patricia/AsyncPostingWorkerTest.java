@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.wisetime.connector.api_client.PostResult;
+import io.wisetime.connector.patricia.PostingJournal.Entry;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics;
+import io.wisetime.generated.connect.TimeGroup;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AsyncPostingWorkerTest {
+
+  private static final FakeEntities FAKE_ENTITIES = new FakeEntities();
+
+  @TempDir
+  Path dataDir;
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  // results to reply with per group id; success if missing
+  private final Map<String, PostResult> results = new HashMap<>();
+  private final List<String> posted = new ArrayList<>();
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final List<Long> deserialized = new ArrayList<>();
+
+  private PostingJournal journal;
+  private AsyncPostingWorker worker;
+
+  @BeforeEach
+  void setUp() {
+    journal = new PostingJournal() {
+      @Override
+      TimeGroup toTimeGroup(Entry entry) {
+        deserialized.add(entry.seq());
+        return super.toTimeGroup(entry);
+      }
+    };
+    journal.open(dataDir);
+    final ConnectorMetrics metrics = new ConnectorMetrics();
+    ((CompositeMeterRegistry) metrics.registry()).add(meterRegistry);
+    worker = new AsyncPostingWorker(journal, timeGroup -> {
+      posted.add(timeGroup.getGroupId());
+      return results.getOrDefault(timeGroup.getGroupId(), PostResult.SUCCESS());
+    }, metrics, Duration.ofSeconds(60), nanoTime::get);
+  }
+
+  @AfterEach
+  void tearDown() {
+    journal.close();
+  }
+
+  @Test
+  void drain_appliesInJournalOrder() {
+    final TimeGroup first = journal(FAKE_ENTITIES.randomTimeGroup());
+    final TimeGroup second = journal(FAKE_ENTITIES.randomTimeGroup());
+
+    worker.drain();
+
+    assertThat(posted)
+        .containsExactly(first.getGroupId(), second.getGroupId());
+    assertThat(journal.backlog())
+        .isZero();
+  }
+
+  @Test
+  void drain_transientFailureHoldsBackSameCase() {
+    final TimeGroup failing = journal(FAKE_ENTITIES.randomTimeGroup());
+    final TimeGroup sameCase = journal(FAKE_ENTITIES.randomTimeGroup().tags(failing.getTags()));
+    final TimeGroup otherCase = journal(FAKE_ENTITIES.randomTimeGroup());
+    results.put(failing.getGroupId(), PostResult.TRANSIENT_FAILURE());
+
+    worker.drain();
+    assertThat(posted)
+        .as("Later groups for the same case wait for the failed one")
+        .containsExactly(failing.getGroupId(), otherCase.getGroupId());
+
+    posted.clear();
+    worker.drain();
+    assertThat(posted)
+        .as("The failed group is not retried before the retry delay")
+        .isEmpty();
+
+    results.remove(failing.getGroupId());
+    nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(60));
+    worker.drain();
+    assertThat(posted)
+        .containsExactly(failing.getGroupId(), sameCase.getGroupId());
+    assertThat(journal.backlog())
+        .isZero();
+  }
+
+  @Test
+  void drain_permanentFailureIsDeadLettered() {
+    final TimeGroup failing = journal(FAKE_ENTITIES.randomTimeGroup());
+    results.put(failing.getGroupId(), PostResult.PERMANENT_FAILURE().withMessage("User does not exist"));
+
+    worker.drain();
+
+    assertThat(journal.backlog())
+        .isZero();
+    assertThat(meterRegistry.get("patricia.post.async.result").tag("status", "PERMANENT_FAILURE").counter().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  void drain_heldBackGroupsAreNotDeserialized() {
+    final TimeGroup failing = journal(FAKE_ENTITIES.randomTimeGroup());
+    journal(FAKE_ENTITIES.randomTimeGroup().tags(failing.getTags()));
+    journal(FAKE_ENTITIES.randomTimeGroup().tags(failing.getTags()));
+    results.put(failing.getGroupId(), PostResult.TRANSIENT_FAILURE());
+
+    worker.drain();
+    deserialized.clear();
+    worker.drain();
+
+    assertThat(deserialized)
+        .as("Groups waiting for a retry or for an earlier group of their case are skipped without parsing them")
+        .isEmpty();
+    assertThat(journal.backlog())
+        .isEqualTo(3);
+  }
+
+  @Test
+  void drain_malformedGroupIsDeadLettered() throws IOException {
+    journal.close();
+    Files.write(dataDir.resolve(PostingJournal.JOURNAL_FILE_NAME),
+        "E\t1\tgroup-1\thash-1\t{\"groupId\":\"group-1\",\"totalDurationSecs\":\"many\"}\n"
+            .getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    journal.open(dataDir);
+    final TimeGroup next = journal(FAKE_ENTITIES.randomTimeGroup());
+
+    worker.drain();
+
+    assertThat(posted)
+        .as("A group that cannot be read does not hold back the others")
+        .containsExactly(next.getGroupId());
+    assertThat(journal.backlog())
+        .isZero();
+    assertThat(Files.readAllLines(dataDir.resolve(PostingJournal.DEAD_LETTER_FILE_NAME)))
+        .hasSize(1);
+  }
+
+  private TimeGroup journal(TimeGroup timeGroup) {
+    final Entry entry = journal.append("hash-" + timeGroup.getGroupId(), timeGroup);
+    assertThat(entry.groupId())
+        .isEqualTo(timeGroup.getGroupId());
+    return timeGroup;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.wisetime.connector.patricia.DatabaseHealthMonitor.HealthState;
+import io.wisetime.connector.patricia.PatriciaDao.PoolStats;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DatabaseHealthMonitorTest {
+
+  private final PatriciaDao patriciaDaoMock = mock(PatriciaDao.class);
+  private final Clock clockMock = mock(Clock.class);
+  private final Instant now = Instant.parse("2022-05-01T10:00:00Z");
+
+  private DatabaseHealthMonitor healthMonitor;
+
+  @BeforeEach
+  void setUp() {
+    when(clockMock.instant()).thenReturn(now);
+    healthMonitor = new DatabaseHealthMonitor(patriciaDaoMock, clockMock);
+  }
+
+  @Test
+  void isHealthy_noProbeYet() {
+    assertThat(healthMonitor.isHealthy())
+        .as("Connector is not healthy until the database was reached once")
+        .isFalse();
+  }
+
+  @Test
+  void probe_success() throws SQLException {
+    final PoolStats poolStats = PoolStats.builder().active(3).idle(7).total(10).threadsAwaitingConnection(0).build();
+    doNothing().when(patriciaDaoMock).probe(anyInt());
+    when(patriciaDaoMock.primaryPoolStats()).thenReturn(Optional.of(poolStats));
+
+    healthMonitor.probe();
+
+    assertThat(healthMonitor.isHealthy())
+        .isTrue();
+    final HealthState state = healthMonitor.state();
+    assertThat(state.checkedAt())
+        .isEqualTo(now);
+    assertThat(state.pool())
+        .as("Pool usage is part of the health state")
+        .isEqualTo(poolStats);
+    assertThat(state.error())
+        .isNull();
+  }
+
+  @Test
+  void probe_failure() throws SQLException {
+    doThrow(new SQLException("Connection is not available, request timed out after 5000ms."))
+        .when(patriciaDaoMock).probe(anyInt());
+
+    healthMonitor.probe();
+
+    assertThat(healthMonitor.isHealthy())
+        .isFalse();
+    assertThat(healthMonitor.state().error())
+        .isEqualTo("Connection is not available, request timed out after 5000ms.");
+  }
+
+  @Test
+  void isHealthy_stale() {
+    healthMonitor.probe();
+    assertThat(healthMonitor.isHealthy())
+        .isTrue();
+
+    when(clockMock.instant()).thenReturn(now.plus(Duration.ofMinutes(2)));
+    assertThat(healthMonitor.isHealthy())
+        .as("A result older than two intervals means that probing is stuck")
+        .isFalse();
+  }
+}
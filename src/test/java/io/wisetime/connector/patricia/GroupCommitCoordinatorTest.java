@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class GroupCommitCoordinatorTest {
+
+  private final PatriciaDao patriciaDaoMock = mock(PatriciaDao.class);
+  private final List<Integer> transactionSizes = new ArrayList<>();
+  private ExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    // runs the units like a group transaction would, minus the database
+    when(patriciaDaoMock.asGroupTransaction(anyList())).thenAnswer(invocation -> {
+      final List<Runnable> units = invocation.getArgument(0);
+      synchronized (transactionSizes) {
+        transactionSizes.add(units.size());
+      }
+      final Map<Integer, RuntimeException> errors = new HashMap<>();
+      for (int i = 0; i < units.size(); i++) {
+        try {
+          units.get(i).run();
+        } catch (RuntimeException e) {
+          errors.put(i, e);
+        }
+      }
+      return errors;
+    });
+    executor = Executors.newFixedThreadPool(5);
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void execute_concurrentPostsShareTransaction() throws Exception {
+    final GroupCommitCoordinator coordinator =
+        new GroupCommitCoordinator(patriciaDaoMock, new ConnectorMetrics(), Duration.ofSeconds(5), 5);
+    final AtomicInteger ran = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+
+    final List<Future<?>> posts = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      posts.add(executor.submit(() -> {
+        start.await();
+        coordinator.execute(ran::incrementAndGet);
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> post : posts) {
+      post.get(10, TimeUnit.SECONDS);
+    }
+
+    assertThat(ran)
+        .hasValue(5);
+    assertThat(transactionSizes)
+        .as("A full batch is committed without waiting for the rest of the window")
+        .containsExactly(5);
+  }
+
+  @Test
+  void execute_failingPostFailsAlone() throws Exception {
+    final GroupCommitCoordinator coordinator =
+        new GroupCommitCoordinator(patriciaDaoMock, new ConnectorMetrics(), Duration.ofSeconds(5), 2);
+    final CountDownLatch start = new CountDownLatch(1);
+
+    final Future<?> failing = executor.submit(() -> {
+      start.await();
+      coordinator.execute(() -> {
+        throw new IllegalStateException("Failed to insert budget line");
+      });
+      return null;
+    });
+    final Future<?> succeeding = executor.submit(() -> {
+      start.await();
+      coordinator.execute(() -> { });
+      return null;
+    });
+    start.countDown();
+
+    assertThatThrownBy(() -> failing.get(10, TimeUnit.SECONDS))
+        .hasCauseInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("Failed to insert budget line");
+    succeeding.get(10, TimeUnit.SECONDS);
+    assertThat(transactionSizes)
+        .containsExactly(2);
+  }
+
+  @Test
+  void execute_transactionFailureFailsAll() {
+    when(patriciaDaoMock.asGroupTransaction(anyList())).thenThrow(new RuntimeException("Deadlock"));
+    final GroupCommitCoordinator coordinator =
+        new GroupCommitCoordinator(patriciaDaoMock, new ConnectorMetrics(), Duration.ofMillis(1), 10);
+
+    assertThatThrownBy(() -> coordinator.execute(() -> { }))
+        .hasMessage("Deadlock");
+    verify(patriciaDaoMock, times(1)).asGroupTransaction(anyList());
+  }
+}
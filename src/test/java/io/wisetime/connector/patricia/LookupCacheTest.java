@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.wisetime.connector.patricia.PatriciaConnector.HourlyRate;
+import io.wisetime.connector.patricia.PatriciaDao.Case;
+import io.wisetime.connector.patricia.PatriciaDao.Discount;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.RateLevel;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LookupCacheTest {
+
+  private static final Duration TIME_TO_LIVE = Duration.ofMinutes(30);
+  private static final Case CASE = Case.builder()
+      .caseId(42)
+      .caseNumber("P-42")
+      .caseTypeId(1)
+      .stateId("AU")
+      .appId(2)
+      .build();
+
+  @TempDir
+  Path dataDir;
+
+  private final Clock clockMock = mock(Clock.class);
+  private final Instant now = Instant.parse("2022-05-01T10:00:00Z");
+  private final AtomicInteger lookups = new AtomicInteger();
+  private LookupCache cache;
+
+  @BeforeEach
+  void setUp() {
+    when(clockMock.instant()).thenReturn(now);
+    when(clockMock.millis()).thenReturn(now.toEpochMilli());
+    cache = new LookupCache(clockMock);
+    cache.configure(TIME_TO_LIVE, "db-1");
+  }
+
+  @Test
+  void find_cachesFoundValuesOnly() {
+    assertThat(cache.cases.find("P-42", () -> lookUp(Optional.of(CASE))))
+        .contains(CASE);
+    assertThat(cache.cases.find("P-42", () -> lookUp(Optional.empty())))
+        .contains(CASE);
+    assertThat(cache.loginIds.find("jd", () -> lookUp(Optional.empty())))
+        .isEmpty();
+    assertThat(cache.loginIds.find("jd", () -> lookUp(Optional.of("JD"))))
+        .as("A user that was not found is looked up again")
+        .contains("JD");
+    assertThat(lookups)
+        .hasValue(3);
+  }
+
+  @Test
+  void find_looksUpAgainWhenExpired() {
+    cache.cases.find("P-42", () -> lookUp(Optional.of(CASE)));
+    when(clockMock.instant()).thenReturn(now.plus(TIME_TO_LIVE));
+
+    cache.cases.find("P-42", () -> lookUp(Optional.of(CASE)));
+
+    assertThat(lookups)
+        .hasValue(2);
+  }
+
+  @Test
+  void find_disabled() {
+    cache.configure(Duration.ZERO, "db-1");
+
+    cache.cases.find("P-42", () -> lookUp(Optional.of(CASE)));
+    cache.cases.find("P-42", () -> lookUp(Optional.of(CASE)));
+
+    assertThat(lookups)
+        .hasValue(2);
+  }
+
+  @Test
+  void load_restoresSavedEntries() {
+    final HourlyRate rate = new HourlyRate(Optional.of(new BigDecimal("150.50")), "AUD", true, RateLevel.PRICE_LIST);
+    final List<Discount> discounts = List.of(Discount.builder()
+        .discountId(7)
+        .caseTypeId(1)
+        .workCodeType("T")
+        .discountType(1)
+        .priority(17)
+        .amount(new BigDecimal("12.5"))
+        .priceChangeFormula("@*0.9")
+        .build());
+    cache.cases.find("P-42", () -> Optional.of(CASE));
+    cache.loginIds.find("\tjd@example.com", () -> Optional.of("JD"));
+    cache.hourlyRates.get("DM\tJD\t42", () -> rate);
+    cache.discounts.get("DM\t42", () -> discounts);
+    cache.save(dataDir);
+
+    final LookupCache restarted = new LookupCache(clockMock);
+    restarted.configure(TIME_TO_LIVE, "db-1");
+    restarted.load(dataDir);
+
+    assertThat(restarted.size())
+        .isEqualTo(4);
+    assertThat(restarted.cases.find("P-42", () -> lookUp(Optional.empty())))
+        .contains(CASE);
+    assertThat(restarted.loginIds.find("\tjd@example.com", () -> lookUp(Optional.empty())))
+        .contains("JD");
+    assertThat(restarted.hourlyRates.get("DM\tJD\t42", () -> lookUp(null)))
+        .isEqualTo(rate);
+    assertThat(restarted.discounts.get("DM\t42", () -> lookUp(null)))
+        .isEqualTo(discounts);
+    assertThat(lookups)
+        .hasValue(0);
+  }
+
+  @Test
+  void load_dropsEntriesThatExpiredWhileStopped() {
+    cache.cases.find("P-42", () -> Optional.of(CASE));
+    when(clockMock.instant()).thenReturn(now.plus(Duration.ofMinutes(20)));
+    cache.cases.find("P-43", () -> Optional.of(CASE));
+    cache.save(dataDir);
+
+    when(clockMock.instant()).thenReturn(now.plus(Duration.ofMinutes(40)));
+    final LookupCache restarted = new LookupCache(clockMock);
+    restarted.configure(TIME_TO_LIVE, "db-1");
+    restarted.load(dataDir);
+
+    assertThat(restarted.size())
+        .as("Entries keep the time they were looked up")
+        .isEqualTo(1);
+  }
+
+  @Test
+  void load_ignoresSnapshotOfOtherDatabase() {
+    cache.cases.find("P-42", () -> Optional.of(CASE));
+    cache.save(dataDir);
+
+    final LookupCache restarted = new LookupCache(clockMock);
+    restarted.configure(TIME_TO_LIVE, "db-2");
+    restarted.load(dataDir);
+
+    assertThat(restarted.size())
+        .isZero();
+  }
+
+  @Test
+  void load_ignoresBrokenSnapshot() throws IOException {
+    cache.cases.find("P-42", () -> Optional.of(CASE));
+    cache.loginIds.find("jd", () -> Optional.of("JD"));
+    cache.save(dataDir);
+    final Path snapshotFile = dataDir.resolve(LookupCache.SNAPSHOT_FILE_NAME);
+    final byte[] snapshot = Files.readAllBytes(snapshotFile);
+    Files.write(snapshotFile, Arrays.copyOf(snapshot, snapshot.length - 3));
+
+    final LookupCache restarted = new LookupCache(clockMock);
+    restarted.configure(TIME_TO_LIVE, "db-1");
+    restarted.load(dataDir);
+
+    assertThat(restarted.size())
+        .as("A truncated snapshot is ignored as a whole")
+        .isZero();
+  }
+
+  @Test
+  void configure_clearsWhenFingerprintChanges() {
+    cache.cases.find("P-42", () -> Optional.of(CASE));
+
+    cache.configure(TIME_TO_LIVE, "db-1");
+    assertThat(cache.size())
+        .isEqualTo(1);
+
+    cache.configure(TIME_TO_LIVE, "db-1 with other rate settings");
+    assertThat(cache.size())
+        .isZero();
+  }
+
+  private <T> T lookUp(T result) {
+    lookups.incrementAndGet();
+    return result;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.wisetime.connector.patricia.util.ConnectorException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class LookupFanOutTest {
+
+  private LookupFanOut fanOut;
+
+  @AfterEach
+  void tearDown() {
+    fanOut.shutdown();
+  }
+
+  @Test
+  void lookups_runConcurrently() {
+    fanOut = new LookupFanOut(2);
+    final LookupFanOut.Lookups lookups = fanOut.begin(Duration.ofSeconds(10));
+    final CountDownLatch bothStarted = new CountDownLatch(2);
+
+    final CompletableFuture<Boolean> first = lookups.submit(() -> awaitLatch(bothStarted));
+    final CompletableFuture<Boolean> second = lookups.submit(() -> awaitLatch(bothStarted));
+
+    assertThat(lookups.await(first))
+        .as("Each lookup only completes once the other one started too")
+        .isTrue();
+    assertThat(lookups.await(second))
+        .isTrue();
+  }
+
+  @Test
+  void then_combinesResults() {
+    fanOut = new LookupFanOut(2);
+    final LookupFanOut.Lookups lookups = fanOut.begin(Duration.ofSeconds(10));
+
+    final CompletableFuture<String> user = lookups.submit(() -> "JD");
+    final CompletableFuture<Long> caseId = lookups.submit(() -> 42L);
+    final CompletableFuture<String> rate = lookups.then(user, caseId, (userId, id) -> userId + "@" + id);
+
+    assertThat(lookups.await(lookups.then(rate, String::length)))
+        .isEqualTo(5);
+  }
+
+  @Test
+  void await_rethrowsLookupError() {
+    fanOut = new LookupFanOut(2);
+    final LookupFanOut.Lookups lookups = fanOut.begin(Duration.ofSeconds(10));
+
+    final CompletableFuture<String> failing = lookups.submit(() -> {
+      throw new ConnectorException("User does not exist: jd@example.com");
+    });
+
+    assertThatThrownBy(() -> lookups.await(lookups.then(failing, String::length)))
+        .as("The error of the lookup a dependent one failed on is thrown as is")
+        .isInstanceOf(ConnectorException.class)
+        .hasMessage("User does not exist: jd@example.com");
+  }
+
+  @Test
+  void await_failsAtDeadlineAndCancelsPendingLookups() {
+    fanOut = new LookupFanOut(2);
+    final LookupFanOut.Lookups lookups = fanOut.begin(Duration.ofMillis(100));
+    final CountDownLatch release = new CountDownLatch(2);
+    final AtomicBoolean dependentRan = new AtomicBoolean();
+
+    // only completes once the test releases it
+    final CompletableFuture<Boolean> slow = lookups.submit(() -> awaitLatch(release));
+    final CompletableFuture<Boolean> dependent = lookups.then(slow, slowResult -> {
+      dependentRan.set(true);
+      return slowResult;
+    });
+
+    assertThatThrownBy(() -> lookups.await(dependent))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("did not complete in time");
+    release.countDown();
+    assertThat(dependent)
+        .isCancelled();
+    assertThat(dependentRan)
+        .isFalse();
+  }
+
+  @Test
+  void close_cancelsLookupsNotStarted() {
+    fanOut = new LookupFanOut(2);
+    final CountDownLatch release = new CountDownLatch(3);
+    final AtomicBoolean queuedRan = new AtomicBoolean();
+    final CompletableFuture<Boolean> queued;
+
+    try (LookupFanOut.Lookups lookups = fanOut.begin(Duration.ofSeconds(10))) {
+      // both lookup threads are busy until the test releases them
+      lookups.submit(() -> awaitLatch(release));
+      lookups.submit(() -> awaitLatch(release));
+      queued = lookups.submit(() -> queuedRan.getAndSet(true));
+    }
+    release.countDown();
+
+    assertThat(queued)
+        .as("A post that fails early does not leave its remaining lookups to run")
+        .isCancelled();
+    assertThat(queuedRan)
+        .isFalse();
+  }
+
+  @Test
+  void singleThread_runsOnCallingThread() {
+    fanOut = new LookupFanOut(1);
+    final LookupFanOut.Lookups lookups = fanOut.begin(Duration.ofSeconds(10));
+
+    assertThat(lookups.await(lookups.submit(() -> Thread.currentThread().getName())))
+        .isEqualTo(Thread.currentThread().getName());
+  }
+
+  private static boolean awaitLatch(CountDownLatch latch) {
+    latch.countDown();
+    try {
+      return latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
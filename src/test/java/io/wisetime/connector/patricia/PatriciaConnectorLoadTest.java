@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
+import static io.wisetime.connector.patricia.ConnectorLauncher.PatriciaDbModule;
+import static io.wisetime.connector.patricia.PatriciaDaoTest.FlywayPatriciaTestDbModule;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.github.javafaker.Faker;
+import com.google.common.base.Stopwatch;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.wisetime.connector.ConnectorModule;
+import io.wisetime.connector.ConnectorModule.IntervalConfig;
+import io.wisetime.connector.api_client.ApiClient;
+import io.wisetime.connector.api_client.PostResult;
+import io.wisetime.connector.api_client.PostResult.PostResultStatus;
+import io.wisetime.connector.config.RuntimeConfig;
+import io.wisetime.connector.datastore.ConnectorStore;
+import io.wisetime.connector.patricia.SyntheticPatriciaDatabase.Volume;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics;
+import io.wisetime.generated.connect.SyncSession;
+import io.wisetime.generated.connect.TimeGroup;
+import io.wisetime.test_docker.ContainerRuntimeSpec;
+import io.wisetime.test_docker.DockerLauncher;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.codejargon.fluentjdbc.api.FluentJdbcBuilder;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load harness that drives the connector against a synthetic Patricia database of production-like volume, with a fake
+ * WiseTime API. It reports throughput and p50/p99 latencies of the sync loops, of concurrent time posting and of the
+ * individual posting stages, so that regressions in the DAO queries show up before they reach production.
+ *
+ * Excluded from the regular test run; run it with {@code ./gradlew loadTest}. The volume can be tuned with system
+ * properties, e.g. {@code ./gradlew loadTest -Dpatricia.load.cases=100000}.
+ */
+@Tag("load")
+@TestMethodOrder(OrderAnnotation.class)
+class PatriciaConnectorLoadTest {
+
+  private static final Logger log = LoggerFactory.getLogger(PatriciaConnectorLoadTest.class);
+  private static final Faker FAKER = new Faker();
+  private static final FakeEntities FAKE_ENTITIES = new FakeEntities();
+
+  private static final Volume VOLUME = Volume.builder()
+      .cases(loadProperty("cases", 2_000_000))
+      .actors(loadProperty("actors", 20_000))
+      .users(loadProperty("users", 500))
+      .workCodes(loadProperty("workCodes", 2_000))
+      .priceListRows(loadProperty("priceListRows", 50_000))
+      .discounts(loadProperty("discounts", 20_000))
+      .personRates(loadProperty("personRates", 20_000))
+      .roleTypeId(4)
+      .build();
+  private static final int TAG_UPSERT_BATCH_SIZE = loadProperty("tagUpsertBatchSize", 500);
+  private static final int REFRESH_BATCHES = loadProperty("refreshBatches", 200);
+  private static final int POSTS = loadProperty("posts", 5_000);
+  private static final int POSTING_THREADS = loadProperty("postingThreads", 8);
+
+  private static final Duration REPORT_WINDOW = Duration.ofHours(1);
+
+  private static PatriciaConnector connector;
+  private static SimpleMeterRegistry meterRegistry;
+  private static final Map<String, Object> connectorStoreValues = new ConcurrentHashMap<>();
+  private static final List<String> report = new ArrayList<>();
+
+  @BeforeAll
+  static void setUp() throws InterruptedException {
+    final DockerLauncher launcher = DockerLauncher.instance();
+    final PlainSqlServer sqlServer = new PlainSqlServer();
+    final ContainerRuntimeSpec container = launcher.createContainer(sqlServer);
+
+    RuntimeConfig.rebuild();
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.PATRICIA_JDBC_URL, sqlServer.getJdbcUrl(container));
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.PATRICIA_JDBC_USERNAME, sqlServer.getUsername());
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.PATRICIA_JDBC_PASSWORD, sqlServer.getPassword());
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.PATRICIA_ROLE_TYPE_ID, String.valueOf(VOLUME.roleTypeId()));
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.TAG_UPSERT_BATCH_SIZE, String.valueOf(TAG_UPSERT_BATCH_SIZE));
+
+    // If we don't wait the authentication to sql server seems to fail more often than not...
+    Thread.sleep(10000);
+    final Injector injector = Guice.createInjector(new PatriciaDbModule(), new FlywayPatriciaTestDbModule());
+    injector.getInstance(Flyway.class).migrate();
+    new SyntheticPatriciaDatabase(
+        new FluentJdbcBuilder().connectionProvider(injector.getInstance(HikariDataSource.class)).build(), VOLUME)
+        .populate();
+
+    meterRegistry = new SimpleMeterRegistry();
+    // keep client side percentiles over the whole run instead of the default sliding window of a few minutes
+    meterRegistry.config().meterFilter(new MeterFilter() {
+      @Override
+      public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+        return DistributionStatisticConfig.builder()
+            .percentiles(0.5, 0.99)
+            .expiry(REPORT_WINDOW)
+            .bufferLength(1)
+            .build()
+            .merge(config);
+      }
+    });
+    ((CompositeMeterRegistry) injector.getInstance(ConnectorMetrics.class).registry()).add(meterRegistry);
+
+    connector = injector.getInstance(PatriciaConnector.class);
+    connector.init(new ConnectorModule(fakeApiClient(), inMemoryConnectorStore(),
+        new IntervalConfig().setTagSlowLoopIntervalMinutes(5).setActivityTypeSlowLoopIntervalMinutes(15)));
+  }
+
+  @AfterAll
+  static void tearDown() {
+    log.info("Load test report for {}:\n{}", VOLUME, String.join("\n", report));
+    if (connector != null) {
+      connector.shutdown();
+    }
+  }
+
+  @Test
+  @Order(1)
+  void syncNewCases() {
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    connector.syncNewCases();
+    final Duration elapsed = stopwatch.elapsed();
+
+    assertThat(connectorStoreValues.get(PatriciaConnector.PATRICIA_LAST_SYNC_KEY))
+        .as("all cases should be synced")
+        .isEqualTo((long) VOLUME.cases());
+    reportRows("syncNewCases", VOLUME.cases(), elapsed);
+    reportTimer("  per batch", syncBatchTimer("new_cases"));
+  }
+
+  @Test
+  @Order(2)
+  void refreshCases() {
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    for (int i = 0; i < REFRESH_BATCHES; i++) {
+      connector.refreshCases(TAG_UPSERT_BATCH_SIZE);
+    }
+    final Duration elapsed = stopwatch.elapsed();
+
+    reportRows("refreshCases", (long) REFRESH_BATCHES * TAG_UPSERT_BATCH_SIZE, elapsed);
+    reportTimer("  per batch", syncBatchTimer("refresh_cases"));
+  }
+
+  @Test
+  @Order(3)
+  void syncWorkCodes() {
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    connector.performActivityTypeUpdate();
+    final Duration elapsed = stopwatch.elapsed();
+
+    assertThat(syncBatchTimer("work_codes").count())
+        .as("work codes should be synced")
+        .isPositive();
+    reportRows("syncWorkCodes", VOLUME.workCodes(), elapsed);
+    reportTimer("  per batch", syncBatchTimer("work_codes"));
+  }
+
+  @Test
+  @Order(4)
+  void postTime_concurrent() throws Exception {
+    final List<TimeGroup> timeGroups = IntStream.range(0, POSTS)
+        .mapToObj(i -> randomTimeGroup())
+        .collect(Collectors.toList());
+    final Timer postTimer = meterRegistry.timer("load.post_time");
+
+    final ExecutorService executor = Executors.newFixedThreadPool(POSTING_THREADS);
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    final List<Future<PostResult>> results;
+    try {
+      results = executor.invokeAll(timeGroups.stream()
+          .map(timeGroup -> (Callable<PostResult>) () ->
+              postTimer.recordCallable(() -> connector.postTime(timeGroup)))
+          .collect(Collectors.toList()));
+    } finally {
+      executor.shutdown();
+    }
+    final Duration elapsed = stopwatch.elapsed();
+
+    final Map<PostResultStatus, Long> statusCounts = new ConcurrentHashMap<>();
+    for (Future<PostResult> result : results) {
+      statusCounts.merge(result.get().getStatus(), 1L, Long::sum);
+    }
+    assertThat(statusCounts)
+        .as("synthetic data covers every rate level, so all posts should succeed")
+        .containsOnlyKeys(PostResultStatus.SUCCESS);
+
+    report.add(String.format("postTime: %d posts with %d threads in %s, %.1f posts/s",
+        POSTS, POSTING_THREADS, elapsed, POSTS / seconds(elapsed)));
+    reportTimer("  per post", postTimer);
+    for (ConnectorMetrics.PostStage stage : ConnectorMetrics.PostStage.values()) {
+      Optional.ofNullable(meterRegistry.find("patricia.post.stage")
+          .tag("stage", stage.name().toLowerCase())
+          .timer())
+          .ifPresent(timer -> reportTimer("  stage " + stage.name().toLowerCase(), timer));
+    }
+    meterRegistry.find("patricia.post.rate.level").counters().forEach(counter ->
+        report.add(String.format("  rate level %s: %.0f", counter.getId().getTag("level"), counter.count())));
+  }
+
+  private static TimeGroup randomTimeGroup() {
+    final String workCode = SyntheticPatriciaDatabase.workCodeId(FAKER.number().numberBetween(1, VOLUME.workCodes() + 1));
+    final String loginId = SyntheticPatriciaDatabase.loginId(FAKER.number().numberBetween(1, VOLUME.users() + 1));
+    final TimeGroup timeGroup = FAKE_ENTITIES.randomTimeGroup(workCode);
+    timeGroup.getUser().externalId(loginId);
+    timeGroup.getTags().forEach(tag -> tag
+        .path(PatriciaSettings.DEFAULT_TAG_UPSERT_PATH)
+        .name(SyntheticPatriciaDatabase.caseNumber(FAKER.number().numberBetween(1, VOLUME.cases() + 1))));
+    return timeGroup;
+  }
+
+  private static Timer syncBatchTimer(String loop) {
+    return meterRegistry.get("patricia.sync.batch").tag("loop", loop).timer();
+  }
+
+  private static void reportRows(String name, long rows, Duration elapsed) {
+    report.add(String.format("%s: %d rows in %s, %.1f rows/s", name, rows, elapsed, rows / seconds(elapsed)));
+  }
+
+  private static void reportTimer(String name, Timer timer) {
+    final ValueAtPercentile[] percentiles = timer.takeSnapshot().percentileValues();
+    report.add(String.format("%s: count=%d p50=%.1fms p99=%.1fms max=%.1fms",
+        name,
+        timer.count(),
+        percentiles[0].value(TimeUnit.MILLISECONDS),
+        percentiles[1].value(TimeUnit.MILLISECONDS),
+        timer.max(TimeUnit.MILLISECONDS)));
+  }
+
+  private static double seconds(Duration duration) {
+    return Math.max(duration.toMillis(), 1) / 1000.0;
+  }
+
+  private static int loadProperty(String name, int defaultValue) {
+    return Integer.getInteger("patricia.load." + name, defaultValue);
+  }
+
+  /**
+   * WiseTime API that accepts every call. Stub only, so that recording invocations does not skew the measurements.
+   */
+  private static ApiClient fakeApiClient() {
+    final ApiClient apiClient = mock(ApiClient.class, withSettings().stubOnly());
+    try {
+      when(apiClient.activityTypesStartSyncSession())
+          .thenAnswer(invocation -> new SyncSession().syncSessionId(UUID.randomUUID().toString()));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return apiClient;
+  }
+
+  private static ConnectorStore inMemoryConnectorStore() {
+    final ConnectorStore connectorStore = mock(ConnectorStore.class, withSettings().stubOnly());
+    when(connectorStore.getLong(anyString()))
+        .thenAnswer(invocation -> Optional.ofNullable((Long) connectorStoreValues.get(invocation.getArgument(0))));
+    when(connectorStore.getString(anyString()))
+        .thenAnswer(invocation -> Optional.ofNullable((String) connectorStoreValues.get(invocation.getArgument(0))));
+    doAnswer(invocation -> connectorStoreValues.put(invocation.getArgument(0), invocation.getArgument(1)))
+        .when(connectorStore).putLong(anyString(), anyLong());
+    doAnswer(invocation -> connectorStoreValues.put(invocation.getArgument(0), invocation.getArgument(1)))
+        .when(connectorStore).putString(anyString(), any());
+    return connectorStore;
+  }
+}
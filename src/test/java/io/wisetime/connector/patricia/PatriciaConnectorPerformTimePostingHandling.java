@@ -44,11 +44,13 @@ import io.wisetime.generated.connect.User;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.sql.SQLTransientConnectionException;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.TimeoutException;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -107,6 +109,9 @@ class PatriciaConnectorPerformTimePostingHandling {
       ((Runnable) invocation.getArgument(0)).run();
       return null;
     }).when(patriciaDaoMock).asTransaction(any());
+
+    // pick up settings cleared by previous tests
+    connector.reloadSettings();
   }
 
   @AfterEach
@@ -305,6 +310,44 @@ class PatriciaConnectorPerformTimePostingHandling {
   }
 
 
+  @Test
+  void postTime_failuresOutsideOfDatabaseDoNotOpenBreaker() {
+    final Tag tag = FAKE_ENTITIES.randomTag(TAG_UPSERT_PATH, "tag");
+    final TimeRow timeRow = FAKE_ENTITIES.randomTimeRow().activityTypeCode(ACTIVITY_TYPE_CODE).activityHour(2018110110);
+    final TimeGroup timeGroup = FAKE_ENTITIES.randomTimeGroup()
+        .tags(ImmutableList.of(tag))
+        .timeRows(ImmutableList.of(timeRow))
+        .user(FAKE_ENTITIES.randomUser().experienceWeightingPercent(50))
+        .totalDurationSecs(1500);
+    final String userLogin = FAKER.internet().uuid();
+
+    when(patriciaDaoMock.findLoginIdByEmail(timeGroup.getUser().getExternalId())).thenReturn(Optional.of(userLogin));
+    when(patriciaDaoMock.findCaseByCaseNumber(tag.getName())).thenReturn(Optional.of(randomDataGenerator.randomCase()));
+    when(patriciaDaoMock.getDbDate()).thenThrow(new NoSuchElementException("No value present"));
+
+    // more than the calls the breaker evaluates, all of them failing
+    for (int i = 0; i < 12; i++) {
+      assertThat(connector.postTime(timeGroup).getStatus())
+          .isEqualTo(PostResultStatus.TRANSIENT_FAILURE);
+    }
+    verify(patriciaDaoMock, times(12)).getDbDate();
+  }
+
+  @Test
+  void isDatabaseFailure() {
+    assertThat(PatriciaConnector.isDatabaseFailure(new IllegalStateException(
+        new SQLTransientConnectionException("Connection is not available, request timed out after 30000ms"))))
+        .as("The pool could not provide a connection")
+        .isTrue();
+    assertThat(PatriciaConnector.isDatabaseFailure(new RuntimeException(new IOException("503 Service Unavailable"))))
+        .as("A failed tag delete is a WiseTime failure")
+        .isFalse();
+    assertThat(PatriciaConnector.isDatabaseFailure(new IllegalStateException(
+        "Database lookups for the time group did not complete in time", new TimeoutException())))
+        .as("A timed out lookup counts as a slow call, not as a failure")
+        .isFalse();
+  }
+
   @Test
   void postTime_unable_to_get_date_from_db() {
     final Tag tag = FAKE_ENTITIES.randomTag(TAG_UPSERT_PATH, "tag");
@@ -427,6 +470,7 @@ class PatriciaConnectorPerformTimePostingHandling {
         .totalDurationSecs(900);
 
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE, "custom_comment");
+    connector.reloadSettings();
 
     final Case patriciaCase1 = randomDataGenerator.randomCase(tag1.getName());
 
@@ -542,6 +586,7 @@ class PatriciaConnectorPerformTimePostingHandling {
         .totalDurationSecs(720);
 
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE, "custom_comment");
+    connector.reloadSettings();
 
     final Case patriciaCase1 = randomDataGenerator.randomCase(tag1.getName());
 
@@ -631,6 +676,7 @@ class PatriciaConnectorPerformTimePostingHandling {
         .totalDurationSecs(720);
 
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE, "custom_comment");
+    connector.reloadSettings();
 
     final Case patriciaCase1 = randomDataGenerator.randomCase(tag1.getName());
 
@@ -729,6 +775,7 @@ class PatriciaConnectorPerformTimePostingHandling {
         .totalDurationSecs(720);
 
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE, "custom_comment");
+    connector.reloadSettings();
 
     final Case patriciaCase1 = randomDataGenerator.randomCase(tag1.getName());
 
@@ -827,6 +874,7 @@ class PatriciaConnectorPerformTimePostingHandling {
         .totalDurationSecs(720);
 
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE, "custom_comment");
+    connector.reloadSettings();
 
     final Case patriciaCase1 = randomDataGenerator.randomCase(tag1.getName());
 
@@ -919,6 +967,7 @@ class PatriciaConnectorPerformTimePostingHandling {
         .totalDurationSecs(900);
 
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE, "custom_comment");
+    connector.reloadSettings();
 
     final Case patriciaCase1 = randomDataGenerator.randomCase(tag1.getName());
 
@@ -1038,6 +1087,7 @@ class PatriciaConnectorPerformTimePostingHandling {
         .totalDurationSecs(1500);
 
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE, "custom_comment");
+    connector.reloadSettings();
 
     final Case patriciaCase1 = randomDataGenerator.randomCase(tag1.getName());
 
@@ -1152,6 +1202,7 @@ class PatriciaConnectorPerformTimePostingHandling {
         .totalDurationSecs(900);
 
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE, "custom_comment");
+    connector.reloadSettings();
 
     final Case patriciaCase1 = randomDataGenerator.randomCase(tag1.getName());
 
@@ -1274,6 +1325,7 @@ class PatriciaConnectorPerformTimePostingHandling {
         .totalDurationSecs(900);
 
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE, "custom_comment");
+    connector.reloadSettings();
 
     final Case patriciaCase1 = randomDataGenerator.randomCase(tag1.getName());
 
@@ -1400,6 +1452,7 @@ class PatriciaConnectorPerformTimePostingHandling {
         .totalDurationSecs(900);
 
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.INVOICE_COMMENT_OVERRIDE, "custom_comment");
+    connector.reloadSettings();
 
     final Case patriciaCase1 = randomDataGenerator.randomCase(tag1.getName());
 
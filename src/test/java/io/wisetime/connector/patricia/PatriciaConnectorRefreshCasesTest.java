@@ -43,6 +43,8 @@ import org.mockito.ArgumentCaptor;
  */
 class PatriciaConnectorRefreshCasesTest {
 
+  private static final String CASE_URL_PREFIX = new Faker().internet().url() + "/";
+
   private static RandomDataGenerator randomDataGenerator = new RandomDataGenerator();
   private static PatriciaDao patriciaDaoMock = mock(PatriciaDao.class);
   private static ApiClient apiClientMock = mock(ApiClient.class);
@@ -56,8 +58,7 @@ class PatriciaConnectorRefreshCasesTest {
 
     // Set a role type id to use
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.PATRICIA_ROLE_TYPE_ID, "4");
-    RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.PATRICIA_CASE_URL_PREFIX,
-        new Faker().internet().url() + "/");
+    RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.PATRICIA_CASE_URL_PREFIX, CASE_URL_PREFIX);
     connector = Guice.createInjector(binder ->
         binder.bind(PatriciaDao.class).toProvider(() -> patriciaDaoMock)
     ).getInstance(PatriciaConnector.class);
@@ -135,8 +136,8 @@ class PatriciaConnectorRefreshCasesTest {
     assertThat(upsertRequests.getValue())
         .as("We should create tags for both new cases found, with the configured tag upsert path")
         .containsExactlyInAnyOrder(
-            case1.toUpsertTagRequest("/Patricia/"),
-            case2.toUpsertTagRequest("/Patricia/"));
+            case1.toUpsertTagRequest("/Patricia/", CASE_URL_PREFIX),
+            case2.toUpsertTagRequest("/Patricia/", CASE_URL_PREFIX));
 
     assertThat(batchSize.getValue())
         .as("The requested batch size should be used")
@@ -28,6 +28,7 @@ import io.wisetime.connector.ConnectorModule.IntervalConfig;
 import io.wisetime.connector.api_client.ApiClient;
 import io.wisetime.connector.config.RuntimeConfig;
 import io.wisetime.connector.datastore.ConnectorStore;
+import io.wisetime.connector.patricia.util.ApiThrottledException;
 import io.wisetime.generated.connect.UpsertTagRequest;
 import java.io.IOException;
 import java.util.List;
@@ -42,6 +43,8 @@ import org.mockito.ArgumentCaptor;
  */
 class PatriciaConnectorSyncNewCasesTest {
 
+  private static final String CASE_URL_PREFIX = new Faker().internet().url() + "/";
+
   private static RandomDataGenerator randomDataGenerator = new RandomDataGenerator();
   private static PatriciaDao patriciaDaoMock = mock(PatriciaDao.class);
   private static ApiClient apiClientMock = mock(ApiClient.class);
@@ -54,8 +57,7 @@ class PatriciaConnectorSyncNewCasesTest {
 
     // Set a role type id to use
     RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.PATRICIA_ROLE_TYPE_ID, "4");
-    RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.PATRICIA_CASE_URL_PREFIX,
-        new Faker().internet().url() + "/");
+    RuntimeConfig.setProperty(ConnectorLauncher.PatriciaConnectorConfigKey.PATRICIA_CASE_URL_PREFIX, CASE_URL_PREFIX);
     connector = Guice.createInjector(binder -> {
       binder.bind(PatriciaDao.class).toProvider(() -> patriciaDaoMock);
     }).getInstance(PatriciaConnector.class);
@@ -101,6 +103,22 @@ class PatriciaConnectorSyncNewCasesTest {
     verify(connectorStoreMock, never()).putLong(anyString(), anyLong());
   }
 
+  @Test
+  void syncNewCases_upsert_throttled() throws IOException {
+    when(patriciaDaoMock.findCasesOrderById(anyLong(), anyInt()))
+        .thenReturn(ImmutableList.of(randomDataGenerator.randomCase(), randomDataGenerator.randomCase()));
+
+    final IOException throttled = new IOException("429 Too Many Requests");
+    doThrow(throttled)
+        .when(apiClientMock).tagUpsertBatch(anyList());
+
+    assertThatThrownBy(() -> connector.syncNewCases())
+        .hasCauseInstanceOf(ApiThrottledException.class)
+        .hasRootCause(throttled);
+    verify(apiClientMock, times(1)).tagUpsertBatch(anyList());
+    verify(connectorStoreMock, never()).putLong(anyString(), anyLong());
+  }
+
   @Test
   void syncNewCases_new_cases_found() throws IOException {
     final PatriciaDao.Case case1 = randomDataGenerator.randomCase();
@@ -121,8 +139,8 @@ class PatriciaConnectorSyncNewCasesTest {
     assertThat(upsertRequests.getValue())
         .as("We should create tags for both new cases found, with the configured tag upsert path")
         .containsExactlyInAnyOrder(
-            case1.toUpsertTagRequest("/Patricia/"),
-            case2.toUpsertTagRequest("/Patricia/"));
+            case1.toUpsertTagRequest("/Patricia/", CASE_URL_PREFIX),
+            case2.toUpsertTagRequest("/Patricia/", CASE_URL_PREFIX));
 
     verify(connectorStoreMock, times(1))
         .putLong("patricia_last_sync_id", case2.caseId());
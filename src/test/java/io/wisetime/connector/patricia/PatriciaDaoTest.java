@@ -4,6 +4,7 @@
 
 package io.wisetime.connector.patricia;
 
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
 import static io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
 import static io.wisetime.connector.patricia.ConnectorLauncher.PatriciaDbModule;
 import static io.wisetime.connector.patricia.PatriciaDao.BudgetLine;
@@ -12,9 +13,11 @@ import static io.wisetime.connector.patricia.PatriciaDao.Discount;
 import static io.wisetime.connector.patricia.PatriciaDao.DiscountPriority;
 import static io.wisetime.connector.patricia.PatriciaDao.TimeRegistration;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.github.javafaker.Faker;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
@@ -30,7 +33,14 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import org.codejargon.fluentjdbc.api.FluentJdbc;
@@ -53,6 +63,7 @@ class PatriciaDaoTest {
   private static final Faker FAKER = new Faker();
   private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+  private static Injector injector;
   private static PatriciaDao patriciaDao;
   private static FluentJdbc fluentJdbc;
 
@@ -67,10 +78,11 @@ class PatriciaDaoTest {
     RuntimeConfig.setProperty(PatriciaConnectorConfigKey.PATRICIA_JDBC_URL, jdbcUrl);
     RuntimeConfig.setProperty(PatriciaConnectorConfigKey.PATRICIA_JDBC_USERNAME, sqlServer.getUsername());
     RuntimeConfig.setProperty(PatriciaConnectorConfigKey.PATRICIA_JDBC_PASSWORD, sqlServer.getPassword());
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.POSTING_LOCK_TIMEOUT_MILLIS, "1000");
 
     // If we don't wait the authentication to sql server seems to fail more often than not...
     Thread.sleep(10000);
-    final Injector injector = Guice.createInjector(
+    injector = Guice.createInjector(
         new PatriciaDbModule(), new FlywayPatriciaTestDbModule()
     );
 
@@ -86,6 +98,7 @@ class PatriciaDaoTest {
     RuntimeConfig.clearProperty(PatriciaConnectorConfigKey.PATRICIA_JDBC_URL);
     RuntimeConfig.clearProperty(PatriciaConnectorConfigKey.PATRICIA_JDBC_USERNAME);
     RuntimeConfig.clearProperty(PatriciaConnectorConfigKey.PATRICIA_JDBC_PASSWORD);
+    RuntimeConfig.clearProperty(PatriciaConnectorConfigKey.POSTING_LOCK_TIMEOUT_MILLIS);
   }
 
   @BeforeEach
@@ -134,13 +147,6 @@ class PatriciaDaoTest {
         .isTrue();
   }
 
-  @Test
-  void canQueryDbDate() {
-    assertThat(patriciaDao.canQueryDbDate())
-        .as("should return true if connected to a database")
-        .isTrue();
-  }
-
   @Test
   void casesCount_none_found() {
     assertThat(patriciaDao.casesCount())
@@ -159,6 +165,29 @@ class PatriciaDaoTest {
         .isEqualTo(casesNumber);
   }
 
+  @Test
+  void findCasesOrderById_snapshotIsolation() {
+    final Case savedCase = RANDOM_DATA_GENERATOR.randomCase().caseId(1);
+    saveCase(savedCase);
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.PATRICIA_SCAN_ISOLATION, "SNAPSHOT");
+    try {
+      assertThat(injector.getInstance(PatriciaDao.class).findCasesOrderById(0, 10))
+          .as("Should fall back to READ_COMMITTED while snapshot isolation is not allowed")
+          .containsExactly(savedCase);
+
+      fluentJdbc.query().update("ALTER DATABASE CURRENT SET ALLOW_SNAPSHOT_ISOLATION ON").run();
+      final PatriciaDao snapshotDao = injector.getInstance(PatriciaDao.class);
+      assertThat(snapshotDao.findCasesOrderById(0, 10))
+          .as("Should scan with snapshot isolation")
+          .containsExactly(savedCase);
+      assertThat(snapshotDao.casesCount())
+          .isEqualTo(1);
+    } finally {
+      RuntimeConfig.clearProperty(PatriciaConnectorConfigKey.PATRICIA_SCAN_ISOLATION);
+      fluentJdbc.query().update("ALTER DATABASE CURRENT SET ALLOW_SNAPSHOT_ISOLATION OFF").run();
+    }
+  }
+
   @Test
   void findIssuesOrderedById() {
     final List<Case> cases = RANDOM_DATA_GENERATOR.randomCase(100);
@@ -210,6 +239,28 @@ class PatriciaDaoTest {
         .isFalse();
   }
 
+  @Test
+  void findUser_caseSensitiveCollation() {
+    final Query query = fluentJdbc.query();
+    query.update("ALTER TABLE person ALTER COLUMN login_id nvarchar(20) COLLATE Latin1_General_CS_AS NOT NULL").run();
+    query.update("ALTER TABLE person ALTER COLUMN email nvarchar(100) COLLATE Latin1_General_CS_AS NULL").run();
+    try {
+      savePerson("foobar", "foobar@baz.com", FAKER.number().randomNumber());
+
+      assertThat(patriciaDao.findLoginIdByEmail("Foobar@baz.com"))
+          .as("Email should not be case sensitive, whatever the collation of the column")
+          .contains("foobar");
+      assertThat(patriciaDao.loginIdExists("FOOBAR"))
+          .as("Login ID should not be case sensitive, whatever the collation of the column")
+          .isTrue();
+      assertThat(patriciaDao.loginIdExists("foo.bar"))
+          .isFalse();
+    } finally {
+      query.update("ALTER TABLE person ALTER COLUMN login_id nvarchar(20) NOT NULL").run();
+      query.update("ALTER TABLE person ALTER COLUMN email nvarchar(100) NULL").run();
+    }
+  }
+
   @Test
   void findCurrency() {
     int caseId = FAKER.number().randomDigitNotZero();
@@ -438,6 +489,23 @@ class PatriciaDaoTest {
         .isEmpty();
   }
 
+  @Test
+  void findCaseByCaseNumber_unicode() {
+    final Case patriciaCase = RANDOM_DATA_GENERATOR.randomCase().caseNumber("P-\u7279\u8a31-1"); // CJK characters
+    saveCase(patriciaCase);
+    // plain string parameters are sent as VARCHAR, which would lose the CJK characters
+    fluentJdbc.query()
+        .update("UPDATE vw_case_number SET case_number = N'" + patriciaCase.caseNumber() + "' WHERE case_id = ?")
+        .params(patriciaCase.caseId())
+        .run();
+
+    assertThat(patriciaDao.findCaseByCaseNumber(patriciaCase.caseNumber()))
+        .as("Case numbers outside of ASCII are looked up as Unicode")
+        .contains(patriciaCase);
+    assertThat(patriciaDao.findCaseByCaseNumber("P-??-1"))
+        .isEmpty();
+  }
+
   @Test
   void updateBudgetHeader() {
     long caseId = FAKER.number().numberBetween(1, 100);
@@ -455,6 +523,109 @@ class PatriciaDaoTest {
         .startsWith(newRecordalDate);
   }
 
+  @Test
+  void asGroupTransaction_rollsBackFailedUnitOnly() {
+    final String recordalDate = LocalDateTime.now().format(DATE_TIME_FORMATTER);
+
+    final Map<Integer, RuntimeException> errors = patriciaDao.asGroupTransaction(List.of(
+        () -> patriciaDao.updateBudgetHeader(1, recordalDate),
+        () -> {
+          patriciaDao.updateBudgetHeader(2, recordalDate);
+          throw new IllegalStateException("Failed after writing");
+        },
+        () -> patriciaDao.updateBudgetHeader(3, recordalDate)));
+
+    assertThat(errors)
+        .containsOnlyKeys(1);
+    assertThat(fluentJdbc.query().select("SELECT case_id FROM budget_header ORDER BY case_id")
+        .listResult(Mappers.singleLong()))
+        .as("Only the work of the failed unit should be rolled back")
+        .containsExactly(1L, 3L);
+  }
+
+  @Test
+  void asGroupTransaction_deadlockFailsWholeGroup() throws Exception {
+    final String recordalDate = LocalDateTime.now().format(DATE_TIME_FORMATTER);
+    final CountDownLatch otherSessionLocked = new CountDownLatch(1);
+    final ExecutorService otherSession = Executors.newSingleThreadExecutor();
+    try {
+      assertThatThrownBy(() -> patriciaDao.asGroupTransaction(List.of(
+          () -> patriciaDao.updateBudgetHeader(1, recordalDate),
+          () -> {
+            // the other session locks time_registration, then waits for budget_header, which this transaction holds
+            otherSession.submit(() -> fluentJdbc.query().transaction().inNoResult(() -> {
+              fluentJdbc.query().update("SET DEADLOCK_PRIORITY HIGH").run();
+              fluentJdbc.query().select("SELECT COUNT(*) FROM time_registration WITH (TABLOCKX, HOLDLOCK)")
+                  .singleResult(Mappers.singleLong());
+              otherSessionLocked.countDown();
+              fluentJdbc.query().select("SELECT COUNT(*) FROM budget_header WITH (TABLOCKX, HOLDLOCK)")
+                  .singleResult(Mappers.singleLong());
+            }));
+            awaitUninterruptibly(otherSessionLocked);
+            patriciaDao.updateBudgetHeader(2, recordalDate);
+            patriciaDao.addTimeRegistration(TimeRegistration.builder()
+                .budgetLineSequenceNumber(1)
+                .caseId(2)
+                .workCodeId("DM")
+                .userId("JD")
+                .activityDate(recordalDate)
+                .submissionDate(recordalDate)
+                .actualHours(BigDecimal.ONE)
+                .chargeableHours(BigDecimal.ONE)
+                .comment("deadlock victim")
+                .build());
+          },
+          () -> patriciaDao.updateBudgetHeader(3, recordalDate))))
+          .as("The deadlock rolled back the whole transaction, so it fails as a whole")
+          .satisfies(e -> assertThat(TransactionRetryPolicy.lockContention(e))
+              .contains(TransactionRetryPolicy.Reason.DEADLOCK));
+    } finally {
+      otherSession.shutdown();
+      otherSession.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    assertThat(fluentJdbc.query().select("SELECT case_id FROM budget_header ORDER BY case_id")
+        .listResult(Mappers.singleLong()))
+        .as("Neither the units before the deadlock nor the units after it should be committed")
+        .isEmpty();
+  }
+
+  @Test
+  void asTransaction_lockTimeout() throws Exception {
+    final String recordalDate = LocalDateTime.now().format(DATE_TIME_FORMATTER);
+    patriciaDao.updateBudgetHeader(1, recordalDate);
+    final CountDownLatch otherSessionLocked = new CountDownLatch(1);
+    final CountDownLatch releaseLock = new CountDownLatch(1);
+    final ExecutorService otherSession = Executors.newSingleThreadExecutor();
+    try {
+      otherSession.submit(() -> fluentJdbc.query().transaction().inNoResult(() -> {
+        fluentJdbc.query().update("UPDATE budget_header SET budget_edit_date = ? WHERE case_id = 1")
+            .params(recordalDate)
+            .run();
+        otherSessionLocked.countDown();
+        awaitUninterruptibly(releaseLock);
+      }));
+      awaitUninterruptibly(otherSessionLocked);
+
+      final long startNanos = System.nanoTime();
+      assertThatThrownBy(() -> patriciaDao.asTransaction(() -> patriciaDao.updateBudgetHeader(1, recordalDate)))
+          .as("A posting write blocked by another transaction fails with a lock request timeout, which is retried")
+          .satisfies(e -> assertThat(TransactionRetryPolicy.lockContention(e))
+              .contains(TransactionRetryPolicy.Reason.LOCK_TIMEOUT));
+      assertThat(System.nanoTime() - startNanos)
+          .as("The lock timeout fires long before the query timeout of posting writes")
+          .isLessThan(TimeUnit.SECONDS.toNanos(10));
+    } finally {
+      releaseLock.countDown();
+      otherSession.shutdown();
+      otherSession.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    assertThat(fluentJdbc.query().select("SELECT @@LOCK_TIMEOUT").singleResult(Mappers.singleInteger()))
+        .as("Other work on the pooled connections waits for locks as before")
+        .isEqualTo(-1);
+  }
+
   @Test
   void addTimeRegistration() {
     final long caseId = FAKER.number().randomNumber();
@@ -512,6 +683,92 @@ class PatriciaDaoTest {
         });
   }
 
+  @Test
+  void addTimeRegistration_unicodeComment() {
+    final long caseId = FAKER.number().randomNumber();
+    final TimeRegistration timeRegistration = TimeRegistration.builder()
+        .budgetLineSequenceNumber(FAKER.number().numberBetween(10, 100))
+        .caseId(caseId)
+        .workCodeId(FAKER.bothify("?#"))
+        .userId(FAKER.name().firstName())
+        .activityDate(LocalDateTime.now().minusDays(1).format(DATE_TIME_FORMATTER))
+        .submissionDate(LocalDateTime.now().format(DATE_TIME_FORMATTER))
+        .actualHours(BigDecimal.ONE)
+        .chargeableHours(BigDecimal.ONE)
+        .comment("Pr\u00fcfung der Anspr\u00fcche \u8acb\u6c42\u9805") // umlauts and CJK characters
+        .build();
+
+    patriciaDao.addTimeRegistration(timeRegistration);
+
+    assertThat(fluentJdbc.query().select("SELECT time_comment FROM time_registration WHERE case_id = ?")
+        .params(caseId)
+        .singleResult(Mappers.singleString()))
+        .as("Comments are sent as Unicode, although other strings are not")
+        .isEqualTo(timeRegistration.comment());
+  }
+
+  @Test
+  void lookups_seekVarcharIndexes() {
+    final Query query = fluentJdbc.query();
+    // the schema dump has NVARCHAR columns, other Patricia versions have VARCHAR ones
+    query.update("ALTER TABLE vw_case_number ALTER COLUMN case_number varchar(40) NOT NULL").run();
+    query.update("ALTER TABLE person ALTER COLUMN login_id varchar(20) NOT NULL").run();
+    query.update("CREATE INDEX ix_case_number ON vw_case_number (case_number)").run();
+    query.update("ALTER TABLE person ALTER COLUMN email varchar(100) NULL").run();
+    query.update("CREATE INDEX ix_login_id ON person (login_id)").run();
+    query.update("CREATE INDEX ix_email ON person (email)").run();
+    query.update("DBCC FREEPROCCACHE").run();
+    try {
+      RANDOM_DATA_GENERATOR.randomCase(1000).forEach(this::saveCase);
+      IntStream.range(0, 1000).forEach(i -> savePerson("login" + i, "login" + i + "@example.com", 100));
+      final Case patriciaCase = RANDOM_DATA_GENERATOR.randomCase();
+      saveCase(patriciaCase);
+      saveDefaultWorkCodeRate("WC1", 120, 1);
+
+      assertThat(patriciaDao.findCaseByCaseNumber(patriciaCase.caseNumber()))
+          .contains(patriciaCase);
+      assertThat(patriciaDao.findPersonDefaultHourlyRate("login500"))
+          .isPresent();
+      assertThat(patriciaDao.findWorkCodeDefaultHourlyRate("WC1"))
+          .isPresent();
+      assertThat(patriciaDao.loginIdExists("LOGIN500"))
+          .isTrue();
+      assertThat(patriciaDao.findLoginIdByEmail("Login500@example.com"))
+          .contains("login500");
+
+      assertThat(cachedPlan("vcn.case_number = @P0"))
+          .contains("ParameterDataType=\"varchar")
+          .contains("Index Seek")
+          .as("The case number column is compared as is")
+          .doesNotContain("CONVERT_IMPLICIT");
+      assertThat(cachedPlan("person.login_id = @P0"))
+          .contains("ParameterDataType=\"varchar")
+          .contains("Index Seek")
+          .doesNotContain("CONVERT_IMPLICIT");
+      assertThat(cachedPlan("wc.work_code_id = @P0"))
+          .contains("ParameterDataType=\"varchar")
+          .contains("Index Seek");
+      assertThat(cachedPlan("FROM person WHERE login_id = @P0"))
+          .contains("ParameterDataType=\"varchar")
+          .contains("Index Seek")
+          .as("The case insensitive collation compares login ids, not LOWER on the column")
+          .doesNotContain("CONVERT_IMPLICIT")
+          .doesNotContain("lower(");
+      assertThat(cachedPlan("FROM person WHERE email = @P0"))
+          .contains("ParameterDataType=\"varchar")
+          .contains("Index Seek")
+          .doesNotContain("CONVERT_IMPLICIT")
+          .doesNotContain("lower(");
+    } finally {
+      query.update("DROP INDEX ix_case_number ON vw_case_number").run();
+      query.update("DROP INDEX ix_login_id ON person").run();
+      query.update("DROP INDEX ix_email ON person").run();
+      query.update("ALTER TABLE vw_case_number ALTER COLUMN case_number nvarchar(40) NOT NULL").run();
+      query.update("ALTER TABLE person ALTER COLUMN login_id nvarchar(20) NOT NULL").run();
+      query.update("ALTER TABLE person ALTER COLUMN email nvarchar(100) NULL").run();
+    }
+  }
+
   @Test
   void addBudgetLine_chargeingTypeId_null() {
     final long caseId = FAKER.number().randomDigitNotZero();
@@ -580,6 +837,29 @@ class PatriciaDaoTest {
         .isEqualTo(budgetLine.budgetLineSequenceNumber() + 1);
   }
 
+  @Test
+  void findNextBudgetLineSeqNum_concurrentPostsToSameCase() throws Exception {
+    final long caseId = FAKER.number().randomDigitNotZero();
+    final CountDownLatch firstPostRead = new CountDownLatch(1);
+    final ExecutorService posts = Executors.newFixedThreadPool(2);
+    try {
+      final Future<Integer> firstPost = posts.submit(() -> postBudgetLine(caseId, () -> {
+        firstPostRead.countDown();
+        // give the second post time to read while this transaction is still open
+        Uninterruptibles.sleepUninterruptibly(500, TimeUnit.MILLISECONDS);
+      }));
+      awaitUninterruptibly(firstPostRead);
+      final Future<Integer> secondPost = posts.submit(() -> postBudgetLine(caseId, () -> { }));
+
+      assertThat(List.of(firstPost.get(30, TimeUnit.SECONDS), secondPost.get(30, TimeUnit.SECONDS)))
+          .as("The second post waits for the first to commit, so the posts take consecutive sequence numbers")
+          .containsExactly(1, 2);
+    } finally {
+      posts.shutdown();
+      posts.awaitTermination(30, TimeUnit.SECONDS);
+    }
+  }
+
   @Test
   void addBudgetLine() {
     final long caseId = FAKER.number().randomDigitNotZero();
@@ -722,6 +1002,66 @@ class PatriciaDaoTest {
         .isEqualTo(budgetLine.budgetLineSequenceNumber() + 1);
   }
 
+  @Test
+  void bulkImport_writesSameRowsAsLivePath() {
+    final String submissionDate = LocalDateTime.now().format(DATE_TIME_FORMATTER);
+    final BudgetLine budgetLine = BudgetLine.builder()
+        .workCodeId(FAKER.lorem().characters(1, 10))
+        .userId(FAKER.name().firstName())
+        .submissionDate(submissionDate)
+        .currency(FAKER.currency().code())
+        .hourlyRate(new BigDecimal("180.555"))
+        .effectiveHourlyRate(new BigDecimal("162.4995"))
+        .actualWorkTotalHours(new BigDecimal("1.3333333"))
+        .chargeableWorkTotalHours(new BigDecimal("1.25"))
+        .actualWorkTotalAmount(new BigDecimal("240.7399"))
+        .chargeableAmount(new BigDecimal("203.124375"))
+        .discountPercentage(new BigDecimal("10.0000004"))
+        .discountAmount(new BigDecimal("22.569375"))
+        .comment(FAKER.lorem().sentence(5))
+        .activityDate(LocalDateTime.now().minusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE))
+        .chargeTypeId(FAKER.number().numberBetween(100, 1000))
+        .build();
+    final TimeRegistration timeRegistration = TimeRegistration.builder()
+        .workCodeId(budgetLine.workCodeId())
+        .userId(budgetLine.userId())
+        .submissionDate(submissionDate)
+        .activityDate(budgetLine.activityDate())
+        .actualHours(budgetLine.actualWorkTotalHours())
+        .chargeableHours(budgetLine.chargeableWorkTotalHours())
+        .comment(FAKER.lorem().sentence())
+        .build();
+
+    // live path for case 1
+    patriciaDao.updateBudgetHeader(1, submissionDate);
+    patriciaDao.addBudgetLineFromPriceList(budgetLine.toBuilder().caseId(1).budgetLineSequenceNumber(1).build());
+    patriciaDao.addTimeRegistration(timeRegistration.toBuilder().caseId(1).budgetLineSequenceNumber(1).build());
+
+    // bulk import for case 2, which already has a budget line
+    patriciaDao.addBudgetLine(budgetLine.toBuilder().caseId(2).budgetLineSequenceNumber(7).build());
+    final int written = patriciaDao.bulkImport(List.of(PatriciaDao.TimeAndChargePlan.builder()
+        .patriciaCase(Case.builder().caseId(2).caseNumber("P-2").build())
+        .userId(budgetLine.userId())
+        .submissionDate(submissionDate)
+        .rateFromPriceList(true)
+        .budgetLine(budgetLine.toBuilder().caseId(2).build())
+        .timeRegistration(timeRegistration.toBuilder().caseId(2).build())
+        .build()));
+
+    assertThat(written)
+        .isEqualTo(1);
+    assertThat(fluentJdbc.query().select("SELECT MAX(b_l_seq_number) FROM budget_line WHERE case_id = 2")
+        .singleResult(Mappers.singleInteger()))
+        .as("The sequence number continues from the existing budget line")
+        .isEqualTo(8);
+    assertThat(rowWithoutKeys("budget_line", 2, 8))
+        .isEqualTo(rowWithoutKeys("budget_line", 1, 1));
+    assertThat(rowWithoutKeys("time_registration", 2, 8))
+        .isEqualTo(rowWithoutKeys("time_registration", 1, 1));
+    assertThat(getBudgetHeaderEditDate(2))
+        .isEqualTo(getBudgetHeaderEditDate(1));
+  }
+
   @Test
   void findHourlyRateFromPriceList() {
     int caseCategoryId = FAKER.number().numberBetween(1, 20000);
@@ -828,6 +1168,45 @@ class PatriciaDaoTest {
         .contains(currency, BigDecimal.valueOf(hourlyRate).setScale(2));
   }
 
+  @Test
+  void priceListEngine_matchesPriceListQuery() {
+    int caseCategoryId = FAKER.number().numberBetween(1, 20000);
+    int caseCategoryLevel = FAKER.number().numberBetween(1, 20000);
+    String currency = FAKER.currency().code();
+    double hourlyRate = FAKER.number().randomDigitNotZero();
+    Case patriciaCase = RANDOM_DATA_GENERATOR.randomCase();
+    int roleTypeId = FAKER.number().numberBetween(1, 1000);
+    long caseId = patriciaCase.caseId();
+    int actorId = FAKER.number().numberBetween(1, 1000);
+    int priceListId = FAKER.number().numberBetween(1, 1000);
+    int defaultPriceListId = FAKER.number().numberBetween(1, 1000);
+    String workCodeId = FAKER.numerify("wc######");
+    String loginId = FAKER.numerify("li######");
+
+    saveCase(patriciaCase);
+    final LocalDateTime timeStamp = LocalDateTime.now().minusMonths(2);
+    createPriceList(actorId, loginId, workCodeId, patriciaCase, currency, hourlyRate,
+        defaultPriceListId, caseCategoryId, caseCategoryLevel, timeStamp);
+    createPriceList(actorId, loginId, workCodeId, patriciaCase, currency, hourlyRate + 5,
+        defaultPriceListId, caseCategoryId, caseCategoryLevel, LocalDateTime.now().plusMonths(1));
+    createPriceList(0, "^", workCodeId, patriciaCase, "DEF", hourlyRate / 3,
+        defaultPriceListId, caseCategoryId, caseCategoryLevel, LocalDateTime.now().minusMonths(1));
+    createPriceList(actorId, "Other_User", workCodeId, patriciaCase, "ABC", hourlyRate / 2,
+        priceListId, caseCategoryId, caseCategoryLevel, timeStamp);
+    saveCasting(actorId, caseId, roleTypeId);
+    saveRenewalPriceList(defaultPriceListId);
+    savePatPriceList(priceListId, actorId);
+
+    final PriceListEngine priceListEngine = new PriceListEngine(patriciaDao);
+    priceListEngine.refresh();
+
+    assertThat(priceListEngine.findHourlyRate(caseId, workCodeId, loginId.toUpperCase(), roleTypeId))
+        .isEqualTo(patriciaDao.findHourlyRateFromPriceList(caseId, workCodeId, loginId.toUpperCase(), roleTypeId))
+        .get()
+        .extracting("currencyId", "hourlyRate")
+        .contains(currency, BigDecimal.valueOf(hourlyRate).setScale(2));
+  }
+
   @Test
   void findHourlyRateFromPriceList_fall_back_to_default_price_list_zero_actor() {
     int caseCategoryId = FAKER.number().numberBetween(1, 20000);
@@ -1172,6 +1551,44 @@ class PatriciaDaoTest {
             .build());
   }
 
+  private int postBudgetLine(long caseId, Runnable afterRead) {
+    final int[] seqNum = new int[1];
+    patriciaDao.asTransaction(() -> {
+      seqNum[0] = patriciaDao.findNextBudgetLineSeqNum(caseId);
+      afterRead.run();
+      patriciaDao.addBudgetLine(BudgetLine.builder()
+          .budgetLineSequenceNumber(seqNum[0])
+          .caseId(caseId)
+          .workCodeId("DM")
+          .userId("JD")
+          .submissionDate(LocalDateTime.now().format(DATE_TIME_FORMATTER))
+          .currency("AUD")
+          .hourlyRate(BigDecimal.ONE)
+          .effectiveHourlyRate(BigDecimal.ONE)
+          .actualWorkTotalHours(BigDecimal.ONE)
+          .chargeableWorkTotalHours(BigDecimal.ONE)
+          .actualWorkTotalAmount(BigDecimal.ONE)
+          .chargeableAmount(BigDecimal.ONE)
+          .discountPercentage(BigDecimal.ZERO)
+          .discountAmount(BigDecimal.ZERO)
+          .comment("concurrent post")
+          .activityDate(LocalDateTime.now().format(DATE_TIME_FORMATTER))
+          .build());
+    });
+    return seqNum[0];
+  }
+
+  private String cachedPlan(String sqlFragment) {
+    return fluentJdbc.query().select(
+        "SELECT CAST(qp.query_plan AS nvarchar(max)) FROM sys.dm_exec_cached_plans cp "
+            + " CROSS APPLY sys.dm_exec_sql_text(cp.plan_handle) st "
+            + " CROSS APPLY sys.dm_exec_query_plan(cp.plan_handle) qp "
+            + " WHERE st.text LIKE ? AND st.text NOT LIKE '%dm_exec_cached_plans%'")
+        .params("%" + sqlFragment + "%")
+        .firstResult(Mappers.singleString())
+        .orElseThrow(() -> new AssertionError("No cached plan for " + sqlFragment));
+  }
+
   private void saveCase(Case patCase) {
     fluentJdbc.query()
         .update("INSERT INTO vw_case_number (case_id, case_number) VALUES (?, ?)")
@@ -1314,6 +1731,22 @@ class PatriciaDaoTest {
         .run();
   }
 
+  /**
+   * All columns of the row, except for the case ID and sequence number keys.
+   */
+  private Map<String, Object> rowWithoutKeys(final String table, final long caseId, final int seqNum) {
+    return fluentJdbc.query().select("SELECT * FROM " + table + " WHERE case_id = ? AND b_l_seq_number = ?")
+        .params(caseId, seqNum)
+        .singleResult(rs -> {
+          final Map<String, Object> row = new HashMap<>();
+          for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
+            row.put(rs.getMetaData().getColumnName(i).toLowerCase(), rs.getObject(i));
+          }
+          row.keySet().removeAll(List.of("case_id", "b_l_case_id", "b_l_seq_number"));
+          return row;
+        });
+  }
+
   private String getBudgetHeaderEditDate(long caseId) {
     return fluentJdbc.query().select("SELECT budget_edit_date FROM budget_header WHERE case_id = ?")
         .params(caseId)
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.wisetime.connector.config.RuntimeConfig;
+import io.wisetime.connector.patricia.ConnectorLauncher.PatriciaConnectorConfigKey;
+import java.time.ZoneId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PatriciaSettingsTest {
+
+  @BeforeEach
+  void setUp() {
+    RuntimeConfig.rebuild();
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.PATRICIA_ROLE_TYPE_ID, "4");
+  }
+
+  @Test
+  void fromRuntimeConfig_defaults() {
+    final PatriciaSettings settings = PatriciaSettings.fromRuntimeConfig();
+
+    assertThat(settings.roleTypeId()).isEqualTo(4);
+    assertThat(settings.zeroChargeWorkCodes()).isEmpty();
+    assertThat(settings.tagUpsertPath()).isEqualTo("/Patricia/");
+    assertThat(settings.strippedTagUpsertPath()).isEqualTo("Patricia");
+    assertThat(settings.caseUrlPrefix()).isNull();
+    assertThat(settings.invoiceCommentOverride()).isNull();
+    assertThat(settings.timeZone()).isEqualTo(ZoneId.of("UTC"));
+    assertThat(settings.chargeTypeId()).isNull();
+    assertThat(settings.useSysDefaultCurrency()).isFalse();
+    assertThat(settings.fallbackCurrency()).isNull();
+  }
+
+  @Test
+  void fromRuntimeConfig_configured() {
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.WORK_CODES_ZERO_CHARGE, " zero1 ,zero2 ,");
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.TAG_UPSERT_PATH, "/Cases/Patricia/");
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.TIMEZONE, "Asia/Manila");
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.WT_CHARGE_TYPE_ID, "7");
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.USE_SYSDEFAULT_CURRENCY_FOR_POSTING, "true");
+    RuntimeConfig.setProperty(PatriciaConnectorConfigKey.FALLBACK_CURRENCY, "EUR");
+
+    final PatriciaSettings settings = PatriciaSettings.fromRuntimeConfig();
+
+    assertThat(settings.zeroChargeWorkCodes()).containsExactlyInAnyOrder("zero1", "zero2");
+    assertThat(settings.tagUpsertPath()).isEqualTo("/Cases/Patricia/");
+    assertThat(settings.strippedTagUpsertPath()).isEqualTo("Cases/Patricia");
+    assertThat(settings.timeZone()).isEqualTo(ZoneId.of("Asia/Manila"));
+    assertThat(settings.chargeTypeId()).isEqualTo(7);
+    assertThat(settings.useSysDefaultCurrency()).isTrue();
+    assertThat(settings.fallbackCurrency()).isEqualTo("EUR");
+  }
+
+  @Test
+  void fromRuntimeConfig_missingRoleTypeId() {
+    RuntimeConfig.clearProperty(PatriciaConnectorConfigKey.PATRICIA_ROLE_TYPE_ID);
+
+    assertThatThrownBy(PatriciaSettings::fromRuntimeConfig)
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessage("Required configuration param PATRICIA_ROLE_TYPE_ID is not set.");
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.wisetime.connector.patricia.PatriciaDao.NameRole;
+import io.wisetime.connector.patricia.PatriciaDao.PersonHourlyRate;
+import io.wisetime.connector.patricia.PatriciaDao.RateCurrency;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PersonHourlyRatesTest {
+
+  private static final long CASE_ID = 42;
+  private static final String WORK_CODE = "DM";
+  private static final String LOGIN = "JD";
+  private static final int NAME_IN_CASE = 7;
+  private static final int NAME_IN_OTHER_CASE = 8;
+  private static final int NAME_WITHOUT_ROLES = 9;
+  private static final int ROLE = 3;
+
+  private final PatriciaDao patriciaDaoMock = mock(PatriciaDao.class);
+  private final List<PersonHourlyRate> rates = new ArrayList<>();
+  private PersonHourlyRates personHourlyRates;
+
+  @BeforeEach
+  void setUp() {
+    when(patriciaDaoMock.findPersonHourlyRates()).thenReturn(rates);
+    when(patriciaDaoMock.findPersonHourlyRateNamesWithRoles()).thenReturn(Set.of(NAME_IN_CASE, NAME_IN_OTHER_CASE));
+    when(patriciaDaoMock.findCaseNameRoles(CASE_ID)).thenReturn(List.of(
+        NameRole.builder().nameId(NAME_IN_CASE).roleTypeId(ROLE).build()));
+    personHourlyRates = new PersonHourlyRates(patriciaDaoMock);
+  }
+
+  @Test
+  void findPatPersonHourlyRate_keepsQueryOrder() {
+    rates.add(rate(null, null, null, "10"));
+    rates.add(rate(NAME_IN_CASE, ROLE, null, "30"));
+    rates.add(rate(NAME_IN_CASE, null, WORK_CODE, "40"));
+    personHourlyRates.refresh();
+
+    assertThat(personHourlyRates.findPatPersonHourlyRate(CASE_ID, WORK_CODE, LOGIN))
+        .map(RateCurrency::hourlyRate)
+        .as("The role is ordered before the work code")
+        .contains(new BigDecimal("30"));
+    assertThat(personHourlyRates.findPatPersonHourlyRate(CASE_ID, WORK_CODE, "jd"))
+        .as("Login ids are not case sensitive")
+        .isPresent();
+
+    rates.remove(1);
+    personHourlyRates.refresh();
+    assertThat(personHourlyRates.findPatPersonHourlyRate(CASE_ID, WORK_CODE, LOGIN))
+        .map(RateCurrency::hourlyRate)
+        .contains(new BigDecimal("40"));
+    assertThat(personHourlyRates.findPatPersonHourlyRate(CASE_ID, "OTHER", LOGIN))
+        .map(RateCurrency::hourlyRate)
+        .as("Rates for other work codes do not apply")
+        .contains(new BigDecimal("10"));
+  }
+
+  @Test
+  void findPatPersonHourlyRate_roleMustMatchCase() {
+    rates.add(rate(NAME_IN_CASE, ROLE + 1, null, "30"));
+    rates.add(rate(NAME_IN_OTHER_CASE, null, null, "20"));
+    personHourlyRates.refresh();
+
+    assertThat(personHourlyRates.findPatPersonHourlyRate(CASE_ID, WORK_CODE, LOGIN))
+        .as("A name with roles only in other cases does not apply either")
+        .isEmpty();
+  }
+
+  @Test
+  void findPatPersonHourlyRate_nameWithoutRoles() {
+    rates.add(rate(NAME_WITHOUT_ROLES, ROLE, null, "30"));
+    rates.add(rate(NAME_WITHOUT_ROLES, null, null, "20"));
+    personHourlyRates.refresh();
+
+    assertThat(personHourlyRates.findPatPersonHourlyRate(CASE_ID, WORK_CODE, LOGIN))
+        .map(RateCurrency::hourlyRate)
+        .contains(new BigDecimal("20"));
+  }
+
+  @Test
+  void findPatPersonHourlyRate_cachesCaseRolesUntilRefresh() {
+    rates.add(rate(NAME_IN_CASE, ROLE, null, "30"));
+    rates.add(PersonHourlyRate.builder()
+        .loginId("other")
+        .currency("AUD")
+        .hourlyRate(new BigDecimal("10"))
+        .build());
+    personHourlyRates.refresh();
+
+    personHourlyRates.findPatPersonHourlyRate(CASE_ID, WORK_CODE, LOGIN);
+    personHourlyRates.findPatPersonHourlyRate(CASE_ID, "OTHER", LOGIN);
+    verify(patriciaDaoMock, times(1)).findCaseNameRoles(CASE_ID);
+
+    personHourlyRates.findPatPersonHourlyRate(CASE_ID + 1, WORK_CODE, "other");
+    personHourlyRates.findPatPersonHourlyRate(CASE_ID + 1, WORK_CODE, "unknown");
+    verify(patriciaDaoMock, never()).findCaseNameRoles(CASE_ID + 1);
+
+    personHourlyRates.refresh();
+    personHourlyRates.findPatPersonHourlyRate(CASE_ID, WORK_CODE, LOGIN);
+    verify(patriciaDaoMock, times(2)).findCaseNameRoles(CASE_ID);
+  }
+
+  @Test
+  void findPatPersonHourlyRate_queriesPerPostUntilLoaded() {
+    when(patriciaDaoMock.findPersonHourlyRates()).thenThrow(new IllegalStateException("Connection is closed"));
+    personHourlyRates.refresh();
+
+    personHourlyRates.findPatPersonHourlyRate(CASE_ID, WORK_CODE, LOGIN);
+
+    verify(patriciaDaoMock).findPatPersonHourlyRate(CASE_ID, WORK_CODE, LOGIN);
+    verify(patriciaDaoMock, never()).findCaseNameRoles(anyLong());
+  }
+
+  private static PersonHourlyRate rate(Integer nameId, Integer roleTypeId, String workCodeId, String hourlyRate) {
+    return PersonHourlyRate.builder()
+        .loginId(LOGIN)
+        .nameId(nameId)
+        .nameRoleTypeId(roleTypeId)
+        .workCodeId(workCodeId)
+        .currency("AUD")
+        .hourlyRate(new BigDecimal(hourlyRate))
+        .build();
+  }
+}
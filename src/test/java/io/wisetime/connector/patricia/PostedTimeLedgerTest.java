@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PostedTimeLedgerTest {
+
+  private static final Duration RETENTION = Duration.ofDays(30);
+
+  @TempDir
+  Path dataDir;
+
+  private final Clock clockMock = mock(Clock.class);
+  private final Instant now = Instant.parse("2022-05-01T10:00:00Z");
+  private PostedTimeLedger ledger;
+
+  @BeforeEach
+  void setUp() {
+    when(clockMock.instant()).thenReturn(now);
+    ledger = new PostedTimeLedger(clockMock);
+    ledger.open(dataDir, RETENTION);
+  }
+
+  @AfterEach
+  void tearDown() {
+    ledger.close();
+  }
+
+  @Test
+  void isPosted_sameContent() {
+    ledger.record("group-1", "hash-1");
+
+    assertThat(ledger.isPosted("group-1", "hash-1"))
+        .isTrue();
+    assertThat(ledger.isPosted("group-1", "hash-2"))
+        .as("A group with changed content has to be posted again")
+        .isFalse();
+    assertThat(ledger.isPosted("group-2", "hash-1"))
+        .isFalse();
+  }
+
+  @Test
+  void open_survivesRestart() {
+    ledger.record("group-1", "hash-1");
+    ledger.close();
+
+    final PostedTimeLedger reopened = new PostedTimeLedger(clockMock);
+    reopened.open(dataDir, RETENTION);
+
+    assertThat(reopened.isPosted("group-1", "hash-1"))
+        .isTrue();
+    reopened.close();
+  }
+
+  @Test
+  void open_ignoresTruncatedLine() throws IOException {
+    ledger.record("group-1", "hash-1");
+    ledger.close();
+    Files.write(dataDir.resolve(PostedTimeLedger.LEDGER_FILE_NAME),
+        "1651399200000\tgroup-2".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    ledger.open(dataDir, RETENTION);
+
+    assertThat(ledger.isPosted("group-1", "hash-1"))
+        .isTrue();
+    assertThat(ledger.size())
+        .isEqualTo(1);
+  }
+
+  @Test
+  void open_compactsExpiredEntries() throws IOException {
+    ledger.record("group-1", "hash-1");
+    when(clockMock.instant()).thenReturn(now.plus(Duration.ofDays(20)));
+    ledger.record("group-2", "hash-2");
+    ledger.close();
+
+    when(clockMock.instant()).thenReturn(now.plus(Duration.ofDays(40)));
+    ledger.open(dataDir, RETENTION);
+
+    assertThat(ledger.isPosted("group-1", "hash-1"))
+        .isFalse();
+    assertThat(ledger.isPosted("group-2", "hash-2"))
+        .isTrue();
+    assertThat(Files.readAllLines(dataDir.resolve(PostedTimeLedger.LEDGER_FILE_NAME)))
+        .as("Expired entries are removed from the ledger file")
+        .hasSize(1);
+  }
+
+  @Test
+  void open_withoutDataDir() {
+    ledger.open(null, RETENTION);
+    ledger.record("group-1", "hash-1");
+
+    assertThat(ledger.isPosted("group-1", "hash-1"))
+        .isTrue();
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.wisetime.connector.patricia.PostingJournal.Entry;
+import io.wisetime.connector.patricia.util.HashFunction;
+import io.wisetime.generated.connect.Tag;
+import io.wisetime.generated.connect.TimeGroup;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PostingJournalTest {
+
+  private static final FakeEntities FAKE_ENTITIES = new FakeEntities();
+
+  @TempDir
+  Path dataDir;
+
+  private PostingJournal journal;
+
+  @BeforeEach
+  void setUp() {
+    journal = new PostingJournal();
+    journal.open(dataDir);
+  }
+
+  @AfterEach
+  void tearDown() {
+    journal.close();
+  }
+
+  @Test
+  void append_roundTrip() {
+    final TimeGroup timeGroup = FAKE_ENTITIES.randomTimeGroup();
+    final Entry entry = journal.append("hash-1", timeGroup);
+
+    assertThat(journal.toTimeGroup(entry))
+        .as("The journaled time group is restored as received")
+        .isEqualTo(timeGroup);
+    assertThat(journal.isPending(timeGroup.getGroupId(), "hash-1"))
+        .isTrue();
+    assertThat(journal.isPending(timeGroup.getGroupId(), "hash-2"))
+        .isFalse();
+  }
+
+  @Test
+  void append_contentHashSurvivesRoundTrip() {
+    final HashFunction hashFunction = new HashFunction();
+    final TimeGroup timeGroup = FAKE_ENTITIES.randomTimeGroup();
+    final String contentHash = hashFunction.hashTimeGroup(timeGroup);
+    final Entry entry = journal.append(contentHash, timeGroup);
+    journal.close();
+
+    final PostingJournal recovered = new PostingJournal();
+    recovered.open(dataDir);
+    assertThat(hashFunction.hashTimeGroup(recovered.toTimeGroup(recovered.pending().get(0))))
+        .as("A time group read back from the journal is recognised as the one that was received")
+        .isEqualTo(contentHash)
+        .isEqualTo(entry.contentHash());
+    assertThat(hashFunction.hashTimeGroup(timeGroup.description(timeGroup.getDescription() + " changed")))
+        .isNotEqualTo(contentHash);
+    recovered.close();
+  }
+
+  @Test
+  void open_recoversPendingInOrder() {
+    final TimeGroup first = FAKE_ENTITIES.randomTimeGroup();
+    final TimeGroup second = FAKE_ENTITIES.randomTimeGroup();
+    final TimeGroup third = FAKE_ENTITIES.randomTimeGroup();
+    journal.append("hash-1", first);
+    final Entry secondEntry = journal.append("hash-2", second);
+    journal.append("hash-3", third);
+    journal.complete(secondEntry.seq());
+    journal.close();
+
+    final PostingJournal recovered = new PostingJournal();
+    recovered.open(dataDir);
+    final List<Entry> pending = recovered.pending();
+    assertThat(pending)
+        .extracting(Entry::groupId)
+        .containsExactly(first.getGroupId(), third.getGroupId());
+    assertThat(pending.get(0).caseNames())
+        .as("The case names are read back with the entry")
+        .containsExactlyInAnyOrderElementsOf(first.getTags().stream().map(Tag::getName).collect(Collectors.toList()));
+    assertThat(recovered.append("hash-4", FAKE_ENTITIES.randomTimeGroup()).seq())
+        .as("Sequence numbers continue after the recovered entries")
+        .isGreaterThan(pending.get(1).seq());
+    recovered.close();
+  }
+
+  @Test
+  void open_ignoresTruncatedRecord() throws IOException {
+    final TimeGroup timeGroup = FAKE_ENTITIES.randomTimeGroup();
+    journal.append("hash-1", timeGroup);
+    journal.close();
+    Files.write(dataDir.resolve(PostingJournal.JOURNAL_FILE_NAME),
+        "E\t2\tgroup-2\thash-2\t{\"groupId\":\"gro".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    journal.open(dataDir);
+
+    assertThat(journal.pending())
+        .extracting(Entry::groupId)
+        .containsExactly(timeGroup.getGroupId());
+  }
+
+  @Test
+  void complete_compactsOnOpenNotWhenEmpty() throws IOException {
+    final TimeGroup timeGroup = FAKE_ENTITIES.randomTimeGroup();
+    final Entry entry = journal.append("hash-1", timeGroup);
+    journal.complete(entry.seq());
+
+    assertThat(journal.backlog())
+        .isZero();
+    assertThat(journal.isPending(timeGroup.getGroupId(), "hash-1"))
+        .isFalse();
+    assertThat(Files.readAllLines(dataDir.resolve(PostingJournal.JOURNAL_FILE_NAME)))
+        .as("The journal is not rewritten every time the backlog runs empty")
+        .hasSize(2);
+
+    journal.close();
+    journal.open(dataDir);
+    assertThat(Files.size(dataDir.resolve(PostingJournal.JOURNAL_FILE_NAME)))
+        .isZero();
+  }
+
+  @Test
+  void deadLetter() throws IOException {
+    final TimeGroup timeGroup = FAKE_ENTITIES.randomTimeGroup();
+    final Entry entry = journal.append("hash-1", timeGroup);
+
+    journal.deadLetter(entry, "User does not exist");
+
+    assertThat(journal.backlog())
+        .isZero();
+    final List<String> deadLetters = Files.readAllLines(dataDir.resolve(PostingJournal.DEAD_LETTER_FILE_NAME));
+    assertThat(deadLetters)
+        .hasSize(1);
+    final JsonNode deadLetter = new ObjectMapper().readTree(deadLetters.get(0));
+    assertThat(deadLetter.get("reason").asText())
+        .isEqualTo("User does not exist");
+    assertThat(deadLetter.get("timeGroup").get("groupId").asText())
+        .isEqualTo(timeGroup.getGroupId());
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.wisetime.connector.patricia.PatriciaDao.CasePriceCategory;
+import io.wisetime.connector.patricia.PatriciaDao.ChargingPrice;
+import io.wisetime.connector.patricia.PatriciaDao.PriceListEntry;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PriceListEngineTest {
+
+  private static final long CASE_ID = 42;
+  private static final int ROLE_TYPE_ID = 4;
+  private static final int ACTOR_ID = 7;
+  private static final int ACTOR_PRICE_LIST_ID = 100;
+  private static final int DEFAULT_PRICE_LIST_ID = 1;
+  private static final int CASE_CATEGORY_ID = 12;
+  private static final String WORK_CODE = "DM";
+  private static final String LOGIN = "JD";
+
+  private final PatriciaDao patriciaDaoMock = mock(PatriciaDao.class);
+  private final List<ChargingPrice> prices = new ArrayList<>();
+  private final LocalDateTime now = LocalDateTime.now();
+  private PriceListEngine engine;
+
+  @BeforeEach
+  void setUp() {
+    when(patriciaDaoMock.findChargingPrices()).thenReturn(prices);
+    when(patriciaDaoMock.getDbDateTime()).thenReturn(now);
+    when(patriciaDaoMock.findDefaultPriceListId()).thenReturn(Optional.of(DEFAULT_PRICE_LIST_ID));
+    when(patriciaDaoMock.findCaseActorId(CASE_ID, ROLE_TYPE_ID)).thenReturn(Optional.of(ACTOR_ID));
+    when(patriciaDaoMock.findActorPriceListId(ACTOR_ID)).thenReturn(Optional.of(ACTOR_PRICE_LIST_ID));
+    when(patriciaDaoMock.findCasePriceCategories(CASE_ID, WORK_CODE)).thenReturn(List.of(
+        category(ACTOR_PRICE_LIST_ID, ACTOR_ID),
+        category(ACTOR_PRICE_LIST_ID, 0),
+        category(DEFAULT_PRICE_LIST_ID, 0)));
+    engine = new PriceListEngine(patriciaDaoMock);
+  }
+
+  @Test
+  void findHourlyRate_prefersUserOverAnyLogin() {
+    prices.add(price(ACTOR_PRICE_LIST_ID, ACTOR_ID, "^", "200", now.minusMonths(1)));
+    prices.add(price(ACTOR_PRICE_LIST_ID, ACTOR_ID, "jd", "150", now.minusMonths(2)));
+    engine.refresh();
+
+    assertThat(engine.findHourlyRate(CASE_ID, WORK_CODE, LOGIN, ROLE_TYPE_ID))
+        .map(PriceListEntry::hourlyRate)
+        .as("Login ids are not case sensitive")
+        .contains(new BigDecimal("150"));
+  }
+
+  @Test
+  void findHourlyRate_prefersActorOverNoActor() {
+    prices.add(price(ACTOR_PRICE_LIST_ID, 0, LOGIN, "200", now.minusMonths(1)));
+    prices.add(price(ACTOR_PRICE_LIST_ID, ACTOR_ID, LOGIN, "150", now.minusMonths(2)));
+    engine.refresh();
+
+    assertThat(engine.findHourlyRate(CASE_ID, WORK_CODE, LOGIN, ROLE_TYPE_ID))
+        .map(PriceListEntry::hourlyRate)
+        .contains(new BigDecimal("150"));
+  }
+
+  @Test
+  void findHourlyRate_latestPriceInEffect() {
+    prices.add(price(ACTOR_PRICE_LIST_ID, ACTOR_ID, LOGIN, "100", now.minusMonths(2)));
+    prices.add(price(ACTOR_PRICE_LIST_ID, ACTOR_ID, LOGIN, "150", now.minusMonths(1)));
+    prices.add(price(ACTOR_PRICE_LIST_ID, ACTOR_ID, LOGIN, "200", now.plusMonths(1)));
+    engine.refresh();
+
+    assertThat(engine.findHourlyRate(CASE_ID, WORK_CODE, LOGIN, ROLE_TYPE_ID))
+        .map(PriceListEntry::hourlyRate)
+        .as("Future price changes are not in effect yet")
+        .contains(new BigDecimal("150"));
+  }
+
+  @Test
+  void findHourlyRate_fallsBackToDefaultPriceList() {
+    prices.add(price(ACTOR_PRICE_LIST_ID, ACTOR_ID, "Other_User", "200", now.minusMonths(1)));
+    prices.add(price(DEFAULT_PRICE_LIST_ID, 0, LOGIN, "120", now.minusMonths(1)));
+    engine.refresh();
+
+    assertThat(engine.findHourlyRate(CASE_ID, WORK_CODE, LOGIN, ROLE_TYPE_ID))
+        .map(PriceListEntry::hourlyRate)
+        .contains(new BigDecimal("120"));
+  }
+
+  @Test
+  void findHourlyRate_ignoresOtherStatusAndCurrency() {
+    prices.add(price(ACTOR_PRICE_LIST_ID, ACTOR_ID, LOGIN, "200", now.minusMonths(1)).toBuilder()
+        .statusId(2)
+        .build());
+    prices.add(price(ACTOR_PRICE_LIST_ID, ACTOR_ID, LOGIN, "300", now.minusMonths(1)).toBuilder()
+        .currencyId("USD")
+        .build());
+    engine.refresh();
+
+    assertThat(engine.findHourlyRate(CASE_ID, WORK_CODE, LOGIN, ROLE_TYPE_ID))
+        .isEmpty();
+  }
+
+  @Test
+  void findHourlyRate_cachesCaseLookupsUntilRefresh() {
+    prices.add(price(ACTOR_PRICE_LIST_ID, ACTOR_ID, LOGIN, "150", now.minusMonths(1)));
+    engine.refresh();
+
+    engine.findHourlyRate(CASE_ID, WORK_CODE, LOGIN, ROLE_TYPE_ID);
+    engine.findHourlyRate(CASE_ID, WORK_CODE, "other", ROLE_TYPE_ID);
+    verify(patriciaDaoMock, times(1)).findCasePriceCategories(CASE_ID, WORK_CODE);
+    verify(patriciaDaoMock, times(1)).findCaseActorId(CASE_ID, ROLE_TYPE_ID);
+
+    engine.refresh();
+    engine.findHourlyRate(CASE_ID, WORK_CODE, LOGIN, ROLE_TYPE_ID);
+    verify(patriciaDaoMock, times(2)).findCasePriceCategories(CASE_ID, WORK_CODE);
+  }
+
+  @Test
+  void findHourlyRate_queriesPerPostUntilLoaded() {
+    when(patriciaDaoMock.findChargingPrices()).thenThrow(new IllegalStateException("Connection is closed"));
+    engine.refresh();
+
+    engine.findHourlyRate(CASE_ID, WORK_CODE, LOGIN, ROLE_TYPE_ID);
+
+    verify(patriciaDaoMock).findHourlyRateFromPriceList(CASE_ID, WORK_CODE, LOGIN, ROLE_TYPE_ID);
+    verify(patriciaDaoMock, times(0)).findCasePriceCategories(anyLong(), anyString());
+    verify(patriciaDaoMock, times(0)).findCaseActorId(anyLong(), anyInt());
+  }
+
+  private static CasePriceCategory category(int priceListId, int actorId) {
+    return CasePriceCategory.builder()
+        .caseCategoryId(CASE_CATEGORY_ID)
+        .workCodeId(WORK_CODE)
+        .actorId(actorId)
+        .priceListId(priceListId)
+        .statusId(1)
+        .currencyId("AUD")
+        .build();
+  }
+
+  private static ChargingPrice price(int priceListId, int actorId, String loginId, String price,
+                                     LocalDateTime priceChangeDate) {
+    return ChargingPrice.builder()
+        .priceListId(priceListId)
+        .workCodeId(WORK_CODE)
+        .caseCategoryId(CASE_CATEGORY_ID)
+        .actorId(actorId)
+        .loginId(loginId)
+        .statusId(1)
+        .currencyId("AUD")
+        .price(new BigDecimal(price))
+        .priceChangeDate(priceChangeDate)
+        .build();
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import com.google.common.base.Stopwatch;
+import lombok.Builder;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.codejargon.fluentjdbc.api.FluentJdbc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Populates a freshly migrated test schema (see {@code patricia_db_schema}) with a realistic volume of cases, price
+ * list rows, discounts and person rates.
+ *
+ * Rows are generated set-based on the server from a row number sequence, so that millions of rows can be inserted in
+ * a few statements. All generated ids are contiguous and start at 1, which lets the load test derive valid inputs
+ * without reading the data back.
+ */
+class SyntheticPatriciaDatabase {
+
+  private static final Logger log = LoggerFactory.getLogger(SyntheticPatriciaDatabase.class);
+
+  static final String CASE_NUMBER_PREFIX = "LOAD";
+  static final String WORK_CODE_PREFIX = "LWC";
+  static final String LOGIN_ID_PREFIX = "load";
+  static final String CURRENCY = "EUR";
+
+  private static final int INSERT_CHUNK_SIZE = 100_000;
+  private static final int CASE_TYPE_COUNT = 20;
+  private static final int PRICE_LIST_COUNT = 10;
+  private static final String[] STATE_IDS = {"DE", "US", "EP", "GB", "FR"};
+
+  // row number sequence of at most :count rows, starting after :offset
+  private static final String SEQUENCE = "WITH seq AS ("
+      + "SELECT TOP (:count) :offset + ROW_NUMBER() OVER (ORDER BY (SELECT NULL)) AS n "
+      + "FROM sys.all_objects a CROSS JOIN sys.all_objects b CROSS JOIN sys.all_objects c) ";
+
+  private final FluentJdbc fluentJdbc;
+  private final Volume volume;
+
+  SyntheticPatriciaDatabase(FluentJdbc fluentJdbc, Volume volume) {
+    this.fluentJdbc = fluentJdbc;
+    this.volume = volume;
+  }
+
+  static String caseNumber(long caseId) {
+    return CASE_NUMBER_PREFIX + caseId;
+  }
+
+  static String workCodeId(int workCodeNum) {
+    return WORK_CODE_PREFIX + workCodeNum;
+  }
+
+  static String loginId(int userNum) {
+    return LOGIN_ID_PREFIX + userNum;
+  }
+
+  void populate() {
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    populateReferenceData();
+    populateWorkCodes();
+    populateUsers();
+    populateActors();
+    populateCases();
+    populatePriceList();
+    populateDiscounts();
+    populatePersonRates();
+    log.info("Populated synthetic Patricia database with {} in {}", volume, stopwatch);
+  }
+
+  private void populateReferenceData() {
+    fluentJdbc.query().update("INSERT INTO currency (currency_id, default_currency, currency_active) VALUES (?, 1, 1)")
+        .params(CURRENCY)
+        .run();
+    fluentJdbc.query().update("INSERT INTO language_code (language_id, language_label) VALUES (1, 'English')").run();
+
+    insertSequence(CASE_TYPE_COUNT,
+        "INSERT INTO case_type_definition (case_type_id, case_master_id) SELECT n, n FROM seq");
+    for (int i = 0; i < STATE_IDS.length; i++) {
+      // one level 1 case category per case type and state, and a level 2 fallback per case type
+      fluentJdbc.query().update(SEQUENCE
+          + "INSERT INTO case_category (case_category_id, case_master_id, case_type_id, state_id, case_category_level) "
+          + "SELECT (n - 1) * :states + :stateIdx + 1, n, n, :stateId, 1 FROM seq")
+          .namedParam("count", CASE_TYPE_COUNT)
+          .namedParam("offset", 0)
+          .namedParam("states", STATE_IDS.length + 1)
+          .namedParam("stateIdx", i)
+          .namedParam("stateId", STATE_IDS[i])
+          .run();
+    }
+    fluentJdbc.query().update(SEQUENCE
+        + "INSERT INTO case_category (case_category_id, case_master_id, case_type_id, case_category_level) "
+        + "SELECT n * :states, n, n, 2 FROM seq")
+        .namedParam("count", CASE_TYPE_COUNT)
+        .namedParam("offset", 0)
+        .namedParam("states", STATE_IDS.length + 1)
+        .run();
+
+    insertSequence(PRICE_LIST_COUNT,
+        "INSERT INTO renewal_price_list (price_list_id, default_price_list) "
+            + "SELECT n, CASE WHEN n = 1 THEN 1 ELSE 0 END FROM seq");
+  }
+
+  private void populateWorkCodes() {
+    // every tenth work code has a default amount that replaces all other rates
+    insertSequence(volume.workCodes(),
+        "INSERT INTO work_code (work_code_id, work_code_type, work_code_default_amount, replace_amount, is_active) "
+            + "SELECT '" + WORK_CODE_PREFIX + "' + CAST(n AS nvarchar), 'T', 150, "
+            + "CASE WHEN n % 10 = 0 THEN 1 ELSE 0 END, 1 FROM seq");
+    insertSequence(volume.workCodes(),
+        "INSERT INTO work_code_text (work_code_id, work_code_text, language_id) "
+            + "SELECT '" + WORK_CODE_PREFIX + "' + CAST(n AS nvarchar), 'Work code ' + CAST(n AS nvarchar), 1 FROM seq");
+  }
+
+  private void populateUsers() {
+    insertSequence(volume.users(),
+        "INSERT INTO person (login_id, email, hourly_rate) "
+            + "SELECT '" + LOGIN_ID_PREFIX + "' + CAST(n AS nvarchar), "
+            + "'" + LOGIN_ID_PREFIX + "' + CAST(n AS nvarchar) + '@example.com', 100 + n % 50 FROM seq");
+  }
+
+  private void populateActors() {
+    insertSequence(volume.actors(),
+        "INSERT INTO pat_names (name_id, price_list_id, currency_id) "
+            + "SELECT n, n % " + PRICE_LIST_COUNT + " + 1, '" + CURRENCY + "' FROM seq");
+    insertSequence(volume.actors(),
+        "INSERT INTO pat_names_entity (entity_id, name_id) SELECT n, n FROM seq");
+  }
+
+  private void populateCases() {
+    insertSequence(volume.cases(),
+        "INSERT INTO vw_case_number (case_id, case_number) "
+            + "SELECT n, '" + CASE_NUMBER_PREFIX + "' + CAST(n AS nvarchar) FROM seq");
+    insertSequence(volume.cases(),
+        "INSERT INTO pat_case (case_id, case_catch_word, state_id, application_type_id, case_type_id) "
+            + "SELECT n, 'Synthetic case ' + CAST(n AS nvarchar), "
+            + "CHOOSE(n % " + STATE_IDS.length + " + 1, '" + String.join("', '", STATE_IDS) + "'), "
+            + "n % 5 + 1, n % " + CASE_TYPE_COUNT + " + 1 FROM seq");
+    insertSequence(volume.cases(),
+        "INSERT INTO casting (role_type_id, actor_id, case_id, case_role_sequence) "
+            + "SELECT " + volume.roleTypeId() + ", n % " + volume.actors() + " + 1, n, 1 FROM seq");
+  }
+
+  private void populatePriceList() {
+    final int caseCategoryCount = CASE_TYPE_COUNT * (STATE_IDS.length + 1);
+    // mostly rates for any login ('^'), some for a specific user; price change dates spread over the past year
+    insertSequence(volume.priceListRows(),
+        "INSERT INTO chargeing_price_list (case_category_id, status_id, work_code_id, price_change_date, actor_id, "
+            + "price_list_id, login_id, currency_id, price) "
+            + "SELECT n % " + caseCategoryCount + " + 1, 1, "
+            + "'" + WORK_CODE_PREFIX + "' + CAST(n % " + volume.workCodes() + " + 1 AS nvarchar), "
+            + "DATEADD(day, -(n % 365) - 1, GETDATE()), "
+            + "CASE WHEN n % 3 = 0 THEN 0 ELSE n % " + volume.actors() + " + 1 END, "
+            + "n % " + PRICE_LIST_COUNT + " + 1, "
+            + "CASE WHEN n % 4 = 0 THEN '" + LOGIN_ID_PREFIX + "' + CAST(n % " + volume.users() + " + 1 AS nvarchar) "
+            + "ELSE '^' END, "
+            + "'" + CURRENCY + "', 100 + n % 200 FROM seq");
+  }
+
+  private void populateDiscounts() {
+    insertSequence(volume.discounts(),
+        "INSERT INTO pat_work_code_discount_header (discount_id, actor_id, case_type_id, state_id, "
+            + "application_type_id, work_code_type, work_code_id, discount_type) "
+            + "SELECT n, n % " + volume.actors() + " + 1, "
+            + "CASE WHEN n % 2 = 0 THEN n % " + CASE_TYPE_COUNT + " + 1 END, "
+            + "CASE WHEN n % 3 = 0 THEN CHOOSE(n % " + STATE_IDS.length + " + 1, '"
+            + String.join("', '", STATE_IDS) + "') END, "
+            + "CASE WHEN n % 5 = 0 THEN n % 5 + 1 END, "
+            + "CASE WHEN n % 2 = 1 THEN 'T' END, "
+            + "CASE WHEN n % 7 = 0 THEN '" + WORK_CODE_PREFIX + "' + CAST(n % " + volume.workCodes()
+            + " + 1 AS nvarchar) END, "
+            + "n % 2 + 1 FROM seq");
+    insertSequence(volume.discounts(),
+        "INSERT INTO pat_work_code_discount_detail (discount_id, amount, price_change_formula) "
+            + "SELECT n, n % 500, '@*0,1' FROM seq");
+  }
+
+  private void populatePersonRates() {
+    insertSequence(volume.personRates(),
+        "INSERT INTO pat_person_hourly_rate (pat_person_hourly_rate_id, login_id, work_code_id, hourly_rate, "
+            + "name_id, name_role_type_id, currency) "
+            + "SELECT n, '" + LOGIN_ID_PREFIX + "' + CAST(n % " + volume.users() + " + 1 AS nvarchar), "
+            + "CASE WHEN n % 2 = 0 THEN '" + WORK_CODE_PREFIX + "' + CAST(n % " + volume.workCodes()
+            + " + 1 AS nvarchar) END, "
+            + "120 + n % 80, "
+            + "CASE WHEN n % 3 = 0 THEN n % " + volume.actors() + " + 1 END, "
+            + "CASE WHEN n % 3 = 0 THEN " + volume.roleTypeId() + " END, "
+            + "'" + CURRENCY + "' FROM seq");
+  }
+
+  /**
+   * Runs an {@code INSERT ... SELECT ... FROM seq} statement for the rows 1 to {@code count}, in chunks so that a
+   * single statement does not grow the transaction log of the test database too much.
+   */
+  private void insertSequence(int count, String insertFromSeq) {
+    for (int offset = 0; offset < count; offset += INSERT_CHUNK_SIZE) {
+      fluentJdbc.query().update(SEQUENCE + insertFromSeq)
+          .namedParam("count", Math.min(INSERT_CHUNK_SIZE, count - offset))
+          .namedParam("offset", offset)
+          .run();
+    }
+  }
+
+  @Data
+  @Builder
+  @Accessors(fluent = true)
+  static class Volume {
+
+    private int cases;
+    private int actors;
+    private int users;
+    private int workCodes;
+    private int priceListRows;
+    private int discounts;
+    private int personRates;
+    private int roleTypeId;
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.wisetime.connector.datastore.ConnectorStore;
+import io.wisetime.connector.patricia.PatriciaDao.Case;
+import io.wisetime.connector.patricia.util.ApiThrottledException;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TagQuarantineTest {
+
+  private static final Duration FIRST_RETRY_DELAY = Duration.ofMinutes(15);
+
+  private final ConnectorStore connectorStoreMock = mock(ConnectorStore.class);
+  private final Map<String, String> store = new HashMap<>();
+  private final Clock clockMock = mock(Clock.class);
+  private final Instant now = Instant.parse("2022-05-01T10:00:00Z");
+  private final List<List<Case>> upsertedBatches = new ArrayList<>();
+  private TagQuarantine quarantine;
+
+  @BeforeEach
+  void setUp() {
+    when(clockMock.instant()).thenReturn(now);
+    when(connectorStoreMock.getString(anyString()))
+        .thenAnswer(invocation -> Optional.ofNullable(store.get(invocation.<String>getArgument(0))));
+    doAnswer(invocation -> store.put(invocation.getArgument(0), invocation.getArgument(1)))
+        .when(connectorStoreMock).putString(anyString(), anyString());
+    quarantine = new TagQuarantine(connectorStoreMock, FIRST_RETRY_DELAY, clockMock);
+  }
+
+  @Test
+  void upsert_isolatesFailingCases() throws IOException {
+    final List<Case> cases = cases(1, 100);
+
+    final List<Case> quarantined = quarantine.upsert(cases, failingFor(Set.of(3L, 64L)));
+
+    assertThat(quarantined)
+        .extracting(Case::caseId)
+        .containsExactly(3L, 64L);
+    assertThat(upsertedBatches.stream().flatMap(List::stream))
+        .as("All other cases are upserted exactly once")
+        .hasSize(98)
+        .doesNotHaveDuplicates()
+        .doesNotContainAnyElementsOf(quarantined);
+    assertThat(upsertedBatches)
+        .as("Batches that succeed are not split any further")
+        .hasSizeLessThan(20);
+    assertThat(quarantine.size())
+        .isEqualTo(2);
+  }
+
+  @Test
+  void upsert_isolatesFailingCasesAtFrontOfBatch() throws IOException {
+    assertThat(quarantine.upsert(cases(1, 500), failingFor(Set.of(1L, 2L, 3L))))
+        .extracting(Case::caseId)
+        .as("The rest of the batch is upserted before the cases at its front are blamed")
+        .containsExactly(1L, 2L, 3L);
+    assertThat(quarantine.size())
+        .isEqualTo(3);
+  }
+
+  @Test
+  void upsert_rethrowsThrottleWithoutSplitting() {
+    final IOException throttled = new IOException("429 Too Many Requests");
+    final List<Integer> calls = new ArrayList<>();
+
+    assertThatThrownBy(() -> quarantine.upsert(cases(1, 500), batch -> {
+      calls.add(batch.size());
+      throw throttled;
+    }))
+        .isSameAs(throttled);
+    assertThat(calls)
+        .as("A throttled batch is not split into more calls")
+        .containsExactly(500);
+    assertThat(quarantine.size())
+        .isZero();
+  }
+
+  @Test
+  void upsert_rethrowsServerErrorDuringSplit() {
+    final IOException serverError = new IOException("503 Service Unavailable");
+    final List<Integer> calls = new ArrayList<>();
+
+    assertThatThrownBy(() -> quarantine.upsert(cases(1, 100), batch -> {
+      calls.add(batch.size());
+      throw calls.size() == 1 ? new IOException("400 Bad Request\nInvalid tag") : serverError;
+    }))
+        .isSameAs(serverError);
+    assertThat(calls)
+        .as("The outage stops the split at the first half")
+        .containsExactly(100, 50);
+    assertThat(quarantine.size())
+        .isZero();
+    verify(connectorStoreMock, never()).putString(anyString(), anyString());
+  }
+
+  @Test
+  void isRejection() {
+    assertThat(TagQuarantine.isRejection(new IOException("400 Bad Request\n{\"message\":\"Invalid tag\"}")))
+        .isTrue();
+    assertThat(TagQuarantine.isRejection(new IOException("429 Too Many Requests")))
+        .isFalse();
+    assertThat(TagQuarantine.isRejection(
+        new ApiThrottledException("tag_upsert_batch", new IOException("400 Bad Request\nRate limit exceeded"))))
+        .as("A throttle reported by the rate limited API call is never a rejection")
+        .isFalse();
+    assertThat(TagQuarantine.isRejection(new IOException("408 Request Timeout")))
+        .isFalse();
+    assertThat(TagQuarantine.isRejection(new IOException("502 Bad Gateway")))
+        .isFalse();
+    assertThat(TagQuarantine.isRejection(new IOException("Connection reset")))
+        .isFalse();
+  }
+
+  @Test
+  void upsert_failsBatchWhenNothingCanBeUpserted() {
+    final IOException batchError = new IOException("400 Bad Request");
+    final List<Integer> calls = new ArrayList<>();
+
+    assertThatThrownBy(() -> quarantine.upsert(cases(1, 500), failing -> {
+      calls.add(failing.size());
+      throw batchError;
+    }))
+        .isSameAs(batchError);
+    assertThat(calls)
+        .as("The split stops once two rounds of halves are rejected without any success")
+        .containsExactly(500, 250, 250, 125, 125, 125, 125);
+    assertThat(quarantine.size())
+        .as("WiseTime is not available, no case is to blame")
+        .isZero();
+    verify(connectorStoreMock, never()).putString(anyString(), anyString());
+  }
+
+  @Test
+  void upsert_failsBatchWhenTooManyCasesFail() {
+    final Set<Long> failingCaseIds = LongStream.rangeClosed(1, 100)
+        .filter(caseId -> caseId % 8 == 0)
+        .boxed()
+        .collect(Collectors.toSet());
+
+    assertThatThrownBy(() -> quarantine.upsert(cases(1, 100), failingFor(failingCaseIds)))
+        .isInstanceOf(IOException.class);
+    assertThat(quarantine.size())
+        .isZero();
+  }
+
+  @Test
+  void dueCaseIds_followsRetrySchedule() throws IOException {
+    quarantine.upsert(cases(1, 10), failingFor(Set.of(5L)));
+    assertThat(quarantine.dueCaseIds(10))
+        .isEmpty();
+
+    when(clockMock.instant()).thenReturn(now.plus(FIRST_RETRY_DELAY));
+    assertThat(quarantine.dueCaseIds(10))
+        .containsExactly(5L);
+
+    quarantine.upsert(cases(5, 5), failingFor(Set.of(5L)));
+    when(clockMock.instant()).thenReturn(now.plus(FIRST_RETRY_DELAY.multipliedBy(2)));
+    assertThat(quarantine.dueCaseIds(10))
+        .as("The delay doubles after each failed retry")
+        .isEmpty();
+    when(clockMock.instant()).thenReturn(now.plus(FIRST_RETRY_DELAY.multipliedBy(3)));
+    assertThat(quarantine.dueCaseIds(10))
+        .containsExactly(5L);
+
+    quarantine.upsert(cases(5, 5), failingFor(Set.of()));
+    assertThat(quarantine.size())
+        .as("A case that was upserted leaves the quarantine")
+        .isZero();
+  }
+
+  @Test
+  void retryDelay_cappedAtOneDay() {
+    assertThat(quarantine.retryDelay(1))
+        .isEqualTo(FIRST_RETRY_DELAY);
+    assertThat(quarantine.retryDelay(3))
+        .isEqualTo(FIRST_RETRY_DELAY.multipliedBy(4));
+    assertThat(quarantine.retryDelay(100))
+        .isEqualTo(Duration.ofDays(1));
+  }
+
+  @Test
+  void quarantine_survivesRestart() throws IOException {
+    quarantine.upsert(cases(1, 10), failingFor(Set.of(2L, 7L)));
+
+    final TagQuarantine restarted = new TagQuarantine(connectorStoreMock, FIRST_RETRY_DELAY, clockMock);
+
+    when(clockMock.instant()).thenReturn(now.plus(FIRST_RETRY_DELAY));
+    assertThat(restarted.dueCaseIds(10))
+        .containsExactly(2L, 7L);
+  }
+
+  @Test
+  void quarantine_ignoresUnreadableStoreValue() {
+    store.put(TagQuarantine.QUARANTINE_KEY, "2:1:1651399200000,7:x");
+
+    assertThat(new TagQuarantine(connectorStoreMock, FIRST_RETRY_DELAY, clockMock).size())
+        .isZero();
+  }
+
+  private TagQuarantine.BatchUpsert failingFor(Set<Long> failingCaseIds) {
+    return batch -> {
+      if (batch.stream().anyMatch(patriciaCase -> failingCaseIds.contains(patriciaCase.caseId()))) {
+        throw new IOException("400 Bad Request\nInvalid tag");
+      }
+      upsertedBatches.add(batch);
+    };
+  }
+
+  private static List<Case> cases(long firstCaseId, long lastCaseId) {
+    return LongStream.rangeClosed(firstCaseId, lastCaseId)
+        .mapToObj(caseId -> Case.builder()
+            .caseId(caseId)
+            .caseNumber("P-" + caseId)
+            .caseTypeId(1)
+            .stateId("AU")
+            .appId(2)
+            .build())
+        .collect(Collectors.toList());
+  }
+}
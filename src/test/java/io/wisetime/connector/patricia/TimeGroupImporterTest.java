@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.wisetime.connector.patricia.PatriciaDao.BudgetLine;
+import io.wisetime.connector.patricia.PatriciaDao.Case;
+import io.wisetime.connector.patricia.PatriciaDao.TimeAndChargePlan;
+import io.wisetime.connector.patricia.util.ConnectorException;
+import io.wisetime.generated.connect.TimeGroup;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TimeGroupImporterTest {
+
+  private static final FakeEntities FAKE_ENTITIES = new FakeEntities();
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  @TempDir
+  Path dir;
+
+  private final PatriciaConnector patriciaConnectorMock = mock(PatriciaConnector.class);
+  private final PatriciaDao patriciaDaoMock = mock(PatriciaDao.class);
+  private final List<Integer> batchSizes = new ArrayList<>();
+  private TimeGroupImporter importer;
+
+  @BeforeEach
+  void setUp() {
+    when(patriciaDaoMock.bulkImport(anyList())).thenAnswer(invocation -> {
+      final List<TimeAndChargePlan> plans = invocation.getArgument(0);
+      batchSizes.add(plans.size());
+      return plans.size();
+    });
+    importer = new TimeGroupImporter(patriciaConnectorMock, patriciaDaoMock);
+  }
+
+  @Test
+  void importTimeGroups_writesBatchesAndReport() throws IOException {
+    final TimeGroup first = FAKE_ENTITIES.randomTimeGroup();
+    final TimeGroup second = FAKE_ENTITIES.randomTimeGroup();
+    final TimeGroup noTags = FAKE_ENTITIES.randomTimeGroup();
+    final TimeGroup missingCase = FAKE_ENTITIES.randomTimeGroup();
+    when(patriciaConnectorMock.planImport(any())).thenAnswer(invocation -> {
+      final String groupId = ((TimeGroup) invocation.getArgument(0)).getGroupId();
+      if (groupId.equals(first.getGroupId())) {
+        return List.of(plan("P-1", "1.5", "150"), plan("P-2", "1.5", "120.50"));
+      }
+      if (groupId.equals(second.getGroupId())) {
+        return List.of(plan("P-1", "0.25", "25"));
+      }
+      if (groupId.equals(noTags.getGroupId())) {
+        return List.of();
+      }
+      throw new ConnectorException("Patricia case was not found for next tags: P-3");
+    });
+    final Path input = writeInput(first, second, noTags, missingCase);
+    final Path report = dir.resolve("report.jsonl");
+
+    final TimeGroupImporter.Summary summary = importer.importTimeGroups(input, report, 3);
+
+    assertThat(batchSizes)
+        .as("Plans of 3 time groups per batch")
+        .containsExactly(3, 0);
+    assertThat(summary.imported())
+        .isEqualTo(2);
+    assertThat(summary.skipped())
+        .isEqualTo(1);
+    assertThat(summary.failed())
+        .isEqualTo(1);
+    assertThat(summary.chargeableAmount())
+        .isEqualByComparingTo("295.50");
+
+    final List<JsonNode> lines = readReport(report);
+    assertThat(lines)
+        .hasSize(5);
+    assertThat(lines.get(0).path("status").asText())
+        .isEqualTo("IMPORTED");
+    assertThat(lines.get(0).path("cases"))
+        .extracting(JsonNode::asText)
+        .containsExactly("P-1", "P-2");
+    assertThat(lines.get(0).path("chargeableHours").decimalValue())
+        .isEqualByComparingTo("3.00");
+    assertThat(lines.get(2).path("status").asText())
+        .isEqualTo("SKIPPED");
+    assertThat(lines.get(3).path("status").asText())
+        .isEqualTo("FAILED");
+    assertThat(lines.get(3).path("message").asText())
+        .isEqualTo("Patricia case was not found for next tags: P-3");
+    assertThat(lines.get(4).path("summary").asBoolean())
+        .isTrue();
+  }
+
+  @Test
+  void importTimeGroups_resumesAfterImportedGroups() throws IOException {
+    final TimeGroup first = FAKE_ENTITIES.randomTimeGroup();
+    final TimeGroup second = FAKE_ENTITIES.randomTimeGroup();
+    when(patriciaConnectorMock.planImport(any())).thenReturn(List.of(plan("P-1", "1", "100")));
+    final Path report = dir.resolve("report.jsonl");
+    importer.importTimeGroups(writeInput(first), report, 10);
+
+    final TimeGroupImporter.Summary summary = importer.importTimeGroups(writeInput(first, second), report, 10);
+
+    assertThat(summary.alreadyImported())
+        .isEqualTo(1);
+    assertThat(summary.imported())
+        .isEqualTo(1);
+    verify(patriciaConnectorMock, times(2)).planImport(any());
+  }
+
+  @Test
+  void importTimeGroups_failedBatchIsNotReported() throws IOException {
+    when(patriciaConnectorMock.planImport(any())).thenReturn(List.of(plan("P-1", "1", "100")));
+    when(patriciaDaoMock.bulkImport(anyList()))
+        .thenThrow(new IllegalStateException("Imported budget lines do not match the planned ones for case IDs [1]"));
+    final Path report = dir.resolve("report.jsonl");
+
+    assertThatThrownBy(() -> importer.importTimeGroups(writeInput(FAKE_ENTITIES.randomTimeGroup()), report, 10))
+        .isInstanceOf(IllegalStateException.class);
+
+    assertThat(Files.readAllLines(report, StandardCharsets.UTF_8))
+        .as("The batch is imported again when resuming")
+        .isEmpty();
+    verify(patriciaDaoMock, never()).findCaseByCaseNumber(any());
+  }
+
+  private Path writeInput(TimeGroup... timeGroups) throws IOException {
+    final Path input = dir.resolve("time-groups.jsonl");
+    final List<String> lines = new ArrayList<>();
+    for (TimeGroup timeGroup : timeGroups) {
+      lines.add(OBJECT_MAPPER.writeValueAsString(timeGroup));
+    }
+    return Files.write(input, lines, StandardCharsets.UTF_8);
+  }
+
+  private static List<JsonNode> readReport(Path report) throws IOException {
+    final List<JsonNode> lines = new ArrayList<>();
+    for (String line : Files.readAllLines(report, StandardCharsets.UTF_8)) {
+      lines.add(OBJECT_MAPPER.readTree(line));
+    }
+    return lines;
+  }
+
+  private static TimeAndChargePlan plan(String caseNumber, String hours, String amount) {
+    return TimeAndChargePlan.builder()
+        .patriciaCase(Case.builder().caseId(1).caseNumber(caseNumber).build())
+        .budgetLine(BudgetLine.builder()
+            .chargeableWorkTotalHours(new BigDecimal(hours))
+            .chargeableAmount(new BigDecimal(amount))
+            .build())
+        .build();
+  }
+}
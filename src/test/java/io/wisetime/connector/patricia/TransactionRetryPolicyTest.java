@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.wisetime.connector.patricia.TransactionRetryPolicy.Reason;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.codejargon.fluentjdbc.api.FluentJdbcSqlException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TransactionRetryPolicyTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final ConnectorMetrics metrics = new ConnectorMetrics();
+  private final List<Long> sleeps = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    ((CompositeMeterRegistry) metrics.registry()).add(meterRegistry);
+  }
+
+  @Test
+  void execute_retriesDeadlockVictim() {
+    final TransactionRetryPolicy policy = policy(3, 20);
+    final AtomicInteger attempts = new AtomicInteger();
+
+    policy.execute(() -> {
+      if (attempts.incrementAndGet() < 3) {
+        throw sqlError(1205);
+      }
+    });
+
+    assertThat(attempts)
+        .hasValue(3);
+    assertThat(sleeps)
+        .as("Backoff doubles per retry, the random factor is fixed at 0.5")
+        .containsExactly(Duration.ofMillis(25).toNanos(), Duration.ofMillis(50).toNanos());
+    assertThat(meterRegistry.get("patricia.post.transaction.retry").tag("reason", "deadlock").counter().count())
+        .isEqualTo(2);
+  }
+
+  @Test
+  void execute_givesUpAfterMaxRetries() {
+    final TransactionRetryPolicy policy = policy(2, 20);
+    final AtomicInteger attempts = new AtomicInteger();
+
+    assertThatThrownBy(() -> policy.execute(() -> {
+      attempts.incrementAndGet();
+      throw sqlError(1222);
+    }))
+        .isInstanceOf(FluentJdbcSqlException.class);
+    assertThat(attempts)
+        .hasValue(3);
+    assertThat(meterRegistry.get("patricia.post.transaction.retry.exhausted")
+        .tag("reason", "lock_timeout").tag("limit", "attempts").counter().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  void execute_otherErrorsAreNotRetried() {
+    final TransactionRetryPolicy policy = policy(3, 20);
+    final AtomicInteger attempts = new AtomicInteger();
+
+    assertThatThrownBy(() -> policy.execute(() -> {
+      attempts.incrementAndGet();
+      // Cannot insert duplicate key
+      throw sqlError(2627);
+    }))
+        .isInstanceOf(FluentJdbcSqlException.class);
+    assertThat(attempts)
+        .hasValue(1);
+    assertThat(sleeps)
+        .isEmpty();
+  }
+
+  @Test
+  void execute_budgetLimitsRetries() {
+    final TransactionRetryPolicy policy = policy(1, 0);
+
+    // the burst allows ten retries
+    for (int i = 0; i < 10; i++) {
+      final AtomicInteger attempts = new AtomicInteger();
+      policy.execute(() -> {
+        if (attempts.incrementAndGet() == 1) {
+          throw sqlError(1205);
+        }
+      });
+    }
+    final AtomicInteger attempts = new AtomicInteger();
+    assertThatThrownBy(() -> policy.execute(() -> {
+      attempts.incrementAndGet();
+      throw sqlError(1205);
+    }))
+        .isInstanceOf(FluentJdbcSqlException.class);
+
+    assertThat(attempts)
+        .as("No retry once the budget is used up")
+        .hasValue(1);
+    assertThat(meterRegistry.get("patricia.post.transaction.retry.exhausted")
+        .tag("reason", "deadlock").tag("limit", "budget").counter().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  void execute_transactionsEarnBudget() {
+    final TransactionRetryPolicy policy = policy(1, 50);
+    for (int i = 0; i < 10; i++) {
+      final AtomicInteger attempts = new AtomicInteger();
+      policy.execute(() -> {
+        if (attempts.incrementAndGet() == 1) {
+          throw sqlError(1205);
+        }
+      });
+    }
+    final double spent = policy.budget();
+
+    policy.execute(() -> { });
+    policy.execute(() -> { });
+
+    assertThat(policy.budget())
+        .isEqualTo(spent + 1);
+  }
+
+  @Test
+  void lockContention_findsCause() {
+    assertThat(TransactionRetryPolicy.lockContention(new RuntimeException(sqlError(1205))))
+        .contains(Reason.DEADLOCK);
+    assertThat(TransactionRetryPolicy.lockContention(sqlError(1222)))
+        .contains(Reason.LOCK_TIMEOUT);
+    assertThat(TransactionRetryPolicy.lockContention(new IllegalStateException("No hourly rate")))
+        .isEmpty();
+  }
+
+  private TransactionRetryPolicy policy(int maxRetries, int budgetPercent) {
+    return new TransactionRetryPolicy(metrics, maxRetries, budgetPercent,
+        Duration.ofMillis(50), Duration.ofSeconds(1), () -> 0.5, sleeps::add);
+  }
+
+  private static FluentJdbcSqlException sqlError(int errorCode) {
+    return new FluentJdbcSqlException("Transaction failed",
+        new SQLException("Transaction was deadlocked on lock resources", "40001", errorCode));
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.PostStage;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.RateLevel;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.SyncLoop;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConnectorMetricsTest {
+
+  private ConnectorMetrics metrics;
+  private SimpleMeterRegistry simpleRegistry;
+
+  @BeforeEach
+  void setUp() {
+    metrics = new ConnectorMetrics();
+    simpleRegistry = new SimpleMeterRegistry();
+    ((CompositeMeterRegistry) metrics.registry()).add(simpleRegistry);
+  }
+
+  @Test
+  void recordPostStage() {
+    assertThat(metrics.recordPostStage(PostStage.CASE_LOOKUP, () -> "case")).isEqualTo("case");
+    metrics.recordPostStage(PostStage.COMMIT, TimeUnit.MILLISECONDS.toNanos(5));
+
+    assertThat(simpleRegistry.get("patricia.post.stage").tag("stage", "case_lookup").timer().count())
+        .isEqualTo(1);
+    assertThat(simpleRegistry.get("patricia.post.stage").tag("stage", "commit").timer()
+        .totalTime(TimeUnit.MILLISECONDS))
+        .isEqualTo(5);
+  }
+
+  @Test
+  void countRateLevelAndPostResult() {
+    metrics.countRateLevel(RateLevel.PRICE_LIST);
+    metrics.countRateLevel(RateLevel.PRICE_LIST);
+    metrics.countPostResult("SUCCESS");
+
+    assertThat(simpleRegistry.get("patricia.post.rate.level").tag("level", "price_list").counter().count())
+        .isEqualTo(2);
+    assertThat(simpleRegistry.get("patricia.post.result").tag("status", "SUCCESS").counter().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  void recordSyncBatch() {
+    metrics.recordSyncBatch(SyncLoop.NEW_CASES, 50, TimeUnit.SECONDS.toNanos(1));
+    metrics.recordSyncBatch(SyncLoop.NEW_CASES, 20, TimeUnit.SECONDS.toNanos(1));
+
+    assertThat(simpleRegistry.get("patricia.sync.batch").tag("loop", "new_cases").timer().count())
+        .isEqualTo(2);
+    assertThat(simpleRegistry.get("patricia.sync.rows").tag("loop", "new_cases").counter().count())
+        .isEqualTo(70);
+  }
+
+  @Test
+  void recordApiCall_outcome() throws IOException {
+    metrics.recordApiCall("tag_delete", () -> null);
+    assertThatThrownBy(() -> metrics.recordApiCall("tag_delete", () -> {
+      throw new IOException("API unavailable");
+    }))
+        .isInstanceOf(IOException.class);
+
+    assertThat(simpleRegistry.get("patricia.api.call").tags("operation", "tag_delete", "outcome", "success")
+        .timer().count())
+        .isEqualTo(1);
+    assertThat(simpleRegistry.get("patricia.api.call").tags("operation", "tag_delete", "outcome", "error")
+        .timer().count())
+        .isEqualTo(1);
+  }
+}
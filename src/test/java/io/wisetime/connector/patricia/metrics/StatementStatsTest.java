@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.wisetime.connector.patricia.metrics.StatementStats.ShapeSummary;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class StatementStatsTest {
+
+  @Test
+  void sqlShape_normalisesLiteralsAndWhitespace() {
+    assertThat(StatementStats.sqlShape("SELECT TOP 10 case_id\n    FROM  vw_case_number WHERE case_number = 'P-1''2'"))
+        .isEqualTo("SELECT TOP ? case_id FROM vw_case_number WHERE case_number = ?");
+    assertThat(StatementStats.sqlShape("SELECT 1 FROM work_code WHERE work_code_id IN (?, ?,?) AND is_active = 1"))
+        .isEqualTo("SELECT ? FROM work_code WHERE work_code_id IN (?) AND is_active = ?");
+  }
+
+  @Test
+  void record_aggregatesPerShape() {
+    final SimpleMeterRegistry exportedRegistry = new SimpleMeterRegistry();
+    final StatementStats statementStats = new StatementStats(exportedRegistry, 1000);
+
+    statementStats.record("SELECT login_id FROM person WHERE email = ?", List.of("String"),
+        TimeUnit.MILLISECONDS.toNanos(10), 1);
+    statementStats.record("SELECT login_id  FROM person WHERE email = ?", List.of("String"),
+        TimeUnit.MILLISECONDS.toNanos(30), 0);
+    statementStats.record("UPDATE budget_header SET budget_edit_date = ? WHERE case_id = 5", List.of("Timestamp"),
+        TimeUnit.MILLISECONDS.toNanos(5), 1);
+
+    final List<ShapeSummary> summary = statementStats.summary();
+    assertThat(summary)
+        .as("one entry per shape, most expensive first")
+        .extracting(ShapeSummary::sql)
+        .containsExactly(
+            "SELECT login_id FROM person WHERE email = ?",
+            "UPDATE budget_header SET budget_edit_date = ? WHERE case_id = ?");
+    assertThat(summary.get(0).count()).isEqualTo(2);
+    assertThat(summary.get(0).totalMillis()).isEqualTo(40);
+    assertThat(summary.get(0).maxMillis()).isEqualTo(30);
+    assertThat(summary.get(0).rows()).isEqualTo(1);
+
+    assertThat(exportedRegistry.get("patricia.jdbc.statement").tag("statement", summary.get(0).id()).timer().count())
+        .as("statement meters should be exported")
+        .isEqualTo(2);
+  }
+}
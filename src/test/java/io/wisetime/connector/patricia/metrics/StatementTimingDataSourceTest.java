@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.wisetime.connector.patricia.metrics.ConnectorMetrics.QueryClass;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.List;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class StatementTimingDataSourceTest {
+
+  private final StatementStats statementStats = mock(StatementStats.class);
+  private final PreparedStatement preparedStatement = mock(PreparedStatement.class);
+  private DataSource dataSource;
+
+  @BeforeEach
+  void setUp() throws SQLException {
+    final Connection connection = mock(Connection.class);
+    when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+    final DataSource delegate = mock(DataSource.class);
+    when(delegate.getConnection()).thenReturn(connection);
+    dataSource = new StatementTimingDataSource(delegate, statementStats);
+  }
+
+  @Test
+  void query_isRecordedWithRowCountWhenResultSetIsClosed() throws SQLException {
+    final ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.next()).thenReturn(true, true, false);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+
+    final PreparedStatement statement = dataSource.getConnection()
+        .prepareStatement("SELECT case_id FROM vw_case_number WHERE case_number = ?");
+    statement.setString(1, "secret case number");
+    final ResultSet rows = statement.executeQuery();
+    while (rows.next()) {
+      rows.getLong(1);
+    }
+    verify(statementStats, never()).record(anyString(), eq(List.of("String")), anyLong(), anyLong());
+
+    rows.close();
+    statement.close();
+    verify(statementStats).record(
+        eq("SELECT case_id FROM vw_case_number WHERE case_number = ?"), eq(List.of("String")), anyLong(), eq(2L));
+  }
+
+  @Test
+  void update_isRecordedWithAffectedRows() throws SQLException {
+    when(preparedStatement.executeUpdate()).thenReturn(3);
+
+    final PreparedStatement statement = dataSource.getConnection()
+        .prepareStatement("UPDATE budget_header SET budget_edit_date = ? WHERE case_id = ?");
+    statement.setObject(1, null);
+    statement.setLong(2, 42L);
+    assertThat(statement.executeUpdate()).isEqualTo(3);
+
+    verify(statementStats).record(eq("UPDATE budget_header SET budget_edit_date = ? WHERE case_id = ?"),
+        eq(List.of("null", "Long")), anyLong(), eq(3L));
+  }
+
+  @Test
+  void batch_isRecordedWithTotalAffectedRows() throws SQLException {
+    when(preparedStatement.executeBatch()).thenReturn(new int[]{1, 1, PreparedStatement.SUCCESS_NO_INFO});
+
+    final PreparedStatement statement = dataSource.getConnection().prepareStatement("INSERT INTO person VALUES (?)");
+    statement.setInt(1, 7);
+    statement.executeBatch();
+
+    verify(statementStats).record(eq("INSERT INTO person VALUES (?)"), eq(List.of("Integer")), anyLong(), eq(2L));
+  }
+
+  @Test
+  void statements_getTimeoutOfTheirClass() throws SQLException {
+    final Connection connection = mock(Connection.class);
+    final PreparedStatement read = mock(PreparedStatement.class);
+    final PreparedStatement write = mock(PreparedStatement.class);
+    when(connection.getAutoCommit()).thenReturn(true, false);
+    when(connection.prepareStatement(anyString())).thenReturn(read, write);
+    final DataSource delegate = mock(DataSource.class);
+    when(delegate.getConnection()).thenReturn(connection);
+    final QueryTimeouts queryTimeouts = new QueryTimeouts(new ConnectorMetrics(),
+        Map.of(QueryClass.POSTING_READ, 10, QueryClass.POSTING_WRITE, 20));
+    final Connection timed = new StatementTimingDataSource(delegate, statementStats, queryTimeouts,
+        QueryClass.POSTING_READ, QueryClass.POSTING_WRITE).getConnection();
+
+    timed.prepareStatement("SELECT getdate()");
+    timed.prepareStatement("INSERT INTO budget_header (case_id, budget_edit_date) VALUES (?, ?)");
+
+    verify(read).setQueryTimeout(10);
+    verify(write).setQueryTimeout(20);
+  }
+
+  @Test
+  void timedOutStatement_isCountedByClass() throws SQLException {
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final ConnectorMetrics metrics = new ConnectorMetrics();
+    ((CompositeMeterRegistry) metrics.registry()).add(meterRegistry);
+    final QueryTimeouts queryTimeouts = new QueryTimeouts(metrics, Map.of(QueryClass.SYNC_SCAN, 300));
+    final DataSource delegate = mock(DataSource.class);
+    final Connection connection = mock(Connection.class);
+    when(delegate.getConnection()).thenReturn(connection);
+    when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenThrow(new SQLTimeoutException("The query has timed out."));
+
+    final PreparedStatement statement = new StatementTimingDataSource(delegate, statementStats, queryTimeouts,
+        QueryClass.SYNC_SCAN, QueryClass.SYNC_SCAN).getConnection()
+        .prepareStatement("SELECT TOP (?) case_id FROM vw_case_number");
+    assertThatThrownBy(statement::executeQuery)
+        .isInstanceOf(SQLTimeoutException.class);
+
+    verify(preparedStatement).setQueryTimeout(300);
+    assertThat(meterRegistry.get("patricia.db.statement.timeout").tag("class", "sync_scan").counter().count())
+        .isEqualTo(1);
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import io.wisetime.connector.patricia.util.ApiRateLimiter.Budget;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ApiRateLimiterTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private ApiRateLimiter limiter;
+
+  @BeforeEach
+  void setUp() {
+    // 8 sync calls and 2 posting calls per second
+    limiter = new ApiRateLimiter(ApiRateLimiter.Config.builder()
+        .callsPerSecond(10)
+        .postingSharePercent(20)
+        .build(), nanoTime::get, nanoTime::addAndGet);
+  }
+
+  @Test
+  void acquire_burstThenPaced() throws InterruptedException {
+    for (int i = 0; i < 8; i++) {
+      assertThat(limiter.acquire(Budget.SYNC))
+          .as("A second of calls is saved up")
+          .isZero();
+    }
+    assertThat(limiter.acquire(Budget.SYNC))
+        .as("A sync uses the calls of the idle posting budget")
+        .isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+
+    for (int i = 0; i < 79; i++) {
+      limiter.acquire(Budget.SYNC);
+    }
+    assertThat(nanoTime.get())
+        .as("Sustained calls are paced at the whole rate while posting is idle")
+        .isEqualTo(TimeUnit.SECONDS.toNanos(8));
+    assertThat(limiter.acquire(Budget.POSTING))
+        .as("Posting keeps its saved up calls")
+        .isZero();
+  }
+
+  @Test
+  void acquire_syncPacedAtItsShareWhilePosting() throws InterruptedException {
+    limiter.acquire(Budget.POSTING);
+    limiter.acquire(Budget.POSTING);
+    for (int i = 0; i < 8; i++) {
+      limiter.acquire(Budget.SYNC);
+    }
+
+    assertThat(limiter.acquire(Budget.SYNC))
+        .as("The posting budget is in use, so a sync gets its own share only")
+        .isEqualTo(TimeUnit.MILLISECONDS.toNanos(125));
+    assertThat(limiter.acquire(Budget.POSTING))
+        .as("The posting calls refilled meanwhile were not given to the sync")
+        .isEqualTo(TimeUnit.MILLISECONDS.toNanos(375));
+  }
+
+  @Test
+  void acquire_budgetsAreSeparate() throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      limiter.acquire(Budget.SYNC);
+    }
+
+    assertThat(limiter.acquire(Budget.POSTING))
+        .as("A bulk sync does not use up the posting budget")
+        .isZero();
+  }
+
+  @Test
+  void onThrottled_lowersRate() throws InterruptedException {
+    limiter.onThrottled();
+
+    assertThat(limiter.rate())
+        .isEqualTo(8, within(1e-9));
+    assertThat(limiter.acquire(Budget.SYNC))
+        .as("Calls saved up before the throttle response are dropped")
+        .isEqualTo(TimeUnit.MICROSECONDS.toNanos(156_250));
+  }
+
+  @Test
+  void onThrottled_onceForConcurrentResponses() {
+    limiter.onThrottled();
+    limiter.onThrottled();
+    assertThat(limiter.rate())
+        .isEqualTo(8, within(1e-9));
+
+    nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    limiter.onThrottled();
+    assertThat(limiter.rate())
+        .isEqualTo(6.4, within(1e-9));
+
+    for (int i = 0; i < 100; i++) {
+      nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+      limiter.onThrottled();
+    }
+    assertThat(limiter.rate())
+        .as("The rate does not drop below a twentieth of the configured rate")
+        .isEqualTo(0.5, within(1e-9));
+  }
+
+  @Test
+  void onSuccess_recoversUpToConfiguredRate() {
+    limiter.onThrottled();
+
+    for (int i = 0; i < 10; i++) {
+      limiter.onSuccess();
+    }
+    assertThat(limiter.rate())
+        .isEqualTo(9, within(1e-9));
+
+    for (int i = 0; i < 100; i++) {
+      limiter.onSuccess();
+    }
+    assertThat(limiter.rate())
+        .isEqualTo(10, within(1e-9));
+  }
+
+  @Test
+  void isThrottled() {
+    assertThat(ApiRateLimiter.isThrottled(new IOException("429 Too Many Requests\n{\"message\":\"Slow down\"}")))
+        .isTrue();
+    assertThat(ApiRateLimiter.isThrottled(new IOException("Upsert failed", new IOException("429"))))
+        .as("The status line may come without a reason phrase, and from a cause")
+        .isTrue();
+    assertThat(ApiRateLimiter.isThrottled(new IOException("500 Internal Server Error")))
+        .isFalse();
+  }
+
+  @Test
+  void isThrottled_notForOtherMentionsOf429() {
+    assertThat(ApiRateLimiter.isThrottled(new IOException("400 Bad Request\nTag P-429-US is invalid")))
+        .isFalse();
+    assertThat(ApiRateLimiter.isThrottled(new IOException("429-US is not a valid case number")))
+        .isFalse();
+    assertThat(ApiRateLimiter.isThrottled(new IOException("Request failed with status 429")))
+        .isFalse();
+    assertThat(ApiRateLimiter.isThrottled(new IOException("Too many requests for the tag 429 were rejected")))
+        .isFalse();
+  }
+
+  @Test
+  void config_postingShareMustLeaveRoomForSync() {
+    assertThatThrownBy(() -> new ApiRateLimiter(ApiRateLimiter.Config.builder()
+        .postingSharePercent(100)
+        .build()))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.wisetime.connector.patricia.util.CircuitBreaker.State;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+  private static final long FAST_CALL = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long SLOW_CALL = TimeUnit.SECONDS.toNanos(10);
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private CircuitBreaker breaker;
+
+  @BeforeEach
+  void setUp() {
+    breaker = new CircuitBreaker("test", CircuitBreaker.Config.builder()
+        .windowSize(10)
+        .minimumCalls(4)
+        .failureRateThresholdPercent(50)
+        .slowCallDuration(Duration.ofSeconds(5))
+        .openDuration(Duration.ofSeconds(30))
+        .halfOpenCalls(2)
+        .build(), nanoTime::get);
+  }
+
+  @Test
+  void staysClosed_belowFailureRate() {
+    call(FAST_CALL, false);
+    call(FAST_CALL, true);
+    call(FAST_CALL, false);
+    call(FAST_CALL, false);
+
+    assertThat(breaker.state())
+        .isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  void staysClosed_untilMinimumCalls() {
+    call(FAST_CALL, true);
+    call(FAST_CALL, true);
+    call(FAST_CALL, true);
+
+    assertThat(breaker.state())
+        .as("Too few calls to judge the failure rate")
+        .isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  void opens_onFailedAndSlowCalls() {
+    call(FAST_CALL, false);
+    call(FAST_CALL, true);
+    call(FAST_CALL, false);
+    call(SLOW_CALL, false);
+
+    assertThat(breaker.state())
+        .as("Slow calls count as failures")
+        .isEqualTo(State.OPEN);
+    assertThat(breaker.tryAcquirePermission())
+        .as("Calls fail fast while open")
+        .isFalse();
+  }
+
+  @Test
+  void halfOpen_closesAfterSuccessfulTrials() {
+    trip();
+    nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+    assertThat(breaker.tryAcquirePermission())
+        .isTrue();
+    assertThat(breaker.tryAcquirePermission())
+        .isTrue();
+    assertThat(breaker.tryAcquirePermission())
+        .as("Only a limited number of trial calls is let through")
+        .isFalse();
+    assertThat(breaker.state())
+        .isEqualTo(State.HALF_OPEN);
+
+    breaker.onResult(FAST_CALL, false);
+    breaker.onResult(FAST_CALL, false);
+    assertThat(breaker.state())
+        .isEqualTo(State.CLOSED);
+    assertThat(breaker.tryAcquirePermission())
+        .isTrue();
+  }
+
+  @Test
+  void halfOpen_reopensOnFailedTrial() {
+    trip();
+    nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+    call(FAST_CALL, true);
+
+    assertThat(breaker.state())
+        .isEqualTo(State.OPEN);
+    nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(29));
+    assertThat(breaker.tryAcquirePermission())
+        .as("The open duration starts over")
+        .isFalse();
+  }
+
+  private void trip() {
+    for (int i = 0; i < 4; i++) {
+      call(FAST_CALL, true);
+    }
+    assertThat(breaker.state())
+        .isEqualTo(State.OPEN);
+  }
+
+  private void call(long durationNanos, boolean failed) {
+    assertThat(breaker.tryAcquirePermission())
+        .isTrue();
+    breaker.onResult(durationNanos, failed);
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class LogFormatTest {
+
+  @Test
+  void lazy_computedWhenFormatted() {
+    final AtomicInteger calls = new AtomicInteger();
+    final Object argument = LogFormat.lazy(calls::incrementAndGet);
+
+    assertThat(calls)
+        .as("Nothing is computed until the message is formatted")
+        .hasValue(0);
+    assertThat(argument)
+        .hasToString("1");
+  }
+
+  @Test
+  void capped() {
+    assertThat(LogFormat.capped(List.of("P1001", "P1002", "P1003"), 2))
+        .hasToString("P1001, P1002 and 1 more");
+    assertThat(LogFormat.capped(List.of("P1001", "P1002"), 2))
+        .hasToString("P1001, P1002");
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2022 Practice Insight Pty Ltd. All Rights Reserved.
+ */
+
+package io.wisetime.connector.patricia.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class LogSamplerTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private final LogSampler sampler = new LogSampler(Duration.ofMinutes(1), nanoTime::get);
+
+  @Test
+  void sample_oncePerInterval() {
+    assertThat(sampler.sample())
+        .as("The first occurrence is always logged")
+        .hasValue(0);
+    assertThat(sampler.sample())
+        .isEmpty();
+    nanoTime.addAndGet(Duration.ofSeconds(59).toNanos());
+    assertThat(sampler.sample())
+        .isEmpty();
+
+    nanoTime.addAndGet(Duration.ofSeconds(1).toNanos());
+    assertThat(sampler.sample())
+        .as("Reports the skipped occurrences")
+        .hasValue(2);
+    assertThat(sampler.sample())
+        .isEmpty();
+  }
+}